@@ -19,8 +19,10 @@ import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -45,6 +47,7 @@ import com.predic8.membrane.core.exchangestore.LimitedMemoryExchangeStore;
 import com.predic8.membrane.core.interceptor.ExchangeStoreInterceptor;
 import com.predic8.membrane.core.interceptor.Interceptor;
 import com.predic8.membrane.core.interceptor.administration.AdminConsoleInterceptor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.ServiceProxy;
@@ -101,6 +104,7 @@ public class Router implements Lifecycle, ApplicationContextAware {
 	protected HotDeploymentThread hdt;
 	protected URIFactory uriFactory = new URIFactory(false);
 	protected Statistics statistics = new Statistics();
+	private final List<Runnable> shutdownListeners = new CopyOnWriteArrayList<Runnable>();
 
 	private boolean hotDeploy = true;
 	private boolean running;
@@ -205,6 +209,15 @@ public class Router implements Lifecycle, ApplicationContextAware {
 	 */
 	public void shutdown() throws IOException {
 		backgroundInitializator.shutdown();
+		for (Runnable listener : shutdownListeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				log.error("", e);
+			}
+		}
+		shutdownListeners.clear();
+		CompiledArtifactCache.getInstance().release(this);
 		if (transport != null)
 			transport.closeAll();
 	}
@@ -221,6 +234,14 @@ public class Router implements Lifecycle, ApplicationContextAware {
 		shutdown();
 	}
 
+	/**
+	 * Registers a task run by {@link #shutdown()}, for example to stop the threads or close the ports an interceptor
+	 * has started.
+	 */
+	public void addShutdownListener(Runnable listener) {
+		shutdownListeners.add(listener);
+	}
+
 	public ExecutorService getBackgroundInitializator() {
 		return backgroundInitializator;
 	}
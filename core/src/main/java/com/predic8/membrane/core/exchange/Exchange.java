@@ -17,6 +17,7 @@ package com.predic8.membrane.core.exchange;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -50,6 +51,11 @@ public class Exchange extends AbstractExchange {
 
 	private long id;
 
+	private int nodeAttempts;
+	private int[] nodeIndices;
+	private int[] nodeStatusCodes;
+	private Exception[] nodeExceptions;
+
 	public Exchange(AbstractHttpHandler handler) {
 		this.handler = handler;
 		this.id = hashCode();
@@ -193,4 +199,68 @@ public class Exchange extends AbstractExchange {
 	public void setId(long id) {
 		this.id = id;
 	}
+
+	/**
+	 * Records the status code received by attempt number <tt>tryCounter</tt> (see
+	 * {@link com.predic8.membrane.core.transport.http.HttpClient#call(Exchange)}).
+	 *
+	 * @param nodeIndex the index of the destination the attempt has contacted, within the exchange's original
+	 *            destinations
+	 */
+	public void setNodeStatusCode(int tryCounter, int nodeIndex, int code) {
+		ensureNodeAttempts(tryCounter);
+		nodeIndices[tryCounter] = nodeIndex;
+		nodeStatusCodes[tryCounter] = code;
+	}
+
+	/**
+	 * Records the exception which caused attempt number <tt>tryCounter</tt> to fail.
+	 *
+	 * @param nodeIndex the index of the destination the attempt has contacted, within the exchange's original
+	 *            destinations
+	 */
+	public void setNodeException(int tryCounter, int nodeIndex, Exception e) {
+		ensureNodeAttempts(tryCounter);
+		nodeIndices[tryCounter] = nodeIndex;
+		nodeExceptions[tryCounter] = e;
+	}
+
+	private void ensureNodeAttempts(int tryCounter) {
+		if (nodeStatusCodes == null || nodeStatusCodes.length <= tryCounter) {
+			int length = Math.max(tryCounter + 1, nodeStatusCodes == null ? 2 : nodeStatusCodes.length * 2);
+			nodeIndices = nodeIndices == null ? new int[length] : Arrays.copyOf(nodeIndices, length);
+			nodeStatusCodes = nodeStatusCodes == null ? new int[length] : Arrays.copyOf(nodeStatusCodes, length);
+			nodeExceptions = nodeExceptions == null ? new Exception[length] : Arrays.copyOf(nodeExceptions, length);
+		}
+		nodeAttempts = Math.max(nodeAttempts, tryCounter + 1);
+	}
+
+	/**
+	 * @return the number of attempts made to reach a destination
+	 */
+	public int getNodeAttempts() {
+		return nodeAttempts;
+	}
+
+	/**
+	 * @return the index of the destination contacted by the attempt (which is not necessarily the attempt number
+	 *         modulo the number of destinations, as destinations with an open circuit are skipped)
+	 */
+	public int getNodeIndex(int tryCounter) {
+		return tryCounter < nodeAttempts ? nodeIndices[tryCounter] : 0;
+	}
+
+	/**
+	 * @return the status code received by the attempt, 0 if none was received
+	 */
+	public int getNodeStatusCode(int tryCounter) {
+		return tryCounter < nodeAttempts ? nodeStatusCodes[tryCounter] : 0;
+	}
+
+	/**
+	 * @return the exception which caused the attempt to fail, or null
+	 */
+	public Exception getNodeException(int tryCounter) {
+		return tryCounter < nodeAttempts ? nodeExceptions[tryCounter] : null;
+	}
 }
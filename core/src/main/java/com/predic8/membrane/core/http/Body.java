@@ -31,6 +31,9 @@ import com.predic8.membrane.core.util.ByteUtil;
  *
  * The caller is responsible to adjust the header accordingly,
  * e.g. the fields Transfer-Encoding and Content-Length.
+ *
+ * As with {@link ChunkedBody}, {@link #getContentAsStream()} streams: Data is only read from the input as the stream
+ * is consumed. A copy of it is retained, so the body can still be forwarded (or read) afterwards.
  */
 public class Body extends AbstractBody {
 
@@ -45,6 +48,14 @@ public class Body extends AbstractBody {
 	private final InputStream inputStream;
 	private final int length;
 
+	private boolean bodyObserved;
+	private boolean bodyComplete;
+	/**
+	 * the number of bytes read by {@link #getContentAsStream()} so far
+	 */
+	private int streamedLength;
+	private byte[] streamBuffer;
+
 
 	public Body(InputStream in) throws IOException {
 		this(in, -1);
@@ -63,6 +74,69 @@ public class Body extends AbstractBody {
 		markAsRead(); // because we do not have something to read
 	}
 
+	@Override
+	public void read() throws IOException {
+		if (bodyObserved && !bodyComplete)
+			ByteUtil.readStream(getContentAsStream());
+		super.read();
+	}
+
+	@Override
+	public void write(AbstractBodyTransferrer out) throws IOException {
+		if (bodyObserved && !bodyComplete)
+			ByteUtil.readStream(getContentAsStream());
+		super.write(out);
+	}
+
+	@Override
+	protected void markAsRead() {
+		super.markAsRead();
+		bodyComplete = true;
+	}
+
+	@Override
+	public InputStream getContentAsStream() throws IOException {
+		if (bodyComplete && !bodyObserved)
+			return super.getContentAsStream();
+
+		read = true;
+
+		if (!bodyObserved) {
+			bodyObserved = true;
+			for (MessageObserver observer : observers)
+				observer.bodyRequested(this);
+			chunks.clear();
+		}
+
+		return new BodyInputStream(chunks) {
+			@Override
+			protected Chunk readNextChunk() throws IOException {
+				if (bodyComplete)
+					return null;
+				if (streamBuffer == null)
+					streamBuffer = new byte[BUFFER_SIZE];
+				int max = length == -1 ? BUFFER_SIZE : Math.min(BUFFER_SIZE, length - streamedLength);
+				int n = max == 0 ? -1 : inputStream.read(streamBuffer, 0, max);
+				if (n > 0) {
+					streamedLength += n;
+					byte[] chunk = new byte[n];
+					System.arraycopy(streamBuffer, 0, chunk, 0, n);
+					return new Chunk(chunk);
+				}
+
+				// mark the body as complete before notifying the observers, so
+				// that they may access the body's content
+				bodyComplete = true;
+
+				for (MessageObserver observer : observers)
+					observer.bodyComplete(Body.this);
+				observers.clear();
+
+				return null;
+			}
+		};
+	}
+
 	@Override
 	protected void readLocal() throws IOException {
 		chunks.add(new Chunk(ByteUtil.readByteArray(inputStream, length)));
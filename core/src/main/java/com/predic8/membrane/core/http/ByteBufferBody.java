@@ -0,0 +1,87 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A body backed by a {@link ByteBuffer}, for example a region of a memory-mapped file.
+ *
+ * When the body is sent without being read before, its content is copied from the buffer to the output stream in
+ * small pieces. The content is only copied onto the heap as a whole, if someone calls {@link #read()} (or one of the
+ * methods depending on it, like {@link #getContent()}).
+ */
+public class ByteBufferBody extends AbstractBody {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer the content between the buffer's position and limit is used as body. The buffer itself is
+	 *        never modified.
+	 */
+	public ByteBufferBody(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+	}
+
+	@Override
+	protected void readLocal() throws IOException {
+		byte[] content = new byte[buffer.capacity()];
+		buffer.duplicate().get(content);
+		chunks.add(new Chunk(content));
+	}
+
+	@Override
+	public int getLength() throws IOException {
+		if (!isRead())
+			return buffer.capacity();
+		return super.getLength();
+	}
+
+	@Override
+	protected void writeAlreadyRead(AbstractBodyTransferrer out) throws IOException {
+		if (getLength() == 0)
+			return;
+
+		out.write(getContent(), 0, getLength());
+		out.finish();
+	}
+
+	@Override
+	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
+		ByteBuffer source = buffer.duplicate();
+		byte[] b = new byte[Math.min(BUFFER_SIZE, source.remaining())];
+		while (source.hasRemaining()) {
+			int length = Math.min(b.length, source.remaining());
+			source.get(b, 0, length);
+			out.write(b, 0, length);
+		}
+		out.finish();
+
+		// the content is not retained: if someone is interested in it later on, it will be copied from the buffer
+		List<MessageObserver> observers = new ArrayList<MessageObserver>(this.observers);
+		this.observers.clear();
+		for (MessageObserver observer : observers)
+			observer.bodyComplete(this);
+	}
+
+	@Override
+	protected byte[] getRawLocal() throws IOException {
+		return getContent();
+	}
+}
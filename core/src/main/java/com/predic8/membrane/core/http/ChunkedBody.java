@@ -95,11 +95,14 @@ public class ChunkedBody extends AbstractBody {
 					inputStream.read(); // CR
 					inputStream.read(); // LF
 
+					// mark the body as complete before notifying the observers, so
+					// that they may access the body's content
+					bodyComplete = true;
+
 					for (MessageObserver observer : observers)
 						observer.bodyComplete(ChunkedBody.this);
 					observers.clear();
 
-					bodyComplete = true;
 					return null;
 				}
 			}
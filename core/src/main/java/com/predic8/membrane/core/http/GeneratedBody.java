@@ -0,0 +1,139 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A body whose content is generated by writing it to an {@link OutputStream}, for example by an XSLT transformation
+ * or by rewriting an XML document.
+ *
+ * When the body is sent without being read before, the content is generated while the body is sent: It is forwarded
+ * as it is written. As with {@link Body}, a copy is retained.
+ *
+ * <p>
+ * <b>Errors:</b> When the content is generated while it is sent, the message's header has already been sent. An
+ * error can then no longer be reported using a status code (like "500 Internal Server Error"): The exception is
+ * passed on to the transport, which closes the connection without finishing the body. The client therefore receives
+ * a truncated chunked message instead of an error response. To report errors properly, read the body (see
+ * {@link #read()}) before the message is sent; this buffers the whole content.
+ * </p>
+ */
+public abstract class GeneratedBody extends AbstractBody {
+
+	private IOException failure;
+
+	/**
+	 * Writes the content to <tt>out</tt>. Called at most once.
+	 */
+	protected abstract void generate(OutputStream out) throws Exception;
+
+	/**
+	 * Called once the content has been generated completely, which can then be accessed (e.g. using
+	 * {@link #getContent()}) without blocking.
+	 */
+	protected void completed() throws IOException {
+	}
+
+	/**
+	 * Sets the body of the message. If <tt>stream</tt> is set, the content will be generated while the message is
+	 * sent, using chunked transfer encoding. Otherwise (e.g. for HTTP/1.0 clients, which do not support chunked
+	 * transfer encoding), the content is generated at once.
+	 */
+	public void setBodyOf(Message message, boolean stream) throws IOException {
+		if (!stream) {
+			message.setBodyContent(getContent());
+			return;
+		}
+		Header header = message.getHeader();
+		header.removeFields(Header.CONTENT_LENGTH);
+		header.removeFields(Header.CONTENT_ENCODING);
+		header.setValue(Header.TRANSFER_ENCODING, Header.CHUNKED);
+		message.setBody(this);
+	}
+
+	private void generateChecked(OutputStream out) throws IOException {
+		// the input of the generator has been consumed by the failed attempt
+		if (failure != null)
+			throw failure;
+		try {
+			generate(out);
+		} catch (IOException e) {
+			failure = e;
+		} catch (Exception e) {
+			failure = new IOException(e);
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	@Override
+	public void read() throws IOException {
+		if (isRead())
+			return;
+		super.read();
+		completed();
+	}
+
+	@Override
+	protected void readLocal() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		generateChecked(baos);
+		chunks.add(new Chunk(baos.toByteArray()));
+	}
+
+	@Override
+	protected void writeAlreadyRead(AbstractBodyTransferrer out) throws IOException {
+		for (Chunk chunk : chunks)
+			if (chunk.getLength() > 0)
+				out.write(chunk);
+		out.finish();
+	}
+
+	@Override
+	protected void writeNotRead(final AbstractBodyTransferrer out) throws IOException {
+		chunks.clear();
+		// the buffer prevents small writes of the generator from becoming tiny chunks
+		OutputStream os = new BufferedOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return;
+				byte[] chunk = new byte[len];
+				System.arraycopy(b, off, chunk, 0, len);
+				Chunk c = new Chunk(chunk);
+				out.write(c);
+				chunks.add(c);
+			}
+		}, 8192);
+		generateChecked(os);
+		os.flush();
+		out.finish();
+		markAsRead();
+		completed();
+	}
+
+	@Override
+	protected byte[] getRawLocal() throws IOException {
+		return getContent();
+	}
+}
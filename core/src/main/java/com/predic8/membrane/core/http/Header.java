@@ -63,6 +63,8 @@ public class Header {
 
 	public static final String ACCEPT = "Accept";
 
+	public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
 	public static final String LOCATION = "Location";
 
 	public static final String AUTHORIZATION = "Authorization";
@@ -95,6 +97,22 @@ public class Header {
 
 	public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
 
+	public static final String IF_NONE_MATCH = "If-None-Match";
+
+	public static final String ETAG = "ETag";
+
+	public static final String VARY = "Vary";
+
+	public static final String AGE = "Age";
+
+	public static final String DATE = "Date";
+
+	public static final String WARNING = "Warning";
+
+	public static final String CONTENT_LOCATION = "Content-Location";
+
+	public static final String RETRY_AFTER = "Retry-After";
+
 	// Header field values
 
 	public static final String CHUNKED = "chunked";
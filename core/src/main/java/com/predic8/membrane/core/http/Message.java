@@ -20,12 +20,14 @@ import java.io.OutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
 
 import com.predic8.membrane.core.Constants;
-import com.predic8.membrane.core.multipart.XOPReconstitutor;
+import com.predic8.membrane.core.http.decoding.BodyDecoderPipeline;
+import com.predic8.membrane.core.http.decoding.ContentEncodingDecoder;
+import com.predic8.membrane.core.http.decoding.DecodedBody;
 import com.predic8.membrane.core.util.EndOfStreamException;
 import com.predic8.membrane.core.util.HttpUtil;
-import com.predic8.membrane.core.util.MessageUtil;
 
 /**
  * A HTTP message (request or response).
@@ -44,6 +46,8 @@ public abstract class Message {
 
 	private String errorMessage = "";
 
+	private volatile DecodedBody decoded;
+
 
 
 	public Message() {
@@ -95,44 +99,76 @@ public abstract class Message {
 		}
 	}
 
-	private static XOPReconstitutor xopr = new com.predic8.membrane.core.multipart.XOPReconstitutor();
-
 	/**
 	 * <p>Returns the logical body content.</p>
 	 *
-	 * <p>Any Transfer-Encodings (e.g. chunking) and/or Content-Encodings (e.g. gzip) have been unapplied.</p>
+	 * <p>Any Transfer-Encodings (e.g. chunking) and/or Content-Encodings (e.g. gzip) have been unapplied, XOP messages
+	 * have been reassembled (see {@link BodyDecoderPipeline}).</p>
 	 *
-	 * <p>Supports streaming: The HTTP message does not have to be completely received yet for this method to return.</p>
+	 * <p>Supports streaming: The HTTP message does not have to be completely received yet for this method to return.
+	 * Content-Encodings are removed and XOP messages are reassembled while the stream is read; the decoded content is
+	 * retained, so it is computed only once.</p>
 	 */
 	public InputStream getBodyAsStreamDecoded() {
-		// TODO: this logic should be split up into configurable decoding modules
-		// TODO: decoding result should be cached
 		try {
-			Message m = xopr.getReconstitutedMessage(this);
-			if (m != null)
-				return m.getBodyAsStream(); // we know decoding is not necessary any more
-			return MessageUtil.getContentAsStream(this);
+			return getDecodedBody().getStream();
 		} catch (Exception e) {
 			log.error("Could not decode body stream", e);
 			throw new RuntimeException("Could not decode body stream", e);
 		}
 	}
 
+	/**
+	 * <p>Returns the logical body content (see {@link #getBodyAsStreamDecoded()}).</p>
+	 *
+	 * <p>The result is cached: The array is shared and must not be modified.</p>
+	 *
+	 * <p>Blocks until the body has been fully received.</p>
+	 */
+	public byte[] getBodyAsBytesDecoded() {
+		try {
+			return getDecodedBody().getContent();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * <p>Returns the logical body content parsed as a namespace aware DOM document.</p>
+	 *
+	 * <p>The result is cached: The document is shared and must not be modified.</p>
+	 */
+	public Document getBodyAsDocumentDecoded() throws Exception {
+		return getDecodedBody().getDocument(getCharset());
+	}
+
+	/**
+	 * @return the cached decoding state of the current body. A new one is created, if the body or the header fields
+	 *         describing it have changed.
+	 */
+	public DecodedBody getDecodedBody() {
+		DecodedBody d = decoded;
+		if (d == null || !d.isValidFor(this))
+			decoded = d = BodyDecoderPipeline.getDefault().decode(this);
+		return d;
+	}
+
 	/**
 	 * <p>As this method has bad performance, it should <b>not</b> be used in any critical component.
 	 * (Use {@link #getBodyAsStreamDecoded()} instead.)</p>
 	 *
 	 * <p>Allocates a new {@link String} object for the whole body (potentially performing charset conversion).</p>
 	 *
-	 * <p>Blocks until the body has been fully received.</p>
+	 * <p>Only Content-Encodings (e.g. gzip) have been unapplied: XOP messages are <b>not</b> reassembled.</p>
 	 *
-	 * <p>(... and more bad internal performance)</p>
+	 * <p>Blocks until the body has been fully received.</p>
 	 *
 	 * @return the message's body as a Java String.
 	 */
 	public String getBodyAsStringDecoded() {
 		try {
-			return new String(MessageUtil.getContent(this), getCharset());
+			DecodedBody d = getDecodedBody();
+			return new String(d.getContent(d.getDecodedUpTo(ContentEncodingDecoder.class)), getCharset());
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -145,6 +181,7 @@ public abstract class Message {
 	 */
 	public void setBody(AbstractBody b) {
 		body = b;
+		decoded = null;
 	}
 
 	/**
@@ -152,6 +189,7 @@ public abstract class Message {
 	 */
 	public void setBodyContent(byte[] content) {
 		body = new Body(content);
+		decoded = null;
 		header.removeFields(Header.CONTENT_ENCODING);
 		header.removeFields(Header.TRANSFER_ENCODING);
 		header.setContentLength(content.length);
@@ -210,6 +210,13 @@ public class Response extends Message {
 				StringEscapeUtils.escapeHtml(text));
 	}
 
+	public static ResponseBuilder tooManyRequests(String message) {
+		return ResponseBuilder.newInstance().
+				status(429, "Too Many Requests").
+				contentType(MimeType.TEXT_HTML_UTF8).
+				body(htmlMessage("Too Many Requests", message));
+	}
+
 	public static ResponseBuilder serverUnavailable(String message) {
 		return ResponseBuilder.newInstance().
 				status(503, "Service Unavailable").
@@ -0,0 +1,32 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import com.predic8.membrane.core.http.Message;
+
+/**
+ * One step of the {@link BodyDecoderPipeline}: Turns an encoded representation of a message body into a decoded
+ * one.
+ */
+public interface BodyDecoder {
+
+	/**
+	 * Implementations should decide whether they apply based on the message's header, before reading the body.
+	 *
+	 * @return a message carrying the decoded body (and a header describing it), or null if the decoder does not
+	 *         apply to the message.
+	 */
+	public Message decode(Message message) throws Exception;
+
+}
@@ -0,0 +1,67 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.predic8.membrane.core.http.Message;
+
+/**
+ * The ordered list of {@link BodyDecoder}s used to compute the logical content of a message body.
+ *
+ * Transfer-Encodings (e.g. chunking) are not part of the pipeline: They are already removed by the
+ * {@link com.predic8.membrane.core.http.AbstractBody} implementations while the message is read.
+ *
+ * The default pipeline removes Content-Encodings and then reassembles XOP messages. Additional decoders can be
+ * registered using {@link #add(BodyDecoder)}; messages which already cached their decoded body are not affected.
+ */
+public class BodyDecoderPipeline {
+
+	private static final BodyDecoderPipeline DEFAULT = new BodyDecoderPipeline(new ContentEncodingDecoder(), new XOPDecoder());
+
+	public static BodyDecoderPipeline getDefault() {
+		return DEFAULT;
+	}
+
+	private final List<BodyDecoder> decoders = new CopyOnWriteArrayList<BodyDecoder>();
+
+	public BodyDecoderPipeline(BodyDecoder... decoders) {
+		for (BodyDecoder decoder : decoders)
+			this.decoders.add(decoder);
+	}
+
+	/**
+	 * Appends the decoder to the end of the pipeline.
+	 */
+	public void add(BodyDecoder decoder) {
+		decoders.add(decoder);
+	}
+
+	public void add(int index, BodyDecoder decoder) {
+		decoders.add(index, decoder);
+	}
+
+	public boolean remove(BodyDecoder decoder) {
+		return decoders.remove(decoder);
+	}
+
+	public List<BodyDecoder> getDecoders() {
+		return decoders;
+	}
+
+	public DecodedBody decode(Message message) {
+		return new DecodedBody(message, decoders.toArray(new BodyDecoder[0]));
+	}
+}
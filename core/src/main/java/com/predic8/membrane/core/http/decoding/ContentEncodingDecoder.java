@@ -0,0 +1,86 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.util.MessageUtil;
+
+/**
+ * Removes the "gzip" or "deflate" content coding.
+ *
+ * The decoded body is inflated while it is read: Neither the encoded nor the decoded content is buffered before the
+ * first decoded bytes are available.
+ */
+public class ContentEncodingDecoder implements BodyDecoder {
+
+	@Override
+	public Message decode(Message message) throws Exception {
+		if (!message.isGzip() && !message.isDeflate())
+			return null;
+		DecodedMessage m = new DecodedMessage();
+		Header header = new Header(message.getHeader());
+		header.removeFields(Header.CONTENT_ENCODING);
+		header.removeFields(Header.TRANSFER_ENCODING);
+		header.removeFields(Header.CONTENT_LENGTH);
+		m.setHeader(header);
+		m.setBody(new Body(new ClosingInputStream(MessageUtil.getContentAsStream(message))));
+		return m;
+	}
+
+	/**
+	 * Closes the inflating stream as soon as its end is reached, as {@link Body} never closes its input stream: This
+	 * releases the native memory of the {@link java.util.zip.Inflater}.
+	 */
+	private static class ClosingInputStream extends FilterInputStream {
+		private boolean closed;
+
+		public ClosingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (closed)
+				return -1;
+			int b = super.read();
+			if (b == -1)
+				close();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				return -1;
+			int n = super.read(b, off, len);
+			if (n == -1)
+				close();
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.Message;
+
+/**
+ * Caches the results of a {@link BodyDecoderPipeline} for one message body.
+ *
+ * Each stage of the pipeline is computed at most once, when it is first needed. The cache is only valid as long as
+ * the message still carries the same body object and the same <tt>Content-Encoding</tt> and <tt>Content-Type</tt>
+ * (see {@link #isValidFor(Message)}).
+ *
+ * If no decoder applies to the message, the body is not buffered: {@link #getStream()} then supports streaming. The
+ * same holds for decoders producing bodies which stream themselves (like the inflated or the reassembled XOP message).
+ */
+public class DecodedBody {
+
+	private static final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	static {
+		dbf.setNamespaceAware(true);
+	}
+
+	private final Message message;
+	private final BodyDecoder[] decoders;
+	private final AbstractBody source;
+	private final String contentEncoding;
+	private final String contentType;
+
+	/**
+	 * results[i] is the message after decoders[0..i] have been applied
+	 */
+	private final Message[] results;
+	private int computed;
+	private byte[] content;
+	private Document document;
+
+	public DecodedBody(Message message, BodyDecoder[] decoders) {
+		this.message = message;
+		this.decoders = decoders;
+		this.source = message.getBody();
+		this.contentEncoding = message.getHeader().getContentEncoding();
+		this.contentType = message.getHeader().getContentType();
+		this.results = new Message[decoders.length];
+	}
+
+	public boolean isValidFor(Message message) {
+		return message == this.message && message.getBody() == source &&
+				equals(contentEncoding, message.getHeader().getContentEncoding()) &&
+				equals(contentType, message.getHeader().getContentType());
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * @return the message after the first <tt>n</tt> decoders have been applied
+	 */
+	private synchronized Message getDecoded(int n) throws Exception {
+		while (computed < n) {
+			Message previous = computed == 0 ? message : results[computed - 1];
+			Message result = decoders[computed].decode(previous);
+			results[computed++] = result == null ? previous : result;
+		}
+		return n == 0 ? message : results[n - 1];
+	}
+
+	/**
+	 * @return the message after all decoders have been applied, or the original message, if no decoder applied
+	 */
+	public Message getDecoded() throws Exception {
+		return getDecoded(decoders.length);
+	}
+
+	/**
+	 * @return the message after all decoders up to (and including) the last one of the given class have been
+	 *         applied
+	 */
+	public Message getDecodedUpTo(Class<? extends BodyDecoder> clazz) throws Exception {
+		for (int i = decoders.length - 1; i >= 0; i--)
+			if (clazz.isInstance(decoders[i]))
+				return getDecoded(i + 1);
+		return message;
+	}
+
+	public boolean isIdentity() throws Exception {
+		return getDecoded() == message;
+	}
+
+	/**
+	 * @return the decoded body as a stream. If no decoder applied, the stream supports streaming.
+	 */
+	public InputStream getStream() throws Exception {
+		if (isIdentity())
+			return message.getBodyAsStream();
+		synchronized (this) {
+			if (content != null)
+				return new ByteArrayInputStream(content);
+		}
+		return getDecoded().getBody().getContentAsStream();
+	}
+
+	/**
+	 * @return the decoded body. The array is shared and must not be modified.
+	 */
+	public synchronized byte[] getContent() throws Exception {
+		if (content == null)
+			content = getDecoded().getBody().getContent();
+		return content;
+	}
+
+	/**
+	 * @return the content of the given stage (see {@link #getDecodedUpTo(Class)}). The array may be shared and must
+	 *         not be modified.
+	 */
+	public byte[] getContent(Message stage) throws Exception {
+		if (stage == getDecoded())
+			return getContent();
+		return stage.getBody().getContent();
+	}
+
+	/**
+	 * @return the content type of the decoded body
+	 */
+	public String getContentType() throws Exception {
+		return getDecoded().getHeader().getContentType();
+	}
+
+	/**
+	 * @return the decoded body parsed as XML. The document is shared and must not be modified.
+	 */
+	public synchronized Document getDocument(String charset) throws Exception {
+		if (document == null) {
+			DocumentBuilder db;
+			synchronized (dbf) {
+				db = dbf.newDocumentBuilder();
+			}
+			InputSource is = new InputSource(getStream());
+			if (charset != null)
+				is.setEncoding(charset);
+			document = db.parse(is);
+		}
+		return document;
+	}
+}
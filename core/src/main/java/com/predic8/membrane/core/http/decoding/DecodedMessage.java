@@ -0,0 +1,43 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.util.EndOfStreamException;
+
+/**
+ * A message created by a {@link BodyDecoder} to carry a decoded body.
+ */
+public class DecodedMessage extends Message {
+
+	public DecodedMessage() {
+	}
+
+	public DecodedMessage(byte[] content) {
+		setBodyContent(content);
+	}
+
+	@Override
+	protected void parseStartLine(InputStream in) throws IOException, EndOfStreamException {
+		throw new RuntimeException("not implemented.");
+	}
+
+	@Override
+	public String getStartLine() {
+		throw new RuntimeException("not implemented.");
+	}
+}
@@ -0,0 +1,41 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.multipart.XOPReconstitutor;
+
+/**
+ * Reassembles multipart XOP messages into one XML document.
+ *
+ * A message which cannot be reassembled is passed on unchanged (as before the decoder pipeline existed).
+ */
+public class XOPDecoder implements BodyDecoder {
+	private static Log log = LogFactory.getLog(XOPDecoder.class.getName());
+
+	private final XOPReconstitutor xopr = new XOPReconstitutor();
+
+	@Override
+	public Message decode(Message message) throws Exception {
+		try {
+			return xopr.getReconstitutedMessage(message);
+		} catch (Exception e) {
+			log.warn("", e);
+			return null;
+		}
+	}
+}
@@ -114,6 +114,13 @@ public class HTTPClientInterceptor extends AbstractInterceptor {
 		this.adjustHostHeader = adjustHostHeader;
 	}
 
+	/**
+	 * @return the client, once the interceptor has been initialized
+	 */
+	public HttpClient getHttpClient() {
+		return hc;
+	}
+
 	public HttpClientConfiguration getHttpClientConfig() {
 		return httpClientConfig;
 	}
@@ -0,0 +1,161 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.core.http.Header;
+
+/**
+ * Remembers the documents rewritten by a {@link WSDLInterceptor}, so that an unchanged document is not rewritten
+ * again on every request.
+ *
+ * Documents are keyed by their backend URL and the protocol, host and port they were relocated to. A cached document
+ * is reused as long as the backend sends the same validators (<tt>ETag</tt>, <tt>Last-Modified</tt>) and
+ * <tt>Content-Type</tt>. If the backend sends no validators, a cached document is only reused for a limited time.
+ *
+ * The least recently used documents are evicted, if there are more than {@link #setMaxSize(int) maxSize}.
+ */
+class RelocatedDocumentCache {
+
+	static class Entry {
+		private final String etag;
+		private final String lastModified;
+		private final String contentType;
+		private final long created = System.currentTimeMillis();
+
+		private byte[] content;
+		private boolean wsdlFound;
+
+		private Entry(Header header) {
+			etag = header.getFirstValue(Header.ETAG);
+			lastModified = header.getFirstValue(Header.LAST_MODIFIED);
+			contentType = header.getContentType();
+		}
+
+		private boolean hasValidators() {
+			return etag != null || lastModified != null;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public boolean isWsdlFound() {
+			return wsdlFound;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxSize;
+		}
+	};
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile int maxSize;
+	private volatile long ttl;
+
+	public RelocatedDocumentCache(int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+	}
+
+	public static String getKey(String url, String protocol, String host, int port) {
+		return url + " " + protocol + "://" + host + ":" + port;
+	}
+
+	/**
+	 * @return the cached document, if it is still valid for a backend response with the given header, or null
+	 */
+	public Entry get(String key, Header header) {
+		if (maxSize <= 0)
+			return null;
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry == null || !isValid(entry, new Entry(header))) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry;
+	}
+
+	private boolean isValid(Entry cached, Entry current) {
+		if (!equals(cached.contentType, current.contentType))
+			return false;
+		if (!cached.hasValidators() && !current.hasValidators())
+			return current.created - cached.created < ttl;
+		return equals(cached.etag, current.etag) && equals(cached.lastModified, current.lastModified);
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * @return a new entry holding the validators of the backend response with the given header, to be
+	 *         {@link #put(String, Entry, byte[], boolean)} once the document has been rewritten.
+	 */
+	public Entry newEntry(Header header) {
+		return new Entry(header);
+	}
+
+	public void put(String key, Entry entry, byte[] content, boolean wsdlFound) {
+		if (maxSize <= 0)
+			return;
+		entry.content = content;
+		entry.wsdlFound = wsdlFound;
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		synchronized (entries) {
+			Iterator<Entry> it = entries.values().iterator();
+			while (entries.size() > Math.max(maxSize, 0) && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	public void setTTL(long ttl) {
+		this.ttl = ttl;
+	}
+}
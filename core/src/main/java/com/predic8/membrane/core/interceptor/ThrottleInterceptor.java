@@ -47,17 +47,12 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 			log.debug("delaying for "+delay+"ms");
 			Thread.sleep(delay);
 		}
-		if ( maxThreads > 0 && threads >= maxThreads ) {
-			log.debug("Max thread limit of "+maxThreads+" reached. Waiting "+busyDelay+"ms");
-			Thread.sleep(busyDelay);
-			if ( threads >= maxThreads ) {
-				log.info("Max thread limit of " +maxThreads+ " reached. Server Busy.");
-				exc.setResponse(Response.serverUnavailable("Server busy.").build());
-				return Outcome.ABORT;
-			}
+		if (!increaseThreads()) {
+			log.info("Max thread limit of " +maxThreads+ " reached. Server Busy.");
+			exc.setResponse(Response.serverUnavailable("Server busy.").build());
+			return Outcome.ABORT;
 		}
-		increaseThreads();
-		log.debug("thread count increased: "+threads);
+		log.debug("thread count increased");
 		return Outcome.CONTINUE;
 	}
 
@@ -65,23 +60,40 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 	@Override
 	public Outcome handleResponse(Exchange exc) throws Exception {
 		decreaseThreads();
-		log.debug("thread count decreased: "+threads);
+		log.debug("thread count decreased");
 		return Outcome.CONTINUE;
 	}
 
 	@Override
 	public void handleAbort(Exchange exchange) {
 		decreaseThreads();
-		log.debug("thread count decreased: "+threads);
+		log.debug("thread count decreased");
 	}
 
 
 	private synchronized void decreaseThreads() {
 		--threads;
+		notify();
 	}
 
-	private synchronized void increaseThreads() {
+	/**
+	 * Waits at most busyDelay milliseconds for a running request to terminate, if maxThreads is reached.
+	 *
+	 * @return whether the thread count has been increased
+	 */
+	private synchronized boolean increaseThreads() throws InterruptedException {
+		if (maxThreads > 0 && threads >= maxThreads) {
+			log.debug("Max thread limit of "+maxThreads+" reached. Waiting "+busyDelay+"ms");
+			long deadline = System.currentTimeMillis() + busyDelay;
+			while (threads >= maxThreads) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return false;
+				wait(remaining);
+			}
+		}
 		++threads;
+		return true;
 	}
 
 	public long getDelay() {
@@ -104,6 +116,7 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 
 	/**
 	 * @description If non-zero, newly incoming request are aborted if the number of running requests has reached this limit.
+	 *              See <i>adaptiveConcurrency</i> for a limit adapting itself to the backend's response times.
 	 * @default 0
 	 * @example 5
 	 */
@@ -117,8 +130,8 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 	}
 
 	/**
-	 * @description If a newly incoming request exceeds maxThreads, the interceptor waits the specified number in
-	 *              milliseconds and retries once before aborting the request.
+	 * @description If a newly incoming request exceeds maxThreads, the interceptor waits at most the specified number
+	 *              of milliseconds for a running request to terminate before aborting the request.
 	 * @default 0
 	 * @example 3000
 	 */
@@ -19,12 +19,14 @@ import static com.predic8.membrane.core.Constants.WSDL_SOAP11_NS;
 import static com.predic8.membrane.core.Constants.WSDL_SOAP12_NS;
 import static com.predic8.membrane.core.Constants.XSD_NS;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -39,6 +41,7 @@ import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.GeneratedBody;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.transport.http.HttpClient;
@@ -48,6 +51,8 @@ import com.predic8.membrane.core.ws.relocator.Relocator;
 /**
  * @description
  * 		<p>The <i>wsdlRewriter</i> rewrites endpoint addresses of services and XML Schema locations in WSDL documents.</p>
+ * 		<p>Rewritten documents are cached. A cached document is reused as long as the backend's <tt>ETag</tt> and
+ * 		<tt>Last-Modified</tt> headers do not change or, if the backend sends neither, for <i>cacheTTL</i> seconds.</p>
  * @topic 8. SOAP based Web Services
  */
 @MCElement(name="wsdlRewriter")
@@ -58,6 +63,9 @@ public class WSDLInterceptor extends RelocatingInterceptor {
 	private String registryWSDLRegisterURL;
 	private boolean rewriteEndpoint = true;
 	private HttpClient hc;
+	private int cacheSize = 100;
+	private int cacheTTL = 60;
+	private final RelocatedDocumentCache cache = new RelocatedDocumentCache(cacheSize, cacheTTL * 1000L);
 
 	public WSDLInterceptor() {
 		name = "WSDL Rewriting Interceptor";
@@ -71,15 +79,57 @@ public class WSDLInterceptor extends RelocatingInterceptor {
 	}
 
 	@Override
-	protected void rewrite(Exchange exc) throws Exception, IOException {
+	protected void rewrite(final Exchange exc) throws Exception, IOException {
+		Response response = exc.getResponse();
+		final String key = RelocatedDocumentCache.getKey(getBackendURL(exc), getLocationProtocol(),
+				getLocationHost(exc), getLocationPort(exc));
+
+		RelocatedDocumentCache.Entry cached = response.getStatusCode() == 200 ? cache.get(key, response.getHeader()) : null;
+		if (cached != null) {
+			log.debug("Using cached rewritten WSDL");
+			// the backend's body has to be received anyway
+			response.getBody().read();
+			if (cached.isWsdlFound())
+				registerWSDL(exc);
+			response.setBodyContent(cached.getContent());
+			return;
+		}
 
 		log.debug("Changing endpoint address in WSDL");
 
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final RelocatedDocumentCache.Entry entry = response.getStatusCode() == 200 ? cache.newEntry(response.getHeader()) : null;
+		final String charset = response.getCharset();
+		final InputStream body = response.getBodyAsStreamDecoded();
+		final String protocol = getLocationProtocol();
+		final String host = getLocationHost(exc);
+		final int port = getLocationPort(exc);
+		final boolean[] wsdlFound = new boolean[1];
+
+		GeneratedBody relocated = new GeneratedBody() {
+			@Override
+			protected void generate(OutputStream out) throws Exception {
+				Writer writer = new OutputStreamWriter(out, charset);
+				Relocator relocator = createRelocator(writer, protocol, host, port);
+				relocator.relocate(new InputStreamReader(body, charset));
+				writer.flush();
+				wsdlFound[0] = relocator.isWsdlFound();
+			}
+
+			@Override
+			protected void completed() throws IOException {
+				if (wsdlFound[0])
+					registerWSDL(exc);
+				if (entry != null)
+					cache.put(key, entry, getContent(), wsdlFound[0]);
+			}
+		};
+		// the document is rewritten while it is sent to the client (HTTP/1.0 clients do not support chunked
+		// transfer encoding, though)
+		relocated.setBodyOf(response, !exc.getRequest().isHTTP10());
+	}
 
-		Relocator relocator = new Relocator(new OutputStreamWriter(stream,
-				exc.getResponse().getCharset()), getLocationProtocol(), getLocationHost(exc),
-				getLocationPort(exc), pathRewriter);
+	private Relocator createRelocator(Writer writer, String protocol, String host, int port) throws Exception {
+		Relocator relocator = new Relocator(writer, protocol, host, port, pathRewriter);
 
 		if (rewriteEndpoint) {
 			relocator.getRelocatingAttributes().put(
@@ -93,13 +143,13 @@ public class WSDLInterceptor extends RelocatingInterceptor {
 				"schemaLocation");
 		relocator.getRelocatingAttributes().put(new QName(XSD_NS, "include"),
 				"schemaLocation");
+		return relocator;
+	}
 
-		relocator.relocate(new InputStreamReader(exc.getResponse().getBodyAsStreamDecoded(), exc.getResponse().getCharset()));
-
-		if (relocator.isWsdlFound()) {
-			registerWSDL(exc);
-		}
-		exc.getResponse().setBodyContent(stream.toByteArray());
+	private String getBackendURL(Exchange exc) {
+		if (!exc.getDestinations().isEmpty())
+			return exc.getDestinations().get(0);
+		return exc.getRequestURI();
 	}
 
 	private void registerWSDL(Exchange exc) {
@@ -171,6 +221,39 @@ public class WSDLInterceptor extends RelocatingInterceptor {
 		return registryWSDLRegisterURL;
 	}
 
+	RelocatedDocumentCache getCache() {
+		return cache;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @description The maximum number of rewritten documents to cache. 0 disables caching.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		cache.setMaxSize(cacheSize);
+	}
+
+	public int getCacheTTL() {
+		return cacheTTL;
+	}
+
+	/**
+	 * @description How long (in seconds) a cached document is reused, if the backend did not send an <tt>ETag</tt>
+	 *              or <tt>Last-Modified</tt> header.
+	 * @default 60
+	 */
+	@MCAttribute
+	public void setCacheTTL(int cacheTTL) {
+		this.cacheTTL = cacheTTL;
+		cache.setTTL(cacheTTL * 1000L);
+	}
+
 	@Override
 	public String getShortDescription() {
 		return "Rewrites SOAP endpoint addresses and XML Schema locations in WSDL and XSD documents.";
@@ -220,6 +303,10 @@ public class WSDLInterceptor extends RelocatingInterceptor {
 		} else {
 			sb.append(".");
 		}
+		if (cacheSize > 0) {
+			sb.append("<br/>");
+			sb.append("Cached documents: " + cache.size() + " (" + cache.getHits() + " hits, " + cache.getMisses() + " misses)");
+		}
 		return sb.toString();
 	}
 
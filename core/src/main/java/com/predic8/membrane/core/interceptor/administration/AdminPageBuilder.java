@@ -45,6 +45,7 @@ import com.googlecode.jatl.Html;
 import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.HTTPClientInterceptor;
 import com.predic8.membrane.core.interceptor.Interceptor;
 import com.predic8.membrane.core.interceptor.Interceptor.Flow;
 import com.predic8.membrane.core.interceptor.balancer.Balancer;
@@ -60,6 +61,9 @@ import com.predic8.membrane.core.rules.AbstractServiceProxy;
 import com.predic8.membrane.core.rules.ProxyRule;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.StatisticCollector;
+import com.predic8.membrane.core.transport.http.CircuitBreaker;
+import com.predic8.membrane.core.transport.http.CircuitBreakers;
+import com.predic8.membrane.core.transport.http.HttpClient;
 import com.predic8.membrane.core.transport.http.StreamPump;
 import com.predic8.membrane.core.util.TextUtil;
 
@@ -501,7 +505,7 @@ public class AdminPageBuilder extends Html {
 		table().attr("cellpadding", "0", "cellspacing", "0", "border", "0", "class", "display nodesTable");
 		thead();
 		tr();
-		createThs("Node", "Status", "Count", "Errors", "Time since last up", "Sessions", "Current Threads", "Action");
+		createThs("Node", "Status", "Count", "Errors", "Time since last up", "Sessions", "Current Threads", "Circuit", "Action");
 		end();
 		end();
 		tbody();
@@ -515,7 +519,8 @@ public class AdminPageBuilder extends Html {
 					String.format("%1$.2f%%", n.getErrors()*100),
 					formatDurationHMS(System.currentTimeMillis()-n.getLastUpTime()),
 					""+BalancerUtil.lookupBalancer(router, balancerName).getSessionsByNode(params.get("cluster"),n).size(),
-					""+n.getThreads());
+					""+n.getThreads(),
+					getCircuitState(n));
 			td();
 			createIcon("ui-icon-eject", "node", "takeout", "takeout", createQuery4Node(n));
 			createIcon("ui-icon-circle-arrow-n", "node", "up", "up", createQuery4Node(n));
@@ -530,6 +535,70 @@ public class AdminPageBuilder extends Html {
 		script().raw("$(document).ready(function() { $('.nodesTable').dataTable({'bJQueryUI': true, \"bPaginate\": false}); } );").end();
 	}
 
+	/**
+	 * @return the circuit breakers of the HTTP clients used by the transport and the proxies
+	 */
+	protected List<CircuitBreakers> getCircuitBreakers() {
+		List<CircuitBreakers> result = new ArrayList<CircuitBreakers>();
+		addCircuitBreakers(result, router.getTransport().getInterceptors());
+		for (Rule r : router.getRuleManager().getRules())
+			addCircuitBreakers(result, r.getInterceptors());
+		return result;
+	}
+
+	private void addCircuitBreakers(List<CircuitBreakers> result, List<Interceptor> interceptors) {
+		for (Interceptor i : interceptors) {
+			if (!(i instanceof HTTPClientInterceptor))
+				continue;
+			HttpClient hc = ((HTTPClientInterceptor) i).getHttpClient();
+			if (hc != null && hc.getCircuitBreakers() != null && !result.contains(hc.getCircuitBreakers()))
+				result.add(hc.getCircuitBreakers());
+		}
+	}
+
+	/**
+	 * @return the circuit breaker of the destination, or null if there is none
+	 */
+	protected CircuitBreaker getCircuitBreaker(String host, int port) {
+		for (CircuitBreakers breakers : getCircuitBreakers()) {
+			CircuitBreaker breaker = breakers.getBreaker(host, port);
+			if (breaker != null)
+				return breaker;
+		}
+		return null;
+	}
+
+	private String getCircuitState(Node n) {
+		CircuitBreaker breaker = getCircuitBreaker(n.getHost(), n.getPort());
+		return breaker == null ? "-" : "" + breaker.getState();
+	}
+
+	protected void createCircuitBreakersTable() {
+		table().attr("cellpadding", "0", "cellspacing", "0", "border", "0", "class", "display", "id", "circuitbreaker-table");
+		thead();
+		tr();
+		createThs("Destination", "State", "Calls", "Failure Rate", "Slow Call Rate", "Opened", "Rejected Calls");
+		end();
+		end();
+		tbody();
+		for (CircuitBreakers breakers : getCircuitBreakers()) {
+			for (CircuitBreaker breaker : breakers.getBreakers()) {
+				tr().style("text-align: right;");
+				td().style("text-align:left;").text(breaker.getDestination()).end();
+				createTds(
+						""+breaker.getState(),
+						""+breaker.getCalls(),
+						breaker.getFailureRate() + "%",
+						breaker.getSlowCallRate() + "%",
+						""+breaker.getOpened(),
+						""+breaker.getRejected());
+				end();
+			}
+		}
+		end();
+		end();
+	}
+
 	private String getStatusString(Node n) {
 		switch (n.getStatus()) {
 		case TAKEOUT:
@@ -44,6 +44,7 @@ import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.interceptor.balancer.Balancer;
 import com.predic8.membrane.core.interceptor.balancer.BalancerUtil;
 import com.predic8.membrane.core.interceptor.balancer.Node;
+import com.predic8.membrane.core.interceptor.balancer.SessionTable;
 import com.predic8.membrane.core.rules.AbstractServiceProxy;
 import com.predic8.membrane.core.rules.ProxyRule;
 import com.predic8.membrane.core.rules.ProxyRuleKey;
@@ -51,6 +52,7 @@ import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.ServiceProxy;
 import com.predic8.membrane.core.rules.ServiceProxyKey;
 import com.predic8.membrane.core.transport.PortOccupiedException;
+import com.predic8.membrane.core.transport.http.CircuitBreaker;
 import com.predic8.membrane.core.util.DateUtil;
 import com.predic8.membrane.core.util.URLParamUtil;
 import com.predic8.membrane.core.util.URLUtil;
@@ -252,6 +254,11 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 
 				h3().text("Transport Interceptors").end();
 				createInterceptorTable(router.getTransport().getInterceptors());
+
+				if (!getCircuitBreakers().isEmpty()) {
+					h3().text("Circuit Breakers").end();
+					createCircuitBreakersTable();
+				}
 			}
 
 		}.createPage());
@@ -336,6 +343,9 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 				p().text("Total requests: " + n.getCounter()).end();
 				p().text("Current threads: " + n.getThreads()).end();
 				p().text("Requests without responses: " + n.getLost()).end();
+				CircuitBreaker breaker = getCircuitBreaker(n.getHost(), n.getPort());
+				if (breaker != null)
+					p().text("Circuit: " + breaker).end();
 				span().classAttr("mb-button");
 				createLink("Reset Counter", "node", "reset", createQueryString("balancer", balancer, "cluster",params.get("cluster"),"host",n.getHost(),"port", ""+n.getPort()));
 				end();
@@ -514,6 +524,9 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 				String balancer = getBalancerParam(params);
 				h2().text("Cluster " + params.get("cluster") + " of Balancer " + balancer).end();
 				createNodesTable(balancer);
+				SessionTable sessions = BalancerUtil.lookupBalancer(router, balancer).getSessions(params.get("cluster"));
+				p().text("Sessions: " + sessions.size() + " (hits: " + sessions.getHits() + ", misses: " +
+						sessions.getMisses() + ", evictions: " + sessions.getEvictions() + ")").end();
 				createAddNodeForm(balancer);
 			}
 
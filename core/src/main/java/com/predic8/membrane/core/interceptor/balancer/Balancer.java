@@ -35,11 +35,14 @@ public class Balancer extends AbstractXmlElement {
 	private String name = DEFAULT_NAME;
 	private long timeout = 0;
 	private SessionCleanupThread sct;
+	private int maxSessions = SessionTable.DEFAULT_MAX_SESSIONS;
+	private boolean offHeapSessions;
+	private volatile SessionReplication replication;
 
 	public Balancer() {
-		addCluster(Cluster.DEFAULT_NAME);
 		sct = new SessionCleanupThread(clusters);
 		sct.start();
+		addCluster(Cluster.DEFAULT_NAME);
 	}
 
 	@Override
@@ -68,6 +71,38 @@ public class Balancer extends AbstractXmlElement {
 			}
 			sct.setSessionTimeout(sessionTimeout);
 		}
+		for (Cluster c : getClusters())
+			c.getSessions().setTimeout(sessionTimeout);
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/**
+	 * Replaces the session tables of all clusters.
+	 */
+	public void setMaxSessions(int maxSessions) {
+		this.maxSessions = maxSessions;
+		for (Cluster c : getClusters())
+			c.setSessions(createSessionTable());
+	}
+
+	public boolean isOffHeapSessions() {
+		return offHeapSessions;
+	}
+
+	/**
+	 * Replaces the session tables of all clusters.
+	 */
+	public void setOffHeapSessions(boolean offHeapSessions) {
+		this.offHeapSessions = offHeapSessions;
+		for (Cluster c : getClusters())
+			c.setSessions(createSessionTable());
+	}
+
+	private SessionTable createSessionTable() {
+		return new SessionTable(maxSessions, offHeapSessions, getSessionTimeout());
 	}
 
 	public long getTimeout() {
@@ -84,13 +119,14 @@ public class Balancer extends AbstractXmlElement {
 
 			@Override
 			public boolean add(Cluster e) {
+				e.setSessions(createSessionTable());
 				Balancer.this.clusters.put(e.getName(), e);
 				return super.add(e);
 			}
 		};
 	}
 
-	private Cluster getCluster(String name) {
+	Cluster getCluster(String name) {
 		if (!clusters.containsKey(name)) // backward-compatibility: auto create
 			// clusters as they are accessed
 			addCluster(name);
@@ -102,7 +138,9 @@ public class Balancer extends AbstractXmlElement {
 			return false;
 		log.debug("adding cluster with name [" + name + "] to balancer ["
 				+ name + "]");
-		clusters.put(name, new Cluster(name));
+		Cluster cluster = new Cluster(name);
+		cluster.setSessions(createSessionTable());
+		clusters.put(name, cluster);
 		return true;
 	}
 
@@ -112,20 +150,31 @@ public class Balancer extends AbstractXmlElement {
 	@MCChildElement
 	public void setClusters(List<Cluster> clusters) {
 		this.clusters.clear();
-		for (Cluster cluster : clusters)
+		for (Cluster cluster : clusters) {
+			cluster.setSessions(createSessionTable());
 			this.clusters.put(cluster.getName(), cluster);
+		}
 	}
 
 	public void up(String cName, String host, int port) {
 		getCluster(cName).nodeUp(new Node(host, port));
+		SessionReplication r = replication;
+		if (r != null)
+			r.nodeStatusChanged(cName, host, port, Node.Status.UP);
 	}
 
 	public void down(String cName, String host, int port) {
 		getCluster(cName).nodeDown(new Node(host, port));
+		SessionReplication r = replication;
+		if (r != null)
+			r.nodeStatusChanged(cName, host, port, Node.Status.DOWN);
 	}
 
 	public void takeout(String cName, String host, int port) {
 		getCluster(cName).nodeTakeOut(new Node(host, port));
+		SessionReplication r = replication;
+		if (r != null)
+			r.nodeStatusChanged(cName, host, port, Node.Status.TAKEOUT);
 	}
 
 	public List<Node> getAllNodesByCluster(String cName) {
@@ -138,6 +187,9 @@ public class Balancer extends AbstractXmlElement {
 
 	public void addSession2Cluster(String sessionId, String cName, Node n) {
 		getCluster(cName).addSession(sessionId, n);
+		SessionReplication r = replication;
+		if (r != null)
+			r.sessionAdded(cName, sessionId, n);
 	}
 
 	public void removeNode(String cluster, String host, int port) {
@@ -148,7 +200,7 @@ public class Balancer extends AbstractXmlElement {
 		return getCluster(cluster).getNode(new Node(host, port));
 	}
 
-	public Map<String, Session> getSessions(String cluster) {
+	public SessionTable getSessions(String cluster) {
 		return getCluster(cluster).getSessions();
 	}
 
@@ -156,6 +208,13 @@ public class Balancer extends AbstractXmlElement {
 		return getCluster(cName).getSessionsByNode(node);
 	}
 
+	/**
+	 * @param replication receives the local changes, or null
+	 */
+	void setReplication(SessionReplication replication) {
+		this.replication = replication;
+	}
+
 	public String getName() {
 		return name;
 	}
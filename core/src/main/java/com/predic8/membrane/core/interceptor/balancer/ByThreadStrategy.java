@@ -44,7 +44,7 @@ public class ByThreadStrategy extends AbstractXmlElement implements DispatchingS
 		}
 	}
 
-	public Node dispatch(LoadBalancingInterceptor interceptor) {
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) {
 		for (int j = 0; j < 5; j++) {
 			for (Node ep : interceptor.getEndpoints()) {
 				String hostColonPort = getHostColonPort(ep);
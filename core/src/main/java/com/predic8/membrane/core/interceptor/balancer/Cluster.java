@@ -15,6 +15,7 @@
 package com.predic8.membrane.core.interceptor.balancer;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.*;
 
@@ -30,9 +31,14 @@ public class Cluster {
 
 	public static final String DEFAULT_NAME = "Default";
 
+	/**
+	 * Incremented whenever the available nodes of any cluster may have changed.
+	 */
+	private static final AtomicLong membershipVersion = new AtomicLong();
+
 	private String name = DEFAULT_NAME;
 	private List<Node> nodes = Collections.synchronizedList(new LinkedList<Node>());
-	private Map<String, Session> sessions = new Hashtable<String, Session>();
+	private volatile SessionTable sessions = new SessionTable();
 
 	public Cluster() {
 	}
@@ -59,11 +65,25 @@ public class Cluster {
 	}
 
 	public boolean removeNode(Node node) {
+		membershipChanged();
 		return nodes.remove(node);
 	}
 
+	/**
+	 * Allows strategies to cache data derived from the available nodes: As long as the version stays the same, the
+	 * available nodes have not changed.
+	 */
+	static long getMembershipVersion() {
+		return membershipVersion.get();
+	}
+
+	static void membershipChanged() {
+		membershipVersion.incrementAndGet();
+	}
+
 	public List<Node> getAvailableNodes(long timeout) {
-		List<Node> l = new LinkedList<Node>();
+		// strategies access the list by index
+		List<Node> l = new ArrayList<Node>(nodes.size());
 		synchronized (nodes) {
 			for (Node n : getAllNodes(timeout)) {
 				if ( n.isUp() ) l.add(n);
@@ -90,6 +110,16 @@ public class Cluster {
 		}
 	}
 
+	/**
+	 * @return the node with the same host and port, or null if there is none
+	 */
+	Node findNode(Node ep) {
+		synchronized (nodes) {
+			int index = nodes.indexOf(ep);
+			return index == -1 ? null : nodes.get(index);
+		}
+	}
+
 	private Node getNodeCreateIfNeeded(Node ep) {
 		if ( nodes.contains(ep) ) {
 			return getNode(ep);
@@ -105,6 +135,7 @@ public class Cluster {
 
 			@Override
 			public boolean add(Node e) {
+				membershipChanged();
 				nodes.add(e);
 				return super.add(e);
 			}
@@ -116,6 +147,7 @@ public class Cluster {
 	 */
 	@MCChildElement
 	public void setNodes(List<Node> nodes) {
+		membershipChanged();
 		this.nodes.clear();
 		this.nodes.addAll(nodes);
 	}
@@ -134,26 +166,27 @@ public class Cluster {
 	}
 
 	public boolean containsSession(String sessionId) {
-		return sessions.containsKey(sessionId) && sessions.get(sessionId).getNode().isUp();
+		Session s = sessions.get(sessionId);
+		return s != null && s.getNode().isUp();
 	}
 
 	public void addSession(String sessionId, Node n) {
-		sessions.put(sessionId, new Session(sessionId, n));
+		sessions.put(sessionId, n);
 	}
 
-	public Map<String, Session> getSessions() {
+	public SessionTable getSessions() {
 		return sessions;
 	}
 
+	/**
+	 * Replaces the session table (dropping all sessions).
+	 */
+	void setSessions(SessionTable sessions) {
+		this.sessions = sessions;
+	}
+
 	public List<Session> getSessionsByNode(Node node) {
-		List<Session> l = new LinkedList<Session>();
-		synchronized (sessions) {
-			for (Session s : sessions.values()) {
-				if ( s.getNode().equals(node))
-					l.add(s);
-			}
-		}
-		return l;
+		return sessions.getSessionsByNode(node);
 	}
 
 }
@@ -0,0 +1,297 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+import com.predic8.membrane.core.http.Request;
+
+/**
+ * @description <p>
+ *              Dispatches requests with the same key (the request path, a header or the session ID) to the same node,
+ *              so that caches local to the nodes stay warm.
+ *              </p>
+ *              <p>
+ *              The nodes are placed on a hash ring using <i>virtualNodes</i> points each. When a node goes down or
+ *              comes up, only the keys of the ring segments it owns move to another node.
+ *              </p>
+ *              <p>
+ *              To keep a hot key from overloading a node, a node is skipped while it has more than <i>maxLoad</i>
+ *              percent of the average number of requests in progress: The key then moves on to the next node on the
+ *              ring (consistent hashing with bounded loads).
+ *              </p>
+ *              <p>
+ *              Requests without a key are dispatched randomly.
+ *              </p>
+ */
+@MCElement(name="consistentHashStrategy")
+public class ConsistentHashStrategy extends AbstractXmlElement implements DispatchingStrategy {
+
+	private static Log log = LogFactory.getLog(ConsistentHashStrategy.class.getName());
+
+	public static enum HashOn {
+		PATH, URI, HEADER, SESSION;
+	}
+
+	/**
+	 * An immutable hash ring.
+	 */
+	private static class Ring {
+		/**
+		 * the {@link Cluster#getMembershipVersion()} the ring is up to date with
+		 */
+		final long version;
+		final long[] points;
+		final Node[] owners;
+
+		Ring(long version, List<Node> nodes, int virtualNodes) {
+			this.version = version;
+			int size = nodes.size() * virtualNodes;
+			long[] points = new long[size];
+			Node[] owners = new Node[size];
+			int i = 0;
+			for (Node node : nodes)
+				for (int v = 0; v < virtualNodes; v++) {
+					points[i] = hash(node.getHost() + ":" + node.getPort() + "#" + v);
+					owners[i++] = node;
+				}
+			sortByPoint(points, owners);
+			this.points = points;
+			this.owners = owners;
+		}
+
+		/**
+		 * @return the index of the first point at or after the hash, wrapping around
+		 */
+		int indexOf(long hash) {
+			int index = Arrays.binarySearch(points, hash);
+			if (index < 0)
+				index = -index - 1;
+			return index == points.length ? 0 : index;
+		}
+	}
+
+	private HashOn hashOn = HashOn.PATH;
+	private String header;
+	private int virtualNodes = 160;
+	private int maxLoad = 125;
+
+	private volatile Ring ring;
+	private final Random random = new Random();
+
+	public void done(AbstractExchange exc) {
+	}
+
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
+		// read before the endpoints: a ring built from them is at least as recent as the version
+		long version = Cluster.getMembershipVersion();
+		List<Node> endpoints = interceptor.getEndpoints();
+		if (endpoints.isEmpty())
+			throw new EmptyNodeListException();
+
+		String key = exc == null ? null : getKey(interceptor, exc);
+		if (key == null)
+			return endpoints.get(random.nextInt(endpoints.size()));
+
+		Ring r = getRing(version, endpoints);
+
+		int totalThreads = 0;
+		for (Node node : endpoints)
+			totalThreads += node.getThreads();
+		double maxThreads = Math.ceil(maxLoad * (totalThreads + 1) / (100d * endpoints.size()));
+
+		int start = r.indexOf(hash(key));
+		Node fallback = null;
+		for (int i = 0; i < r.owners.length; i++) {
+			Node node = r.owners[(start + i) % r.owners.length];
+			// the node may have gone down since the ring has been built
+			if (!node.isUp())
+				continue;
+			if (node.getThreads() < maxThreads)
+				return node;
+			if (fallback == null)
+				fallback = node;
+		}
+		return fallback != null ? fallback : endpoints.get(0);
+	}
+
+	/**
+	 * Returns the ring of the available nodes. It is only rebuilt when the membership version has changed, once for
+	 * all threads detecting the change.
+	 */
+	private Ring getRing(long version, List<Node> endpoints) {
+		Ring r = ring;
+		if (r != null && r.version >= version)
+			return r;
+		synchronized (this) {
+			r = ring;
+			if (r != null && r.version >= version)
+				return r;
+			r = new Ring(version, endpoints, virtualNodes);
+			ring = r;
+		}
+		log.debug("Rebuilt hash ring for nodes " + endpoints);
+		return r;
+	}
+
+	private String getKey(LoadBalancingInterceptor interceptor, AbstractExchange exc) {
+		Request request = exc.getRequest();
+		if (request == null)
+			return null;
+		switch (hashOn) {
+		case PATH:
+			String uri = request.getUri();
+			int q = uri.indexOf('?');
+			return q == -1 ? uri : uri.substring(0, q);
+		case URI:
+			return request.getUri();
+		case HEADER:
+			return header == null ? null : request.getHeader().getFirstValue(header);
+		case SESSION:
+			if (interceptor.getSessionIdExtractor() == null)
+				return null;
+			try {
+				return interceptor.getSessionIdExtractor().getSessionId(request);
+			} catch (Exception e) {
+				log.debug("Could not extract session id.", e);
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 64 bit FNV-1a, followed by the MurmurHash3 finalizer to spread the bits of similar keys.
+	 */
+	static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : s.getBytes(Constants.UTF_8_CHARSET)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void sortByPoint(long[] points, Node[] owners) {
+		Integer[] order = new Integer[points.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final long[] p = points.clone();
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return p[a] < p[b] ? -1 : p[a] > p[b] ? 1 : 0;
+			}
+		});
+		Node[] o = owners.clone();
+		for (int i = 0; i < order.length; i++) {
+			points[i] = p[order[i]];
+			owners[i] = o[order[i]];
+		}
+	}
+
+	public HashOn getHashOn() {
+		return hashOn;
+	}
+
+	/**
+	 * @description What the key is computed from: <tt>path</tt> (the request path without query string),
+	 *              <tt>uri</tt> (path and query string), <tt>header</tt> (the value of the header named by
+	 *              <i>header</i>) or <tt>session</tt> (the session ID found by the balancer's session ID extractor).
+	 * @default path
+	 */
+	@MCAttribute
+	public void setHashOn(HashOn hashOn) {
+		this.hashOn = hashOn;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	/**
+	 * @description The name of the header used as key, if <i>hashOn</i> is <tt>header</tt>.
+	 * @example X-Tenant
+	 */
+	@MCAttribute
+	public void setHeader(String header) {
+		this.header = header;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	/**
+	 * @description Number of points each node is placed at on the hash ring. More points spread the keys more
+	 *              evenly.
+	 * @default 160
+	 */
+	@MCAttribute
+	public void setVirtualNodes(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+		ring = null;
+	}
+
+	public int getMaxLoad() {
+		return maxLoad;
+	}
+
+	/**
+	 * @description A node is skipped while it has more requests in progress than this percentage of the average.
+	 *              Must be greater than 100.
+	 * @default 125
+	 */
+	@MCAttribute
+	public void setMaxLoad(int maxLoad) {
+		if (maxLoad <= 100)
+			throw new IllegalArgumentException("maxLoad must be greater than 100, but is " + maxLoad + ".");
+		this.maxLoad = maxLoad;
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(getElementName());
+		out.writeAttribute("hashOn", hashOn.toString());
+		if (header != null)
+			out.writeAttribute("header", header);
+		out.writeAttribute("virtualNodes", "" + virtualNodes);
+		out.writeAttribute("maxLoad", "" + maxLoad);
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "consistentHashStrategy";
+	}
+}
@@ -18,7 +18,10 @@ import com.predic8.membrane.core.exchange.AbstractExchange;
 
 public interface DispatchingStrategy {
 
-	public Node dispatch(LoadBalancingInterceptor interceptor) throws EmptyNodeListException;
+	/**
+	 * @param exc the exchange to dispatch (strategies which do not depend on the request may ignore it)
+	 */
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException;
 
 	public void done(AbstractExchange exc);
 
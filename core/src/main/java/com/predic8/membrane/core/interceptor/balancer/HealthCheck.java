@@ -0,0 +1,452 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCChildElement;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.interceptor.balancer.Node.Status;
+import com.predic8.membrane.core.rules.NullRule;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+
+/**
+ * @description <p>
+ *              Detects failing nodes of a balancer, before user traffic hits them.
+ *              </p>
+ *              <p>
+ *              <b>Active checks:</b> Every <i>interval</i> milliseconds, an HTTP GET request to <i>path</i> is sent
+ *              to each node. A node is marked DOWN after <i>fall</i> consecutive failed probes and UP again after
+ *              <i>rise</i> consecutive successful ones. Nodes taken out manually are not probed. The probes are sent
+ *              like the balanced requests, using the outbound SSL configuration of the balancer's proxy.
+ *              </p>
+ *              <p>
+ *              <b>Passive checks:</b> A node is ejected (marked DOWN) for <i>ejectionTime</i> milliseconds, after
+ *              <i>consecutiveFailures</i> requests to it in a row failed with a 5xx status code or a connection
+ *              error. The last available node is never ejected.
+ *              </p>
+ * @topic 7. Clustering and Loadbalancing
+ */
+@MCElement(name="healthCheck", topLevel=false)
+public class HealthCheck {
+
+	private static Log log = LogFactory.getLog(HealthCheck.class.getName());
+
+	/**
+	 * One scheduler (and one pool of probing threads) is shared by all balancers.
+	 */
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			new DaemonThreadFactory("Balancer Health Check Scheduler"));
+	private static final ExecutorService probes = Executors.newCachedThreadPool(
+			new DaemonThreadFactory("Balancer Health Check"));
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread th = new Thread(r, name);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static class NodeHealth {
+		final AtomicBoolean probing = new AtomicBoolean();
+		final AtomicInteger successes = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final AtomicInteger consecutiveErrors = new AtomicInteger();
+		volatile long ejectedUntil;
+	}
+
+	/**
+	 * Holds the health check only weakly, so that the task ends once the balancer is gone.
+	 */
+	private static class ProbeTask implements Runnable {
+		private final WeakReference<HealthCheck> healthCheck;
+		volatile ScheduledFuture<?> future;
+
+		public ProbeTask(HealthCheck healthCheck) {
+			this.healthCheck = new WeakReference<HealthCheck>(healthCheck);
+		}
+
+		@Override
+		public void run() {
+			HealthCheck hc = healthCheck.get();
+			if (hc == null) {
+				if (future != null)
+					future.cancel(false);
+				return;
+			}
+			try {
+				hc.probeAll();
+			} catch (Exception e) {
+				log.error("Could not run health checks.", e);
+			}
+		}
+	}
+
+	private String path = "/";
+	private String expectedStatus = "200-399";
+	private int[][] expectedStatusRanges = parseRanges(expectedStatus);
+	private int interval = 5000;
+	private int timeout = 2000;
+	private int rise = 2;
+	private int fall = 3;
+	private int consecutiveFailures = 5;
+	private int ejectionTime = 30000;
+
+	private HttpClientConfiguration httpClientConfig;
+
+	private LoadBalancingInterceptor balancer;
+	private HttpClient client;
+	private ProbeTask task;
+	private final ConcurrentHashMap<Node, NodeHealth> health = new ConcurrentHashMap<Node, NodeHealth>();
+
+	public synchronized void start(LoadBalancingInterceptor balancer) {
+		this.balancer = balancer;
+		if (task != null || interval <= 0)
+			return;
+		if (client == null)
+			client = new HttpClient(httpClientConfig != null ? httpClientConfig : createHttpClientConfig());
+		task = new ProbeTask(this);
+		task.future = scheduler.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (task != null) {
+			task.future.cancel(false);
+			task = null;
+		}
+	}
+
+	private HttpClientConfiguration createHttpClientConfig() {
+		HttpClientConfiguration config = new HttpClientConfiguration();
+		config.getConnection().setTimeout(timeout);
+		// a failed probe is retried at the next interval
+		config.setMaxRetries(1);
+		return config;
+	}
+
+	/**
+	 * @return the proxy containing the balancer, whose outbound SSL configuration also applies to the probes
+	 */
+	private Rule getRule() {
+		Router router = balancer.getRouter();
+		if (router != null)
+			for (Rule rule : router.getRuleManager().getRules())
+				if (rule.getInterceptors().contains(balancer))
+					return rule;
+		return new NullRule();
+	}
+
+	private NodeHealth getHealth(Node node) {
+		NodeHealth h = health.get(node);
+		if (h == null) {
+			h = new NodeHealth();
+			NodeHealth h2 = health.putIfAbsent(node, h);
+			if (h2 != null)
+				h = h2;
+		}
+		return h;
+	}
+
+	private void probeAll() {
+		final Rule rule = getRule();
+		for (Cluster cluster : balancer.getClusterManager().getClusters()) {
+			for (final Node node : cluster.getNodes()) {
+				if (node.isTakeOut())
+					continue;
+				final NodeHealth h = getHealth(node);
+				// a probe still waiting for its timeout is not duplicated
+				if (!h.probing.compareAndSet(false, true))
+					continue;
+				probes.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							onProbeResult(node, h, probe(node, rule));
+						} finally {
+							h.probing.set(false);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	private boolean probe(Node node, Rule rule) {
+		Exchange exc = new Exchange(null);
+		try {
+			String url = "http://" + node.getHost() + ":" + (node.getPort() == 0 ? 80 : node.getPort()) + path;
+			exc.setRequest(new Request.Builder().get(url).build());
+			exc.setRule(rule);
+			exc.getDestinations().add(url);
+			client.call(exc, true, false);
+			// discard the response, releasing the connection
+			exc.getResponse().readBody();
+			return isExpected(exc.getResponse().getStatusCode());
+		} catch (Exception e) {
+			log.debug("Health check of " + node + " failed.", e);
+			return false;
+		} finally {
+			exc.detach();
+		}
+	}
+
+	private void onProbeResult(Node node, NodeHealth h, boolean success) {
+		if (success) {
+			h.failures.set(0);
+			if (h.successes.incrementAndGet() >= rise && node.isDown() &&
+					System.currentTimeMillis() >= h.ejectedUntil) {
+				log.info("Health check: node " + node + " is up.");
+				up(node, h);
+			}
+		} else {
+			h.successes.set(0);
+			if (h.failures.incrementAndGet() >= fall && node.isUp()) {
+				log.warn("Health check: node " + node + " is down.");
+				node.setStatus(Status.DOWN);
+			}
+		}
+	}
+
+	private void up(Node node, NodeHealth h) {
+		h.consecutiveErrors.set(0);
+		node.setLastUpTime(System.currentTimeMillis());
+		node.setStatus(Status.UP);
+	}
+
+	/**
+	 * Feeds the outcome of each attempt to reach a node (see {@link Exchange#getNodeAttempts()}) into the passive
+	 * checks.
+	 *
+	 * @param nodes the nodes in the order of the exchange's original destinations
+	 */
+	public void collectFrom(Exchange exc, List<Node> nodes) {
+		if (consecutiveFailures <= 0 || nodes.isEmpty())
+			return;
+		for (int i = 0; i < exc.getNodeAttempts(); i++) {
+			Node node = nodes.get(exc.getNodeIndex(i) % nodes.size());
+			int status = exc.getNodeStatusCode(i);
+			boolean failure = exc.getNodeException(i) != null || status >= 500;
+			if (status == 0 && !failure)
+				continue;
+			NodeHealth h = getHealth(node);
+			if (!failure) {
+				h.consecutiveErrors.set(0);
+				continue;
+			}
+			if (h.consecutiveErrors.incrementAndGet() >= consecutiveFailures && node.isUp())
+				eject(node, h);
+		}
+	}
+
+	private void eject(final Node node, final NodeHealth h) {
+		// the nodes of the cluster are ejected one at a time, so that concurrent ejections cannot take down the last
+		// available node
+		Cluster cluster = balancer.getClusterManager().getCluster(Cluster.DEFAULT_NAME);
+		synchronized (cluster) {
+			if (!node.isUp() || balancer.getEndpoints().size() < 2)
+				return;
+			log.warn("Ejecting node " + node + " for " + ejectionTime + "ms after " + h.consecutiveErrors.get() +
+					" consecutive failures.");
+			h.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+			h.successes.set(0);
+			node.setStatus(Status.DOWN);
+		}
+		if (interval > 0)
+			return; // active checks will bring the node back
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (node.isDown() && System.currentTimeMillis() >= h.ejectedUntil) {
+					log.info("Ejection of node " + node + " ended.");
+					up(node, h);
+				}
+			}
+		}, ejectionTime, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean isExpected(int status) {
+		for (int[] range : expectedStatusRanges)
+			if (range[0] <= status && status <= range[1])
+				return true;
+		return false;
+	}
+
+	private static int[][] parseRanges(String ranges) {
+		List<int[]> result = new ArrayList<int[]>();
+		for (String range : ranges.split(",")) {
+			range = range.trim();
+			if (range.length() == 0)
+				continue;
+			int dash = range.indexOf('-');
+			if (dash == -1) {
+				int status = Integer.parseInt(range);
+				result.add(new int[] { status, status });
+			} else {
+				result.add(new int[] { Integer.parseInt(range.substring(0, dash).trim()),
+						Integer.parseInt(range.substring(dash + 1).trim()) });
+			}
+		}
+		return result.toArray(new int[result.size()][]);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @description The path (and query) requested from each node.
+	 * @default /
+	 * @example /health
+	 */
+	@MCAttribute
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public String getExpectedStatus() {
+		return expectedStatus;
+	}
+
+	/**
+	 * @description Comma-separated list of status codes or ranges of status codes considered healthy.
+	 * @default 200-399
+	 * @example 200, 204
+	 */
+	@MCAttribute
+	public void setExpectedStatus(String expectedStatus) {
+		this.expectedStatusRanges = parseRanges(expectedStatus);
+		this.expectedStatus = expectedStatus;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @description Milliseconds between two probes of a node. 0 disables active checks.
+	 * @default 5000
+	 */
+	@MCAttribute
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @description Milliseconds to wait for the connection to be established and for the response to be received.
+	 *              Ignored, if an HTTP client configuration is given.
+	 * @default 2000
+	 */
+	@MCAttribute
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getRise() {
+		return rise;
+	}
+
+	/**
+	 * @description Number of consecutive successful probes after which a node is marked UP.
+	 * @default 2
+	 */
+	@MCAttribute
+	public void setRise(int rise) {
+		this.rise = rise;
+	}
+
+	public int getFall() {
+		return fall;
+	}
+
+	/**
+	 * @description Number of consecutive failed probes after which a node is marked DOWN.
+	 * @default 3
+	 */
+	@MCAttribute
+	public void setFall(int fall) {
+		this.fall = fall;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @description Number of consecutive failed requests (5xx status or connection error) after which a node is
+	 *              ejected. 0 disables passive checks.
+	 * @default 5
+	 */
+	@MCAttribute
+	public void setConsecutiveFailures(int consecutiveFailures) {
+		this.consecutiveFailures = consecutiveFailures;
+	}
+
+	public int getEjectionTime() {
+		return ejectionTime;
+	}
+
+	/**
+	 * @description Minimum number of milliseconds an ejected node stays DOWN.
+	 * @default 30000
+	 */
+	@MCAttribute
+	public void setEjectionTime(int ejectionTime) {
+		this.ejectionTime = ejectionTime;
+	}
+
+	public HttpClientConfiguration getHttpClientConfig() {
+		return httpClientConfig;
+	}
+
+	/**
+	 * @description The configuration of the HTTP client sending the probes (e.g. a proxy). By default, each probe is
+	 *              tried once with the given timeout.
+	 */
+	@MCChildElement
+	public void setHttpClientConfig(HttpClientConfiguration httpClientConfig) {
+		this.httpClientConfig = httpClientConfig;
+	}
+}
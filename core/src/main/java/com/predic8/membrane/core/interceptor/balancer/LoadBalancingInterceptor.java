@@ -15,6 +15,7 @@ package com.predic8.membrane.core.interceptor.balancer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +41,9 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 	private static Log log = LogFactory.getLog(LoadBalancingInterceptor.class
 			.getName());
 
+	private static final String DISPATCH_TIME = "dispatchedNodeTime";
+	private static final String DISPATCHED_NODES = "dispatchedNodes";
+
 	/**
 	 * Round-robin is the default, but it's configurable.
 	 */
@@ -47,6 +51,10 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 	private AbstractSessionIdExtractor sessionIdExtractor;
 	private boolean failOver = true;
 	private final Balancer balancer = new Balancer();
+	private HealthCheck healthCheck;
+	private SessionReplication replication;
+	private int slowStart;
+	private final Random random = new Random();
 
 	public LoadBalancingInterceptor() {
 		name = "Balancer";
@@ -58,7 +66,7 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 
 		Node dispatchedNode;
 		try {
-			dispatchedNode = getDispatchedNode(exc.getRequest());
+			dispatchedNode = getDispatchedNode(exc);
 		} catch (EmptyNodeListException e) {
 			//This can happen for 2 reasons:
 			//1) Initial server misconfiguration. None configured at all.
@@ -72,13 +80,16 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		dispatchedNode.addThread();
 
 		exc.setProperty("dispatchedNode", dispatchedNode);
+		exc.setProperty(DISPATCH_TIME, System.nanoTime());
 
 		exc.setOriginalRequestUri(dispatchedNode.getDestinationURL(exc));
 
 		exc.getDestinations().clear();
 		exc.getDestinations().add(dispatchedNode.getDestinationURL(exc));
 
-		setFailOverNodes(exc, dispatchedNode);
+		List<Node> nodes = setFailOverNodes(exc, dispatchedNode);
+		if (healthCheck != null)
+			exc.setProperty(DISPATCHED_NODES, nodes);
 
 		return Outcome.CONTINUE;
 	}
@@ -103,33 +114,65 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 
 	/**
 	 * Add secondary destinations in case the primary fails.
+	 *
+	 * @return the nodes in the order of the exchange's destinations
 	 */
-	private void setFailOverNodes(Exchange exc, Node dispatchedNode) {
+	private List<Node> setFailOverNodes(Exchange exc, Node dispatchedNode) {
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(dispatchedNode);
 		if (!failOver)
-			return;
+			return nodes;
 
 		for (Node ep : getEndpoints()) {
 			if (!ep.equals(dispatchedNode)) { //don't add the primary one again
 				exc.getDestinations().add(ep.getDestinationURL(exc));
+				nodes.add(ep);
 			}
 		}
+		return nodes;
+	}
+
+	@Override
+	public void handleAbort(Exchange exc) {
+		Node n = (Node) exc.getProperty("dispatchedNode");
+		if (n == null || exc.getProperty(DISPATCH_TIME) == null)
+			return;
+		// the exchange never reached handleResponse: the request is no longer outstanding
+		exc.setProperty(DISPATCH_TIME, null);
+		n.removeThread();
+		collectHealth(exc);
+		strategy.done(exc);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void collectHealth(Exchange exc) {
+		List<Node> nodes = (List<Node>) exc.getProperty(DISPATCHED_NODES);
+		if (healthCheck != null && nodes != null)
+			healthCheck.collectFrom(exc, nodes);
 	}
 
 	private void updateDispatchedNode(Exchange exc) {
 		Node n = (Node) exc.getProperty("dispatchedNode");
 		n.removeThread();
+		Long dispatchTime = (Long) exc.getProperty(DISPATCH_TIME);
+		if (dispatchTime != null) {
+			exc.setProperty(DISPATCH_TIME, null);
+			n.collectLatency(System.nanoTime() - dispatchTime);
+		}
 		// exc.timeResSent will be overridden later as exc really
 		// completes, but to collect the statistics we use the current time
 		exc.setTimeResSent(System.currentTimeMillis());
 		n.collectStatisticsFrom(exc);
+		collectHealth(exc);
 	}
 
-	private Node getDispatchedNode(Message msg) throws Exception {
+	private Node getDispatchedNode(Exchange exc) throws Exception {
+		Message msg = exc.getRequest();
 		String sessionId;
 		if (sessionIdExtractor == null
 				|| (sessionId = getSessionId(msg)) == null) {
 			log.debug("no session id found.");
-			return strategy.dispatch(this);
+			return dispatch(exc);
 		}
 
 		Session s = getSession(sessionId);
@@ -138,13 +181,31 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		if (s == null || s.getNode().isDown()) {
 			log.debug("assigning new node for session id " + sessionId
 					+ (s != null ? " (old node was " + s.getNode() + ")" : ""));
-			balancer.addSession2Cluster(sessionId, Cluster.DEFAULT_NAME, strategy.dispatch(this));
+			Node node = dispatch(exc);
+			balancer.addSession2Cluster(sessionId, Cluster.DEFAULT_NAME, node);
+			return node;
 		}
-		s = getSession(sessionId);
-		s.used();
+		// the lookup already marked the session as used
 		return s.getNode();
 	}
 
+	private Node dispatch(Exchange exc) throws EmptyNodeListException {
+		Node node = strategy.dispatch(this, exc);
+		if (slowStart <= 0)
+			return node;
+		// a node which recently came up is skipped with a probability decreasing over the slow start period
+		for (int i = 0; i < 3 && random.nextDouble() > getSlowStartWeight(node); i++)
+			node = strategy.dispatch(this, exc);
+		return node;
+	}
+
+	private double getSlowStartWeight(Node node) {
+		long age = System.currentTimeMillis() - node.getUpSince();
+		if (age >= slowStart)
+			return 1;
+		return Math.max(0.1, (double) age / slowStart);
+	}
+
 	private Session getSession(String sessionId) {
 		return balancer.getSessions(Cluster.DEFAULT_NAME).get(sessionId);
 	}
@@ -245,6 +306,45 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		};
 	}
 
+	public HealthCheck getHealthCheck() {
+		return healthCheck;
+	}
+
+	/**
+	 * @description Actively and passively checks the health of the nodes.
+	 */
+	@MCChildElement(order=4)
+	public void setHealthCheck(HealthCheck healthCheck) {
+		this.healthCheck = healthCheck;
+	}
+
+	public SessionReplication getReplication() {
+		return replication;
+	}
+
+	/**
+	 * @description Replicates the session affinity and node status changes to other Membrane instances.
+	 */
+	@MCChildElement(order=5)
+	public void setReplication(SessionReplication replication) {
+		this.replication = replication;
+	}
+
+	public int getSlowStart() {
+		return slowStart;
+	}
+
+	/**
+	 * @description Time in milliseconds during which a node that just came up receives a linearly increasing share
+	 * of the new requests (starting at 10%), so that it can warm up. 0 disables slow start.
+	 * @default 0
+	 * @example 30000
+	 */
+	@MCAttribute
+	public void setSlowStart(int slowStart) {
+		this.slowStart = slowStart;
+	}
+
 	public long getSessionTimeout() {
 		return balancer.getSessionTimeout();
 	}
@@ -260,6 +360,35 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		balancer.setSessionTimeout(sessionTimeout);
 	}
 
+	public int getMaxSessions() {
+		return balancer.getMaxSessions();
+	}
+
+	/**
+	 * @description Maximum number of sessions (per cluster) remembered, if a session extractor is used. When the
+	 * limit is reached, the least recently used sessions are forgotten.
+	 * @default 1000000
+	 */
+	@MCAttribute
+	public void setMaxSessions(int maxSessions) {
+		balancer.setMaxSessions(maxSessions);
+	}
+
+	public boolean isOffHeapSessions() {
+		return balancer.isOffHeapSessions();
+	}
+
+	/**
+	 * @description Whether the sessions should be stored outside of the Java heap. The memory (20 bytes per session)
+	 * is then allocated up front according to <i>maxSessions</i>, and the administration interface shows hashes
+	 * instead of session IDs.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setOffHeapSessions(boolean offHeapSessions) {
+		balancer.setOffHeapSessions(offHeapSessions);
+	}
+
 	@Override
 	public String getShortDescription() {
 		return "Performs load-balancing between <a href=\"/admin/balancers\">several nodes</a>.";
@@ -270,6 +399,22 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		for (Cluster c : balancer.getClusters())
 			for (Node n : c.getNodes())
 				c.nodeUp(n);
+		final HealthCheck healthCheck = this.healthCheck;
+		if (healthCheck != null)
+			healthCheck.start(this);
+		final SessionReplication replication = this.replication;
+		if (replication != null)
+			replication.start(balancer);
+		if (router != null && (healthCheck != null || replication != null))
+			router.addShutdownListener(new Runnable() {
+				@Override
+				public void run() {
+					if (healthCheck != null)
+						healthCheck.stop();
+					if (replication != null)
+						replication.stop();
+				}
+			});
 	}
 
 }
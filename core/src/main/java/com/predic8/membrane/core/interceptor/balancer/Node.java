@@ -38,13 +38,20 @@ public class Node extends AbstractXmlElement {
 		UP, DOWN, TAKEOUT;
 	}
 
+	/**
+	 * Time in milliseconds after which observed response times lose most of their influence on {@link #getLatency()}.
+	 */
+	public static final long LATENCY_DECAY_TIME = 10000;
+
 	private String host;
 	private int port;
 
 	private volatile long lastUpTime;
+	private volatile long upSince;
 	private volatile Status status;
 	private AtomicInteger counter = new AtomicInteger();
 	private AtomicInteger threads = new AtomicInteger();
+	private final PeakEwma latency = new PeakEwma(LATENCY_DECAY_TIME);
 
 	private ConcurrentHashMap<Integer, StatisticCollector> statusCodes = new ConcurrentHashMap<Integer, StatisticCollector>();
 
@@ -137,10 +144,23 @@ public class Node extends AbstractXmlElement {
 		return status == Status.TAKEOUT;
 	}
 
-	public void setStatus(Status status) {
+	public synchronized void setStatus(Status status) {
 		if (status == Status.DOWN)
 			threads.set(0);
+		if (status == Status.UP && this.status != Status.UP)
+			upSince = System.currentTimeMillis();
+		Status old = this.status;
 		this.status = status;
+		if (old != status)
+			Cluster.membershipChanged();
+	}
+
+	/**
+	 * @return the time the node's status last changed to UP (unlike {@link #getLastUpTime()}, this is not updated
+	 *         when a node already UP is reported to be UP again)
+	 */
+	public long getUpSince() {
+		return upSince;
 	}
 
 	public Status getStatus() {
@@ -163,6 +183,7 @@ public class Node extends AbstractXmlElement {
 	public void clearCounter() {
 		counter.set(0);
 		statusCodes.clear();
+		latency.reset();
 	}
 
 	private StatisticCollector getStatisticCollectorByStatusCode(int code) {
@@ -190,7 +211,26 @@ public class Node extends AbstractXmlElement {
 
 	public void removeThread() {
 		if (!isUp()) return;
-		threads.incrementAndGet();
+		// the count is reset when the node goes down: requests dispatched before must not make it negative
+		while (true) {
+			int current = threads.get();
+			if (current <= 0 || threads.compareAndSet(current, current - 1))
+				return;
+		}
+	}
+
+	/**
+	 * Records the time the node took to handle a request.
+	 */
+	public void collectLatency(long nanos) {
+		latency.update(nanos);
+	}
+
+	/**
+	 * @return the peak-sensitive moving average of the node's response times in nanoseconds, 0 if unknown
+	 */
+	public double getLatency() {
+		return latency.get();
 	}
 
 	public int getThreads() {
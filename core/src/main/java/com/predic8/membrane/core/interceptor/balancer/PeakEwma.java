@@ -0,0 +1,78 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An exponentially weighted moving average of response times, which immediately follows upward peaks.
+ *
+ * When a response time larger than the current average is observed, the average jumps to it. Otherwise the new
+ * observation is weighted according to the time passed since the last one: After <tt>decayTime</tt>, older
+ * observations have decayed to <tt>1/e</tt>.
+ *
+ * All operations are lock-free.
+ */
+public class PeakEwma {
+
+	private static class State {
+		final double value;
+		final long stamp;
+
+		State(double value, long stamp) {
+			this.value = value;
+			this.stamp = stamp;
+		}
+	}
+
+	private final double decayNanos;
+	private final AtomicReference<State> state = new AtomicReference<State>(new State(0, System.nanoTime()));
+
+	/**
+	 * @param decayTime in milliseconds
+	 */
+	public PeakEwma(long decayTime) {
+		this.decayNanos = decayTime * 1000000d;
+	}
+
+	/**
+	 * @param nanos the observed response time
+	 */
+	public void update(long nanos) {
+		long now = System.nanoTime();
+		while (true) {
+			State current = state.get();
+			double value;
+			if (nanos > current.value || current.value == 0) {
+				value = nanos;
+			} else {
+				double w = Math.exp(-Math.max(0, now - current.stamp) / decayNanos);
+				value = current.value * w + nanos * (1 - w);
+			}
+			if (state.compareAndSet(current, new State(value, now)))
+				return;
+		}
+	}
+
+	/**
+	 * @return the current average in nanoseconds, or 0 if nothing has been observed yet
+	 */
+	public double get() {
+		return state.get().value;
+	}
+
+	public void reset() {
+		state.set(new State(0, System.nanoTime()));
+	}
+}
@@ -0,0 +1,50 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description <p>
+ *              Picks two nodes at random and dispatches the request to the one with the lower expected latency.
+ *              </p>
+ *              <p>
+ *              The expected latency is the node's moving average of response times, multiplied by the number of
+ *              requests currently in progress plus one. The average follows increasing response times immediately
+ *              and decays slowly (over 10 seconds) when they improve, so traffic is routed away from a slow node
+ *              within a few requests.
+ *              </p>
+ */
+@MCElement(name="peakEwmaStrategy")
+public class PeakEwmaStrategy extends PowerOfTwoChoicesStrategy {
+
+	/**
+	 * Cost of a node which has requests in progress, but never answered one.
+	 */
+	private static final double PENALTY = Double.MAX_VALUE / 2;
+
+	@Override
+	protected double getCost(Node node) {
+		double latency = node.getLatency();
+		int threads = node.getThreads();
+		if (latency == 0)
+			return threads == 0 ? 0 : PENALTY;
+		return latency * (threads + 1);
+	}
+
+	@Override
+	protected String getElementName() {
+		return "peakEwmaStrategy";
+	}
+}
@@ -0,0 +1,74 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+
+/**
+ * @description Picks two nodes at random and dispatches the request to the one with fewer requests currently in
+ *              progress. Unlike always choosing the least loaded node, this avoids that all balancers (or threads)
+ *              seeing the same counts send their requests to the same node.
+ */
+@MCElement(name="powerOfTwoChoicesStrategy")
+public class PowerOfTwoChoicesStrategy extends AbstractXmlElement implements DispatchingStrategy {
+
+	// java.util.Random is thread-safe and does not lock
+	private final Random random = new Random();
+
+	public void done(AbstractExchange exc) {
+	}
+
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
+		List<Node> endpoints = interceptor.getEndpoints();
+		int size = endpoints.size();
+		if (size == 0)
+			throw new EmptyNodeListException();
+		if (size == 1)
+			return endpoints.get(0);
+
+		int a = random.nextInt(size);
+		int b = random.nextInt(size - 1);
+		if (b >= a)
+			b++;
+		Node first = endpoints.get(a);
+		Node second = endpoints.get(b);
+		return getCost(first) <= getCost(second) ? first : second;
+	}
+
+	/**
+	 * @return the cost of sending the next request to the node: lower is better
+	 */
+	protected double getCost(Node node) {
+		return node.getThreads();
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(getElementName());
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "powerOfTwoChoicesStrategy";
+	}
+}
@@ -20,6 +20,7 @@ import com.predic8.membrane.core.config.AbstractXmlElement;
 import com.predic8.membrane.core.exchange.AbstractExchange;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Strategy that iterates the endpoints according to https://en.wikipedia.org/wiki/Round-robin
@@ -29,12 +30,12 @@ import java.util.List;
 @MCElement(name="roundRobinStrategy")
 public class RoundRobinStrategy extends AbstractXmlElement implements DispatchingStrategy {
 
-	private int last = -1;
+	private final AtomicInteger last = new AtomicInteger(-1);
 
 	public void done(AbstractExchange exc) {
 	}
 
-	public synchronized Node dispatch(LoadBalancingInterceptor interceptor) throws EmptyNodeListException {
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
 		//getting a decoupled copy to avoid index out of bounds in case of concurrent modification (dynamic config files reload...)
 		List<Node> endpoints = interceptor.getEndpoints(); //this calls synchronizes access internally.
 		if (endpoints.isEmpty()) {
@@ -45,14 +46,11 @@ public class RoundRobinStrategy extends AbstractXmlElement implements Dispatchin
 	}
 
 	/**
-	 * Must be atomic, therefore synchronized.
+	 * Must be atomic (but does not need to lock).
 	 */
-	private synchronized int incrementAndGet(int numEndpoints) {
-		last ++;
-		if (last >= numEndpoints) {
-			last = 0;
-		}
-		return last;
+	private int incrementAndGet(int numEndpoints) {
+		// masking the sign bit keeps the index valid when the counter overflows
+		return (last.incrementAndGet() & Integer.MAX_VALUE) % numEndpoints;
 	}
 
 	@Override
@@ -14,8 +14,7 @@
 
 package com.predic8.membrane.core.interceptor.balancer;
 
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -33,6 +32,9 @@ public class SessionCleanupThread extends Thread {
 		this.clusters = clusters;
 	}
 
+	/**
+	 * Only determines {@link #getSessionTimeout()}: The timeout is enforced by each cluster's {@link SessionTable}.
+	 */
 	public void setSessionTimeout(long sessionTimeout) {
 		this.sessionTimeout = sessionTimeout;
 	}
@@ -46,46 +48,31 @@ public class SessionCleanupThread extends Thread {
 		try {
 			sleep(10000); //TODO without exceptions are thrown because log4j is not ready.
 		} catch (InterruptedException e1) {
+			return;
 		}
 
 		log.debug("SessionCleanupThread started");
 
 		while (!interrupted()) {
-			synchronized (this) {
-
-				long time = System.currentTimeMillis();
-				int size = 0;
-				int cleaned = 0;
-				for (Cluster c : clusters.values()) {
-					synchronized (c.getSessions()) {
-						size = c.getSessions().size();
-						cleaned = cleanupSessions(c);
-					}
-				}
-				if (cleaned != 0)
-					log.debug(""+ cleaned +" sessions removed of "+ size +" in " +(System.currentTimeMillis()-time)+"ms");
+			long time = System.currentTimeMillis();
+			int size = 0;
+			int cleaned = 0;
+			for (Cluster c : new ArrayList<Cluster>(clusters.values())) {
+				SessionTable sessions = c.getSessions();
+				long evictions = sessions.getEvictions();
+				// locks one segment of the table at a time: dispatching is not stalled
+				sessions.evictExpired();
+				cleaned += sessions.getEvictions() - evictions;
+				size += sessions.size();
 			}
+			if (cleaned != 0)
+				log.debug(""+ cleaned +" sessions removed, "+ size +" left in " +(System.currentTimeMillis()-time)+"ms");
 
 			try {
 				sleep(15000);
 			} catch (InterruptedException e) {
+				return;
 			}
 		}
 	}
-
-	private int cleanupSessions(Cluster c) {
-		Collection<Session> ss = c.getSessions().values();
-		Iterator<Session> sIt = ss.iterator();
-		int cleaned = 0;
-		long now = System.currentTimeMillis();
-
-		while (sIt.hasNext()) {
-			Session s = sIt.next();
-			if (now - s.getLastUsed() > sessionTimeout) {
-				cleaned++;
-				sIt.remove();
-			}
-		}
-		return cleaned;
-	}
 }
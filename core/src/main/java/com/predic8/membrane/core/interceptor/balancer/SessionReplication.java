@@ -0,0 +1,735 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.interceptor.balancer.Node.Status;
+
+/**
+ * @description <p>
+ *              Replicates the session affinity (which session is bound to which node) and the node status changes
+ *              made through the cluster manager API between several Membrane instances balancing the same nodes.
+ *              </p>
+ *              <p>
+ *              Each instance listens on <i>port</i> and connects to the <i>peers</i>. Local changes are coalesced
+ *              (only the latest change per session and node is kept) and sent to all peers in batches every
+ *              <i>flushInterval</i> milliseconds, using a compact binary protocol. Whenever a connection to a peer
+ *              is (re-)established, all sessions and node states are sent, so that an instance joining the cluster
+ *              catches up. The connections to the peers are monitored, so that a restarted peer is reconnected (and
+ *              caught up) right away.
+ *              </p>
+ *              <p>
+ *              Node status changes are ordered by their wall clock time: the most recent change wins. Sessions are
+ *              bound to the node named by the latest update received. With <i>offHeapSessions</i>, only the hashes
+ *              of the session IDs are known: Existing sessions are then not sent to joining instances.
+ *              </p>
+ *              <p>
+ *              The replication protocol is neither authenticated nor encrypted: <i>port</i> should only be
+ *              reachable from the peers.
+ *              </p>
+ * @topic 7. Clustering and Loadbalancing
+ */
+@MCElement(name="replication", topLevel=false)
+public class SessionReplication {
+
+	private static Log log = LogFactory.getLog(SessionReplication.class.getName());
+
+	static final int MAGIC = 0x4d52;
+	static final int VERSION = 1;
+
+	static final byte SESSION = 1;
+	static final byte SESSION_IF_ABSENT = 2;
+	static final byte NODE_STATUS = 3;
+
+	private static final int MAX_RECORDS_PER_FRAME = 10000;
+	private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+	private static final int CONNECT_TIMEOUT = 5000;
+	/**
+	 * A peer not accepting data for this long (in milliseconds) is disconnected.
+	 */
+	private static final int WRITE_TIMEOUT = 10000;
+
+	/**
+	 * The instances listening, by port: When the configuration is reloaded, the new instance replaces the old one.
+	 */
+	private static final ConcurrentHashMap<Integer, SessionReplication> listening = new ConcurrentHashMap<Integer, SessionReplication>();
+
+	/**
+	 * A change to be sent to the peers.
+	 */
+	static class Record {
+		final byte type;
+		final String cluster;
+		final String sessionId;
+		final String host;
+		final int port;
+		final Status status;
+		final long time;
+
+		Record(byte type, String cluster, String sessionId, String host, int port, Status status, long time) {
+			this.type = type;
+			this.cluster = cluster;
+			this.sessionId = sessionId;
+			this.host = host;
+			this.port = port;
+			this.status = status;
+			this.time = time;
+		}
+
+		String getKey() {
+			if (type == NODE_STATUS)
+				return getStatusKey(cluster, host, port);
+			return "s " + cluster + " " + sessionId;
+		}
+	}
+
+	private static String getStatusKey(String cluster, String host, int port) {
+		return "n " + cluster + " " + host + ":" + port;
+	}
+
+	private static class Peer {
+		final String host;
+		final int port;
+		volatile Socket socket;
+		OutputStream out;
+		long nextAttempt;
+		/**
+		 * Set when the peer closed the connection, e.g. because it was restarted.
+		 */
+		volatile boolean closedByPeer;
+
+		Peer(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		boolean isConnected() {
+			return out != null;
+		}
+
+		void connect() throws IOException {
+			Socket s = new Socket();
+			try {
+				s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+				s.setTcpNoDelay(true);
+				out = new BufferedOutputStream(s.getOutputStream());
+				socket = s;
+			} catch (IOException e) {
+				closeQuietly(s);
+				throw e;
+			}
+			closedByPeer = false;
+			monitor(s);
+		}
+
+		/**
+		 * The peer never writes to this connection: Reading only returns when the peer closed it. Without this,
+		 * the connection to a restarted peer would only be noticed (and the restarted peer sent the snapshot)
+		 * when a write fails, which might take several writes.
+		 */
+		private void monitor(final Socket s) {
+			Thread monitor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						InputStream in = s.getInputStream();
+						while (in.read() != -1)
+							;
+					} catch (IOException e) {
+						// closed by the peer or locally
+					}
+					if (socket == s)
+						closedByPeer = true;
+				}
+			}, "Session Replication Peer Monitor " + this);
+			monitor.setDaemon(true);
+			monitor.start();
+		}
+
+		void close() {
+			Socket s = socket;
+			socket = null;
+			out = null;
+			closeQuietly(s);
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port;
+		}
+	}
+
+	private String host;
+	private int port;
+	private String peers = "";
+	private int flushInterval = 100;
+	private int reconnectInterval = 5000;
+
+	private Balancer balancer;
+	private final ConcurrentHashMap<String, Record> pending = new ConcurrentHashMap<String, Record>();
+	private final Map<String, Long> statusTimes = new HashMap<String, Long>();
+	private final Set<Socket> inbound = Collections.synchronizedSet(new HashSet<Socket>());
+	private List<Peer> peerList;
+	private ServerSocket serverSocket;
+	private Thread sender;
+	private Timer writeTimeouts;
+	private volatile boolean running;
+
+	private final AtomicLong recordsSent = new AtomicLong();
+	private final AtomicLong recordsReceived = new AtomicLong();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesReceived = new AtomicLong();
+
+	public synchronized void start(Balancer balancer) throws IOException {
+		if (running)
+			return;
+		this.balancer = balancer;
+		peerList = parsePeers(peers);
+
+		SessionReplication previous = listening.put(port, this);
+		if (previous != null && previous != this)
+			previous.stop();
+
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+		running = true;
+		balancer.setReplication(this);
+		writeTimeouts = new Timer("Session Replication Write Timeout " + port, true);
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "Session Replication Acceptor " + port);
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				send();
+			}
+		}, "Session Replication Sender " + port);
+		sender.setDaemon(true);
+		sender.start();
+		log.info("Replicating sessions on port " + port + " with " + peerList + ".");
+	}
+
+	public synchronized void stop() {
+		if (!running)
+			return;
+		running = false;
+		listening.remove(port, this);
+		if (balancer != null)
+			balancer.setReplication(null);
+		closeQuietly(serverSocket);
+		if (sender != null)
+			sender.interrupt();
+		synchronized (inbound) {
+			for (Socket s : inbound)
+				closeQuietly(s);
+			inbound.clear();
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	private static List<Peer> parsePeers(String peers) {
+		List<Peer> result = new ArrayList<Peer>();
+		for (String peer : peers.split("[,\\s]+")) {
+			if (peer.length() == 0)
+				continue;
+			int colon = peer.lastIndexOf(':');
+			if (colon == -1)
+				throw new IllegalArgumentException("Peer '" + peer + "' does not have the form host:port.");
+			result.add(new Peer(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+		}
+		return result;
+	}
+
+	// ---- local changes
+
+	/**
+	 * Called after a session has been bound to a node locally.
+	 */
+	void sessionAdded(String cluster, String sessionId, Node node) {
+		enqueue(new Record(SESSION, cluster, sessionId, node.getHost(), node.getPort(), null, 0));
+	}
+
+	/**
+	 * Called after the status of a node has been changed locally.
+	 */
+	void nodeStatusChanged(String cluster, String host, int port, Status status) {
+		long now = System.currentTimeMillis();
+		Record r = new Record(NODE_STATUS, cluster, null, host, port, status, now);
+		synchronized (statusTimes) {
+			statusTimes.put(r.getKey(), now);
+		}
+		enqueue(r);
+	}
+
+	private void enqueue(Record r) {
+		if (running && !peerList.isEmpty())
+			pending.put(r.getKey(), r);
+	}
+
+	// ---- sending
+
+	private void send() {
+		try {
+			while (running) {
+				Thread.sleep(flushInterval);
+				connectPeers();
+				flush();
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			for (Peer peer : peerList)
+				peer.close();
+			writeTimeouts.cancel();
+		}
+	}
+
+	private void connectPeers() {
+		long now = System.currentTimeMillis();
+		for (Peer peer : peerList) {
+			if (peer.isConnected() && peer.closedByPeer) {
+				log.info("Replication peer " + peer + " closed the connection.");
+				// reconnect (and resend everything) right away
+				peer.close();
+				peer.nextAttempt = 0;
+			}
+			if (peer.isConnected() || now < peer.nextAttempt)
+				continue;
+			try {
+				peer.connect();
+				writeAll(peer, encode(createSnapshot()));
+				log.info("Connected to replication peer " + peer + ".");
+			} catch (IOException e) {
+				log.debug("Could not connect to replication peer " + peer + ": " + e.getMessage());
+				peer.close();
+				peer.nextAttempt = now + reconnectInterval;
+			}
+		}
+	}
+
+	/**
+	 * Sends the pending changes.
+	 */
+	private void flush() {
+		if (pending.isEmpty())
+			return;
+		List<Record> records = new ArrayList<Record>(pending.size());
+		for (Map.Entry<String, Record> e : pending.entrySet()) {
+			// a newer record put for the same key in the meantime stays pending
+			if (pending.remove(e.getKey(), e.getValue()))
+				records.add(e.getValue());
+		}
+		List<byte[]> frames;
+		try {
+			frames = encode(records);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		for (Peer peer : peerList) {
+			if (!peer.isConnected())
+				continue;
+			try {
+				writeAll(peer, frames);
+			} catch (IOException e) {
+				log.warn("Lost connection to replication peer " + peer + ": " + e.getMessage());
+				// reconnect (and resend everything) right away
+				peer.close();
+				peer.nextAttempt = 0;
+			}
+		}
+	}
+
+	/**
+	 * Sends the frames to the peer. Socket writes cannot time out by themselves: If the peer does not accept the
+	 * data within {@link #WRITE_TIMEOUT}, the socket is closed, which makes the write fail.
+	 */
+	private void writeAll(final Peer peer, List<byte[]> frames) throws IOException {
+		final Socket socket = peer.socket;
+		TimerTask timeout = new TimerTask() {
+			@Override
+			public void run() {
+				log.warn("Replication peer " + peer + " did not accept data for " + WRITE_TIMEOUT + " ms.");
+				closeQuietly(socket);
+			}
+		};
+		writeTimeouts.schedule(timeout, WRITE_TIMEOUT);
+		try {
+			for (byte[] frame : frames) {
+				peer.out.write(frame);
+				framesSent.incrementAndGet();
+			}
+			peer.out.flush();
+		} finally {
+			timeout.cancel();
+		}
+	}
+
+	private List<Record> createSnapshot() {
+		List<Record> records = new ArrayList<Record>();
+		for (Cluster cluster : balancer.getClusters()) {
+			String name = cluster.getName();
+			// nodes first, so that the receiver knows them when the sessions arrive
+			for (Node node : cluster.getNodes()) {
+				Status status = node.getStatus();
+				if (status == null)
+					continue;
+				Long time;
+				synchronized (statusTimes) {
+					time = statusTimes.get(getStatusKey(name, node.getHost(), node.getPort()));
+				}
+				// states never changed through the API are left to the peer's own configuration
+				if (time != null)
+					records.add(new Record(NODE_STATUS, name, null, node.getHost(), node.getPort(), status, time));
+			}
+			SessionTable sessions = cluster.getSessions();
+			if (sessions.isOffHeap())
+				continue;
+			for (Session s : sessions.getSessionsByNode(null))
+				records.add(new Record(SESSION_IF_ABSENT, name, s.getId(), s.getNode().getHost(),
+						s.getNode().getPort(), null, 0));
+		}
+		return records;
+	}
+
+	/**
+	 * Encodes the records into frames of at most {@link #MAX_RECORDS_PER_FRAME} records.
+	 *
+	 * A frame consists of the magic number (2 bytes), the protocol version (1 byte), the length of the rest (4
+	 * bytes), the number of records (4 bytes) and the records. Within a frame, each string is only sent once and
+	 * afterwards referenced by its index.
+	 */
+	List<byte[]> encode(List<Record> records) throws IOException {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		for (int start = 0; start < records.size(); start += MAX_RECORDS_PER_FRAME) {
+			int end = Math.min(records.size(), start + MAX_RECORDS_PER_FRAME);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeShort(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(0); // length, filled in below
+			out.writeInt(end - start);
+			Map<String, Integer> strings = new HashMap<String, Integer>();
+			for (int i = start; i < end; i++) {
+				Record r = records.get(i);
+				out.writeByte(r.type);
+				writeString(out, strings, r.cluster);
+				writeString(out, strings, r.host);
+				out.writeShort(r.port);
+				if (r.type == NODE_STATUS) {
+					out.writeByte(r.status.ordinal());
+					out.writeLong(r.time);
+				} else {
+					out.writeUTF(r.sessionId);
+				}
+			}
+			out.flush();
+			byte[] frame = baos.toByteArray();
+			int length = frame.length - 7;
+			frame[3] = (byte) (length >>> 24);
+			frame[4] = (byte) (length >>> 16);
+			frame[5] = (byte) (length >>> 8);
+			frame[6] = (byte) length;
+			frames.add(frame);
+			recordsSent.addAndGet(end - start);
+		}
+		return frames;
+	}
+
+	private static void writeString(DataOutputStream out, Map<String, Integer> strings, String s) throws IOException {
+		Integer index = strings.get(s);
+		if (index != null) {
+			out.writeShort(index);
+			return;
+		}
+		out.writeShort(-1);
+		out.writeUTF(s);
+		if (strings.size() < Short.MAX_VALUE)
+			strings.put(s, strings.size());
+	}
+
+	// ---- receiving
+
+	private void accept() {
+		while (running) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (running)
+					log.error("Could not accept replication connection.", e);
+				return;
+			}
+			inbound.add(socket);
+			Thread receiver = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						receive(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+					} catch (EOFException e) {
+						// peer disconnected
+					} catch (SocketException e) {
+						// peer disconnected or stopped
+					} catch (IOException e) {
+						log.warn("Closing replication connection from " + socket.getRemoteSocketAddress() + ": " +
+								e.getMessage());
+					} finally {
+						inbound.remove(socket);
+						closeQuietly(socket);
+					}
+				}
+			}, "Session Replication Receiver " + socket.getRemoteSocketAddress());
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+	}
+
+	private void receive(DataInputStream in) throws IOException {
+		while (running) {
+			if (in.readUnsignedShort() != MAGIC)
+				throw new IOException("Not a replication frame.");
+			int version = in.readUnsignedByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported replication protocol version " + version + ".");
+			int length = in.readInt();
+			if (length < 4 || length > MAX_FRAME_LENGTH)
+				throw new IOException("Invalid replication frame length " + length + ".");
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			decode(payload);
+			framesReceived.incrementAndGet();
+		}
+	}
+
+	void decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int count = in.readInt();
+		List<String> strings = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			byte type = in.readByte();
+			String cluster = readString(in, strings);
+			String host = readString(in, strings);
+			int port = in.readUnsignedShort();
+			switch (type) {
+			case NODE_STATUS:
+				int status = in.readUnsignedByte();
+				if (status >= Status.values().length)
+					throw new IOException("Invalid node status " + status + ".");
+				applyNodeStatus(cluster, host, port, Status.values()[status], in.readLong());
+				break;
+			case SESSION:
+			case SESSION_IF_ABSENT:
+				applySession(cluster, in.readUTF(), host, port, type == SESSION_IF_ABSENT);
+				break;
+			default:
+				throw new IOException("Invalid replication record type " + type + ".");
+			}
+			recordsReceived.incrementAndGet();
+		}
+	}
+
+	private static String readString(DataInputStream in, List<String> strings) throws IOException {
+		int index = in.readShort();
+		if (index == -1) {
+			String s = in.readUTF();
+			if (strings.size() < Short.MAX_VALUE)
+				strings.add(s);
+			return s;
+		}
+		if (index < 0 || index >= strings.size())
+			throw new IOException("Invalid string reference " + index + ".");
+		return strings.get(index);
+	}
+
+	/**
+	 * Applies a remote change directly to the cluster, so that it is not sent back.
+	 */
+	private void applyNodeStatus(String cluster, String host, int port, Status status, long time) {
+		String key = getStatusKey(cluster, host, port);
+		synchronized (statusTimes) {
+			Long known = statusTimes.get(key);
+			if (known != null && known >= time)
+				return;
+			statusTimes.put(key, time);
+		}
+		Cluster c = balancer.getCluster(cluster);
+		Node n = new Node(host, port);
+		switch (status) {
+		case UP:
+			c.nodeUp(n);
+			break;
+		case DOWN:
+			c.nodeDown(n);
+			break;
+		case TAKEOUT:
+			c.nodeTakeOut(n);
+			break;
+		}
+	}
+
+	private void applySession(String cluster, String sessionId, String host, int port, boolean ifAbsent) {
+		Cluster c = balancer.getCluster(cluster);
+		Node node = c.findNode(new Node(host, port));
+		if (node == null) {
+			log.debug("Ignoring replicated session of unknown node " + host + ":" + port + ".");
+			return;
+		}
+		if (ifAbsent)
+			c.getSessions().putIfAbsent(sessionId, node);
+		else
+			c.getSessions().put(sessionId, node);
+	}
+
+	private static void closeQuietly(ServerSocket s) {
+		if (s == null)
+			return;
+		try {
+			s.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static void closeQuietly(Socket s) {
+		if (s == null)
+			return;
+		try {
+			s.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	public long getRecordsSent() {
+		return recordsSent.get();
+	}
+
+	public long getRecordsReceived() {
+		return recordsReceived.get();
+	}
+
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	public long getFramesReceived() {
+		return framesReceived.get();
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @description The local address to listen on. By default, all addresses are used.
+	 * @example 10.0.0.1
+	 */
+	@MCAttribute
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @description The port to listen on for connections from the peers.
+	 * @example 7001
+	 */
+	@MCAttribute
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getPeers() {
+		return peers;
+	}
+
+	/**
+	 * @description Comma-separated list of the other instances (their <i>host</i> and <i>port</i>).
+	 * @example node2.example.com:7001, node3.example.com:7001
+	 */
+	@MCAttribute
+	public void setPeers(String peers) {
+		this.peers = peers;
+	}
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * @description Time in milliseconds during which changes are collected, before they are sent to the peers.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public int getReconnectInterval() {
+		return reconnectInterval;
+	}
+
+	/**
+	 * @description Time in milliseconds to wait before trying to connect to an unreachable peer again.
+	 * @default 5000
+	 */
+	@MCAttribute
+	public void setReconnectInterval(int reconnectInterval) {
+		this.reconnectInterval = reconnectInterval;
+	}
+
+}
@@ -0,0 +1,475 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps session IDs to the nodes they are bound to.
+ *
+ * The table is split into segments, each guarded by its own lock, so that lookups of different sessions rarely
+ * contend. Sessions expire after not being used for <tt>timeout</tt> milliseconds and each segment holds at most
+ * <tt>maxSessions / segments</tt> sessions, evicting the least recently used one first. Eviction happens lazily
+ * while a segment is accessed anyway; {@link #evictExpired()} only frees the memory of sessions which are never
+ * looked up again, locking one segment at a time.
+ *
+ * If <tt>offHeap</tt> is set, sessions are stored in direct buffers allocated up front: Each session then takes 20
+ * bytes outside of the Java heap and does not burden the garbage collector. Only a 64 bit hash of the session ID
+ * is kept: {@link #entrySet()} then reports the hashes instead of the IDs.
+ */
+public class SessionTable extends AbstractMap<String, Session> {
+
+	public static final int DEFAULT_MAX_SESSIONS = 1000000;
+
+	private static final int SEGMENTS = 64;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final boolean offHeap;
+	private final int maxSessions;
+	private volatile long timeout;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final List<Node> nodes = new CopyOnWriteArrayList<Node>();
+	private final ConcurrentHashMap<Node, Integer> nodeIndexes = new ConcurrentHashMap<Node, Integer>();
+
+	public SessionTable() {
+		this(DEFAULT_MAX_SESSIONS, false, 0);
+	}
+
+	/**
+	 * @param timeout milliseconds after which unused sessions expire, 0 means never
+	 */
+	public SessionTable(int maxSessions, boolean offHeap, long timeout) {
+		this.maxSessions = maxSessions;
+		this.offHeap = offHeap;
+		this.timeout = timeout;
+		int capacity = Math.max(1, (maxSessions + SEGMENTS - 1) / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = offHeap ? new OffHeapSegment(capacity) : new HeapSegment(capacity);
+	}
+
+	private abstract class Segment {
+		abstract Session get(String id, long now);
+		abstract void put(String id, Node node, long now);
+		abstract Session remove(String id);
+		abstract int size();
+		abstract void evictExpired(long now);
+		abstract void clear();
+		abstract void collect(List<Session> result, Node node);
+	}
+
+	private class HeapSegment extends Segment {
+		private final int capacity;
+		// in access order: the least recently used session comes first
+		private final LinkedHashMap<String, Session> map = new LinkedHashMap<String, Session>(16, 0.75f, true);
+
+		HeapSegment(int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		synchronized Session get(String id, long now) {
+			Session s = map.get(id);
+			if (s == null)
+				return null;
+			if (isExpired(s.lastUsed, now)) {
+				map.remove(id);
+				evictions.incrementAndGet();
+				return null;
+			}
+			s.lastUsed = now;
+			return s;
+		}
+
+		@Override
+		synchronized void put(String id, Node node, long now) {
+			map.put(id, new Session(id, node));
+			evict(now, capacity);
+		}
+
+		private void evict(long now, int capacity) {
+			Iterator<Session> it = map.values().iterator();
+			while (it.hasNext()) {
+				Session s = it.next();
+				if (map.size() <= capacity && !isExpired(s.lastUsed, now))
+					break;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		@Override
+		synchronized Session remove(String id) {
+			return map.remove(id);
+		}
+
+		@Override
+		synchronized int size() {
+			return map.size();
+		}
+
+		@Override
+		synchronized void evictExpired(long now) {
+			evict(now, capacity);
+		}
+
+		@Override
+		synchronized void clear() {
+			map.clear();
+		}
+
+		@Override
+		synchronized void collect(List<Session> result, Node node) {
+			for (Session s : map.values())
+				if (node == null || s.getNode().equals(node))
+					result.add(s);
+		}
+	}
+
+	/**
+	 * A set-associative table in a direct buffer: A session can only be stored in one of the {@link #WAYS} slots of
+	 * the bucket its hash maps to. If all of them are used, the least recently used one is replaced.
+	 */
+	private class OffHeapSegment extends Segment {
+		private static final int WAYS = 8;
+		// long hash (0 means empty), long lastUsed, int node index
+		private static final int SLOT = 20;
+
+		private final ByteBuffer buffer;
+		private final int buckets;
+		private int size;
+
+		OffHeapSegment(int capacity) {
+			buckets = Math.max(1, (capacity + WAYS - 1) / WAYS);
+			buffer = ByteBuffer.allocateDirect(buckets * WAYS * SLOT);
+		}
+
+		private int bucketOffset(long hash) {
+			return (int) ((hash >>> 1) % buckets) * WAYS * SLOT;
+		}
+
+		private int find(long hash) {
+			int offset = bucketOffset(hash);
+			for (int w = 0; w < WAYS; w++, offset += SLOT)
+				if (buffer.getLong(offset) == hash)
+					return offset;
+			return -1;
+		}
+
+		private void clear(int offset) {
+			buffer.putLong(offset, 0);
+			size--;
+		}
+
+		@Override
+		synchronized Session get(String id, long now) {
+			int offset = find(offHeapHash(id));
+			if (offset == -1)
+				return null;
+			if (isExpired(buffer.getLong(offset + 8), now)) {
+				clear(offset);
+				evictions.incrementAndGet();
+				return null;
+			}
+			buffer.putLong(offset + 8, now);
+			return createSession(id, buffer.getInt(offset + 16), now);
+		}
+
+		@Override
+		synchronized void put(String id, Node node, long now) {
+			long hash = offHeapHash(id);
+			int offset = find(hash);
+			if (offset == -1) {
+				offset = bucketOffset(hash);
+				int victim = -1;
+				long oldest = Long.MAX_VALUE;
+				for (int w = 0; w < WAYS; w++, offset += SLOT) {
+					if (buffer.getLong(offset) == 0) {
+						victim = offset;
+						break;
+					}
+					long lastUsed = buffer.getLong(offset + 8);
+					if (lastUsed < oldest) {
+						oldest = lastUsed;
+						victim = offset;
+					}
+				}
+				offset = victim;
+				if (buffer.getLong(offset) != 0)
+					evictions.incrementAndGet();
+				else
+					size++;
+				buffer.putLong(offset, hash);
+			}
+			buffer.putLong(offset + 8, now);
+			buffer.putInt(offset + 16, getNodeIndex(node));
+		}
+
+		@Override
+		synchronized Session remove(String id) {
+			int offset = find(offHeapHash(id));
+			if (offset == -1)
+				return null;
+			Session s = createSession(id, buffer.getInt(offset + 16), buffer.getLong(offset + 8));
+			clear(offset);
+			return s;
+		}
+
+		@Override
+		synchronized int size() {
+			return size;
+		}
+
+		@Override
+		synchronized void evictExpired(long now) {
+			if (timeout <= 0)
+				return;
+			for (int offset = 0; offset < buffer.capacity(); offset += SLOT) {
+				if (buffer.getLong(offset) != 0 && isExpired(buffer.getLong(offset + 8), now)) {
+					clear(offset);
+					evictions.incrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		synchronized void clear() {
+			for (int offset = 0; offset < buffer.capacity(); offset += SLOT)
+				buffer.putLong(offset, 0);
+			size = 0;
+		}
+
+		@Override
+		synchronized void collect(List<Session> result, Node node) {
+			for (int offset = 0; offset < buffer.capacity(); offset += SLOT) {
+				long hash = buffer.getLong(offset);
+				if (hash == 0)
+					continue;
+				Session s = createSession(Long.toHexString(hash), buffer.getInt(offset + 16), buffer.getLong(offset + 8));
+				if (node == null || s.getNode().equals(node))
+					result.add(s);
+			}
+		}
+	}
+
+	private static long offHeapHash(String id) {
+		long hash = ConsistentHashStrategy.hash(id);
+		return hash == 0 ? 1 : hash;
+	}
+
+	private Session createSession(String id, int nodeIndex, long lastUsed) {
+		Session s = new Session(id, nodes.get(nodeIndex));
+		s.lastUsed = lastUsed;
+		return s;
+	}
+
+	private int getNodeIndex(Node node) {
+		Integer index = nodeIndexes.get(node);
+		if (index != null)
+			return index;
+		synchronized (nodes) {
+			index = nodeIndexes.get(node);
+			if (index == null) {
+				nodes.add(node);
+				index = nodes.size() - 1;
+				nodeIndexes.put(node, index);
+			}
+			return index;
+		}
+	}
+
+	private boolean isExpired(long lastUsed, long now) {
+		long t = timeout;
+		return t > 0 && now - lastUsed > t;
+	}
+
+	private Segment getSegment(String id) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	/**
+	 * Looks the session up and marks it as used.
+	 *
+	 * @return the session, or null if there is none or it has expired
+	 */
+	@Override
+	public Session get(Object key) {
+		if (!(key instanceof String))
+			return null;
+		String id = (String) key;
+		Session s = getSegment(id).get(id, System.currentTimeMillis());
+		(s == null ? misses : hits).incrementAndGet();
+		return s;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Binds the session to the node.
+	 */
+	public void put(String id, Node node) {
+		getSegment(id).put(id, node, System.currentTimeMillis());
+	}
+
+	/**
+	 * Binds the session to the node, unless it is bound already.
+	 *
+	 * @return whether the session has been bound
+	 */
+	public boolean putIfAbsent(String id, Node node) {
+		Segment segment = getSegment(id);
+		synchronized (segment) {
+			long now = System.currentTimeMillis();
+			if (segment.get(id, now) != null)
+				return false;
+			segment.put(id, node, now);
+			return true;
+		}
+	}
+
+	/**
+	 * Binds the session to the session's node.
+	 *
+	 * @return always null
+	 */
+	@Override
+	public Session put(String id, Session session) {
+		put(id, session.getNode());
+		return null;
+	}
+
+	@Override
+	public Session remove(Object key) {
+		if (!(key instanceof String))
+			return null;
+		return getSegment((String) key).remove((String) key);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			size += segment.size();
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments)
+			segment.clear();
+	}
+
+	/**
+	 * Removes the expired sessions, locking one segment at a time.
+	 */
+	public void evictExpired() {
+		long now = System.currentTimeMillis();
+		for (Segment segment : segments)
+			segment.evictExpired(now);
+	}
+
+	/**
+	 * @param node the node, or null for all sessions
+	 * @return a snapshot of the sessions bound to the node
+	 */
+	public List<Session> getSessionsByNode(Node node) {
+		List<Session> result = new ArrayList<Session>();
+		for (Segment segment : segments)
+			segment.collect(result, node);
+		return result;
+	}
+
+	/**
+	 * @return a snapshot of the table's content
+	 */
+	@Override
+	public Set<Map.Entry<String, Session>> entrySet() {
+		final List<Session> sessions = getSessionsByNode(null);
+		return new AbstractSet<Map.Entry<String, Session>>() {
+			@Override
+			public Iterator<Map.Entry<String, Session>> iterator() {
+				final Iterator<Session> it = sessions.iterator();
+				return new Iterator<Map.Entry<String, Session>>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, Session> next() {
+						Session s = it.next();
+						return new SimpleImmutableEntry<String, Session>(s.getId(), s);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return sessions.size();
+			}
+		};
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
@@ -0,0 +1,116 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+
+/**
+ * The directives of all "Cache-Control" header fields of a message, see RFC 7234 section 5.2.
+ */
+public class CacheControl {
+
+	public static final String NO_STORE = "no-store";
+	public static final String NO_CACHE = "no-cache";
+	public static final String PRIVATE = "private";
+	public static final String PUBLIC = "public";
+	public static final String MAX_AGE = "max-age";
+	public static final String S_MAXAGE = "s-maxage";
+	public static final String MAX_STALE = "max-stale";
+	public static final String MIN_FRESH = "min-fresh";
+	public static final String MUST_REVALIDATE = "must-revalidate";
+	public static final String PROXY_REVALIDATE = "proxy-revalidate";
+	public static final String ONLY_IF_CACHED = "only-if-cached";
+	public static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+
+	private final HashMap<String, String> directives = new HashMap<String, String>();
+
+	public CacheControl(Header header) {
+		for (HeaderField field : header.getAllHeaderFields())
+			if (field.getHeaderName().equals(Header.CACHE_CONTROL))
+				parse(field.getValue());
+	}
+
+	private void parse(String value) {
+		int i = 0, len = value.length();
+		while (i < len) {
+			int end = i;
+			boolean quoted = false;
+			while (end < len) {
+				char c = value.charAt(end);
+				if (c == '"')
+					quoted = !quoted;
+				else if (c == ',' && !quoted)
+					break;
+				end++;
+			}
+			String directive = value.substring(i, end).trim();
+			i = end + 1;
+			if (directive.length() == 0)
+				continue;
+			int eq = directive.indexOf('=');
+			if (eq == -1) {
+				directives.put(directive.toLowerCase(Locale.US), null);
+			} else {
+				String arg = directive.substring(eq + 1).trim();
+				if (arg.length() >= 2 && arg.startsWith("\"") && arg.endsWith("\""))
+					arg = arg.substring(1, arg.length() - 1);
+				directives.put(directive.substring(0, eq).trim().toLowerCase(Locale.US), arg);
+			}
+		}
+	}
+
+	public boolean has(String directive) {
+		return directives.containsKey(directive);
+	}
+
+	/**
+	 * @return the delta-seconds argument of the directive, or -1 if the directive is not present or its
+	 *         argument is invalid.
+	 */
+	public long getSeconds(String directive) {
+		String arg = directives.get(directive);
+		if (arg == null)
+			return -1;
+		try {
+			long l = Long.parseLong(arg);
+			return l < 0 ? -1 : l;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * "max-stale" may be used without an argument, meaning that any stale response is acceptable.
+	 */
+	public long getMaxStale() {
+		if (!has(MAX_STALE))
+			return -1;
+		if (directives.get(MAX_STALE) == null)
+			return Long.MAX_VALUE / 1000;
+		return getSeconds(MAX_STALE);
+	}
+
+	public boolean isEmpty() {
+		return directives.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return directives.toString();
+	}
+}
@@ -0,0 +1,409 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.EmptyBody;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.util.HttpUtil;
+
+/**
+ * A response stored by the {@link HttpCacheInterceptor}, together with the information needed to compute its age
+ * and freshness as described in RFC 7234 section 4.2.
+ *
+ * A {@link CacheEntry} may alternatively be a "vary index": If the origin server sent a "Vary" header, the index is
+ * stored under the primary cache key and only lists the request header names, which are used to compute the
+ * secondary key of the actual response.
+ */
+public class CacheEntry {
+
+	/**
+	 * Headers which are not stored, see RFC 7230 section 6.1.
+	 */
+	private static final String[] HOP_BY_HOP_HEADERS = new String[] { Header.CONNECTION, Header.KEEP_ALIVE,
+		Header.PROXY_CONNECTION, Header.TRANSFER_ENCODING, "TE", "Trailer", Header.UPGRADE, "Proxy-Authenticate" };
+
+	/**
+	 * Headers which are not updated by a "304 Not Modified" response, see RFC 7234 section 4.3.4.
+	 */
+	private static final String[] CONTENT_HEADERS = new String[] { Header.CONTENT_LENGTH, Header.CONTENT_ENCODING,
+		Header.CONTENT_TYPE, Header.TRANSFER_ENCODING };
+
+	private static final long HEURISTIC_MAX_LIFETIME = 24 * 60 * 60 * 1000;
+
+	protected int statusCode;
+	protected String statusMessage;
+	protected Header header;
+	protected byte[] body;
+	protected String[] varyNames;
+	protected boolean varyIndex;
+
+	protected long requestTime;
+	protected long responseTime;
+	protected long correctedInitialAge;
+	protected long freshnessLifetime;
+	protected long staleWhileRevalidate;
+	protected boolean mustRevalidate;
+	protected boolean noCache;
+
+	protected CacheEntry() {
+	}
+
+	public CacheEntry(int statusCode, String statusMessage, Header header, byte[] body, long requestTime, long responseTime) {
+		this.statusCode = statusCode;
+		this.statusMessage = statusMessage;
+		this.header = new Header(header);
+		for (String name : HOP_BY_HOP_HEADERS)
+			this.header.removeFields(name);
+		this.body = body;
+		if (body != null)
+			this.header.setContentLength(body.length);
+		this.varyNames = parseVary(this.header);
+		setTimes(requestTime, responseTime);
+	}
+
+	public static CacheEntry createVaryIndex(String[] varyNames, Header header, long requestTime, long responseTime) {
+		CacheEntry index = new CacheEntry();
+		index.varyIndex = true;
+		index.varyNames = varyNames;
+		index.header = new Header();
+		for (HeaderField field : header.getAllHeaderFields())
+			if (field.getHeaderName().equals(Header.CACHE_CONTROL) || field.getHeaderName().equals(Header.EXPIRES) ||
+					field.getHeaderName().equals(Header.DATE) || field.getHeaderName().equals(Header.LAST_MODIFIED))
+				index.header.add(new HeaderField(field));
+		index.setTimes(requestTime, responseTime);
+		return index;
+	}
+
+	/**
+	 * @return the lower-case names of the request headers listed in the "Vary" header, an empty array if there is
+	 *         none, or null if "Vary: *" was sent (meaning that the response cannot be reused).
+	 */
+	public static String[] parseVary(Header header) {
+		List<String> names = new ArrayList<String>();
+		for (HeaderField field : header.getAllHeaderFields()) {
+			if (!field.getHeaderName().equals(Header.VARY))
+				continue;
+			for (String name : field.getValue().split(",")) {
+				name = name.trim().toLowerCase(Locale.US);
+				if (name.length() == 0)
+					continue;
+				if (name.equals("*"))
+					return null;
+				if (!names.contains(name))
+					names.add(name);
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Computes the suffix which is appended to the primary cache key to select a response variant.
+	 */
+	public static String getVarySuffix(String[] varyNames, Request request) {
+		StringBuilder sb = new StringBuilder();
+		for (String name : varyNames) {
+			sb.append('\n').append(name).append(':');
+			boolean first = true;
+			for (HeaderField field : request.getHeader().getAllHeaderFields()) {
+				if (!field.getHeaderName().equals(name))
+					continue;
+				if (!first)
+					sb.append(',');
+				sb.append(field.getValue().trim());
+				first = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	protected void setTimes(long requestTime, long responseTime) {
+		this.requestTime = requestTime;
+		this.responseTime = responseTime;
+
+		// RFC 7234 section 4.2.3
+		long dateValue = HttpUtil.parseHttpDate(header.getFirstValue(Header.DATE));
+		if (dateValue == -1)
+			dateValue = responseTime;
+		long ageValue = 0;
+		String age = header.getFirstValue(Header.AGE);
+		if (age != null) {
+			try {
+				ageValue = Math.max(0, Long.parseLong(age.trim())) * 1000;
+			} catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		long apparentAge = Math.max(0, responseTime - dateValue);
+		long responseDelay = Math.max(0, responseTime - requestTime);
+		correctedInitialAge = Math.max(apparentAge, ageValue + responseDelay);
+
+		computeFreshness(dateValue);
+	}
+
+	private void computeFreshness(long dateValue) {
+		CacheControl cc = new CacheControl(header);
+		noCache = cc.has(CacheControl.NO_CACHE);
+		mustRevalidate = cc.has(CacheControl.MUST_REVALIDATE) || cc.has(CacheControl.PROXY_REVALIDATE);
+		long swr = cc.getSeconds(CacheControl.STALE_WHILE_REVALIDATE);
+		staleWhileRevalidate = swr == -1 ? 0 : swr * 1000;
+
+		// RFC 7234 section 4.2.1
+		long sMaxAge = cc.getSeconds(CacheControl.S_MAXAGE);
+		if (sMaxAge != -1) {
+			freshnessLifetime = sMaxAge * 1000;
+			return;
+		}
+		long maxAge = cc.getSeconds(CacheControl.MAX_AGE);
+		if (maxAge != -1) {
+			freshnessLifetime = maxAge * 1000;
+			return;
+		}
+		String expires = header.getFirstValue(Header.EXPIRES);
+		if (expires != null) {
+			long e = HttpUtil.parseHttpDate(expires);
+			// invalid dates (like "0") mean "already expired"
+			freshnessLifetime = e == -1 ? 0 : Math.max(0, e - dateValue);
+			return;
+		}
+		// RFC 7234 section 4.2.2
+		long lastModified = getLastModified();
+		if (lastModified != -1 && lastModified < dateValue)
+			freshnessLifetime = Math.min(HEURISTIC_MAX_LIFETIME, (dateValue - lastModified) / 10);
+		else
+			freshnessLifetime = 0;
+	}
+
+	/**
+	 * Creates a copy of this entry whose stored headers have been updated using a "304 Not Modified" response, see
+	 * RFC 7234 section 4.3.4. (Entries are shared between threads and therefore never modified.)
+	 */
+	public CacheEntry createUpdated(Response notModified, long requestTime, long responseTime) {
+		Header newHeader = new Header();
+		for (HeaderField field : header.getAllHeaderFields()) {
+			if (field.getHeaderName().equals(Header.AGE))
+				continue; // the age is always taken from the new response
+			if (!isUpdatedBy(field, notModified) || isContentHeader(field))
+				newHeader.add(field);
+		}
+		for (HeaderField field : notModified.getHeader().getAllHeaderFields())
+			if (!isContentHeader(field) && !isHopByHopHeader(field))
+				newHeader.add(new HeaderField(field));
+		CacheEntry updated = copy();
+		updated.header = newHeader;
+		updated.setTimes(requestTime, responseTime);
+		return updated;
+	}
+
+	protected CacheEntry copy() {
+		CacheEntry copy = new CacheEntry();
+		copy.statusCode = statusCode;
+		copy.statusMessage = statusMessage;
+		copy.header = header;
+		copy.body = body;
+		copy.varyNames = varyNames;
+		copy.varyIndex = varyIndex;
+		return copy;
+	}
+
+	private boolean isUpdatedBy(HeaderField field, Response notModified) {
+		return notModified.getHeader().getFirstValue(field.getHeaderName().toString()) != null;
+	}
+
+	private static boolean isContentHeader(HeaderField field) {
+		for (String name : CONTENT_HEADERS)
+			if (field.getHeaderName().equals(name))
+				return true;
+		return false;
+	}
+
+	private static boolean isHopByHopHeader(HeaderField field) {
+		for (String name : HOP_BY_HOP_HEADERS)
+			if (field.getHeaderName().equals(name))
+				return true;
+		return false;
+	}
+
+	public long getCurrentAge(long now) {
+		return correctedInitialAge + Math.max(0, now - responseTime);
+	}
+
+	public boolean isFresh(long now) {
+		return !noCache && freshnessLifetime > getCurrentAge(now);
+	}
+
+	/**
+	 * @return how long the response has been stale in milliseconds (negative, if it is still fresh).
+	 */
+	public long getStaleness(long now) {
+		return getCurrentAge(now) - freshnessLifetime;
+	}
+
+	/**
+	 * @return the point in time after which this entry is of no more use, neither for serving it directly, nor for
+	 *         serving it stale nor for revalidation.
+	 */
+	public long getExpiryTime(long revalidationGracePeriod) {
+		long lifetime = freshnessLifetime + staleWhileRevalidate;
+		if (getETag() != null || getLastModified() != -1)
+			lifetime += revalidationGracePeriod;
+		return responseTime - correctedInitialAge + lifetime;
+	}
+
+	public Response toResponse(long now, boolean stale) throws IOException {
+		Response response = new Response();
+		response.setStatusCode(statusCode);
+		response.setStatusMessage(statusMessage);
+		Header h = new Header(header);
+		h.setValue(Header.AGE, "" + getCurrentAge(now) / 1000);
+		if (stale)
+			h.add(Header.WARNING, "110 - \"Response is Stale\"");
+		response.setHeader(h);
+		response.setBody(createBody());
+		return response;
+	}
+
+	/**
+	 * Creates a "304 Not Modified" response for a conditional request of a client, see RFC 7232 section 4.1.
+	 */
+	public Response toNotModifiedResponse(long now) {
+		Response response = Response.notModified(HttpUtil.formatHttpDate(now)).build();
+		String[] copied = new String[] { Header.CACHE_CONTROL, Header.CONTENT_LOCATION, Header.ETAG, Header.EXPIRES,
+				Header.VARY, Header.LAST_MODIFIED };
+		for (String name : copied)
+			for (HeaderField field : header.getAllHeaderFields())
+				if (field.getHeaderName().equals(name))
+					response.getHeader().add(new HeaderField(field));
+		response.getHeader().setValue(Header.AGE, "" + getCurrentAge(now) / 1000);
+		return response;
+	}
+
+	/**
+	 * Evaluates "If-None-Match" and "If-Modified-Since" of a client request against this entry, see RFC 7232
+	 * section 6.
+	 */
+	public boolean isNotModifiedFor(Request request) {
+		String ifNoneMatch = request.getHeader().getFirstValue(Header.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			String etag = getETag();
+			if (etag == null)
+				return false;
+			for (String candidate : ifNoneMatch.split(",")) {
+				candidate = candidate.trim();
+				if (candidate.equals("*") || weakETag(candidate).equals(weakETag(etag)))
+					return true;
+			}
+			return false;
+		}
+		long ifModifiedSince = HttpUtil.parseHttpDate(request.getHeader().getFirstValue(Header.IF_MODIFIED_SINCE));
+		long lastModified = getLastModified();
+		return ifModifiedSince != -1 && lastModified != -1 && lastModified <= ifModifiedSince;
+	}
+
+	private static String weakETag(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	protected AbstractBody createBody() throws IOException {
+		if (body == null)
+			return new EmptyBody();
+		return new Body(body);
+	}
+
+	/**
+	 * @return a read-only view of the body, or null if there is none
+	 */
+	protected ByteBuffer getBodyBuffer() {
+		return body == null ? null : ByteBuffer.wrap(body).asReadOnlyBuffer();
+	}
+
+	public int getBodyLength() {
+		return body == null ? 0 : body.length;
+	}
+
+	/**
+	 * @return the estimated number of bytes of heap occupied by this entry.
+	 */
+	public int getSize() {
+		return 100 + header.estimateHeapSize() + getBodyLength();
+	}
+
+	public String getETag() {
+		return header.getFirstValue(Header.ETAG);
+	}
+
+	public long getLastModified() {
+		return HttpUtil.parseHttpDate(header.getFirstValue(Header.LAST_MODIFIED));
+	}
+
+	public boolean isVaryIndex() {
+		return varyIndex;
+	}
+
+	public String[] getVaryNames() {
+		return varyNames;
+	}
+
+	public long getFreshnessLifetime() {
+		return freshnessLifetime;
+	}
+
+	public boolean isNoCache() {
+		return noCache;
+	}
+
+	public boolean isMustRevalidate() {
+		return mustRevalidate;
+	}
+
+	public long getStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getStatusMessage() {
+		return statusMessage;
+	}
+
+	public Header getHeader() {
+		return header;
+	}
+
+	public long getRequestTime() {
+		return requestTime;
+	}
+
+	public long getResponseTime() {
+		return responseTime;
+	}
+
+	@Override
+	public String toString() {
+		return varyIndex ? "vary index " + Arrays.toString(varyNames) : statusCode + " (" + getBodyLength() + " bytes)";
+	}
+}
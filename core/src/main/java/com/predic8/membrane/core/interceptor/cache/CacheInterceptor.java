@@ -55,6 +55,9 @@ import com.predic8.membrane.core.resolver.ResolverMap;
  *                  package updates will be stuck in the past until the cache (on disk) is cleared manually. -
  *                  This is - simply put - the only use case, where using this class makes any sense.
  *              </p>
+ *              <p>
+ *                  Use <tt>&lt;httpCache&gt;</tt> for RFC 7234 compliant caching.
+ *              </p>
  * @topic 4. Interceptors/Features
  */
 @MCElement(name="cache")
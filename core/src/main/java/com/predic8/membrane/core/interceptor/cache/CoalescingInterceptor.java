@@ -0,0 +1,296 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.AbstractMessageObserver;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.cache.RequestCoalescer.Flight;
+
+/**
+ * @description <p>
+ *              Collapses concurrent identical requests into a single backend call.
+ *              </p>
+ *              <p>
+ *              While a GET or HEAD request is being forwarded to the backend, identical requests (same method,
+ *              destination URL and values of the headers listed in <i>varyHeaders</i>) wait for its response
+ *              instead of being forwarded themselves. Once the response has been received completely, a copy is
+ *              handed to all waiting requests.
+ *              </p>
+ *              <p>
+ *              This protects backends from a burst of identical requests (for example, when a popular resource
+ *              expires in a downstream cache) without caching responses beyond the duration of one backend call.
+ *              </p>
+ *              <p>
+ *              Waiting requests are forwarded on their own, if the response does not arrive within <i>maxWait</i>
+ *              milliseconds, if it is larger than <i>maxBodySize</i> or if it sets a cookie.
+ *              </p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name="coalescing")
+public class CoalescingInterceptor extends AbstractInterceptor {
+
+	private static final Log log = LogFactory.getLog(CoalescingInterceptor.class.getName());
+
+	private static final String KEY = "coalescing.key";
+	private static final String FLIGHT = "coalescing.flight";
+
+	private static final String[] HOP_BY_HOP_HEADERS = new String[] { Header.CONNECTION, Header.KEEP_ALIVE,
+		Header.PROXY_CONNECTION, Header.TRANSFER_ENCODING, Header.CONTENT_LENGTH };
+
+	private long maxWait = 10000;
+	private int maxBodySize = 1024 * 1024;
+	private String varyHeaders = "Accept, Accept-Encoding, Accept-Language, Authorization, Cookie";
+	private String[] varyNames = parseNames(varyHeaders);
+
+	private final RequestCoalescer<SharedResponse> coalescer = new RequestCoalescer<SharedResponse>();
+
+	private final AtomicLong leaders = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * A completely received response, which is copied for every waiting request.
+	 */
+	private static class SharedResponse {
+		final int statusCode;
+		final String statusMessage;
+		final Header header;
+		final byte[] body;
+		/**
+		 * whether this is the response to a HEAD request: it has no body, but its header keeps the Content-Length of
+		 * the resource
+		 */
+		final boolean head;
+
+		public SharedResponse(int statusCode, String statusMessage, Header header, byte[] body, boolean head) {
+			this.statusCode = statusCode;
+			this.statusMessage = statusMessage;
+			this.header = header;
+			this.body = body;
+			this.head = head;
+		}
+
+		public Response createResponse() {
+			Response response = new Response();
+			response.setStatusCode(statusCode);
+			response.setStatusMessage(statusMessage);
+			response.setHeader(new Header(header));
+			if (!head)
+				response.getHeader().setContentLength(body.length);
+			response.setBody(new Body(body));
+			return response;
+		}
+	}
+
+	public CoalescingInterceptor() {
+		name = "Request Coalescing";
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		if (exc.getDestinations().isEmpty())
+			return Outcome.CONTINUE;
+		Request request = exc.getRequest();
+		if (!request.isGETRequest() && !request.isHEADRequest())
+			return Outcome.CONTINUE;
+
+		String key = getKey(request, exc.getDestinations().get(0));
+		Flight<SharedResponse> flight = coalescer.lead(key);
+		if (flight == null) {
+			Flight<SharedResponse> other = coalescer.get(key);
+			if (other == null) {
+				// the other flight has just completed
+				flight = coalescer.lead(key);
+			} else {
+				SharedResponse shared = other.await(maxWait);
+				if (shared != null) {
+					coalesced.incrementAndGet();
+					exc.setResponse(shared.createResponse());
+					return Outcome.RETURN;
+				}
+			}
+		}
+		if (flight == null) {
+			// the leader timed out, failed or could not share its response: forward the request on our own
+			fallbacks.incrementAndGet();
+			return Outcome.CONTINUE;
+		}
+
+		leaders.incrementAndGet();
+		exc.setProperty(KEY, key);
+		exc.setProperty(FLIGHT, flight);
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(final Exchange exc) throws Exception {
+		final String key = (String) exc.getProperty(KEY);
+		@SuppressWarnings("unchecked")
+		final Flight<SharedResponse> flight = (Flight<SharedResponse>) exc.getProperty(FLIGHT);
+		if (flight == null)
+			return Outcome.CONTINUE;
+
+		Response response = exc.getResponse();
+		if (!isShareable(response)) {
+			coalescer.complete(key, flight, null);
+			return Outcome.CONTINUE;
+		}
+
+		final int statusCode = response.getStatusCode();
+		final String statusMessage = response.getStatusMessage();
+		final Header header = new Header(response.getHeader());
+		for (String name : HOP_BY_HOP_HEADERS)
+			header.removeFields(name);
+		final boolean head = exc.getRequest().isHEADRequest();
+		if (head && response.getHeader().hasContentLength())
+			header.setContentLength(response.getHeader().getContentLength());
+
+		// the response is shared as soon as it has been received completely (which, when streaming, happens after
+		// it has been forwarded to our own client)
+		response.addObserver(new AbstractMessageObserver() {
+			@Override
+			public void bodyComplete(AbstractBody body) {
+				SharedResponse shared = null;
+				try {
+					if (body.getLength() <= maxBodySize)
+						shared = new SharedResponse(statusCode, statusMessage, header, body.getContent(), head);
+				} catch (Exception e) {
+					log.debug("Could not share response for " + key, e);
+				} finally {
+					coalescer.complete(key, flight, shared);
+				}
+			}
+		});
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public void handleAbort(Exchange exc) {
+		@SuppressWarnings("unchecked")
+		Flight<SharedResponse> flight = (Flight<SharedResponse>) exc.getProperty(FLIGHT);
+		if (flight != null)
+			coalescer.complete((String) exc.getProperty(KEY), flight, null);
+	}
+
+	private boolean isShareable(Response response) {
+		// responses setting cookies are most likely personalized
+		if (response.getHeader().getFirstValue(Header.SET_COOKIE) != null)
+			return false;
+		if (response.getStatusCode() < 200 || response.getStatusCode() == 304)
+			return false;
+		return response.getHeader().getContentLength() <= maxBodySize;
+	}
+
+	private String getKey(Request request, String dest) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(request.getMethod()).append(' ').append(dest);
+		for (String name : varyNames) {
+			sb.append('\n').append(name).append(':');
+			for (HeaderField field : request.getHeader().getAllHeaderFields())
+				if (field.getHeaderName().equals(name))
+					sb.append(field.getValue()).append(',');
+		}
+		return sb.toString();
+	}
+
+	private static String[] parseNames(String names) {
+		List<String> result = new ArrayList<String>();
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (name.length() > 0)
+				result.add(name);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @description How long (in milliseconds) a request waits for the response to an identical request, before it
+	 *              is forwarded on its own.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * @description Responses with larger bodies (in bytes) are not handed to waiting requests, as they would have
+	 *              to be buffered in memory.
+	 * @default 1048576
+	 */
+	@MCAttribute
+	public void setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	public String getVaryHeaders() {
+		return varyHeaders;
+	}
+
+	/**
+	 * @description Comma-separated list of request header names. Requests are only considered identical, if the
+	 *              values of these headers are equal.
+	 * @default Accept, Accept-Encoding, Accept-Language, Authorization, Cookie
+	 */
+	@MCAttribute
+	public void setVaryHeaders(String varyHeaders) {
+		this.varyHeaders = varyHeaders;
+		this.varyNames = parseNames(varyHeaders);
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Collapses concurrent identical GET and HEAD requests into one backend call (" + coalescer.getInFlight() +
+				" in flight).";
+	}
+
+	@Override
+	public String getLongDescription() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getShortDescription());
+		sb.append("<br/>Backend calls: " + leaders.get());
+		sb.append("<br/>Coalesced requests: " + coalesced.get());
+		sb.append("<br/>Requests forwarded after waiting: " + fallbacks.get());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,82 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An approximate, aging access frequency counter (a count-min sketch with 4 bit counters), used as the admission
+ * filter of the TinyLFU cache policy: A new entry only replaces an eviction candidate, if it has been requested
+ * more often recently.
+ *
+ * Concurrent updates may get lost, which is acceptable for an approximation.
+ */
+class FrequencySketch {
+
+	private static final int DEPTH = 4;
+	private static final int[] SEEDS = new int[] { 0x97cb3127, 0xb3f1a5e9, 0x6fd3e9b1, 0x2a4b8c1d };
+	private static final int MAX_COUNT = 15;
+
+	private final byte[] table;
+	private final int mask;
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+
+	/**
+	 * @param expectedEntries the expected maximum number of entries in the cache
+	 */
+	public FrequencySketch(int expectedEntries) {
+		int width = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+		table = new byte[width * DEPTH];
+		mask = width - 1;
+		sampleSize = 10 * width;
+	}
+
+	private int index(int hash, int row) {
+		int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+		h ^= h >>> 15;
+		return row * (mask + 1) + (h & mask);
+	}
+
+	public void increment(String key) {
+		int hash = key.hashCode();
+		boolean added = false;
+		for (int row = 0; row < DEPTH; row++) {
+			int i = index(hash, row);
+			if (table[i] < MAX_COUNT) {
+				table[i]++;
+				added = true;
+			}
+		}
+		if (added && additions.incrementAndGet() == sampleSize)
+			reset();
+	}
+
+	public int frequency(String key) {
+		int hash = key.hashCode();
+		int min = MAX_COUNT;
+		for (int row = 0; row < DEPTH; row++)
+			min = Math.min(min, table[index(hash, row)]);
+		return min;
+	}
+
+	/**
+	 * Halves all counters, so that the sketch reflects recent popularity.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++)
+			table[i] = (byte) (table[i] >>> 1);
+		additions.set(0);
+	}
+}
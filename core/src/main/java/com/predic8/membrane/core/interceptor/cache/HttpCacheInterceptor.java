@@ -0,0 +1,538 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCChildElement;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.AbstractMessageObserver;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.cache.RequestCoalescer.Flight;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpServerThreadFactory;
+
+/**
+ * @description <p>
+ *              A shared HTTP cache as described in RFC 7234.
+ *              </p>
+ *              <p>
+ *              Responses to GET requests are stored according to their <tt>Cache-Control</tt>, <tt>Expires</tt>
+ *              and <tt>Vary</tt> headers. Fresh responses are served directly without contacting the backend. Stale
+ *              responses carrying an <tt>ETag</tt> or <tt>Last-Modified</tt> header are revalidated using a
+ *              conditional request (<tt>If-None-Match</tt>/<tt>If-Modified-Since</tt>). If the backend allows it
+ *              using <tt>stale-while-revalidate</tt>, stale responses are served immediately while they are
+ *              revalidated in the background.
+ *              </p>
+ *              <p>
+ *              Concurrent requests missing the cache for the same URL are coalesced: Only one of them is forwarded
+ *              to the backend, the others wait (at most <i>coalesceTimeout</i> milliseconds) for its response to be
+ *              stored.
+ *              </p>
+ *              <p>
+ *              Unsafe requests (POST, PUT, DELETE, ...) invalidate the cached response for their URL.
+ *              </p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name="httpCache")
+public class HttpCacheInterceptor extends AbstractInterceptor {
+
+	private static final Log log = LogFactory.getLog(HttpCacheInterceptor.class.getName());
+
+	private static final String KEY = "httpCache.key";
+	private static final String FLIGHT = "httpCache.flight";
+	private static final String STALE_ENTRY = "httpCache.staleEntry";
+	private static final String STALE_ENTRY_KEY = "httpCache.staleEntryKey";
+	private static final String REQUEST_TIME = "httpCache.requestTime";
+	private static final String INVALIDATE = "httpCache.invalidate";
+
+	/**
+	 * Status codes which are cacheable by default, see RFC 7231 section 6.1.
+	 */
+	private static final int[] CACHEABLE_BY_DEFAULT = new int[] { 200, 203, 204, 300, 301, 404, 405, 410, 414, 501 };
+
+	private HttpCacheStore store = new MemoryCacheStore();
+	private int maxEntrySize = 1024 * 1024;
+	private long coalesceTimeout = 10000;
+	private long staleRetention = 3600;
+	private int maxBackgroundRevalidations = 4;
+
+	private final RequestCoalescer<Object> coalescer = new RequestCoalescer<Object>();
+	private ThreadPoolExecutor revalidator;
+	private HttpClient hc;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private static class Lookup {
+		final String key;
+		final CacheEntry entry;
+
+		public Lookup(String key, CacheEntry entry) {
+			this.key = key;
+			this.entry = entry;
+		}
+	}
+
+	public HttpCacheInterceptor() {
+		name = "HTTP Cache";
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		super.init(router);
+		store.init(router);
+		hc = router.getResolverMap().getHTTPSchemaResolver().getHttpClient();
+		revalidator = new ThreadPoolExecutor(0, maxBackgroundRevalidations, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new HttpServerThreadFactory("HTTP Cache Revalidator"));
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		if (exc.getDestinations().isEmpty())
+			return Outcome.CONTINUE;
+		Request request = exc.getRequest();
+		String dest = exc.getDestinations().get(0);
+
+		if (!request.isGETRequest()) {
+			if (!isSafe(request.getMethod()))
+				exc.setProperty(INVALIDATE, dest);
+			return Outcome.CONTINUE;
+		}
+
+		CacheControl cc = new CacheControl(request.getHeader());
+		if (cc.has(CacheControl.NO_STORE))
+			return Outcome.CONTINUE;
+		boolean noCache = cc.has(CacheControl.NO_CACHE) ||
+				(cc.isEmpty() && "no-cache".equalsIgnoreCase(request.getHeader().getFirstValue(Header.PRAGMA)));
+
+		long now = System.currentTimeMillis();
+		Lookup lookup = lookup(dest, request);
+		if (lookup != null && !noCache) {
+			if (isAcceptable(lookup.entry, cc, now)) {
+				hits.incrementAndGet();
+				return serve(exc, lookup.entry, now);
+			}
+			if (mayServeWhileRevalidating(lookup.entry, now)) {
+				staleHits.incrementAndGet();
+				revalidateInBackground(dest, lookup, request);
+				return serve(exc, lookup.entry, now);
+			}
+		}
+
+		if (cc.has(CacheControl.ONLY_IF_CACHED)) {
+			exc.setResponse(Response.ResponseBuilder.newInstance().status(504, "Gateway Timeout").bodyEmpty().build());
+			return Outcome.RETURN;
+		}
+
+		Flight<Object> flight = coalescer.lead(dest);
+		if (flight == null) {
+			Flight<Object> other = coalescer.get(dest);
+			if (other != null && !noCache) {
+				other.await(coalesceTimeout);
+				now = System.currentTimeMillis();
+				lookup = lookup(dest, request);
+				if (lookup != null && isAcceptable(lookup.entry, cc, now)) {
+					coalesced.incrementAndGet();
+					return serve(exc, lookup.entry, now);
+				}
+			}
+		} else {
+			exc.setProperty(FLIGHT, flight);
+		}
+
+		misses.incrementAndGet();
+		exc.setProperty(KEY, dest);
+		exc.setProperty(REQUEST_TIME, now);
+		if (lookup != null && !lookup.entry.isVaryIndex() && !isConditional(request)) {
+			String etag = lookup.entry.getETag();
+			String lastModified = lookup.entry.getHeader().getFirstValue(Header.LAST_MODIFIED);
+			if (etag != null || lastModified != null) {
+				if (etag != null)
+					request.getHeader().setValue(Header.IF_NONE_MATCH, etag);
+				if (lastModified != null)
+					request.getHeader().setValue(Header.IF_MODIFIED_SINCE, lastModified);
+				exc.setProperty(STALE_ENTRY, lookup.entry);
+				exc.setProperty(STALE_ENTRY_KEY, lookup.key);
+				revalidations.incrementAndGet();
+			}
+		}
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(Exchange exc) throws Exception {
+		Response response = exc.getResponse();
+
+		String invalidate = (String) exc.getProperty(INVALIDATE);
+		if (invalidate != null && response.getStatusCode() < 400)
+			store.remove(invalidate);
+
+		String key = (String) exc.getProperty(KEY);
+		if (key == null)
+			return Outcome.CONTINUE;
+		@SuppressWarnings("unchecked")
+		Flight<Object> flight = (Flight<Object>) exc.getProperty(FLIGHT);
+		long requestTime = (Long) exc.getProperty(REQUEST_TIME);
+		long responseTime = System.currentTimeMillis();
+
+		try {
+			CacheEntry stale = (CacheEntry) exc.getProperty(STALE_ENTRY);
+			if (stale != null && response.getStatusCode() == 304) {
+				// release the connection to the backend
+				response.getBody().read();
+				CacheEntry updated = stale.createUpdated(response, requestTime, responseTime);
+				put((String) exc.getProperty(STALE_ENTRY_KEY), updated);
+				exc.setResponse(updated.toResponse(responseTime, false));
+				complete(key, flight);
+				return Outcome.CONTINUE;
+			}
+
+			if (!isCacheable(exc.getRequest(), response)) {
+				complete(key, flight);
+				return Outcome.CONTINUE;
+			}
+			storeWhenComplete(key, flight, exc.getRequest(), response, requestTime, responseTime);
+		} catch (Exception e) {
+			log.warn("Exception during cache handling.", e);
+			complete(key, flight);
+		}
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public void handleAbort(Exchange exc) {
+		String key = (String) exc.getProperty(KEY);
+		@SuppressWarnings("unchecked")
+		Flight<Object> flight = (Flight<Object>) exc.getProperty(FLIGHT);
+		if (key != null)
+			complete(key, flight);
+	}
+
+	private void complete(String key, Flight<Object> flight) {
+		if (flight != null)
+			coalescer.complete(key, flight, null);
+	}
+
+	/**
+	 * Stores the response as soon as its body has been fully received (which, when streaming, happens after the body
+	 * has been forwarded to the client).
+	 */
+	private void storeWhenComplete(final String key, final Flight<Object> flight, final Request request, final Response response,
+			final long requestTime, final long responseTime) {
+		final Header header = new Header(response.getHeader());
+		final int statusCode = response.getStatusCode();
+		final String statusMessage = response.getStatusMessage();
+		response.addObserver(new AbstractMessageObserver() {
+			@Override
+			public void bodyComplete(AbstractBody body) {
+				try {
+					if (body.getLength() > maxEntrySize)
+						return;
+					store(key, request, new CacheEntry(statusCode, statusMessage, header, body.getContent(), requestTime, responseTime));
+				} catch (Exception e) {
+					log.warn("Could not store response.", e);
+				} finally {
+					complete(key, flight);
+				}
+			}
+		});
+	}
+
+	private void store(String key, Request request, CacheEntry entry) {
+		String[] varyNames = entry.getVaryNames();
+		if (varyNames.length > 0) {
+			put(key, CacheEntry.createVaryIndex(varyNames, entry.getHeader(), entry.getRequestTime(), entry.getResponseTime()));
+			key = key + CacheEntry.getVarySuffix(varyNames, request);
+		}
+		put(key, entry);
+	}
+
+	private void put(String key, CacheEntry entry) {
+		long expires = entry.getExpiryTime(staleRetention * 1000);
+		if (expires <= System.currentTimeMillis()) {
+			store.remove(key);
+			return;
+		}
+		if (!store.put(key, entry, expires) && log.isDebugEnabled())
+			log.debug("Cache store rejected response for " + key);
+	}
+
+	private Lookup lookup(String key, Request request) {
+		CacheEntry entry = store.get(key);
+		if (entry == null)
+			return null;
+		if (!entry.isVaryIndex())
+			return new Lookup(key, entry);
+		String variantKey = key + CacheEntry.getVarySuffix(entry.getVaryNames(), request);
+		CacheEntry variant = store.get(variantKey);
+		if (variant == null)
+			return null;
+		return new Lookup(variantKey, variant);
+	}
+
+	private Outcome serve(Exchange exc, CacheEntry entry, long now) throws Exception {
+		Request request = exc.getRequest();
+		boolean stale = !entry.isFresh(now);
+		if (isConditional(request) && entry.isNotModifiedFor(request))
+			exc.setResponse(entry.toNotModifiedResponse(now));
+		else
+			exc.setResponse(entry.toResponse(now, stale));
+		return Outcome.RETURN;
+	}
+
+	/**
+	 * Checks the freshness of the entry against the request's "Cache-Control" directives, see RFC 7234 section 5.2.1.
+	 */
+	private boolean isAcceptable(CacheEntry entry, CacheControl cc, long now) {
+		if (entry.isVaryIndex())
+			return false;
+		long age = entry.getCurrentAge(now);
+		long maxAge = cc.getSeconds(CacheControl.MAX_AGE);
+		if (maxAge != -1 && age > maxAge * 1000)
+			return false;
+		long minFresh = cc.getSeconds(CacheControl.MIN_FRESH);
+		if (minFresh != -1 && entry.getFreshnessLifetime() - age < minFresh * 1000)
+			return false;
+		if (entry.isFresh(now))
+			return true;
+		long maxStale = cc.getMaxStale();
+		return maxStale != -1 && !entry.isMustRevalidate() && !entry.isNoCache() &&
+				entry.getStaleness(now) <= maxStale * 1000;
+	}
+
+	/**
+	 * See RFC 5861 section 3.
+	 */
+	private boolean mayServeWhileRevalidating(CacheEntry entry, long now) {
+		if (entry.isVaryIndex() || entry.isMustRevalidate() || entry.isNoCache())
+			return false;
+		return entry.getStaleness(now) <= entry.getStaleWhileRevalidate();
+	}
+
+	private void revalidateInBackground(final String primaryKey, final Lookup lookup, Request request) {
+		final Flight<Object> flight = coalescer.lead(primaryKey);
+		if (flight == null)
+			return; // someone else is already fetching the resource
+
+		final Request conditional = new Request();
+		conditional.setMethod(Request.METHOD_GET);
+		conditional.setUri(request.getUri());
+		conditional.setVersion(request.getVersion());
+		conditional.setHeader(new Header(request.getHeader()));
+		conditional.getHeader().removeFields(Header.IF_NONE_MATCH);
+		conditional.getHeader().removeFields(Header.IF_MODIFIED_SINCE);
+		conditional.getHeader().removeFields(Header.CONTENT_LENGTH);
+		conditional.getHeader().removeFields(Header.TRANSFER_ENCODING);
+		if (lookup.entry.getETag() != null)
+			conditional.getHeader().setValue(Header.IF_NONE_MATCH, lookup.entry.getETag());
+		String lastModified = lookup.entry.getHeader().getFirstValue(Header.LAST_MODIFIED);
+		if (lastModified != null)
+			conditional.getHeader().setValue(Header.IF_MODIFIED_SINCE, lastModified);
+
+		try {
+			revalidator.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						revalidate(primaryKey, lookup, conditional);
+					} catch (Exception e) {
+						log.debug("Background revalidation of " + primaryKey + " failed.", e);
+					} finally {
+						coalescer.complete(primaryKey, flight, null);
+					}
+				}
+			});
+			revalidations.incrementAndGet();
+		} catch (RejectedExecutionException e) {
+			coalescer.complete(primaryKey, flight, null);
+		}
+	}
+
+	private void revalidate(String primaryKey, Lookup lookup, Request request) throws Exception {
+		Exchange exc = new Exchange(null);
+		exc.setRequest(request);
+		exc.getDestinations().add(primaryKey);
+		long requestTime = System.currentTimeMillis();
+		Response response = hc.call(exc).getResponse();
+		long responseTime = System.currentTimeMillis();
+		if (response.getStatusCode() == 304) {
+			response.getBody().read();
+			put(lookup.key, lookup.entry.createUpdated(response, requestTime, responseTime));
+			return;
+		}
+		byte[] body = response.getBody().getContent();
+		if (isCacheable(request, response) && body.length <= maxEntrySize)
+			store(primaryKey, request, new CacheEntry(response.getStatusCode(), response.getStatusMessage(),
+					response.getHeader(), body, requestTime, responseTime));
+		else
+			store.remove(lookup.key);
+	}
+
+	/**
+	 * See RFC 7234 section 3.
+	 */
+	private boolean isCacheable(Request request, Response response) {
+		int status = response.getStatusCode();
+		if (status == 206 || status == 304 || status < 200)
+			return false;
+		CacheControl requestCC = new CacheControl(request.getHeader());
+		CacheControl responseCC = new CacheControl(response.getHeader());
+		if (requestCC.has(CacheControl.NO_STORE) || responseCC.has(CacheControl.NO_STORE) || responseCC.has(CacheControl.PRIVATE))
+			return false;
+		if (request.getHeader().getFirstValue(Header.AUTHORIZATION) != null &&
+				!responseCC.has(CacheControl.PUBLIC) && !responseCC.has(CacheControl.S_MAXAGE) &&
+				!responseCC.has(CacheControl.MUST_REVALIDATE))
+			return false;
+		// responses setting cookies are most likely personalized
+		if (response.getHeader().getFirstValue(Header.SET_COOKIE) != null)
+			return false;
+		if (CacheEntry.parseVary(response.getHeader()) == null)
+			return false;
+		int contentLength = response.getHeader().getContentLength();
+		if (contentLength > maxEntrySize)
+			return false;
+
+		boolean explicit = responseCC.has(CacheControl.MAX_AGE) || responseCC.has(CacheControl.S_MAXAGE) ||
+				response.getHeader().getFirstValue(Header.EXPIRES) != null || responseCC.has(CacheControl.PUBLIC);
+		if (explicit)
+			return status < 500 || status == 501;
+		for (int code : CACHEABLE_BY_DEFAULT)
+			if (code == status)
+				return true;
+		return false;
+	}
+
+	private boolean isConditional(Request request) {
+		return request.getHeader().getFirstValue(Header.IF_NONE_MATCH) != null ||
+				request.getHeader().getFirstValue(Header.IF_MODIFIED_SINCE) != null;
+	}
+
+	private boolean isSafe(String method) {
+		return Request.METHOD_GET.equals(method) || Request.METHOD_HEAD.equals(method) ||
+				Request.METHOD_OPTIONS.equals(method) || Request.METHOD_TRACE.equals(method);
+	}
+
+	public HttpCacheStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @description Where to keep the cached responses: a &lt;memoryCacheStore /&gt; (default) or a
+	 *              &lt;mappedFileStore /&gt;.
+	 */
+	@MCChildElement
+	public void setStore(HttpCacheStore store) {
+		this.store = store;
+	}
+
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	/**
+	 * @description Responses whose bodies are larger than this number of bytes are not cached.
+	 * @default 1048576
+	 */
+	@MCAttribute
+	public void setMaxEntrySize(int maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+	}
+
+	public long getCoalesceTimeout() {
+		return coalesceTimeout;
+	}
+
+	/**
+	 * @description How long (in milliseconds) a request waits for a concurrent request to the same URL to be
+	 *              answered by the backend, before it is forwarded on its own.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setCoalesceTimeout(long coalesceTimeout) {
+		this.coalesceTimeout = coalesceTimeout;
+	}
+
+	public long getStaleRetention() {
+		return staleRetention;
+	}
+
+	/**
+	 * @description How long (in seconds) stale responses carrying a validator (<tt>ETag</tt> or
+	 *              <tt>Last-Modified</tt>) are kept to allow conditional revalidation.
+	 * @default 3600
+	 */
+	@MCAttribute
+	public void setStaleRetention(long staleRetention) {
+		this.staleRetention = staleRetention;
+	}
+
+	public int getMaxBackgroundRevalidations() {
+		return maxBackgroundRevalidations;
+	}
+
+	/**
+	 * @description The maximum number of concurrent background revalidations (caused by
+	 *              <tt>stale-while-revalidate</tt>).
+	 * @default 4
+	 */
+	@MCAttribute
+	public void setMaxBackgroundRevalidations(int maxBackgroundRevalidations) {
+		this.maxBackgroundRevalidations = maxBackgroundRevalidations;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Caches HTTP responses (" + store.getCount() + " entries, " + store.getSize() / 1024 + " KB).";
+	}
+
+	@Override
+	public String getLongDescription() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getShortDescription());
+		sb.append("<br/>Hits: " + hits.get());
+		sb.append("<br/>Stale hits (while revalidating): " + staleHits.get());
+		sb.append("<br/>Coalesced: " + coalesced.get());
+		sb.append("<br/>Misses: " + misses.get());
+		sb.append("<br/>Revalidations: " + revalidations.get());
+		sb.append("<br/>Evictions: " + store.getEvictions());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,48 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.core.Router;
+
+/**
+ * Storage backend of the {@link HttpCacheInterceptor}.
+ *
+ * Implementations need to be thread safe. {@link CacheEntry}s handed to or returned from a store are never modified
+ * afterwards.
+ */
+public abstract class HttpCacheStore {
+
+	public void init(Router router) throws Exception {
+	}
+
+	public abstract CacheEntry get(String key);
+
+	/**
+	 * @param expires the point in time after which the entry may be discarded
+	 * @return whether the entry has been stored (the store may reject it, for example because of its size)
+	 */
+	public abstract boolean put(String key, CacheEntry entry, long expires);
+
+	public abstract void remove(String key);
+
+	/**
+	 * @return the number of bytes occupied by the entries
+	 */
+	public abstract long getSize();
+
+	public abstract int getCount();
+
+	public abstract long getEvictions();
+
+}
@@ -0,0 +1,82 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.ByteBufferBody;
+import com.predic8.membrane.core.http.EmptyBody;
+import com.predic8.membrane.core.http.Header;
+
+/**
+ * A {@link CacheEntry} whose body resides in a memory-mapped segment file of a {@link MappedFileStore}. Only the
+ * status line and the headers are kept on the heap.
+ */
+class MappedCacheEntry extends CacheEntry {
+
+	private ByteBuffer bodyBuffer;
+
+	private MappedCacheEntry() {
+	}
+
+	public MappedCacheEntry(int statusCode, String statusMessage, Header header, String[] varyNames, boolean varyIndex,
+			ByteBuffer bodyBuffer, long requestTime, long responseTime) {
+		this.statusCode = statusCode;
+		this.statusMessage = statusMessage;
+		this.header = header;
+		this.varyNames = varyNames;
+		this.varyIndex = varyIndex;
+		this.bodyBuffer = bodyBuffer;
+		setTimes(requestTime, responseTime);
+	}
+
+	@Override
+	protected CacheEntry copy() {
+		MappedCacheEntry copy = new MappedCacheEntry();
+		copy.statusCode = statusCode;
+		copy.statusMessage = statusMessage;
+		copy.header = header;
+		copy.varyNames = varyNames;
+		copy.varyIndex = varyIndex;
+		copy.bodyBuffer = bodyBuffer;
+		return copy;
+	}
+
+	@Override
+	protected AbstractBody createBody() throws IOException {
+		if (bodyBuffer == null)
+			return new EmptyBody();
+		return new ByteBufferBody(bodyBuffer.duplicate());
+	}
+
+	@Override
+	protected ByteBuffer getBodyBuffer() {
+		return bodyBuffer == null ? null : bodyBuffer.duplicate();
+	}
+
+	@Override
+	public int getBodyLength() {
+		return bodyBuffer == null ? 0 : bodyBuffer.remaining();
+	}
+
+	/**
+	 * The body does not occupy heap space.
+	 */
+	@Override
+	public int getSize() {
+		return 100 + header.estimateHeapSize();
+	}
+}
@@ -0,0 +1,637 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.resolver.FileSchemaResolver;
+import com.predic8.membrane.core.resolver.ResolverMap;
+
+/**
+ * @description <p>
+ *              Keeps cached HTTP responses in memory-mapped segment files on disk. This allows caching large
+ *              amounts of data without putting pressure on the heap.
+ *              </p>
+ *              <p>
+ *              Responses are appended to the current segment file. An in-memory index maps each cache key to the
+ *              location of its record. Cache hits are served directly from the mapped region of the file: Neither
+ *              the headers nor the body need to be deserialized into Java objects besides the parsed header
+ *              fields.
+ *              </p>
+ *              <p>
+ *              Segments are periodically compacted: If most of the data in a segment has expired or has been
+ *              replaced, the remaining entries are copied to the current segment and the file is deleted. If the
+ *              total size of all segments exceeds <i>maxSize</i>, the oldest segment is dropped.
+ *              </p>
+ *              <p>
+ *              A small in-memory tier in front of the files keeps the parsed headers of recently used entries.
+ *              The index is rebuilt from the segment files on startup.
+ *              </p>
+ */
+@MCElement(name="mappedFileStore")
+public class MappedFileStore extends HttpCacheStore {
+
+	private static final Log log = LogFactory.getLog(MappedFileStore.class.getName());
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	private static final byte TYPE_ENTRY = 1;
+	private static final byte TYPE_TOMBSTONE = 2;
+
+	/**
+	 * Every record starts with its length (int), its type (byte) and the expiry time (long), followed by the key.
+	 * The length is written last, so that a partially written record is not recognized when the segment is read
+	 * again.
+	 */
+	private static final int OFFSET_TYPE = 4;
+	private static final int OFFSET_EXPIRES = 5;
+	private static final int OFFSET_KEY = 13;
+
+	private String dir;
+	private long maxSize = 1024L * 1024 * 1024;
+	private int segmentSize = 64 * 1024 * 1024;
+	private long hotMaxSize = 16 * 1024 * 1024;
+	private int compactionInterval = 60;
+	private int compactionThreshold = 50;
+
+	private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+	private final List<Segment> segments = new ArrayList<Segment>(); // guarded by segments
+	private Segment active; // guarded by segments
+	private MemoryCacheStore hot;
+	private Timer timer;
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Segment {
+		final int number;
+		final File file;
+		final ByteBuffer buffer;
+		final AtomicLong liveBytes = new AtomicLong();
+		volatile int used;
+
+		public Segment(int number, File file, ByteBuffer buffer) {
+			this.number = number;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private static class Location {
+		final Segment segment;
+		final int offset;
+		final int length;
+		final long expires;
+
+		public Location(Segment segment, int offset, int length, long expires) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.expires = expires;
+		}
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		if (segmentSize < 1024)
+			throw new Exception("mappedFileStore: segmentSize must be at least 1024.");
+		File d = new File(FileSchemaResolver.normalize(ResolverMap.combine(router.getBaseLocation(), dir)));
+		if (!d.exists() && !d.mkdirs())
+			throw new RuntimeException("Could not create directory " + d);
+		dir = d.getAbsolutePath();
+
+		if (hotMaxSize > 0) {
+			hot = new MemoryCacheStore();
+			hot.setMaxSize(hotMaxSize);
+			hot.init(router);
+		}
+
+		synchronized (segments) {
+			if (active != null)
+				return; // already initialized
+			load();
+			active = createSegment(segments.isEmpty() ? 0 : segments.get(segments.size() - 1).number + 1);
+			segments.add(active);
+		}
+
+		if (compactionInterval > 0) {
+			timer = new Timer("Cache Segment Compactor", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (Exception e) {
+						log.error("Compaction of cache segments failed.", e);
+					}
+				}
+			}, compactionInterval * 1000L, compactionInterval * 1000L);
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the existing segment files.
+	 */
+	private void load() throws IOException {
+		File[] files = new File(dir).listFiles();
+		if (files == null)
+			return;
+		int[] numbers = new int[files.length];
+		int n = 0;
+		for (File f : files) {
+			String name = f.getName();
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+			try {
+				int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+				numbers[n++] = number;
+			} catch (NumberFormatException e) {
+				log.warn("Ignoring " + f);
+			}
+		}
+		numbers = Arrays.copyOf(numbers, n);
+		Arrays.sort(numbers);
+
+		long now = System.currentTimeMillis();
+		for (int number : numbers) {
+			File file = getSegmentFile(number);
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			Segment segment;
+			try {
+				segment = new Segment(number, file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+			} finally {
+				raf.close();
+			}
+			int pos = 0;
+			int length;
+			while ((length = getRecordLength(segment, pos)) > 0) {
+				long expires = segment.buffer.getLong(pos + OFFSET_EXPIRES);
+				String key = readKey(segment, pos);
+				Location old = index.remove(key);
+				if (old != null)
+					old.segment.liveBytes.addAndGet(-old.length);
+				if (segment.buffer.get(pos + OFFSET_TYPE) == TYPE_ENTRY && expires >= now) {
+					index.put(key, new Location(segment, pos, length, expires));
+					segment.liveBytes.addAndGet(length);
+				}
+				pos += length;
+			}
+			segment.used = pos;
+			segments.add(segment);
+		}
+		log.info("Loaded " + index.size() + " cache entries from " + segments.size() + " segments in " + dir + ".");
+	}
+
+	/**
+	 * @return the length of the record at the position, or 0 if there is no (complete) record
+	 */
+	private int getRecordLength(Segment segment, int pos) {
+		if (pos + OFFSET_KEY > segment.buffer.capacity())
+			return 0;
+		int length = segment.buffer.getInt(pos);
+		if (length < OFFSET_KEY || pos + length > segment.buffer.capacity())
+			return 0;
+		return length;
+	}
+
+	private File getSegmentFile(int number) {
+		return new File(dir, SEGMENT_PREFIX + String.format("%08d", number) + SEGMENT_SUFFIX);
+	}
+
+	private Segment createSegment(int number) throws IOException {
+		File file = getSegmentFile(number);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(segmentSize);
+			return new Segment(number, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public CacheEntry get(String key) {
+		if (hot != null) {
+			CacheEntry entry = hot.get(key);
+			if (entry != null)
+				return entry;
+		}
+		Location location = index.get(key);
+		if (location == null)
+			return null;
+		if (location.expires < System.currentTimeMillis()) {
+			if (index.remove(key, location))
+				location.segment.liveBytes.addAndGet(-location.length);
+			return null;
+		}
+		CacheEntry entry = readEntry(location);
+		if (hot != null)
+			hot.put(key, entry, location.expires);
+		return entry;
+	}
+
+	@Override
+	public boolean put(String key, CacheEntry entry, long expires) {
+		byte[] meta;
+		try {
+			meta = serialize(key, entry);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		ByteBuffer body = entry.getBodyBuffer();
+		long length = (long) OFFSET_KEY + meta.length + (body == null ? 0 : body.remaining());
+		if (length > segmentSize)
+			return false;
+
+		Location location;
+		try {
+			location = append(TYPE_ENTRY, expires, meta, body);
+		} catch (IOException e) {
+			log.error("Could not write cache entry.", e);
+			return false;
+		}
+		location.segment.liveBytes.addAndGet(location.length);
+		Location old = index.put(key, location);
+		if (old != null)
+			old.segment.liveBytes.addAndGet(-old.length);
+		if (hot != null)
+			hot.put(key, readEntry(location), expires);
+		return true;
+	}
+
+	@Override
+	public void remove(String key) {
+		if (hot != null)
+			hot.remove(key);
+		Location old = index.remove(key);
+		if (old == null)
+			return;
+		old.segment.liveBytes.addAndGet(-old.length);
+		try {
+			// persist the removal, as the entry would otherwise reappear after a restart
+			append(TYPE_TOMBSTONE, old.expires, serializeKey(key), null);
+		} catch (IOException e) {
+			log.error("Could not write cache tombstone.", e);
+		}
+	}
+
+	private Location append(byte type, long expires, byte[] meta, ByteBuffer body) throws IOException {
+		int length = OFFSET_KEY + meta.length + (body == null ? 0 : body.remaining());
+		synchronized (segments) {
+			Segment segment = getSegmentWithSpace(length);
+			int pos = segment.used;
+			ByteBuffer b = segment.buffer.duplicate();
+			b.position(pos + OFFSET_TYPE);
+			b.put(type);
+			b.putLong(expires);
+			b.put(meta);
+			if (body != null)
+				b.put(body);
+			b.putInt(pos, length);
+			segment.used = pos + length;
+			return new Location(segment, pos, length, expires);
+		}
+	}
+
+	/**
+	 * Copies a record as-is into the current segment.
+	 */
+	private Location appendRaw(Location source) throws IOException {
+		synchronized (segments) {
+			Segment segment = getSegmentWithSpace(source.length);
+			ByteBuffer from = source.segment.buffer.duplicate();
+			from.limit(source.offset + source.length);
+			from.position(source.offset);
+			int pos = segment.used;
+			ByteBuffer b = segment.buffer.duplicate();
+			b.position(pos);
+			b.put(from);
+			segment.used = pos + source.length;
+			return new Location(segment, pos, source.length, source.expires);
+		}
+	}
+
+	private Segment getSegmentWithSpace(int length) throws IOException {
+		if (active == null)
+			throw new IllegalStateException("mappedFileStore has not been initialized.");
+		if (active.used + length <= segmentSize)
+			return active;
+		active = createSegment(active.number + 1);
+		segments.add(active);
+		while (segments.size() > 1 && (long) segments.size() * segmentSize > maxSize)
+			evict(segments.get(0));
+		return active;
+	}
+
+	/**
+	 * Drops a whole segment (and all entries still stored in it).
+	 */
+	private void evict(Segment segment) {
+		for (Map.Entry<String, Location> e : index.entrySet()) {
+			if (e.getValue().segment != segment)
+				continue;
+			if (index.remove(e.getKey(), e.getValue())) {
+				if (hot != null)
+					hot.remove(e.getKey());
+				evictions.incrementAndGet();
+			}
+		}
+		segment.liveBytes.set(0);
+		delete(segment);
+	}
+
+	private void delete(Segment segment) {
+		synchronized (segments) {
+			segments.remove(segment);
+		}
+		// The mapping stays valid until the buffer is garbage collected, so entries still referenced (for example
+		// by a response currently being sent) can still be read. On some platforms, mapped files cannot be deleted.
+		if (!segment.file.delete())
+			segment.file.deleteOnExit();
+	}
+
+	/**
+	 * Removes expired entries from the index and rewrites all segments (except the current one) which are mostly
+	 * unused.
+	 */
+	public void compact() throws IOException {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Location> e : index.entrySet()) {
+			Location location = e.getValue();
+			if (location.expires < now && index.remove(e.getKey(), location))
+				location.segment.liveBytes.addAndGet(-location.length);
+		}
+
+		List<Segment> candidates = new ArrayList<Segment>();
+		synchronized (segments) {
+			for (Segment segment : segments)
+				if (segment != active && segment.liveBytes.get() * 100 <= (long) segment.used * compactionThreshold)
+					candidates.add(segment);
+		}
+		for (Segment segment : candidates)
+			compact(segment, now);
+	}
+
+	private void compact(Segment segment, long now) throws IOException {
+		int moved = 0;
+		int pos = 0;
+		int length;
+		while (pos < segment.used && (length = getRecordLength(segment, pos)) > 0) {
+			long expires = segment.buffer.getLong(pos + OFFSET_EXPIRES);
+			String key = readKey(segment, pos);
+			if (segment.buffer.get(pos + OFFSET_TYPE) == TYPE_ENTRY) {
+				Location location = index.get(key);
+				if (location != null && location.segment == segment && location.offset == pos) {
+					Location copy = appendRaw(location);
+					if (index.replace(key, location, copy)) {
+						copy.segment.liveBytes.addAndGet(copy.length);
+						moved++;
+					}
+				}
+			} else if (expires >= now) {
+				// the tombstone is still needed, as the removed entry might still be present in an older segment
+				appendRaw(new Location(segment, pos, length, expires));
+			}
+			pos += length;
+		}
+		segment.liveBytes.set(0);
+		delete(segment);
+		if (log.isDebugEnabled())
+			log.debug("Compacted " + segment.file + ", moved " + moved + " entries.");
+	}
+
+	private static byte[] serializeKey(String key) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		writeString(out, key);
+		out.close();
+		return baos.toByteArray();
+	}
+
+	private static byte[] serialize(String key, CacheEntry entry) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		writeString(out, key);
+		out.writeLong(entry.getRequestTime());
+		out.writeLong(entry.getResponseTime());
+		out.writeInt(entry.getStatusCode());
+		writeString(out, entry.getStatusMessage());
+		out.writeBoolean(entry.isVaryIndex());
+		String[] varyNames = entry.getVaryNames();
+		out.writeInt(varyNames == null ? -1 : varyNames.length);
+		if (varyNames != null)
+			for (String name : varyNames)
+				writeString(out, name);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		entry.getHeader().write(header);
+		out.writeInt(header.size());
+		header.writeTo(out);
+		ByteBuffer body = entry.getBodyBuffer();
+		out.writeInt(body == null ? -1 : body.remaining());
+		out.close();
+		return baos.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(Constants.UTF_8_CHARSET);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, Constants.UTF_8_CHARSET);
+	}
+
+	private static String readKey(Segment segment, int pos) {
+		ByteBuffer b = segment.buffer.duplicate();
+		b.position(pos + OFFSET_KEY);
+		return readString(b);
+	}
+
+	private static CacheEntry readEntry(Location location) {
+		ByteBuffer b = location.segment.buffer.asReadOnlyBuffer();
+		b.position(location.offset + OFFSET_KEY);
+		readString(b); // key
+		long requestTime = b.getLong();
+		long responseTime = b.getLong();
+		int statusCode = b.getInt();
+		String statusMessage = readString(b);
+		boolean varyIndex = b.get() != 0;
+		int varyCount = b.getInt();
+		String[] varyNames = null;
+		if (varyCount >= 0) {
+			varyNames = new String[varyCount];
+			for (int i = 0; i < varyCount; i++)
+				varyNames[i] = readString(b);
+		}
+		byte[] headerBytes = new byte[b.getInt()];
+		b.get(headerBytes);
+		Header header;
+		try {
+			header = new Header(new String(headerBytes, Constants.ISO_8859_1_CHARSET));
+		} catch (Exception e) {
+			throw new RuntimeException("Corrupt cache record in " + location.segment.file, e);
+		}
+		int bodyLength = b.getInt();
+		ByteBuffer body = null;
+		if (bodyLength >= 0) {
+			b.limit(b.position() + bodyLength);
+			body = b.slice();
+		}
+		return new MappedCacheEntry(statusCode, statusMessage, header, varyNames, varyIndex, body, requestTime, responseTime);
+	}
+
+	/**
+	 * @return the number of bytes occupied by live entries in the segment files
+	 */
+	@Override
+	public long getSize() {
+		long size = 0;
+		synchronized (segments) {
+			for (Segment segment : segments)
+				size += segment.liveBytes.get();
+		}
+		return size;
+	}
+
+	@Override
+	public int getCount() {
+		return index.size();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int getSegmentCount() {
+		synchronized (segments) {
+			return segments.size();
+		}
+	}
+
+	public String getDir() {
+		return dir;
+	}
+
+	/**
+	 * @description The directory where the segment files are stored.
+	 * @example cache
+	 */
+	@Required
+	@MCAttribute
+	public void setDir(String dir) {
+		this.dir = dir;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @description The maximum total size of all segment files in bytes. If it is exceeded, the oldest segment is
+	 *              dropped.
+	 * @default 1073741824
+	 */
+	@MCAttribute
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @description The size of a segment file in bytes. This is also the maximum size of a cached response.
+	 * @default 67108864
+	 */
+	@MCAttribute
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public long getHotMaxSize() {
+		return hotMaxSize;
+	}
+
+	/**
+	 * @description The maximum heap size (in bytes) used to keep the parsed headers of recently used entries.
+	 *              Bodies are never copied onto the heap. Set to 0 to disable the in-memory tier.
+	 * @default 16777216
+	 */
+	@MCAttribute
+	public void setHotMaxSize(long hotMaxSize) {
+		this.hotMaxSize = hotMaxSize;
+	}
+
+	public int getCompactionInterval() {
+		return compactionInterval;
+	}
+
+	/**
+	 * @description The interval in seconds in which segments are checked for compaction. Set to 0 to disable
+	 *              compaction.
+	 * @default 60
+	 */
+	@MCAttribute
+	public void setCompactionInterval(int compactionInterval) {
+		this.compactionInterval = compactionInterval;
+	}
+
+	public int getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	/**
+	 * @description A segment is compacted, if at most this percentage of its data is still in use.
+	 * @default 50
+	 */
+	@MCAttribute
+	public void setCompactionThreshold(int compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+}
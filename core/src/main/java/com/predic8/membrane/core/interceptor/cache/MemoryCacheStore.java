@@ -0,0 +1,234 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+
+/**
+ * @description <p>
+ *              Keeps cached HTTP responses on the heap, bounded by their total size.
+ *              </p>
+ *              <p>
+ *              Entries are evicted in least-recently-used order. If <i>admission</i> is enabled, a new entry only
+ *              displaces old ones, if it has been requested more frequently recently (TinyLFU). This protects
+ *              popular entries from being flushed out by a scan over many rarely requested URLs.
+ *              </p>
+ */
+@MCElement(name="memoryCacheStore")
+public class MemoryCacheStore extends HttpCacheStore {
+
+	private static final int SEGMENTS = 16;
+
+	private long maxSize = 64 * 1024 * 1024;
+	private boolean admission = true;
+
+	private Segment[] segments;
+	private FrequencySketch sketch;
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Holder {
+		final CacheEntry entry;
+		final long expires;
+		final int size;
+
+		public Holder(CacheEntry entry, long expires, int size) {
+			this.entry = entry;
+			this.expires = expires;
+			this.size = size;
+		}
+	}
+
+	private class Segment {
+		private final LinkedHashMap<String, Holder> map = new LinkedHashMap<String, Holder>(16, 0.75f, true);
+		private final long maxSize;
+		private long size; // guarded by this
+
+		public Segment(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public synchronized CacheEntry get(String key, long now) {
+			Holder h = map.get(key);
+			if (h == null)
+				return null;
+			if (h.expires < now) {
+				map.remove(key);
+				size -= h.size;
+				return null;
+			}
+			return h.entry;
+		}
+
+		public synchronized boolean put(String key, CacheEntry entry, long expires, long now) {
+			int entrySize = entry.getSize() + 2 * key.length();
+			if (entrySize > maxSize)
+				return false;
+			Holder old = map.remove(key);
+			if (old != null)
+				size -= old.size;
+			if (size + entrySize > maxSize && !makeRoom(key, entrySize, now))
+				return false;
+			map.put(key, new Holder(entry, expires, entrySize));
+			size += entrySize;
+			return true;
+		}
+
+		private boolean makeRoom(String candidate, int entrySize, long now) {
+			// first drop all expired entries
+			for (Iterator<Holder> it = map.values().iterator(); it.hasNext(); ) {
+				Holder h = it.next();
+				if (h.expires < now) {
+					it.remove();
+					size -= h.size;
+				}
+			}
+			if (size + entrySize <= maxSize)
+				return true;
+
+			// determine the victims (in LRU order) and decide on the admission before evicting any of them
+			int candidateFrequency = admission ? sketch.frequency(candidate) : 0;
+			int victims = 0;
+			long freed = 0;
+			for (Map.Entry<String, Holder> victim : map.entrySet()) {
+				if (admission && sketch.frequency(victim.getKey()) > candidateFrequency)
+					return false;
+				victims++;
+				freed += victim.getValue().size;
+				if (size - freed + entrySize <= maxSize)
+					break;
+			}
+			if (size - freed + entrySize > maxSize)
+				return false;
+
+			Iterator<Holder> it = map.values().iterator();
+			for (int i = 0; i < victims; i++) {
+				size -= it.next().size;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+			return true;
+		}
+
+		public synchronized void remove(String key) {
+			Holder h = map.remove(key);
+			if (h != null)
+				size -= h.size;
+		}
+
+		public synchronized long getSize() {
+			return size;
+		}
+
+		public synchronized int getCount() {
+			return map.size();
+		}
+	}
+
+	public MemoryCacheStore() {
+		createSegments();
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		createSegments();
+	}
+
+	private void createSegments() {
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(maxSize / SEGMENTS);
+		// assume an average entry size of 4 KB to dimension the sketch
+		sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxSize / 4096));
+	}
+
+	private Segment getSegment(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	@Override
+	public CacheEntry get(String key) {
+		if (admission)
+			sketch.increment(key);
+		return getSegment(key).get(key, System.currentTimeMillis());
+	}
+
+	@Override
+	public boolean put(String key, CacheEntry entry, long expires) {
+		return getSegment(key).put(key, entry, expires, System.currentTimeMillis());
+	}
+
+	@Override
+	public void remove(String key) {
+		getSegment(key).remove(key);
+	}
+
+	@Override
+	public long getSize() {
+		long size = 0;
+		for (Segment s : segments)
+			size += s.getSize();
+		return size;
+	}
+
+	@Override
+	public int getCount() {
+		int count = 0;
+		for (Segment s : segments)
+			count += s.getCount();
+		return count;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @description The maximum total size of all cached responses (including their headers) in bytes.
+	 * @default 67108864
+	 */
+	@MCAttribute
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		createSegments();
+	}
+
+	public boolean isAdmission() {
+		return admission;
+	}
+
+	/**
+	 * @description Whether new entries should only displace older ones, if they have been requested more often
+	 *              recently (TinyLFU admission policy). If false, plain LRU eviction is used.
+	 * @default true
+	 */
+	@MCAttribute
+	public void setAdmission(boolean admission) {
+		this.admission = admission;
+	}
+
+}
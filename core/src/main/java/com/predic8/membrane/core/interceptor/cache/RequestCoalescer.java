@@ -0,0 +1,81 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses concurrent work on the same key: The first caller ("leader") of {@link #lead(String)} gets a
+ * {@link Flight} and performs the work, all other callers wait on the leader's flight until
+ * {@link #complete(String, Flight, Object)} is called.
+ *
+ * Waiting is always bounded by a timeout, as the leader's work might never complete (for example, if the client
+ * disconnects before the response has been fully transferred).
+ */
+public class RequestCoalescer<T> {
+
+	private final ConcurrentHashMap<String, Flight<T>> flights = new ConcurrentHashMap<String, Flight<T>>();
+
+	public static class Flight<T> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile T result;
+
+		/**
+		 * @return the leader's result, or null if the leader did not produce a result or the timeout expired
+		 */
+		public T await(long timeoutMillis) throws InterruptedException {
+			if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS))
+				return null;
+			return result;
+		}
+
+		public boolean isCompleted() {
+			return latch.getCount() == 0;
+		}
+	}
+
+	/**
+	 * @return a new flight, if the caller became the leader for the key; null, if there already is a flight for
+	 *         the key (which can be retrieved using {@link #get(String)}).
+	 */
+	public Flight<T> lead(String key) {
+		Flight<T> flight = new Flight<T>();
+		if (flights.putIfAbsent(key, flight) != null)
+			return null;
+		return flight;
+	}
+
+	public Flight<T> get(String key) {
+		return flights.get(key);
+	}
+
+	/**
+	 * Ends the flight and wakes all waiting callers. Only the first call for a flight has an effect.
+	 *
+	 * @param result the result handed to the waiting callers, may be null
+	 */
+	public void complete(String key, Flight<T> flight, T result) {
+		flights.remove(key, flight);
+		if (flight.isCompleted())
+			return;
+		flight.result = result;
+		flight.latch.countDown();
+	}
+
+	public int getInFlight() {
+		return flights.size();
+	}
+}
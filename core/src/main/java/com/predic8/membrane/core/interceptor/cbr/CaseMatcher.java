@@ -0,0 +1,141 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cbr;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathAnalyzer;
+import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathParser.ContainerNode;
+
+/**
+ * Decides {@link Case}s whose XPath expression only checks for the existence of named elements (for example
+ * "//foo | //*[local-name()='bar' and namespace-uri()='http://baz/']") using a single pass of a StAX parser
+ * over the document, without building a DOM.
+ */
+class CaseMatcher {
+	private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * For each case, the elements any of which has to exist, or null if the case cannot be decided by this class.
+	 */
+	private final QName[][] elements;
+	private final boolean streamable;
+
+	public CaseMatcher(List<Case> cases) {
+		elements = new QName[cases.size()][];
+		boolean streamable = false;
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = getExistingElements(cases.get(i).getxPath());
+			if (elements[i] != null)
+				streamable = true;
+		}
+		this.streamable = streamable;
+	}
+
+	private static QName[] getExistingElements(String xPath) {
+		SimpleXPathAnalyzer a = new SimpleXPathAnalyzer();
+		try {
+			List<ContainerNode> intersectExceptExprs = a.getIntersectExceptExprs(xPath);
+			if (intersectExceptExprs == null)
+				return null;
+			List<QName> result = new ArrayList<QName>();
+			for (ContainerNode node : intersectExceptExprs) {
+				QName n = a.getExistingElement(node);
+				if (n == null)
+					return null;
+				result.add(n);
+			}
+			return result.toArray(new QName[result.size()]);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether the case can be decided by {@link #match(InputStream)}
+	 */
+	public boolean isStreamable(int caseIndex) {
+		return elements[caseIndex] != null;
+	}
+
+	/**
+	 * @return whether any case can be decided by {@link #match(InputStream)}
+	 */
+	public boolean isStreamable() {
+		return streamable;
+	}
+
+	/**
+	 * Parses the document until it is clear which of the cases matches first.
+	 *
+	 * @return for each case decidable by this class, whether it matches; null, if the input is not well-formed XML
+	 */
+	public boolean[] match(InputStream is) {
+		boolean[] matched = new boolean[elements.length];
+		try {
+			XMLStreamReader reader;
+			synchronized (xmlInputFactory) {
+				reader = xmlInputFactory.createXMLStreamReader(is);
+			}
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamReader.START_ELEMENT)
+						continue;
+					String namespace = reader.getNamespaceURI();
+					if (namespace == null)
+						namespace = "";
+					String localName = reader.getLocalName();
+					for (int i = 0; i < elements.length; i++)
+						if (!matched[i] && elements[i] != null && matches(elements[i], namespace, localName))
+							matched[i] = true;
+					if (isDecided(matched))
+						break;
+				}
+			} finally {
+				reader.close();
+			}
+			return matched;
+		} catch (XMLStreamException e) {
+			return null;
+		}
+	}
+
+	private static boolean matches(QName[] elements, String namespace, String localName) {
+		for (QName element : elements)
+			if (element.getLocalPart().equals(localName) &&
+					(element.getNamespaceURI().equals("*") || element.getNamespaceURI().equals(namespace)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Cases are tried in order. A case which has not matched yet may still match later on in the document, so the
+	 * result is only clear before the end of the document, if the first case has matched.
+	 */
+	private static boolean isDecided(boolean[] matched) {
+		return matched.length > 0 && matched[0];
+	}
+}
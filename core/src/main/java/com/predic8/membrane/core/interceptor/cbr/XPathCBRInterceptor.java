@@ -14,19 +14,21 @@
 
 package com.predic8.membrane.core.interceptor.cbr;
 
-import static com.predic8.membrane.core.util.SynchronizedXPathFactory.newXPath;
-
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Required;
-import org.xml.sax.InputSource;
+import org.w3c.dom.Document;
 
 import com.googlecode.jatl.Html;
 import com.predic8.membrane.annot.MCChildElement;
@@ -35,10 +37,19 @@ import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.util.MapNamespaceContext;
 import com.predic8.membrane.core.util.TextUtil;
 
 /**
- * @description Changes an exchange's target based on a series of XPath expressions.
+ * @description <p>
+ *              Changes an exchange's target based on a series of XPath expressions.
+ *              </p>
+ *              <p>
+ *              Cases whose expression only checks for the existence of an element (for example
+ *              <tt>//foo</tt> or <tt>//*[local-name()='foo' and namespace-uri()='http://bar/']</tt>) are evaluated
+ *              using a StAX parser in a single pass over the body. A DOM is only built, if another case has to be
+ *              evaluated.
+ *              </p>
  * @topic 3. Enterprise Integration Patterns
  */
 @MCElement(name="switch")
@@ -48,10 +59,20 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 	private List<Case> cases = new ArrayList<Case>();
 	private Map<String, String> namespaces;
 
+	private volatile CaseMatcher caseMatcher;
+	// XPathExpression is not thread-safe
+	private final ThreadLocal<XPathExpression[]> expressions = new ThreadLocal<XPathExpression[]>();
+
 	public XPathCBRInterceptor() {
 		name = "Content Based Router";
 	}
 
+	@Override
+	public void init() throws Exception {
+		compileExpressions(); // to throw XPathExpressionException early
+		caseMatcher = new CaseMatcher(cases);
+	}
+
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
 		if (exc.getRequest().isBodyEmpty()) {
@@ -75,17 +96,55 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 	}
 
 	private Case findRoute(Request request) throws Exception {
-		for (Case r : cases) {
-			//TODO getBodyAsStream creates ByteArray each call. That could be a performance issue. Using BufferedInputStream did't work, because stream got closed.
-			InputSource is = new InputSource(request.getBodyAsStreamDecoded());
-			is.setEncoding(request.getCharset());
-			if ( (Boolean) newXPath(namespaces).evaluate(r.getxPath(), is, XPathConstants.BOOLEAN) )
+		CaseMatcher caseMatcher = this.caseMatcher;
+		if (caseMatcher == null)
+			this.caseMatcher = caseMatcher = new CaseMatcher(cases);
+
+		boolean[] matched = null;
+		if (caseMatcher.isStreamable())
+			matched = caseMatcher.match(request.getBodyAsStreamDecoded());
+
+		// the DOM is only built, if needed, and then shared by all remaining cases
+		Document doc = null;
+		XPathExpression[] xpe = null;
+		for (int i = 0; i < cases.size(); i++) {
+			Case r = cases.get(i);
+			boolean match;
+			if (matched != null && caseMatcher.isStreamable(i)) {
+				match = matched[i];
+			} else {
+				if (doc == null) {
+					doc = request.getBodyAsDocumentDecoded();
+					xpe = getExpressions();
+				}
+				match = (Boolean) xpe[i].evaluate(doc, XPathConstants.BOOLEAN);
+			}
+			if (match)
 				return r;
 			log.debug("no match found for xpath {"+r.getxPath()+"}");
 		}
 		return null;
 	}
 
+	private XPathExpression[] getExpressions() throws XPathExpressionException {
+		XPathExpression[] res = expressions.get();
+		if (res != null)
+			return res;
+		res = compileExpressions();
+		expressions.set(res);
+		return res;
+	}
+
+	private XPathExpression[] compileExpressions() throws XPathExpressionException {
+		XPath xPath = XPathFactory.newInstance().newXPath();
+		if (namespaces != null)
+			xPath.setNamespaceContext(new MapNamespaceContext(namespaces));
+		XPathExpression[] res = new XPathExpression[cases.size()];
+		for (int i = 0; i < res.length; i++)
+			res[i] = xPath.compile(cases.get(i).getxPath());
+		return res;
+	}
+
 	public Map<String, String> getNamespaces() {
 		return namespaces;
 	}
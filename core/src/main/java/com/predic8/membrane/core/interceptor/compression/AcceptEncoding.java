@@ -0,0 +1,80 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.util.Locale;
+
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+
+/**
+ * Evaluates the "Accept-Encoding" request header, see RFC 7231 section 5.3.4.
+ */
+public class AcceptEncoding {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	public static final String BROTLI = "br";
+
+	/**
+	 * @return whether the client accepts the content coding (with a quality value greater than 0)
+	 */
+	public static boolean accepts(Header header, String coding) {
+		return getQuality(header, coding) > 0;
+	}
+
+	/**
+	 * @return the quality value of the content coding, 0 if it is not acceptable
+	 */
+	public static double getQuality(Header header, String coding) {
+		double wildcard = 0;
+		for (HeaderField field : header.getAllHeaderFields()) {
+			if (!field.getHeaderName().equals(Header.ACCEPT_ENCODING))
+				continue;
+			for (String element : field.getValue().split(",")) {
+				String[] parts = element.split(";");
+				String name = parts[0].trim().toLowerCase(Locale.US);
+				double q = 1;
+				for (int i = 1; i < parts.length; i++) {
+					String param = parts[i].trim();
+					if (param.startsWith("q=") || param.startsWith("Q=")) {
+						try {
+							q = Double.parseDouble(param.substring(2).trim());
+						} catch (NumberFormatException e) {
+							q = 0;
+						}
+					}
+				}
+				if (name.equals(coding) || (coding.equals(GZIP) && name.equals("x-gzip")))
+					return q;
+				if (name.equals("*"))
+					wildcard = q;
+			}
+		}
+		return wildcard;
+	}
+
+	/**
+	 * @return "gzip" or "deflate", whichever the client prefers, or null if the client accepts none of them
+	 */
+	public static String negotiate(Header header) {
+		double gzip = getQuality(header, GZIP);
+		double deflate = getQuality(header, DEFLATE);
+		if (gzip > 0 && gzip >= deflate)
+			return GZIP;
+		if (deflate > 0)
+			return DEFLATE;
+		return null;
+	}
+}
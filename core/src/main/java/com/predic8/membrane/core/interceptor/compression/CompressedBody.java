@@ -0,0 +1,92 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.AbstractBodyTransferrer;
+import com.predic8.membrane.core.http.Chunk;
+import com.predic8.membrane.core.http.MessageObserver;
+import com.predic8.membrane.core.http.PlainBodyTransferrer;
+
+/**
+ * The compressed representation of another body.
+ *
+ * When the body is sent without being read before, the original body is compressed while it is streamed: Each
+ * piece of data received is compressed and forwarded immediately, the original body is never fully buffered (except
+ * for the copy {@link AbstractBody} always retains). The compressed content is only kept, if someone calls
+ * {@link #read()}.
+ */
+class CompressedBody extends AbstractBody {
+
+	private final AbstractBody original;
+	private final DeflaterPool pool;
+	private final boolean gzip;
+	private final CompressionInterceptor statistics;
+
+	public CompressedBody(AbstractBody original, DeflaterPool pool, boolean gzip, CompressionInterceptor statistics) {
+		this.original = original;
+		this.pool = pool;
+		this.gzip = gzip;
+		this.statistics = statistics;
+	}
+
+	private void compress(AbstractBodyTransferrer out) throws IOException {
+		Deflater deflater = pool.acquire();
+		try {
+			DeflatingBodyTransferrer deflating = new DeflatingBodyTransferrer(out, deflater, gzip);
+			original.write(deflating);
+			// an empty body does not necessarily finish the transferrer
+			deflating.finish();
+			statistics.record(deflating.getBytesIn(), deflating.getBytesOut());
+		} finally {
+			pool.release(deflater);
+		}
+	}
+
+	@Override
+	protected void readLocal() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		compress(new PlainBodyTransferrer(baos));
+		chunks.add(new Chunk(baos.toByteArray()));
+	}
+
+	@Override
+	protected void writeAlreadyRead(AbstractBodyTransferrer out) throws IOException {
+		if (getLength() > 0)
+			out.write(getContent(), 0, getLength());
+		out.finish();
+	}
+
+	@Override
+	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
+		compress(out);
+
+		// the compressed content is not retained: if someone is interested in it later on, it will be recomputed
+		List<MessageObserver> observers = new ArrayList<MessageObserver>(this.observers);
+		this.observers.clear();
+		for (MessageObserver observer : observers)
+			observer.bodyComplete(this);
+	}
+
+	@Override
+	protected byte[] getRawLocal() throws IOException {
+		return getContent();
+	}
+}
@@ -0,0 +1,252 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.cache.CacheControl;
+
+/**
+ * @description <p>
+ *              Compresses response bodies using gzip or deflate, if the client accepts it (see the
+ *              <tt>Accept-Encoding</tt> request header).
+ *              </p>
+ *              <p>
+ *              Responses are compressed while they are streamed to the client using chunked transfer encoding: The
+ *              response body is never fully buffered.
+ *              </p>
+ *              <p>
+ *              Only responses whose content type is listed in <i>contentTypes</i> and which are not smaller than
+ *              <i>minSize</i> are compressed. Responses already carrying a <tt>Content-Encoding</tt> or
+ *              <tt>Cache-Control: no-transform</tt> are left untouched.
+ *              </p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name="compression")
+public class CompressionInterceptor extends AbstractInterceptor {
+
+	private static final String ENCODING = "compression.encoding";
+
+	private int minSize = 1024;
+	private String contentTypes = "text/, application/json, application/javascript, application/x-javascript, " +
+			"application/xml, application/soap+xml, image/svg+xml";
+	private String[] contentTypePatterns = parseList(contentTypes);
+	private int level = 6;
+	private int maxIdleDeflaters = 32;
+
+	private DeflaterPool gzipPool;
+	private DeflaterPool deflatePool;
+
+	private final AtomicLong compressed = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+
+	public CompressionInterceptor() {
+		name = "Compression";
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		super.init(router);
+		gzipPool = new DeflaterPool(level, true, maxIdleDeflaters);
+		deflatePool = new DeflaterPool(level, false, maxIdleDeflaters);
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		Request request = exc.getRequest();
+		// HTTP/1.0 clients do not support chunked transfer encoding
+		if (request.isHEADRequest() || request.isHTTP10())
+			return Outcome.CONTINUE;
+		String encoding = AcceptEncoding.negotiate(request.getHeader());
+		if (encoding != null)
+			exc.setProperty(ENCODING, encoding);
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(Exchange exc) throws Exception {
+		Response response = exc.getResponse();
+		if (!isCompressible(response))
+			return Outcome.CONTINUE;
+
+		Header header = response.getHeader();
+		addVary(header);
+
+		String encoding = (String) exc.getProperty(ENCODING);
+		if (encoding == null)
+			return Outcome.CONTINUE;
+
+		boolean gzip = AcceptEncoding.GZIP.equals(encoding);
+		header.removeFields(Header.CONTENT_LENGTH);
+		header.setValue(Header.TRANSFER_ENCODING, Header.CHUNKED);
+		header.setValue(Header.CONTENT_ENCODING, encoding);
+		// the representation changes, so a strong validator must not be reused
+		String etag = header.getFirstValue(Header.ETAG);
+		if (etag != null && !etag.startsWith("W/"))
+			header.setValue(Header.ETAG, "W/" + etag);
+		response.setBody(new CompressedBody(response.getBody(), gzip ? gzipPool : deflatePool, gzip, this));
+		compressed.incrementAndGet();
+		return Outcome.CONTINUE;
+	}
+
+	private boolean isCompressible(Response response) {
+		int status = response.getStatusCode();
+		if (status < 200 || status == 204 || status == 206 || status == 304)
+			return false;
+		Header header = response.getHeader();
+		String contentEncoding = header.getContentEncoding();
+		if (contentEncoding != null && !contentEncoding.trim().equalsIgnoreCase("identity"))
+			return false;
+		if (header.getFirstValue("Content-Range") != null)
+			return false;
+		if (new CacheControl(header).has("no-transform"))
+			return false;
+		if (!isCompressibleContentType(header.getContentType()))
+			return false;
+		int contentLength = header.getContentLength();
+		return contentLength == -1 || contentLength >= minSize;
+	}
+
+	private boolean isCompressibleContentType(String contentType) {
+		if (contentType == null)
+			return false;
+		int semicolon = contentType.indexOf(';');
+		if (semicolon != -1)
+			contentType = contentType.substring(0, semicolon);
+		contentType = contentType.trim().toLowerCase(Locale.US);
+		// compressing would delay the delivery of events
+		if (contentType.equals("text/event-stream"))
+			return false;
+		for (String pattern : contentTypePatterns) {
+			if (pattern.endsWith("/") ? contentType.startsWith(pattern) : contentType.equals(pattern))
+				return true;
+		}
+		return false;
+	}
+
+	private void addVary(Header header) {
+		for (HeaderField field : header.getAllHeaderFields()) {
+			if (!field.getHeaderName().equals(Header.VARY))
+				continue;
+			for (String name : field.getValue().split(","))
+				if (name.trim().equalsIgnoreCase(Header.ACCEPT_ENCODING) || name.trim().equals("*"))
+					return;
+		}
+		header.add(Header.VARY, Header.ACCEPT_ENCODING);
+	}
+
+	void record(long in, long out) {
+		bytesIn.addAndGet(in);
+		bytesOut.addAndGet(out);
+	}
+
+	private static String[] parseList(String list) {
+		List<String> result = new ArrayList<String>();
+		for (String item : list.split(",")) {
+			item = item.trim().toLowerCase(Locale.US);
+			if (item.length() > 0)
+				result.add(item);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @description Responses with a smaller <tt>Content-Length</tt> (in bytes) are not compressed. Responses of
+	 *              unknown length are always compressed.
+	 * @default 1024
+	 */
+	@MCAttribute
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	public String getContentTypes() {
+		return contentTypes;
+	}
+
+	/**
+	 * @description Comma-separated list of content types to compress. Entries ending with a slash match all
+	 *              subtypes.
+	 * @default text/, application/json, application/javascript, application/x-javascript, application/xml,
+	 *          application/soap+xml, image/svg+xml
+	 */
+	@MCAttribute
+	public void setContentTypes(String contentTypes) {
+		this.contentTypes = contentTypes;
+		this.contentTypePatterns = parseList(contentTypes);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @description The compression level, from 1 (fastest) to 9 (best compression).
+	 * @default 6
+	 */
+	@MCAttribute
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public int getMaxIdleDeflaters() {
+		return maxIdleDeflaters;
+	}
+
+	/**
+	 * @description The maximum number of unused compressors kept for reuse (per content coding).
+	 * @default 32
+	 */
+	@MCAttribute
+	public void setMaxIdleDeflaters(int maxIdleDeflaters) {
+		this.maxIdleDeflaters = maxIdleDeflaters;
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Compresses responses using gzip or deflate, if the client supports it.";
+	}
+
+	@Override
+	public String getLongDescription() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getShortDescription());
+		sb.append("<br/>Minimum size: " + minSize + " bytes");
+		sb.append("<br/>Content types: " + contentTypes);
+		sb.append("<br/>Compressed responses: " + compressed.get());
+		long in = bytesIn.get();
+		if (in > 0)
+			sb.append("<br/>Compression ratio: " + (bytesOut.get() * 100 / in) + "% (" + in / 1024 + " KB in, " +
+					bytesOut.get() / 1024 + " KB out)");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,64 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Reuses {@link Deflater}s, as creating one allocates a considerable amount of native memory, which is only freed
+ * by {@link Deflater#end()} (or by the finalizer).
+ */
+public class DeflaterPool {
+
+	private final int level;
+	private final boolean nowrap;
+	private final int maxIdle;
+
+	private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<Deflater>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * @param nowrap whether raw deflate data (as used within gzip) should be produced, instead of the zlib format
+	 * @param maxIdle the maximum number of unused deflaters kept
+	 */
+	public DeflaterPool(int level, boolean nowrap, int maxIdle) {
+		this.level = level;
+		this.nowrap = nowrap;
+		this.maxIdle = maxIdle;
+	}
+
+	public Deflater acquire() {
+		Deflater deflater = idle.poll();
+		if (deflater == null)
+			return new Deflater(level, nowrap);
+		idleCount.decrementAndGet();
+		return deflater;
+	}
+
+	public void release(Deflater deflater) {
+		if (idleCount.incrementAndGet() > maxIdle) {
+			idleCount.decrementAndGet();
+			deflater.end();
+			return;
+		}
+		deflater.reset();
+		idle.offer(deflater);
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+}
@@ -0,0 +1,123 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.predic8.membrane.core.http.AbstractBodyTransferrer;
+import com.predic8.membrane.core.http.Chunk;
+
+/**
+ * Compresses the data passing through and hands the compressed data to another {@link AbstractBodyTransferrer}.
+ *
+ * If <tt>gzip</tt> is set, the gzip file format (RFC 1952) is produced and the {@link Deflater} is expected to
+ * produce raw deflate data. Otherwise, the output of the {@link Deflater} is passed through as-is.
+ */
+class DeflatingBodyTransferrer extends AbstractBodyTransferrer {
+
+	private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final AbstractBodyTransferrer out;
+	private final Deflater deflater;
+	private final boolean gzip;
+	private final CRC32 crc = new CRC32();
+	private final byte[] buffer = new byte[8192];
+
+	private boolean started;
+	private boolean finished;
+	private long bytesIn;
+	private long bytesOut;
+
+	public DeflatingBodyTransferrer(AbstractBodyTransferrer out, Deflater deflater, boolean gzip) {
+		this.out = out;
+		this.deflater = deflater;
+		this.gzip = gzip;
+	}
+
+	private void start() throws IOException {
+		if (started)
+			return;
+		started = true;
+		if (gzip) {
+			out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+			bytesOut += GZIP_HEADER.length;
+		}
+	}
+
+	@Override
+	public void write(byte[] content, int i, int length) throws IOException {
+		if (length == 0)
+			return;
+		start();
+		if (gzip)
+			crc.update(content, i, length);
+		bytesIn += length;
+		deflater.setInput(content, i, length);
+		while (!deflater.needsInput())
+			drain();
+	}
+
+	@Override
+	public void write(Chunk chunk) throws IOException {
+		write(chunk.getContent(), 0, chunk.getLength());
+	}
+
+	private void drain() throws IOException {
+		int length = deflater.deflate(buffer);
+		if (length > 0) {
+			out.write(buffer, 0, length);
+			bytesOut += length;
+		}
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		start();
+		deflater.finish();
+		while (!deflater.finished())
+			drain();
+		if (gzip) {
+			byte[] trailer = new byte[8];
+			writeIntLE(trailer, 0, (int) crc.getValue());
+			writeIntLE(trailer, 4, (int) bytesIn);
+			out.write(trailer, 0, trailer.length);
+			bytesOut += trailer.length;
+		}
+		out.finish();
+	}
+
+	private static void writeIntLE(byte[] b, int offset, int value) {
+		b[offset] = (byte) value;
+		b[offset + 1] = (byte) (value >> 8);
+		b[offset + 2] = (byte) (value >> 16);
+		b[offset + 3] = (byte) (value >> 24);
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+}
@@ -0,0 +1,312 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.concurrency;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+
+/**
+ * @description <p>
+ *              Limits the number of concurrent requests to the backend, adjusting the limit continuously according
+ *              to the backend's round trip times: When the backend starts queuing requests (and gets slower), the
+ *              limit is reduced; when it keeps up, the limit is raised.
+ *              </p>
+ *              <p>
+ *              Requests exceeding the limit wait in a queue of at most <i>maxQueueSize</i> requests for at most
+ *              <i>queueTimeout</i> milliseconds. If the queue is full or the timeout elapses, the request is
+ *              rejected with <tt>503 Service Unavailable</tt>.
+ *              </p>
+ *              <p>
+ *              With <i>per="destination"</i>, each destination (host and port) has its own limit: The interceptor
+ *              then has to be placed after the interceptors choosing the destination (like the balancer). The limit
+ *              of a destination without requests for 10 minutes is forgotten.
+ *              </p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name="adaptiveConcurrency")
+public class AdaptiveConcurrencyInterceptor extends AbstractInterceptor {
+
+	private static Log log = LogFactory.getLog(AdaptiveConcurrencyInterceptor.class.getName());
+
+	private static final String LIMITER = "adaptiveConcurrency.limiter";
+	private static final String START = "adaptiveConcurrency.start";
+
+	/**
+	 * the time after which the limiter of a destination without requests is discarded
+	 */
+	private static final long IDLE_TIMEOUT = 10 * 60 * 1000;
+
+	public static enum Algorithm {
+		AIMD, VEGAS, GRADIENT;
+
+		LimitAlgorithm create() {
+			switch (this) {
+			case AIMD:
+				return new LimitAlgorithm.AIMD();
+			case VEGAS:
+				return new LimitAlgorithm.Vegas();
+			default:
+				return new LimitAlgorithm.Gradient();
+			}
+		}
+	}
+
+	public static enum Scope {
+		RULE, DESTINATION;
+	}
+
+	private Algorithm algorithm = Algorithm.GRADIENT;
+	private Scope per = Scope.RULE;
+	private int initialLimit = 20;
+	private int minLimit = 1;
+	private int maxLimit = 200;
+	private int maxQueueSize = 50;
+	private int queueTimeout = 1000;
+
+	private volatile ConcurrencyLimiter limiter;
+	private final ConcurrentHashMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+	private volatile long lastPruning = System.currentTimeMillis();
+
+	public AdaptiveConcurrencyInterceptor() {
+		name = "Adaptive Concurrency Limit";
+	}
+
+	@Override
+	public void init() throws Exception {
+		limiter = createLimiter();
+		limiters.clear();
+	}
+
+	private ConcurrencyLimiter createLimiter() {
+		return new ConcurrencyLimiter(algorithm.create(), initialLimit, minLimit, maxLimit, maxQueueSize);
+	}
+
+	private ConcurrencyLimiter getLimiter(Exchange exc) {
+		if (per == Scope.RULE || exc.getDestinations().isEmpty()) {
+			ConcurrencyLimiter l = limiter;
+			if (l == null)
+				limiter = l = createLimiter();
+			return l;
+		}
+		pruneIdleLimiters();
+		String key = getKey(exc.getDestinations().get(0));
+		ConcurrencyLimiter l = limiters.get(key);
+		if (l == null) {
+			l = createLimiter();
+			ConcurrencyLimiter l2 = limiters.putIfAbsent(key, l);
+			if (l2 != null)
+				l = l2;
+		}
+		return l;
+	}
+
+	/**
+	 * Discards the limiters of destinations which have not been used for a while (the destinations of a balancer may
+	 * change over time). A request still using a discarded limiter is limited by it as before.
+	 */
+	private void pruneIdleLimiters() {
+		long now = System.currentTimeMillis();
+		if (now - lastPruning < 60000)
+			return;
+		lastPruning = now;
+		for (Map.Entry<String, ConcurrencyLimiter> e : limiters.entrySet())
+			if (e.getValue().isIdleSince(now - IDLE_TIMEOUT))
+				limiters.remove(e.getKey(), e.getValue());
+	}
+
+	private static String getKey(String destination) {
+		try {
+			URL url = new URL(destination);
+			return url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+		} catch (MalformedURLException e) {
+			return destination;
+		}
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		ConcurrencyLimiter l = getLimiter(exc);
+		if (!l.acquire(queueTimeout)) {
+			log.debug("Concurrency limit reached (" + l + "). Server busy.");
+			exc.setResponse(Response.serverUnavailable("Server busy.").build());
+			return Outcome.ABORT;
+		}
+		exc.setProperty(LIMITER, l);
+		exc.setProperty(START, System.nanoTime());
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(Exchange exc) throws Exception {
+		release(exc, true);
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public void handleAbort(Exchange exc) {
+		// an abort caused by another interceptor does not tell anything about the backend (even if the interceptor
+		// set an error response), while an exchange aborted without a response has failed to reach the backend (or
+		// to receive its response). The time is only set once the backend's response has been received.
+		release(exc, exc.getResponse() == null || exc.getTimeResReceived() != 0);
+	}
+
+	private void release(Exchange exc, boolean sample) {
+		ConcurrencyLimiter l = (ConcurrencyLimiter) exc.getProperty(LIMITER);
+		if (l == null)
+			return;
+		exc.setProperty(LIMITER, null);
+		Response response = exc.getResponse();
+		boolean dropped = response == null || response.getStatusCode() >= 500;
+		l.release(sample ? System.nanoTime() - (Long) exc.getProperty(START) : -1, dropped);
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @description How the limit is adjusted: <i>aimd</i> (grows by one for each successful request, shrinks by
+	 *              10% for each failed one), <i>vegas</i> (compares the round trip times with the minimum observed)
+	 *              or <i>gradient</i> (compares short-term and long-term averages of the round trip times).
+	 * @default gradient
+	 */
+	@MCAttribute
+	public void setAlgorithm(Algorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public Scope getPer() {
+		return per;
+	}
+
+	/**
+	 * @description Whether there is one limit for all requests passing the interceptor (<i>rule</i>) or one limit
+	 *              per destination (<i>destination</i>).
+	 * @default rule
+	 */
+	@MCAttribute
+	public void setPer(Scope per) {
+		this.per = per;
+	}
+
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+
+	/**
+	 * @description The limit before any request has completed.
+	 * @default 20
+	 */
+	@MCAttribute
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	/**
+	 * @description The limit is never reduced below this number of concurrent requests.
+	 * @default 1
+	 */
+	@MCAttribute
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	/**
+	 * @description The limit is never raised above this number of concurrent requests.
+	 * @default 200
+	 */
+	@MCAttribute
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * @description The maximum number of requests waiting for the limit. Further requests are rejected right away.
+	 * @default 50
+	 */
+	@MCAttribute
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public int getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * @description The maximum time in milliseconds a request waits for the limit, before it is rejected.
+	 * @default 1000
+	 */
+	@MCAttribute
+	public void setQueueTimeout(int queueTimeout) {
+		this.queueTimeout = queueTimeout;
+	}
+
+	/**
+	 * @return the limiter used for all requests (if <i>per</i> is <i>rule</i>)
+	 */
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * @return the limiters by destination (if <i>per</i> is <i>destination</i>)
+	 */
+	public Map<String, ConcurrencyLimiter> getLimiters() {
+		return limiters;
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Limits the number of concurrent requests, adapting the limit to the backend's response times.";
+	}
+
+	@Override
+	public String getLongDescription() {
+		StringBuilder sb = new StringBuilder(getShortDescription());
+		sb.append("<br/>Algorithm: " + algorithm.toString().toLowerCase());
+		if (per == Scope.RULE) {
+			if (limiter != null)
+				sb.append("<br/>" + limiter);
+		} else {
+			for (Map.Entry<String, ConcurrencyLimiter> e : limiters.entrySet())
+				sb.append("<br/>" + e.getKey() + ": " + e.getValue());
+		}
+		return sb.toString();
+	}
+}
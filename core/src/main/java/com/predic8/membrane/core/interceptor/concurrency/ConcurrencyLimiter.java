@@ -0,0 +1,206 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight to a limit adjusted by a {@link LimitAlgorithm}.
+ *
+ * Requests exceeding the limit wait in a bounded queue (in order of arrival) until another request completes. A
+ * waiting request is woken up as soon as it may proceed: there is no polling.
+ */
+public class ConcurrencyLimiter {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	private final LimitAlgorithm algorithm;
+	private final int minLimit;
+	private final int maxLimit;
+	private final int maxQueueSize;
+
+	private double limit;
+	private int inflight;
+	private int waiting;
+	private long rejected;
+	private long timedOut;
+	private long lastUsed = System.currentTimeMillis();
+
+	ConcurrencyLimiter(LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit, int maxQueueSize) {
+		this.algorithm = algorithm;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.maxQueueSize = maxQueueSize;
+		this.limit = clamp(initialLimit);
+	}
+
+	private double clamp(double limit) {
+		return Math.min(maxLimit, Math.max(minLimit, limit));
+	}
+
+	/**
+	 * @param timeout the maximum time to wait in the queue, in milliseconds
+	 * @return whether the request may proceed, in which case {@link #release} has to be called once it completes
+	 */
+	public boolean acquire(long timeout) throws InterruptedException {
+		lock.lock();
+		try {
+			// requests already waiting are served first
+			if (waiting == 0 && inflight < getLimit()) {
+				inflight++;
+				lastUsed = System.currentTimeMillis();
+				return true;
+			}
+			if (waiting >= maxQueueSize || timeout <= 0) {
+				rejected++;
+				return false;
+			}
+			waiting++;
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (inflight >= getLimit()) {
+					if (nanos <= 0) {
+						timedOut++;
+						passOnSignal();
+						return false;
+					}
+					try {
+						nanos = available.awaitNanos(nanos);
+					} catch (InterruptedException e) {
+						passOnSignal();
+						throw e;
+					}
+				}
+				inflight++;
+				lastUsed = System.currentTimeMillis();
+				// the limit may have grown by more than one
+				passOnSignal();
+				return true;
+			} finally {
+				waiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes up the next waiting request if it may proceed: A request that has been signalled, but proceeds or gives
+	 * up, must not swallow the wakeup.
+	 *
+	 * Must be called by a waiting request while holding the lock.
+	 */
+	private void passOnSignal() {
+		if (waiting > 1 && inflight < getLimit())
+			available.signal();
+	}
+
+	/**
+	 * @param rtt the round trip time in nanoseconds, or -1 if the request does not tell anything about the backend
+	 * @param dropped whether the request failed because of the backend
+	 */
+	public void release(long rtt, boolean dropped) {
+		lock.lock();
+		try {
+			if (rtt >= 0)
+				limit = clamp(algorithm.update(limit, rtt, inflight, dropped));
+			inflight--;
+			lastUsed = System.currentTimeMillis();
+			if (waiting > 0)
+				available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether no request has been in flight or waiting since <tt>time</tt>
+	 */
+	boolean isIdleSince(long time) {
+		lock.lock();
+		try {
+			return inflight == 0 && waiting == 0 && lastUsed < time;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the current limit
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInflight() {
+		lock.lock();
+		try {
+			return inflight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests rejected because the queue was full
+	 */
+	public long getRejected() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests rejected because they waited too long
+	 */
+	public long getTimedOut() {
+		lock.lock();
+		try {
+			return timedOut;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "limit: " + (int) limit + ", in flight: " + inflight + ", waiting: " + waiting + ", rejected: " +
+					(rejected + timedOut);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
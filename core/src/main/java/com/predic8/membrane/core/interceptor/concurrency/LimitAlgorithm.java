@@ -0,0 +1,136 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.concurrency;
+
+/**
+ * Computes the concurrency limit from the observed round trip times.
+ *
+ * An instance belongs to one {@link ConcurrencyLimiter}, which serializes the calls to {@link #update}.
+ */
+abstract class LimitAlgorithm {
+
+	/**
+	 * @param limit the current limit
+	 * @param rtt the round trip time of the completed request in nanoseconds (a dropped request may have failed
+	 *            before reaching the backend, so its round trip time is not representative)
+	 * @param inflight the number of requests in flight while the request completed (including itself)
+	 * @param dropped whether the request failed because of an overloaded or failing backend
+	 * @return the new limit
+	 */
+	abstract double update(double limit, long rtt, int inflight, boolean dropped);
+
+	/**
+	 * While less than half of the limit is used, the round trip times do not tell anything about the limit.
+	 */
+	static boolean isAppLimited(double limit, int inflight) {
+		return inflight * 2 < limit;
+	}
+
+	static double log10(double limit) {
+		return Math.max(1, Math.log10(limit));
+	}
+
+	/**
+	 * Additive increase, multiplicative decrease: The limit grows by one for each successful request and shrinks
+	 * by 10% for each dropped one.
+	 */
+	static class AIMD extends LimitAlgorithm {
+		@Override
+		double update(double limit, long rtt, int inflight, boolean dropped) {
+			if (dropped)
+				return limit * 0.9;
+			if (isAppLimited(limit, inflight))
+				return limit;
+			return limit + 1;
+		}
+	}
+
+	/**
+	 * TCP Vegas: Estimates the number of queued requests from the ratio of the round trip time without load (the
+	 * minimum observed) to the current round trip time, keeping it between alpha and beta.
+	 */
+	static class Vegas extends LimitAlgorithm {
+		private long rttNoLoad;
+		private int probeCountdown = nextProbe(20);
+
+		private static int nextProbe(double limit) {
+			// the minimum is measured again from time to time, as the backend's speed may change
+			return (int) (limit * 30);
+		}
+
+		@Override
+		double update(double limit, long rtt, int inflight, boolean dropped) {
+			double log = log10(limit);
+			if (dropped)
+				return limit - log;
+			if (--probeCountdown <= 0) {
+				probeCountdown = nextProbe(limit);
+				rttNoLoad = 0;
+			}
+			if (rttNoLoad == 0 || rtt < rttNoLoad) {
+				rttNoLoad = rtt;
+				return limit;
+			}
+			if (isAppLimited(limit, inflight))
+				return limit;
+			double queue = Math.ceil(limit * (1 - (double) rttNoLoad / rtt));
+			if (queue <= log)
+				return limit + 6 * log;
+			if (queue < 3 * log)
+				return limit + log;
+			if (queue > 6 * log)
+				return limit - log;
+			return limit;
+		}
+	}
+
+	/**
+	 * Compares a short-term average of the round trip time with a long-term average: While the short-term average
+	 * is higher (the backend starts queuing), the limit is reduced proportionally.
+	 */
+	static class Gradient extends LimitAlgorithm {
+		private static final double TOLERANCE = 1.5;
+		private static final double SMOOTHING = 0.2;
+		private static final int SHORT_WINDOW = 10;
+		private static final int LONG_WINDOW = 600;
+
+		private double shortRtt;
+		private double longRtt;
+
+		@Override
+		double update(double limit, long rtt, int inflight, boolean dropped) {
+			// the round trip times of dropped requests are left out of the averages
+			if (dropped)
+				return smooth(limit, 0.5);
+			if (longRtt == 0) {
+				shortRtt = longRtt = rtt;
+			} else {
+				shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+				longRtt += (rtt - longRtt) / LONG_WINDOW;
+			}
+			// recover faster after the backend got slow for a longer time
+			if (longRtt / shortRtt > 2)
+				longRtt *= 0.95;
+			if (isAppLimited(limit, inflight))
+				return limit;
+			double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+			return smooth(limit, gradient);
+		}
+
+		private static double smooth(double limit, double gradient) {
+			double newLimit = limit * gradient + Math.sqrt(limit);
+			return limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		}
+	}
+}
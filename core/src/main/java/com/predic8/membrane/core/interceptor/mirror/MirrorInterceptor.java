@@ -0,0 +1,360 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.mirror;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Required;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCChildElement;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.MessageObserver;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.NullRule;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+import com.predic8.membrane.core.util.HttpUtil;
+
+/**
+ * @description <p>
+ *              Sends a copy of (a sample of) the requests to a shadow destination, for example to test a new version
+ *              of a backend with live traffic.
+ *              </p>
+ *              <p>
+ *              The copy is sent asynchronously by a separate HTTP client, once the request body has been forwarded
+ *              to the primary destination: The request body is not read in advance and the latency of the primary
+ *              response is not affected. The responses of the shadow destination are discarded, but their status
+ *              codes and latencies are compared with those of the primary destination (per rule, see the admin
+ *              console).
+ *              </p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name="mirror")
+public class MirrorInterceptor extends AbstractInterceptor {
+
+	private static final Log log = LogFactory.getLog(MirrorInterceptor.class.getName());
+
+	private static final String MIRROR = "mirror.request";
+
+	private String url;
+	private int percentage = 100;
+	private int maxInflight = 10;
+	private int maxBodySize = 1048576;
+	private HttpClientConfiguration httpClientConfig;
+
+	private URL target;
+	private HttpClient client;
+	private ThreadPoolExecutor executor;
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final Random random = new Random();
+	private final ConcurrentHashMap<String, MirrorStatistics> statistics = new ConcurrentHashMap<String, MirrorStatistics>();
+
+	/**
+	 * A copy of a request, sent once the body of the original request is complete.
+	 */
+	private class Mirror implements MessageObserver, Runnable {
+		private final Request request;
+		private final MirrorStatistics stats;
+		private final long start = System.nanoTime();
+
+		private int primaryStatus = -1;
+		private long primaryNanos;
+		private int shadowStatus = -1;
+		private long shadowNanos;
+		private boolean compared;
+
+		public Mirror(Request request, MirrorStatistics stats) {
+			this.request = request;
+			this.stats = stats;
+		}
+
+		@Override
+		public void bodyRequested(AbstractBody body) {
+		}
+
+		@Override
+		public void bodyComplete(AbstractBody body) {
+			try {
+				// the body has just been read (or streamed and retained), so this does not block
+				byte[] content = body.getContent();
+				if (content.length > maxBodySize) {
+					stats.tooLarge();
+					return;
+				}
+				Header header = request.getHeader();
+				header.removeFields(Header.TRANSFER_ENCODING);
+				header.setContentLength(content.length);
+				request.setBody(new Body(content));
+				submit();
+			} catch (IOException e) {
+				log.debug("Could not copy request body.", e);
+			}
+		}
+
+		private void submit() {
+			if (inflight.incrementAndGet() > maxInflight) {
+				inflight.decrementAndGet();
+				stats.dropped();
+				return;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				inflight.decrementAndGet();
+				stats.dropped();
+			}
+		}
+
+		@Override
+		public void run() {
+			Exchange exc = new Exchange(null);
+			exc.setRequest(request);
+			exc.setRule(new NullRule());
+			long start = System.nanoTime();
+			try {
+				exc.getDestinations().add(getDestination(request.getUri()));
+				stats.mirrored();
+				client.call(exc, true, false);
+				// discard the response, releasing the connection
+				exc.getResponse().readBody();
+				shadowCompleted(exc.getResponse().getStatusCode(), System.nanoTime() - start);
+			} catch (Exception e) {
+				stats.error();
+				log.debug("Shadow request to " + url + " failed.", e);
+			} finally {
+				inflight.decrementAndGet();
+				exc.detach();
+			}
+		}
+
+		public synchronized void primaryCompleted(int status) {
+			primaryStatus = status;
+			primaryNanos = System.nanoTime() - start;
+			compare();
+		}
+
+		private synchronized void shadowCompleted(int status, long nanos) {
+			shadowStatus = status;
+			shadowNanos = nanos;
+			compare();
+		}
+
+		private void compare() {
+			if (primaryStatus == -1 || shadowStatus == -1 || compared)
+				return;
+			compared = true;
+			stats.compare(primaryStatus, primaryNanos, shadowStatus, shadowNanos);
+		}
+	}
+
+	public MirrorInterceptor() {
+		name = "Mirror";
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		super.init(router);
+		target = new URL(url);
+		client = new HttpClient(httpClientConfig == null ? new HttpClientConfiguration() : httpClientConfig);
+		executor = new ThreadPoolExecutor(maxInflight, maxInflight, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread th = new Thread(r, "Mirror " + url);
+						th.setDaemon(true);
+						return th;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		if (percentage < 100 && random.nextInt(100) >= percentage)
+			return Outcome.CONTINUE;
+		Request request = exc.getRequest();
+		MirrorStatistics stats = getStatistics(exc.getRule());
+		if (request.getHeader().getContentLength() > maxBodySize) {
+			stats.tooLarge();
+			return Outcome.CONTINUE;
+		}
+		Mirror mirror = new Mirror(copy(request), stats);
+		exc.setProperty(MIRROR, mirror);
+		// sends the copy as soon as the body is complete (immediately, if it already is)
+		request.addObserver(mirror);
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(Exchange exc) throws Exception {
+		Mirror mirror = (Mirror) exc.getProperty(MIRROR);
+		if (mirror != null)
+			mirror.primaryCompleted(exc.getResponse().getStatusCode());
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public void handleAbort(Exchange exc) {
+		Mirror mirror = (Mirror) exc.getProperty(MIRROR);
+		if (mirror != null && exc.getResponse() != null)
+			mirror.primaryCompleted(exc.getResponse().getStatusCode());
+	}
+
+	private static Request copy(Request original) {
+		Request request = new Request();
+		request.setMethod(original.getMethod());
+		request.setUri(original.getUri());
+		request.setVersion(original.getVersion());
+		Header header = new Header(original.getHeader());
+		// the body is sent right away
+		header.removeFields(Header.EXPECT);
+		request.setHeader(header);
+		return request;
+	}
+
+	private String getDestination(String uri) throws Exception {
+		if (HttpUtil.isAbsoluteURI(uri))
+			uri = new URL(uri).getFile();
+		return new URL(target.getProtocol(), target.getHost(), target.getPort(), uri).toString();
+	}
+
+	private MirrorStatistics getStatistics(Rule rule) {
+		String name = rule == null ? "" : rule.getName();
+		MirrorStatistics stats = statistics.get(name);
+		if (stats == null) {
+			stats = new MirrorStatistics();
+			MirrorStatistics stats2 = statistics.putIfAbsent(name, stats);
+			if (stats2 != null)
+				stats = stats2;
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the statistics by rule name
+	 */
+	public Map<String, MirrorStatistics> getStatistics() {
+		return statistics;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @description The shadow destination. The path and query of the requests are appended.
+	 * @example http://localhost:8081
+	 */
+	@Required
+	@MCAttribute
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public int getPercentage() {
+		return percentage;
+	}
+
+	/**
+	 * @description The percentage of requests to mirror.
+	 * @default 100
+	 * @example 10
+	 */
+	@MCAttribute
+	public void setPercentage(int percentage) {
+		this.percentage = percentage;
+	}
+
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+
+	/**
+	 * @description The maximum number of concurrent requests to the shadow destination. Requests exceeding the
+	 *              limit are not mirrored.
+	 * @default 10
+	 */
+	@MCAttribute
+	public void setMaxInflight(int maxInflight) {
+		this.maxInflight = maxInflight;
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * @description Requests with a larger body (in bytes) are not mirrored.
+	 * @default 1048576
+	 */
+	@MCAttribute
+	public void setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	public HttpClientConfiguration getHttpClientConfig() {
+		return httpClientConfig;
+	}
+
+	/**
+	 * @description The configuration of the HTTP client used to send requests to the shadow destination.
+	 */
+	@MCChildElement
+	public void setHttpClientConfig(HttpClientConfiguration httpClientConfig) {
+		this.httpClientConfig = httpClientConfig;
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Sends " + (percentage < 100 ? percentage + "% of the " : "a copy of the ") + "requests to " + url + ".";
+	}
+
+	@Override
+	public String getLongDescription() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getShortDescription());
+		for (Map.Entry<String, MirrorStatistics> e : statistics.entrySet()) {
+			MirrorStatistics s = e.getValue();
+			sb.append("<br/><br/>" + StringEscapeUtils.escapeHtml(e.getKey()) + ":");
+			sb.append("<br/>Mirrored: " + s.getMirrored() + " (dropped: " + s.getDropped() + ", too large: " +
+					s.getTooLarge() + ", errors: " + s.getErrors() + ")");
+			sb.append("<br/>Status code mismatches: " + s.getStatusMismatches() + " of " + s.getCompared());
+			sb.append("<br/>Average latency: " + s.getAveragePrimaryLatency() + " ms (primary), " +
+					s.getAverageShadowLatency() + " ms (shadow)");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,110 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.mirror;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests mirrored for one rule and compares the responses of the shadow destination with the
+ * responses of the primary destination.
+ */
+public class MirrorStatistics {
+
+	private final AtomicLong mirrored = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong tooLarge = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	private long compared;
+	private long statusMismatches;
+	private long primaryNanos;
+	private long shadowNanos;
+
+	void mirrored() {
+		mirrored.incrementAndGet();
+	}
+
+	void dropped() {
+		dropped.incrementAndGet();
+	}
+
+	void tooLarge() {
+		tooLarge.incrementAndGet();
+	}
+
+	void error() {
+		errors.incrementAndGet();
+	}
+
+	synchronized void compare(int primaryStatus, long primaryNanos, int shadowStatus, long shadowNanos) {
+		compared++;
+		if (primaryStatus != shadowStatus)
+			statusMismatches++;
+		this.primaryNanos += primaryNanos;
+		this.shadowNanos += shadowNanos;
+	}
+
+	/**
+	 * @return the number of requests sent to the shadow destination
+	 */
+	public long getMirrored() {
+		return mirrored.get();
+	}
+
+	/**
+	 * @return the number of requests not mirrored because <i>maxInflight</i> was reached
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of requests not mirrored because their body exceeded <i>maxBodySize</i>
+	 */
+	public long getTooLarge() {
+		return tooLarge.get();
+	}
+
+	/**
+	 * @return the number of mirrored requests for which the shadow destination did not return a response
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @return the number of requests for which both responses have been received
+	 */
+	public synchronized long getCompared() {
+		return compared;
+	}
+
+	public synchronized long getStatusMismatches() {
+		return statusMismatches;
+	}
+
+	/**
+	 * @return the average latency of the primary destination in milliseconds, of the compared requests
+	 */
+	public synchronized long getAveragePrimaryLatency() {
+		return compared == 0 ? 0 : primaryNanos / compared / 1000000;
+	}
+
+	/**
+	 * @return the average latency of the shadow destination in milliseconds, of the compared requests
+	 */
+	public synchronized long getAverageShadowLatency() {
+		return compared == 0 ? 0 : shadowNanos / compared / 1000000;
+	}
+}
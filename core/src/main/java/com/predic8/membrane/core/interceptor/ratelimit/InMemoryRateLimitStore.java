@@ -0,0 +1,164 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description <p>
+ *              Keeps the token buckets in memory. Each bucket takes a single <tt>long</tt> updated without locking.
+ *              Full buckets are forgotten.
+ *              </p>
+ *              <p>
+ *              If <i>maxKeys</i> buckets are in use, requests with further keys share one bucket, until full
+ *              buckets have been removed.
+ *              </p>
+ */
+@MCElement(name="inMemoryRateLimitStore", topLevel=false)
+public class InMemoryRateLimitStore implements RateLimitStore {
+
+	private static Log log = LogFactory.getLog(InMemoryRateLimitStore.class.getName());
+
+	/**
+	 * Marks a bucket which is being removed.
+	 */
+	private static final long REMOVED = Long.MIN_VALUE;
+	private static final long SWEEP_INTERVAL = 10000;
+
+	private static final ExecutorService sweeper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "Rate Limit Bucket Cleanup");
+			th.setDaemon(true);
+			return th;
+		}
+	});
+
+	private int maxKeys = 1000000;
+
+	private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>(1024, 0.75f, 64);
+	// ConcurrentHashMap.size() locks all segments, if the map is modified concurrently
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong overflow = new AtomicLong();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private volatile long lastSweep = System.currentTimeMillis();
+
+	@Override
+	public RateLimitResult consume(String key, int capacity, long interval) {
+		long nowMillis = System.currentTimeMillis();
+		if (nowMillis - lastSweep > SWEEP_INTERVAL)
+			sweep(nowMillis);
+		long now = nowMillis * 1000;
+		while (true) {
+			AtomicLong bucket = getBucket(key);
+			long tat = bucket.get();
+			if (tat == REMOVED) {
+				// being removed: help, then use a new bucket. Whoever actually removes it accounts for it.
+				if (buckets.remove(key, bucket))
+					size.decrementAndGet();
+				continue;
+			}
+			RateLimitResult result = RateLimitResult.evaluate(tat, now, capacity, interval);
+			if (!result.isAllowed() || bucket.compareAndSet(tat, result.getNewTat(now)))
+				return result;
+		}
+	}
+
+	private AtomicLong getBucket(String key) {
+		AtomicLong bucket = buckets.get(key);
+		if (bucket != null)
+			return bucket;
+		if (size.get() >= maxKeys) {
+			sweep(System.currentTimeMillis());
+			return overflow;
+		}
+		bucket = new AtomicLong();
+		AtomicLong b2 = buckets.putIfAbsent(key, bucket);
+		if (b2 != null)
+			return b2;
+		size.incrementAndGet();
+		return bucket;
+	}
+
+	/**
+	 * Removes the full buckets in the background.
+	 */
+	private void sweep(long nowMillis) {
+		if (!sweeping.compareAndSet(false, true))
+			return;
+		lastSweep = nowMillis;
+		try {
+			sweeper.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						removeFullBuckets();
+					} finally {
+						lastSweep = System.currentTimeMillis();
+						sweeping.set(false);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			sweeping.set(false);
+			log.error("Could not remove full rate limit buckets.", e);
+		}
+	}
+
+	void removeFullBuckets() {
+		long now = System.currentTimeMillis() * 1000;
+		for (Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, AtomicLong> e = it.next();
+			AtomicLong bucket = e.getValue();
+			long tat = bucket.get();
+			if (tat <= now && bucket.compareAndSet(tat, REMOVED) && buckets.remove(e.getKey(), bucket))
+				size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of buckets in use
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	/**
+	 * @description The maximum number of buckets (each taking about 100 bytes of memory).
+	 * @default 1000000
+	 */
+	@MCAttribute
+	public void setMaxKeys(int maxKeys) {
+		this.maxKeys = maxKeys;
+	}
+
+}
@@ -0,0 +1,105 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Function;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.interceptor.authentication.session.SessionManager.Session;
+import com.predic8.membrane.core.lang.groovy.GroovyLanguageSupport;
+import com.predic8.membrane.core.util.URLParamUtil;
+
+/**
+ * Determines the bucket of an exchange, see {@link RateLimitInterceptor#setKey(String)}.
+ */
+abstract class KeyExtractor {
+
+	/**
+	 * @return the key, or null if the exchange does not have one
+	 */
+	abstract String extract(Exchange exc);
+
+	static KeyExtractor parse(Router router, String key) {
+		int colon = key.indexOf(':');
+		String type = colon == -1 ? key : key.substring(0, colon);
+		final String arg = colon == -1 ? null : key.substring(colon + 1);
+		if (type.equals("ip"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					return exc.getRemoteAddrIp();
+				}
+			};
+		if (type.equals("path"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					String uri = exc.getRequest().getUri();
+					int q = uri.indexOf('?');
+					return q == -1 ? uri : uri.substring(0, q);
+				}
+			};
+		if (type.equals("global"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					return "";
+				}
+			};
+		if (arg == null || arg.length() == 0)
+			throw new IllegalArgumentException("Invalid rate limit key '" + key + "'.");
+		if (type.equals("header"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					return exc.getRequest().getHeader().getFirstValue(arg);
+				}
+			};
+		if (type.equals("query"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					String uri = exc.getRequest().getUri();
+					int q = uri.indexOf('?');
+					if (q == -1)
+						return null;
+					return URLParamUtil.parseQueryString(uri.substring(q + 1)).get(arg);
+				}
+			};
+		if (type.equals("user"))
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					Session s = (Session) exc.getProperty(arg + "-session");
+					return s == null ? null : s.getUserName();
+				}
+			};
+		if (type.equals("groovy")) {
+			final Function<Map<String, Object>, Object> script = new GroovyLanguageSupport().compileScript(router, arg);
+			return new KeyExtractor() {
+				@Override
+				String extract(Exchange exc) {
+					Map<String, Object> parameters = new HashMap<String, Object>();
+					parameters.put("exc", exc);
+					Object result = script.apply(parameters);
+					return result == null ? null : result.toString();
+				}
+			};
+		}
+		throw new IllegalArgumentException("Invalid rate limit key '" + key + "'.");
+	}
+}
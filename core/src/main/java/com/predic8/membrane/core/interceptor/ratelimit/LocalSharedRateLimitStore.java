@@ -0,0 +1,69 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description Shares the token buckets with all rate limiters within the same Java VM using a store of the same
+ *              <i>name</i>. This stands in for a store shared by several Membrane instances in tests and
+ *              single-process setups running several routers.
+ */
+@MCElement(name="localSharedRateLimitStore", topLevel=false)
+public class LocalSharedRateLimitStore implements RateLimitStore {
+
+	private static final ConcurrentHashMap<String, InMemoryRateLimitStore> stores = new ConcurrentHashMap<String, InMemoryRateLimitStore>();
+
+	private String name = "default";
+
+	@Override
+	public RateLimitResult consume(String key, int capacity, long interval) {
+		return getStore().consume(key, capacity, interval);
+	}
+
+	private InMemoryRateLimitStore getStore() {
+		InMemoryRateLimitStore store = stores.get(name);
+		if (store == null) {
+			store = new InMemoryRateLimitStore();
+			InMemoryRateLimitStore s2 = stores.putIfAbsent(name, store);
+			if (s2 != null)
+				store = s2;
+		}
+		return store;
+	}
+
+	/**
+	 * Forgets all buckets of all stores.
+	 */
+	public static void clear() {
+		stores.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @description The name of the store.
+	 * @default default
+	 */
+	@MCAttribute
+	public void setName(String name) {
+		this.name = name;
+	}
+
+}
@@ -0,0 +1,199 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCChildElement;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+
+/**
+ * @description <p>
+ *              Limits the rate of requests per key (for example per client IP address or API key) using token
+ *              buckets: Each key may send <i>requestLimit</i> requests per <i>requestLimitDuration</i>
+ *              milliseconds, and bursts of up to <i>burst</i> requests.
+ *              </p>
+ *              <p>
+ *              Requests exceeding the limit are answered with <tt>429 Too Many Requests</tt> and a
+ *              <tt>Retry-After</tt> header. All responses carry the <tt>RateLimit-Limit</tt>,
+ *              <tt>RateLimit-Remaining</tt> and <tt>RateLimit-Reset</tt> headers.
+ *              </p>
+ *              <p>
+ *              The buckets are kept in memory by default. Several instances can share their quotas through a
+ *              shared store.
+ *              </p>
+ * @topic 6. Security
+ */
+@MCElement(name="rateLimiter")
+public class RateLimitInterceptor extends AbstractInterceptor {
+
+	private static Log log = LogFactory.getLog(RateLimitInterceptor.class.getName());
+
+	private static final String RESULT = "rateLimit.result";
+
+	private int requestLimit = 100;
+	private long requestLimitDuration = 60000;
+	private int burst;
+	private String key = "ip";
+	private RateLimitStore store = new InMemoryRateLimitStore();
+
+	private KeyExtractor keyExtractor;
+	private long interval;
+	private final AtomicLong rejected = new AtomicLong();
+
+	public RateLimitInterceptor() {
+		name = "Rate Limiter";
+	}
+
+	@Override
+	public void init(Router router) throws Exception {
+		super.init(router);
+		keyExtractor = KeyExtractor.parse(router, key);
+		interval = Math.max(1, requestLimitDuration * 1000 / requestLimit);
+	}
+
+	private int getCapacity() {
+		return burst > 0 ? burst : requestLimit;
+	}
+
+	@Override
+	public Outcome handleRequest(Exchange exc) throws Exception {
+		String k = keyExtractor.extract(exc);
+		if (k == null)
+			k = "";
+		RateLimitResult result = store.consume(k, getCapacity(), interval);
+		if (!result.isAllowed()) {
+			rejected.incrementAndGet();
+			log.debug("Rate limit exceeded for key '" + k + "'.");
+			Response response = Response.tooManyRequests("Rate limit exceeded.").build();
+			setHeaders(response.getHeader(), result);
+			response.getHeader().setValue(Header.RETRY_AFTER, "" + toSeconds(result.getRetryAfter()));
+			exc.setResponse(response);
+			return Outcome.RETURN;
+		}
+		exc.setProperty(RESULT, result);
+		return Outcome.CONTINUE;
+	}
+
+	@Override
+	public Outcome handleResponse(Exchange exc) throws Exception {
+		RateLimitResult result = (RateLimitResult) exc.getProperty(RESULT);
+		if (result != null && exc.getResponse() != null)
+			setHeaders(exc.getResponse().getHeader(), result);
+		return Outcome.CONTINUE;
+	}
+
+	private void setHeaders(Header header, RateLimitResult result) {
+		header.setValue("RateLimit-Limit", "" + getCapacity());
+		header.setValue("RateLimit-Remaining", "" + result.getRemaining());
+		header.setValue("RateLimit-Reset", "" + toSeconds(result.getReset()));
+	}
+
+	/**
+	 * @return the microseconds rounded up to full seconds
+	 */
+	private static long toSeconds(long micros) {
+		return (micros + 999999) / 1000000;
+	}
+
+	public int getRequestLimit() {
+		return requestLimit;
+	}
+
+	/**
+	 * @description The number of requests per key allowed within <i>requestLimitDuration</i>.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setRequestLimit(int requestLimit) {
+		this.requestLimit = requestLimit;
+	}
+
+	public long getRequestLimitDuration() {
+		return requestLimitDuration;
+	}
+
+	/**
+	 * @description The period in milliseconds <i>requestLimit</i> refers to.
+	 * @default 60000
+	 */
+	@MCAttribute
+	public void setRequestLimitDuration(long requestLimitDuration) {
+		this.requestLimitDuration = requestLimitDuration;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @description The maximum number of requests per key allowed at once (the size of the token bucket). By
+	 *              default, the same as <i>requestLimit</i>.
+	 * @example 10
+	 */
+	@MCAttribute
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @description What the requests are grouped by: <i>ip</i> (the client's IP address), <i>path</i>,
+	 *              <i>header:</i>name, <i>query:</i>parameter name, <i>user:</i>id of a <i>login</i>
+	 *              interceptor (the user logged in), <i>groovy:</i>expression (on <i>exc</i>) or <i>global</i>
+	 *              (all requests share one bucket). Requests without a key share one bucket.
+	 * @default ip
+	 * @example header:X-Api-Key
+	 */
+	@MCAttribute
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public RateLimitStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @description Where the token buckets are kept. By default, in memory.
+	 */
+	@MCChildElement
+	public void setStore(RateLimitStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Limits the rate of requests per " + key + " to " + requestLimit + " per " +
+				requestLimitDuration / 1000.0 + " seconds.";
+	}
+
+	@Override
+	public String getLongDescription() {
+		return getShortDescription() + "<br/>Rejected requests: " + rejected.get();
+	}
+}
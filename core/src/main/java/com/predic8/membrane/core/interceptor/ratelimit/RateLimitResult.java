@@ -0,0 +1,75 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+/**
+ * The outcome of {@link RateLimitStore#consume(String, int, long)}.
+ */
+public class RateLimitResult {
+
+	private final boolean allowed;
+	private final long remaining;
+	private final long reset;
+	private final long retryAfter;
+
+	/**
+	 * @param remaining the number of tokens left in the bucket
+	 * @param reset the time in microseconds until the bucket is full again
+	 * @param retryAfter the time in microseconds until the next token is available, if the request is not allowed
+	 */
+	public RateLimitResult(boolean allowed, long remaining, long reset, long retryAfter) {
+		this.allowed = allowed;
+		this.remaining = remaining;
+		this.reset = reset;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Applies the generic cell rate algorithm, which is equivalent to a token bucket.
+	 *
+	 * @param tat the bucket's current theoretical arrival time (when it will be full) in microseconds
+	 * @param now the current time in microseconds
+	 * @return the result; if the request is allowed, {@link #getNewTat(long)} has to be stored
+	 */
+	public static RateLimitResult evaluate(long tat, long now, int capacity, long interval) {
+		long newTat = Math.max(tat, now) + interval;
+		long max = capacity * interval;
+		if (newTat - now > max)
+			return new RateLimitResult(false, 0, Math.max(tat, now) - now, newTat - now - max);
+		return new RateLimitResult(true, (max - (newTat - now)) / interval, newTat - now, 0);
+	}
+
+	public boolean isAllowed() {
+		return allowed;
+	}
+
+	public long getRemaining() {
+		return remaining;
+	}
+
+	public long getReset() {
+		return reset;
+	}
+
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * @return the theoretical arrival time to store, relative to the time passed to {@link #evaluate}
+	 */
+	public long getNewTat(long now) {
+		return now + reset;
+	}
+}
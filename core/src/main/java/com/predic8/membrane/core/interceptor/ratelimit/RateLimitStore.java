@@ -0,0 +1,34 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+/**
+ * Keeps the token buckets of a {@link RateLimitInterceptor}.
+ *
+ * Implementations backed by a store shared by several Membrane instances (like a database) let the instances share
+ * their quotas. A bucket is described by a single number, its "theoretical arrival time" (see the generic cell rate
+ * algorithm): the time at which the bucket will be full again, if no more tokens are taken. Buckets are full when
+ * they are not known, so an implementation may forget buckets whose time has passed.
+ */
+public interface RateLimitStore {
+
+	/**
+	 * Takes one token from the bucket of the key, if there is one.
+	 *
+	 * @param capacity the number of tokens of a full bucket
+	 * @param interval the time in microseconds after which one token is added to the bucket
+	 */
+	public RateLimitResult consume(String key, int capacity, long interval);
+
+}
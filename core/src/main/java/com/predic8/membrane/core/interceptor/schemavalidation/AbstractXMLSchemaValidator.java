@@ -18,7 +18,7 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.transform.Source;
@@ -28,27 +28,38 @@ import javax.xml.validation.Validator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
 
 import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Body;
 import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Message;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.interceptor.schemavalidation.ValidatorInterceptor.FailureHandler;
 import com.predic8.membrane.core.multipart.XOPReconstitutor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.schema.Schema;
 
 public abstract class AbstractXMLSchemaValidator implements IValidator {
 	private static Log log = LogFactory.getLog(AbstractXMLSchemaValidator.class.getName());
 
-	private final ArrayBlockingQueue<List<Validator>> validators;
+	public static final int DEFAULT_MAX_VALIDATORS = 1000;
+
+	private final List<javax.xml.validation.Schema> schemas;
+	private final ValidatorPool validators;
 	protected final XOPReconstitutor xopr;
 	protected final String location;
 	protected final ResolverMap resourceResolver;
+	protected final Router router;
 	protected final ValidatorInterceptor.FailureHandler failureHandler;
 	private final boolean skipFaults;
+	private int streamingLookahead;
 
 	protected final AtomicLong valid = new AtomicLong();
 	protected final AtomicLong invalid = new AtomicLong();
@@ -58,22 +69,31 @@ public abstract class AbstractXMLSchemaValidator implements IValidator {
 	}
 
 	public AbstractXMLSchemaValidator(ResolverMap resourceResolver, String location, ValidatorInterceptor.FailureHandler failureHandler, boolean skipFaults) throws Exception {
+		this(resourceResolver, location, failureHandler, skipFaults, null);
+	}
+
+	/**
+	 * @param router the owner of the compiled schemas in the {@link CompiledArtifactCache}, or null
+	 */
+	public AbstractXMLSchemaValidator(ResolverMap resourceResolver, String location, ValidatorInterceptor.FailureHandler failureHandler, boolean skipFaults, Router router) throws Exception {
 		this.location = location;
 		this.resourceResolver = resourceResolver;
 		this.failureHandler = failureHandler;
 		this.skipFaults = skipFaults;
-		int concurrency = Runtime.getRuntime().availableProcessors() * 2;
-		validators = new ArrayBlockingQueue<List<Validator>>(concurrency);
-		for (int i = 0; i < concurrency; i++)
-			validators.add(createValidators());
+		this.router = router;
+		schemas = getCompiledSchemas();
+		validators = new ValidatorPool(schemas, resourceResolver, DEFAULT_MAX_VALIDATORS);
 		xopr = new XOPReconstitutor();
 	}
 
 	public Outcome validateMessage(Exchange exc, Message msg, String source) throws Exception {
+		if (streamingLookahead > 0 && isStreamable(msg) && validateWhileStreaming(exc, msg, source))
+			return Outcome.CONTINUE;
+
 		List<Exception> exceptions = new ArrayList<Exception>();
 		String preliminaryError = getPreliminaryError(xopr, msg);
 		if (preliminaryError == null) {
-			List<Validator> vals = validators.take();
+			List<Validator> vals = validators.acquire();
 			try {
 				// the message must be valid for one schema embedded into WSDL
 				for (Validator validator: vals) {
@@ -92,7 +112,7 @@ public abstract class AbstractXMLSchemaValidator implements IValidator {
 			} catch (Exception e) {
 				exceptions.add(e);
 			} finally {
-				validators.put(vals);
+				validators.release(vals);
 			}
 		} else {
 			exceptions.add(new Exception(preliminaryError));
@@ -114,20 +134,85 @@ public abstract class AbstractXMLSchemaValidator implements IValidator {
 		return Outcome.ABORT;
 	}
 
-	protected List<Validator> createValidators() throws Exception {
+	/**
+	 * Validates the message body while it is passed on, see {@link StreamingValidator}.
+	 *
+	 * @return false, if too many messages are already being validated while streaming
+	 */
+	private boolean validateWhileStreaming(final Exchange exc, Message msg, final String source) throws Exception {
+		StreamingValidator validator;
+		try {
+			validator = new StreamingValidator(msg.getBodyAsStream(), streamingLookahead, createXMLReader(),
+					schemas, new StreamingValidator.Callback() {
+						@Override
+						public void validated(List<Exception> exceptions) {
+							if (exceptions.isEmpty()) {
+								valid.incrementAndGet();
+								return;
+							}
+							invalid.incrementAndGet();
+							String message = getErrorMsg(exceptions);
+							log.info("Aborted invalid " + source + ": " + message);
+							if (failureHandler == FailureHandler.VOID)
+								exc.setProperty("error", message);
+							else if (failureHandler != null)
+								failureHandler.handleFailure(message, exc);
+						}
+					});
+		} catch (RejectedExecutionException e) {
+			log.debug("All streaming validation threads are busy, buffering the " + source + ".");
+			return false;
+		}
+		msg.setBody(new Body(validator));
+		return true;
+	}
+
+	/**
+	 * XOP messages, compressed bodies and (when faults have to be skipped) responses are always buffered
+	 * before validation, as are bodies which have already been read.
+	 */
+	private boolean isStreamable(Message msg) {
+		if (msg.getBody().isRead())
+			return false;
+		if (skipFaults && msg instanceof Response)
+			return false;
+		String contentEncoding = msg.getHeader().getContentEncoding();
+		if (contentEncoding != null && !contentEncoding.trim().equalsIgnoreCase("identity"))
+			return false;
+		String contentType = msg.getHeader().getContentType();
+		return contentType == null || !contentType.trim().toLowerCase().startsWith("multipart/");
+	}
+
+	/**
+	 * @return the parser used to stream the message body to the validators
+	 */
+	protected XMLReader createXMLReader() throws SAXException {
+		XMLReader reader = XMLReaderFactory.createXMLReader();
+		reader.setFeature("http://xml.org/sax/features/namespaces", true);
+		reader.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		reader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		return reader;
+	}
+
+	/**
+	 * @return the compiled schemas (thread-safe), usually shared via the {@link CompiledArtifactCache}
+	 */
+	protected abstract List<javax.xml.validation.Schema> getCompiledSchemas() throws Exception;
+
+	/**
+	 * Compiles the schemas returned by {@link #getSchemas()}.
+	 */
+	protected List<javax.xml.validation.Schema> compileSchemas() throws Exception {
 		SchemaFactory sf = SchemaFactory.newInstance(Constants.XSD_NS);
-		List<Validator> validators = new ArrayList<Validator>();
+		sf.setResourceResolver(resourceResolver.toLSResourceResolver());
+		List<javax.xml.validation.Schema> schemas = new ArrayList<javax.xml.validation.Schema>();
 		for (Schema schema : getSchemas()) {
-			log.debug("Creating validator for schema: " + schema);
+			log.debug("Compiling schema: " + schema);
 			StreamSource ss = new StreamSource(new StringReader(schema.getAsString()));
 			ss.setSystemId(location);
-			sf.setResourceResolver(resourceResolver.toLSResourceResolver());
-			Validator validator = sf.newSchema(ss).newValidator();
-			validator.setResourceResolver(resourceResolver.toLSResourceResolver());
-			validator.setErrorHandler(new SchemaValidatorErrorHandler());
-			validators.add(validator);
+			schemas.add(sf.newSchema(ss));
 		}
-		return validators;
+		return schemas;
 	}
 
 	private String getErrorMsg(List<Exception> excs) {
@@ -140,6 +225,22 @@ public abstract class AbstractXMLSchemaValidator implements IValidator {
 		return buf.toString();
 	}
 
+	public int getStreamingLookahead() {
+		return streamingLookahead;
+	}
+
+	/**
+	 * @param streamingLookahead the maximum number of bytes the validation may lag behind the message transfer, or
+	 *            0 to buffer the whole message before validating it
+	 */
+	public void setStreamingLookahead(int streamingLookahead) {
+		this.streamingLookahead = streamingLookahead;
+	}
+
+	ValidatorPool getValidatorPool() {
+		return validators;
+	}
+
 	@Override
 	public long getValid() {
 		return valid.get();
@@ -23,9 +23,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.github.fge.jackson.JsonLoader;
@@ -42,9 +46,15 @@ import com.predic8.membrane.core.interceptor.schemavalidation.ValidatorIntercept
 import com.predic8.membrane.core.resolver.ResolverMap;
 
 public class JSONValidator implements IValidator {
+	private static final Log log = LogFactory.getLog(JSONValidator.class.getName());
 	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final JsonFactory jsonFactory = new JsonFactory();
 
 	private JsonSchema schema;
+	/**
+	 * null, if the schema uses features not supported by {@link StreamingJSONSchema}
+	 */
+	private StreamingJSONSchema streamingSchema;
 	private final ResolverMap resourceResolver;
 	private final String jsonSchema;
 	private final ValidatorInterceptor.FailureHandler failureHandler;
@@ -67,12 +77,22 @@ public class JSONValidator implements IValidator {
 		List<String> errors;
 		boolean success = true;
 		try {
-			JsonNode node = JsonLoader.fromReader(new InputStreamReader(body, charset));
-			ProcessingReport report = schema.validateUnchecked(node);
-			success = report.isSuccess();
-			errors = new ArrayList<String>();
-			for (ProcessingMessage message : report)
-				errors.add(message.getMessage());
+			if (streamingSchema != null) {
+				JsonParser parser = jsonFactory.createParser(new InputStreamReader(body, charset));
+				try {
+					errors = streamingSchema.validate(parser);
+				} finally {
+					parser.close();
+				}
+				success = errors.isEmpty();
+			} else {
+				JsonNode node = JsonLoader.fromReader(new InputStreamReader(body, charset));
+				ProcessingReport report = schema.validateUnchecked(node);
+				success = report.isSuccess();
+				errors = new ArrayList<String>();
+				for (ProcessingMessage message : report)
+					errors.add(message.getMessage());
+			}
 		} catch (JsonParseException e) {
 			success = false;
 			errors = new ArrayList<String>();
@@ -133,6 +153,11 @@ public class JSONValidator implements IValidator {
 		} catch (ProcessingException e) {
 			throw new IOException(e);
 		}
+		try {
+			streamingSchema = StreamingJSONSchema.compile(schemaNode);
+		} catch (StreamingJSONSchema.UnsupportedSchemaException e) {
+			log.info("JSON Schema " + jsonSchema + " uses '" + e.getMessage() + "': messages will be validated using a tree model.");
+		}
 	}
 
 	@Override
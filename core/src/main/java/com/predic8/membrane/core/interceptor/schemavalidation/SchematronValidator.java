@@ -18,7 +18,6 @@ import static com.predic8.membrane.core.Constants.UTF_8_CHARSET;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.stream.XMLEventReader;
@@ -27,6 +26,7 @@ import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -50,12 +50,13 @@ import com.predic8.membrane.core.http.MimeType;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.multipart.XOPReconstitutor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 
 public class SchematronValidator implements IValidator {
 	private static Log log = LogFactory.getLog(SchematronValidator.class.getName());
 
-	private final ArrayBlockingQueue<Transformer> transformers;
+	private final Templates templates;
 	private final XMLInputFactory xmlInputFactory;
 	private final ValidatorInterceptor.FailureHandler failureHandler;
 	private final XOPReconstitutor xopr = new XOPReconstitutor();
@@ -68,34 +69,37 @@ public class SchematronValidator implements IValidator {
 		this.failureHandler = failureHandler;
 
 		//works as standalone "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl"
-		TransformerFactory fac;
+		final TransformerFactory fac;
 		try {
 			fac = beanFactory.getBean("transformerFactory", TransformerFactory.class);
 		} catch (NoSuchBeanDefinitionException e) {
 			throw new RuntimeException("Please define a bean called 'transformerFactory' in monitor-beans.xml, e.g. with " +
 					"<spring:bean id=\"transformerFactory\" class=\"com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl\" />", e);
 		}
-		fac.setURIResolver(new URIResolver() {
-			@Override
-			public Source resolve(String href, String base) throws TransformerException {
-				return new StreamSource(SchematronValidator.class.getResourceAsStream(href));
-			}
-		});
-		Transformer t = fac.newTransformer(new StreamSource(SchematronValidator.class.getResourceAsStream("conformance1-5.xsl")));
-
-		// transform schematron-XML into XSLT
-		DOMResult r = new DOMResult();
-		t.transform(new StreamSource(router.getResolverMap().resolve(schematron)), r);
-
-		// build XSLT transformers
-		fac.setURIResolver(null);
-		int concurrency = Runtime.getRuntime().availableProcessors() * 2;
-		transformers = new ArrayBlockingQueue<Transformer>(concurrency);
-		for (int i = 0; i < concurrency; i++) {
-			Transformer transformer = fac.newTransformer(new DOMSource(r.getNode()));
-			transformer.setErrorListener(new NullErrorListener()); // silence console logging
-			transformers.put(transformer);
-		}
+
+		templates = CompiledArtifactCache.getInstance().get(router, CompiledArtifactCache.SCHEMATRON,
+				router.getResolverMap(), schematron, new CompiledArtifactCache.Compiler<Templates>() {
+					@Override
+					public Templates compile(byte[] content) throws Exception {
+						synchronized (fac) {
+							fac.setURIResolver(new URIResolver() {
+								@Override
+								public Source resolve(String href, String base) throws TransformerException {
+									return new StreamSource(SchematronValidator.class.getResourceAsStream(href));
+								}
+							});
+							Transformer t = fac.newTransformer(new StreamSource(SchematronValidator.class.getResourceAsStream("conformance1-5.xsl")));
+
+							// transform schematron-XML into XSLT
+							DOMResult r = new DOMResult();
+							t.transform(new StreamSource(new ByteArrayInputStream(content)), r);
+
+							// compile the XSLT
+							fac.setURIResolver(null);
+							return fac.newTemplates(new DOMSource(r.getNode()));
+						}
+					}
+				});
 
 		xmlInputFactory = XMLInputFactory.newInstance();
 		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
@@ -107,12 +111,9 @@ public class SchematronValidator implements IValidator {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
 		try {
-			Transformer transformer = transformers.take();
-			try {
-				transformer.transform(new StreamSource(xopr.reconstituteIfNecessary(msg)), new StreamResult(baos));
-			} finally {
-				transformers.put(transformer);
-			}
+			Transformer transformer = templates.newTransformer();
+			transformer.setErrorListener(new NullErrorListener()); // silence console logging
+			transformer.transform(new StreamSource(xopr.reconstituteIfNecessary(msg)), new StreamResult(baos));
 
 			byte[] result = baos.toByteArray();
 
@@ -0,0 +1,646 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.schemavalidation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A JSON Schema (draft 4) compiled for validating documents while they are parsed.
+ *
+ * Instead of building a tree of the whole document, {@link #validate(JsonParser)} consumes the tokens of a
+ * {@link JsonParser}: Each JSON value is checked by an {@link Instance} of the schema applying to it, which is
+ * discarded as soon as the value ends.
+ *
+ * Not all keywords are supported ("format", "uniqueItems", "dependencies", non-scalar "enum" values and
+ * references to other documents): {@link #compile(JsonNode)} throws an {@link UnsupportedSchemaException} for
+ * schemas using them.
+ *
+ * A number without a fractional part is an "integer", even if it is written with one (like <tt>1.0</tt>).
+ */
+public class StreamingJSONSchema {
+
+	public static class UnsupportedSchemaException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedSchemaException(String message) {
+			super(message);
+		}
+	}
+
+	private static final int NULL = 1, BOOLEAN = 2, OBJECT = 4, ARRAY = 8, NUMBER = 16, INTEGER = 32, STRING = 64;
+	private static final String[] TYPE_NAMES = new String[] { "null", "boolean", "object", "array", "number", "integer", "string" };
+
+	private static final StreamingJSONSchema EMPTY = new StreamingJSONSchema();
+	/**
+	 * Used for "additionalProperties" and "additionalItems" set to "false".
+	 */
+	private static final StreamingJSONSchema FORBIDDEN = new StreamingJSONSchema();
+
+	private String ref;
+	private StreamingJSONSchema refTarget;
+
+	private int types;
+	private List<Object> enumValues;
+
+	private BigDecimal minimum, maximum, multipleOf;
+	private boolean exclusiveMinimum, exclusiveMaximum;
+
+	private int minLength = -1, maxLength = -1;
+	private Pattern pattern;
+
+	private Map<String, StreamingJSONSchema> properties;
+	private List<Pattern> patterns;
+	private List<StreamingJSONSchema> patternProperties;
+	private StreamingJSONSchema additionalProperties;
+	private List<String> required;
+	private int minProperties = -1, maxProperties = -1;
+
+	private StreamingJSONSchema items;
+	private List<StreamingJSONSchema> tupleItems;
+	private StreamingJSONSchema additionalItems;
+	private int minItems = -1, maxItems = -1;
+
+	private List<StreamingJSONSchema> allOf, anyOf, oneOf;
+	private StreamingJSONSchema not;
+
+	private StreamingJSONSchema() {
+	}
+
+	public static StreamingJSONSchema compile(JsonNode schema) throws UnsupportedSchemaException {
+		return new Compiler(schema).compile();
+	}
+
+	/**
+	 * Reads one JSON value from the parser and validates it.
+	 *
+	 * @return the validation errors, empty if the value is valid
+	 */
+	public List<String> validate(JsonParser parser) throws IOException {
+		List<String> errors = new ArrayList<String>();
+		Instance instance = start(null, null, -1, errors);
+		JsonToken t;
+		while ((t = parser.nextToken()) != null)
+			if (instance.token(parser, t))
+				break;
+		if (t == null)
+			errors.add("premature end of the document");
+		else if (parser.nextToken() != null)
+			errors.add("unexpected content after the end of the document");
+		return errors;
+	}
+
+	private Instance start(Instance parent, String name, int index, List<String> errors) {
+		if (refTarget != null)
+			return refTarget.start(parent, name, index, errors);
+		return new Instance(parent, name, index, errors);
+	}
+
+	private StreamingJSONSchema getItemSchema(int index) {
+		StreamingJSONSchema schema;
+		if (tupleItems == null)
+			schema = items;
+		else if (index < tupleItems.size())
+			schema = tupleItems.get(index);
+		else
+			schema = additionalItems;
+		return schema == null ? EMPTY : schema;
+	}
+
+	/**
+	 * The validation of one JSON value.
+	 */
+	private class Instance {
+
+		// the location of the value: the path is only computed, if an error is reported
+		private final Instance parent;
+		private final String name;
+		private final int index;
+		private final List<String> errors;
+
+		private JsonToken container;
+		private List<Instance> children;
+		private int count;
+		private Set<String> missing;
+
+		private List<Instance> allOfInstances, anyOfInstances, oneOfInstances;
+		private Instance notInstance;
+
+		public Instance(Instance parent, String name, int index, List<String> errors) {
+			this.parent = parent;
+			this.name = name;
+			this.index = index;
+			this.errors = errors;
+		}
+
+		/**
+		 * @return whether the value is complete
+		 */
+		public boolean token(JsonParser p, JsonToken t) throws IOException {
+			if (container == null)
+				startCombinations();
+			boolean done = consume(p, t);
+			feed(allOfInstances, p, t);
+			feed(anyOfInstances, p, t);
+			feed(oneOfInstances, p, t);
+			if (notInstance != null)
+				notInstance.token(p, t);
+			if (done)
+				finishCombinations();
+			return done;
+		}
+
+		private boolean consume(JsonParser p, JsonToken t) throws IOException {
+			if (container == null)
+				return startValue(p, t);
+			if (children != null) {
+				boolean childDone = false;
+				for (int i = 0; i < children.size(); i++)
+					childDone = children.get(i).token(p, t);
+				if (childDone)
+					children = null;
+				return false;
+			}
+			if (container == JsonToken.START_OBJECT) {
+				if (t == JsonToken.END_OBJECT) {
+					finishObject();
+					return true;
+				}
+				startProperty(p.getCurrentName());
+				return false;
+			}
+			if (t == JsonToken.END_ARRAY) {
+				finishArray();
+				return true;
+			}
+			StreamingJSONSchema schema = getItemSchema(count);
+			if (schema == FORBIDDEN) {
+				error("array must not have more than " + tupleItems.size() + " elements");
+				schema = EMPTY;
+			}
+			Instance child = schema.start(this, null, count, errors);
+			count++;
+			if (!child.token(p, t)) {
+				children = new ArrayList<Instance>(1);
+				children.add(child);
+			}
+			return false;
+		}
+
+		private boolean startValue(JsonParser p, JsonToken t) throws IOException {
+			int type = getType(t);
+			if (t == JsonToken.VALUE_NUMBER_FLOAT && (types & INTEGER) != 0 && (types & NUMBER) == 0 &&
+					isIntegral(p.getDecimalValue()))
+				type |= INTEGER;
+			if (types != 0 && (types & type) == 0)
+				error("instance type (" + getTypeName(type) + ") does not match any allowed primitive type (allowed: " +
+						getTypeNames(types) + ")");
+			switch (t) {
+			case START_OBJECT:
+				container = t;
+				if (required != null)
+					missing = new HashSet<String>(required);
+				checkEnum(null);
+				return false;
+			case START_ARRAY:
+				container = t;
+				checkEnum(null);
+				return false;
+			case VALUE_STRING:
+				String text = p.getText();
+				checkEnum(text);
+				checkString(text);
+				return true;
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				if (enumValues != null || minimum != null || maximum != null || multipleOf != null) {
+					BigDecimal number = p.getDecimalValue();
+					checkEnum(number);
+					checkNumber(number);
+				}
+				return true;
+			case VALUE_TRUE:
+				checkEnum(Boolean.TRUE);
+				return true;
+			case VALUE_FALSE:
+				checkEnum(Boolean.FALSE);
+				return true;
+			case VALUE_NULL:
+				checkEnum(NullValue.INSTANCE);
+				return true;
+			default:
+				throw new IOException("Unexpected token " + t);
+			}
+		}
+
+		private void checkEnum(Object value) {
+			if (enumValues == null)
+				return;
+			if (value != null) {
+				for (Object v : enumValues) {
+					if (value instanceof BigDecimal && v instanceof BigDecimal) {
+						if (((BigDecimal) value).compareTo((BigDecimal) v) == 0)
+							return;
+					} else if (value.equals(v)) {
+						return;
+					}
+				}
+			}
+			error("instance value not found in enum");
+		}
+
+		private void checkString(String text) {
+			if (minLength != -1 || maxLength != -1) {
+				int length = text.codePointCount(0, text.length());
+				if (minLength != -1 && length < minLength)
+					error("string is too short (length: " + length + ", required minimum: " + minLength + ")");
+				if (maxLength != -1 && length > maxLength)
+					error("string is too long (length: " + length + ", maximum allowed: " + maxLength + ")");
+			}
+			if (pattern != null && !pattern.matcher(text).find())
+				error("string does not match the regex pattern " + pattern.pattern());
+		}
+
+		private void checkNumber(BigDecimal number) {
+			if (minimum != null) {
+				int c = number.compareTo(minimum);
+				if (c < 0 || (c == 0 && exclusiveMinimum))
+					error("numeric instance is lower than the required minimum (minimum: " + minimum + ", found: " + number + ")");
+			}
+			if (maximum != null) {
+				int c = number.compareTo(maximum);
+				if (c > 0 || (c == 0 && exclusiveMaximum))
+					error("numeric instance is greater than the required maximum (maximum: " + maximum + ", found: " + number + ")");
+			}
+			if (multipleOf != null && number.remainder(multipleOf).signum() != 0)
+				error("remainder of division is not zero (" + number + " / " + multipleOf + ")");
+		}
+
+		private void startProperty(String name) {
+			count++;
+			if (missing != null)
+				missing.remove(name);
+			children = new ArrayList<Instance>(1);
+			if (properties != null) {
+				StreamingJSONSchema schema = properties.get(name);
+				if (schema != null)
+					children.add(schema.start(this, name, -1, errors));
+			}
+			if (patterns != null)
+				for (int i = 0; i < patterns.size(); i++)
+					if (patterns.get(i).matcher(name).find())
+						children.add(patternProperties.get(i).start(this, name, -1, errors));
+			if (children.isEmpty()) {
+				if (additionalProperties == FORBIDDEN) {
+					error("object instance has a property which is not allowed (" + name + ")");
+					children.add(EMPTY.start(this, name, -1, errors));
+				} else {
+					children.add((additionalProperties == null ? EMPTY : additionalProperties).start(this, name, -1, errors));
+				}
+			}
+		}
+
+		private void finishObject() {
+			if (missing != null && !missing.isEmpty())
+				error("object has missing required properties (" + missing + ")");
+			if (minProperties != -1 && count < minProperties)
+				error("object has too few properties (found " + count + ", required minimum " + minProperties + ")");
+			if (maxProperties != -1 && count > maxProperties)
+				error("object has too many properties (found " + count + ", maximum allowed " + maxProperties + ")");
+		}
+
+		private void finishArray() {
+			if (minItems != -1 && count < minItems)
+				error("array is too short (found " + count + ", required minimum " + minItems + ")");
+			if (maxItems != -1 && count > maxItems)
+				error("array is too long (found " + count + ", maximum allowed " + maxItems + ")");
+		}
+
+		private void startCombinations() {
+			if (allOf != null) {
+				// the errors of all schemas are relevant, so they are collected directly
+				allOfInstances = new ArrayList<Instance>(allOf.size());
+				for (StreamingJSONSchema schema : allOf)
+					allOfInstances.add(schema.start(parent, name, index, errors));
+			}
+			if (anyOf != null)
+				anyOfInstances = startSeparately(anyOf);
+			if (oneOf != null)
+				oneOfInstances = startSeparately(oneOf);
+			if (not != null)
+				notInstance = not.start(parent, name, index, new ArrayList<String>());
+		}
+
+		private List<Instance> startSeparately(List<StreamingJSONSchema> schemas) {
+			List<Instance> instances = new ArrayList<Instance>(schemas.size());
+			for (StreamingJSONSchema schema : schemas)
+				instances.add(schema.start(parent, name, index, new ArrayList<String>()));
+			return instances;
+		}
+
+		private void feed(List<Instance> instances, JsonParser p, JsonToken t) throws IOException {
+			if (instances == null)
+				return;
+			for (int i = 0; i < instances.size(); i++)
+				instances.get(i).token(p, t);
+		}
+
+		private void finishCombinations() {
+			if (anyOfInstances != null && countValid(anyOfInstances) == 0)
+				error("instance failed to match at least one required schema among " + anyOfInstances.size());
+			if (oneOfInstances != null) {
+				int matched = countValid(oneOfInstances);
+				if (matched != 1)
+					error("instance failed to match exactly one schema (matched " + matched + " out of " + oneOfInstances.size() + ")");
+			}
+			if (notInstance != null && notInstance.errors.isEmpty())
+				error("instance matched a schema which it should not");
+		}
+
+		private int countValid(List<Instance> instances) {
+			int valid = 0;
+			for (Instance instance : instances)
+				if (instance.errors.isEmpty())
+					valid++;
+			return valid;
+		}
+
+		private void error(String message) {
+			StringBuilder path = new StringBuilder();
+			appendPath(path);
+			errors.add((path.length() == 0 ? "/" : path.toString()) + ": " + message);
+		}
+
+		private void appendPath(StringBuilder sb) {
+			if (parent == null)
+				return;
+			parent.appendPath(sb);
+			sb.append('/');
+			if (name != null)
+				sb.append(name.replace("~", "~0").replace("/", "~1"));
+			else
+				sb.append(index);
+		}
+	}
+
+	private static int getType(JsonToken t) {
+		switch (t) {
+		case START_OBJECT:
+			return OBJECT;
+		case START_ARRAY:
+			return ARRAY;
+		case VALUE_STRING:
+			return STRING;
+		case VALUE_NUMBER_INT:
+			return INTEGER | NUMBER;
+		case VALUE_NUMBER_FLOAT:
+			return NUMBER;
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			return BOOLEAN;
+		default:
+			return NULL;
+		}
+	}
+
+	private static boolean isIntegral(BigDecimal number) {
+		// zero is checked separately, as BigDecimal.stripTrailingZeros() does not strip them from zero before Java 8
+		return number.signum() == 0 || number.stripTrailingZeros().scale() <= 0;
+	}
+
+	private static String getTypeName(int type) {
+		if ((type & INTEGER) != 0)
+			return "integer";
+		for (int i = 0; i < TYPE_NAMES.length; i++)
+			if ((type & (1 << i)) != 0)
+				return TYPE_NAMES[i];
+		return null;
+	}
+
+	private static String getTypeNames(int types) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < TYPE_NAMES.length; i++)
+			if ((types & (1 << i)) != 0)
+				names.add(TYPE_NAMES[i]);
+		return names.toString();
+	}
+
+	private static class NullValue {
+		static final NullValue INSTANCE = new NullValue();
+	}
+
+	private static class Compiler {
+
+		private final JsonNode root;
+		private final Map<String, StreamingJSONSchema> compiled = new HashMap<String, StreamingJSONSchema>();
+		private final List<StreamingJSONSchema> references = new ArrayList<StreamingJSONSchema>();
+
+		public Compiler(JsonNode root) {
+			this.root = root;
+		}
+
+		public StreamingJSONSchema compile() throws UnsupportedSchemaException {
+			JsonNode version = root.get("$schema");
+			if (version != null && !version.asText().startsWith("http://json-schema.org/draft-04/schema"))
+				throw new UnsupportedSchemaException("$schema " + version.asText());
+			StreamingJSONSchema result = compile(root, "");
+			// resolving references may compile further schemas, which may contain further references
+			for (int i = 0; i < references.size(); i++) {
+				StreamingJSONSchema reference = references.get(i);
+				StreamingJSONSchema target = reference;
+				Set<StreamingJSONSchema> seen = new HashSet<StreamingJSONSchema>();
+				while (target.ref != null) {
+					if (!seen.add(target))
+						throw new UnsupportedSchemaException("circular $ref " + reference.ref);
+					JsonNode node = root.at(target.ref);
+					if (node.isMissingNode())
+						throw new UnsupportedSchemaException("unresolvable $ref " + target.ref);
+					target = compile(node, target.ref);
+				}
+				reference.refTarget = target;
+			}
+			return result;
+		}
+
+		private StreamingJSONSchema compile(JsonNode node, String pointer) throws UnsupportedSchemaException {
+			StreamingJSONSchema schema = compiled.get(pointer);
+			if (schema != null)
+				return schema;
+			if (!node.isObject())
+				throw new UnsupportedSchemaException("schema at '" + pointer + "' is not an object");
+			schema = new StreamingJSONSchema();
+			compiled.put(pointer, schema);
+
+			JsonNode ref = node.get("$ref");
+			if (ref != null) {
+				// other keywords are ignored, if "$ref" is present
+				String r = ref.asText();
+				if (!r.startsWith("#"))
+					throw new UnsupportedSchemaException("$ref " + r);
+				schema.ref = r.substring(1);
+				references.add(schema);
+				return schema;
+			}
+
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				String keyword = field.getKey();
+				JsonNode value = field.getValue();
+				String p = pointer + "/" + keyword.replace("~", "~0").replace("/", "~1");
+				if (keyword.equals("id") && pointer.length() > 0)
+					throw new UnsupportedSchemaException("id");
+				if (keyword.equals("format") || keyword.equals("dependencies"))
+					throw new UnsupportedSchemaException(keyword);
+				if (keyword.equals("uniqueItems") && value.asBoolean())
+					throw new UnsupportedSchemaException(keyword);
+				if (keyword.equals("type")) {
+					if (value.isArray())
+						for (JsonNode v : value)
+							schema.types |= getType(v.asText());
+					else
+						schema.types |= getType(value.asText());
+				} else if (keyword.equals("enum")) {
+					schema.enumValues = new ArrayList<Object>();
+					for (JsonNode v : value)
+						schema.enumValues.add(getEnumValue(v));
+				} else if (keyword.equals("minimum")) {
+					schema.minimum = value.decimalValue();
+				} else if (keyword.equals("maximum")) {
+					schema.maximum = value.decimalValue();
+				} else if (keyword.equals("exclusiveMinimum")) {
+					schema.exclusiveMinimum = value.asBoolean();
+				} else if (keyword.equals("exclusiveMaximum")) {
+					schema.exclusiveMaximum = value.asBoolean();
+				} else if (keyword.equals("multipleOf")) {
+					schema.multipleOf = value.decimalValue();
+				} else if (keyword.equals("minLength")) {
+					schema.minLength = value.asInt();
+				} else if (keyword.equals("maxLength")) {
+					schema.maxLength = value.asInt();
+				} else if (keyword.equals("pattern")) {
+					schema.pattern = compilePattern(value.asText());
+				} else if (keyword.equals("properties")) {
+					schema.properties = new HashMap<String, StreamingJSONSchema>();
+					Iterator<Map.Entry<String, JsonNode>> properties = value.fields();
+					while (properties.hasNext()) {
+						Map.Entry<String, JsonNode> property = properties.next();
+						schema.properties.put(property.getKey(), compile(property.getValue(),
+								p + "/" + property.getKey().replace("~", "~0").replace("/", "~1")));
+					}
+				} else if (keyword.equals("patternProperties")) {
+					schema.patterns = new ArrayList<Pattern>();
+					schema.patternProperties = new ArrayList<StreamingJSONSchema>();
+					Iterator<Map.Entry<String, JsonNode>> properties = value.fields();
+					while (properties.hasNext()) {
+						Map.Entry<String, JsonNode> property = properties.next();
+						schema.patterns.add(compilePattern(property.getKey()));
+						schema.patternProperties.add(compile(property.getValue(),
+								p + "/" + property.getKey().replace("~", "~0").replace("/", "~1")));
+					}
+				} else if (keyword.equals("additionalProperties")) {
+					schema.additionalProperties = compileSchemaOrBoolean(value, p);
+				} else if (keyword.equals("required")) {
+					if (!value.isArray())
+						throw new UnsupportedSchemaException("required " + value);
+					schema.required = new ArrayList<String>();
+					for (JsonNode v : value)
+						schema.required.add(v.asText());
+				} else if (keyword.equals("minProperties")) {
+					schema.minProperties = value.asInt();
+				} else if (keyword.equals("maxProperties")) {
+					schema.maxProperties = value.asInt();
+				} else if (keyword.equals("items")) {
+					if (value.isArray())
+						schema.tupleItems = compileAll(value, p);
+					else
+						schema.items = compile(value, p);
+				} else if (keyword.equals("additionalItems")) {
+					schema.additionalItems = compileSchemaOrBoolean(value, p);
+				} else if (keyword.equals("minItems")) {
+					schema.minItems = value.asInt();
+				} else if (keyword.equals("maxItems")) {
+					schema.maxItems = value.asInt();
+				} else if (keyword.equals("allOf")) {
+					schema.allOf = compileAll(value, p);
+				} else if (keyword.equals("anyOf")) {
+					schema.anyOf = compileAll(value, p);
+				} else if (keyword.equals("oneOf")) {
+					schema.oneOf = compileAll(value, p);
+				} else if (keyword.equals("not")) {
+					schema.not = compile(value, p);
+				}
+				// other keywords ("title", "description", "definitions", ...) do not affect validation
+			}
+			return schema;
+		}
+
+		/**
+		 * @return the schema, {@link #FORBIDDEN} if "false" was specified
+		 */
+		private StreamingJSONSchema compileSchemaOrBoolean(JsonNode value, String pointer) throws UnsupportedSchemaException {
+			if (value.isBoolean())
+				return value.booleanValue() ? null : FORBIDDEN;
+			return compile(value, pointer);
+		}
+
+		private List<StreamingJSONSchema> compileAll(JsonNode value, String pointer) throws UnsupportedSchemaException {
+			List<StreamingJSONSchema> result = new ArrayList<StreamingJSONSchema>();
+			int i = 0;
+			for (JsonNode v : value)
+				result.add(compile(v, pointer + "/" + i++));
+			return result;
+		}
+
+		private static Pattern compilePattern(String regex) throws UnsupportedSchemaException {
+			try {
+				return Pattern.compile(regex);
+			} catch (PatternSyntaxException e) {
+				throw new UnsupportedSchemaException("pattern " + regex);
+			}
+		}
+
+		private static int getType(String name) throws UnsupportedSchemaException {
+			for (int i = 0; i < TYPE_NAMES.length; i++)
+				if (TYPE_NAMES[i].equals(name))
+					return 1 << i;
+			throw new UnsupportedSchemaException("type " + name);
+		}
+
+		private static Object getEnumValue(JsonNode v) throws UnsupportedSchemaException {
+			if (v.isTextual())
+				return v.textValue();
+			if (v.isNumber())
+				return v.decimalValue();
+			if (v.isBoolean())
+				return v.booleanValue();
+			if (v.isNull())
+				return NullValue.INSTANCE;
+			throw new UnsupportedSchemaException("enum value " + v);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.schemavalidation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Validates a message body while it passes through.
+ *
+ * The data read from the original stream is handed to a background thread via a bounded buffer (the
+ * "lookahead"): The thread parses the document once and feeds the events to one {@link ValidatorHandler} per
+ * schema. As soon as the document is invalid according to every schema, the stream fails with an
+ * {@link IOException}, aborting the transfer of the message. When the end of the stream is reached, reading blocks
+ * until the validation has completed.
+ *
+ * At most {@link #MAX_THREADS} messages are validated this way at the same time (system property
+ * "membrane.core.interceptor.schemavalidation.streamingthreads"): A slow client keeps its validation thread
+ * waiting. If all threads are busy, the constructor throws a {@link RejectedExecutionException} and the caller falls
+ * back to validating the buffered message.
+ */
+class StreamingValidator extends InputStream {
+
+	private static final Log log = LogFactory.getLog(StreamingValidator.class.getName());
+
+	/**
+	 * How long the validation thread waits for more data, before it gives up.
+	 */
+	private static final long READ_TIMEOUT = 5 * 60 * 1000;
+
+	private static final int MAX_THREADS = Integer.parseInt(System.getProperty(
+			"membrane.core.interceptor.schemavalidation.streamingthreads", "64"));
+
+	private static final ExecutorService executor = new ThreadPoolExecutor(0, MAX_THREADS, 60L,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread th = new Thread(r, "Streaming Validator");
+					th.setDaemon(true);
+					return th;
+				}
+			});
+
+	public interface Callback {
+		/**
+		 * @param exceptions the reasons why the document is invalid, empty if it is valid
+		 */
+		void validated(List<Exception> exceptions);
+	}
+
+	private final InputStream is;
+	private final byte[] buffer;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	// guarded by this
+	private int start, count;
+	private boolean eof, aborted, readerClosed;
+
+	private volatile List<Exception> exceptions;
+
+	public StreamingValidator(InputStream is, int lookahead, final XMLReader reader, List<Schema> schemas,
+			final Callback callback) {
+		this.is = is;
+		this.buffer = new byte[lookahead];
+		final Fanout fanout = new Fanout(schemas);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<Exception> result;
+				try {
+					reader.setContentHandler(fanout);
+					reader.parse(new InputSource(new BufferInputStream()));
+					result = fanout.getResult();
+				} catch (Exception e) {
+					result = fanout.getResult(e);
+				}
+				exceptions = result;
+				boolean transferred = closeReader();
+				done.countDown();
+				if (!transferred)
+					return; // the message was not validated completely
+				try {
+					callback.validated(result);
+				} catch (Exception e) {
+					log.error("", e);
+				}
+			}
+		});
+	}
+
+	private void checkValid() throws IOException {
+		List<Exception> exceptions = this.exceptions;
+		if (exceptions != null && !exceptions.isEmpty())
+			throw new IOException("Message is invalid: " + exceptions.get(0).getMessage());
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int l;
+		while ((l = read(b, 0, 1)) == 0)
+			;
+		return l == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkValid();
+		int l;
+		try {
+			l = is.read(b, off, len);
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		if (l == -1) {
+			finish();
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the validation to complete.");
+			}
+			checkValid();
+			return -1;
+		}
+		write(b, off, l);
+		checkValid();
+		return l;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return is.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		abort();
+		is.close();
+	}
+
+	private synchronized void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			while (count == buffer.length && !readerClosed)
+				waitForReader();
+			if (readerClosed)
+				return; // the validation has already completed
+			int pos = (start + count) % buffer.length;
+			int l = Math.min(len, Math.min(buffer.length - count, buffer.length - pos));
+			System.arraycopy(b, off, buffer, pos, l);
+			count += l;
+			off += l;
+			len -= l;
+			notifyAll();
+		}
+	}
+
+	private void waitForReader() throws IOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			throw new IOException("Interrupted while waiting for the validation.");
+		}
+	}
+
+	private synchronized void finish() {
+		eof = true;
+		notifyAll();
+	}
+
+	private synchronized void abort() {
+		if (!eof)
+			aborted = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return whether the message transfer has not been aborted
+	 */
+	private synchronized boolean closeReader() {
+		readerClosed = true;
+		notifyAll();
+		return !aborted;
+	}
+
+	/**
+	 * The input of the validation thread.
+	 */
+	private class BufferInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int l;
+			while ((l = read(b, 0, 1)) == 0)
+				;
+			return l == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			synchronized (StreamingValidator.this) {
+				long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+				while (count == 0 && !eof && !aborted) {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						aborted = true;
+						throw new IOException("Timed out waiting for the message body.");
+					}
+					try {
+						StreamingValidator.this.wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for the message body.");
+					}
+				}
+				if (aborted)
+					throw new IOException("Message transfer aborted.");
+				if (count == 0)
+					return -1;
+				int l = Math.min(len, Math.min(count, buffer.length - start));
+				System.arraycopy(buffer, start, b, off, l);
+				start = (start + l) % buffer.length;
+				count -= l;
+				StreamingValidator.this.notifyAll();
+				return l;
+			}
+		}
+	}
+
+	private static class AbortException extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		public AbortException() {
+			super("Document is invalid.");
+		}
+	}
+
+	/**
+	 * Passes the SAX events on to a validator for each schema. Validators reporting an error are dropped: The
+	 * document has to be valid for one of the schemas.
+	 */
+	private static class Fanout implements ContentHandler {
+
+		private final List<ValidatorHandler> handlers = new ArrayList<ValidatorHandler>();
+		private final List<Exception> exceptions = new ArrayList<Exception>();
+		private boolean elements;
+
+		public Fanout(List<Schema> schemas) {
+			for (Schema schema : schemas) {
+				ValidatorHandler handler = schema.newValidatorHandler();
+				handler.setErrorHandler(new SchemaValidatorErrorHandler());
+				handlers.add(handler);
+			}
+		}
+
+		private void check() throws SAXException {
+			for (int i = 0; i < handlers.size(); i++) {
+				SchemaValidatorErrorHandler errorHandler = (SchemaValidatorErrorHandler) handlers.get(i).getErrorHandler();
+				if (!errorHandler.noErrors()) {
+					exceptions.add(errorHandler.getException());
+					handlers.remove(i--);
+				}
+			}
+			if (handlers.isEmpty())
+				throw new AbortException();
+		}
+
+		public List<Exception> getResult() {
+			if (!elements && exceptions.isEmpty())
+				exceptions.add(new Exception("The message does not contain an element to validate."));
+			return handlers.isEmpty() || !elements ? exceptions : new ArrayList<Exception>();
+		}
+
+		public List<Exception> getResult(Exception e) {
+			if (!(e instanceof AbortException))
+				exceptions.add(e);
+			return exceptions;
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			for (ValidatorHandler handler : handlers)
+				handler.setDocumentLocator(locator);
+		}
+
+		@Override
+		public void startDocument() throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.startDocument();
+			check();
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.endDocument();
+			check();
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.startPrefixMapping(prefix, uri);
+			check();
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.endPrefixMapping(prefix);
+			check();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			elements = true;
+			for (ValidatorHandler handler : handlers)
+				handler.startElement(uri, localName, qName, atts);
+			check();
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.endElement(uri, localName, qName);
+			check();
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.characters(ch, start, length);
+			check();
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.ignorableWhitespace(ch, start, length);
+			check();
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.processingInstruction(target, data);
+			check();
+		}
+
+		@Override
+		public void skippedEntity(String name) throws SAXException {
+			for (ValidatorHandler handler : handlers)
+				handler.skippedEntity(name);
+			check();
+		}
+	}
+}
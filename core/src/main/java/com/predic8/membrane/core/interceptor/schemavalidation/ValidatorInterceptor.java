@@ -47,6 +47,9 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 	private String schematron;
 	private String failureHandler;
 	private boolean skipFaults;
+	private boolean streaming;
+	private int lookahead = 65536;
+	private int maxValidators = AbstractXMLSchemaValidator.DEFAULT_MAX_VALIDATORS;
 
 	private IValidator validator;
 	private ResolverMap resourceResolver;
@@ -71,11 +74,11 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 
 		if (wsdl != null) {
 			name="SOAP Validator";
-			setValidator(new WSDLValidator(resourceResolver, ResolverMap.combine(baseLocation, wsdl), createFailureHandler(), skipFaults));
+			setValidator(new WSDLValidator(resourceResolver, ResolverMap.combine(baseLocation, wsdl), createFailureHandler(), skipFaults, router));
 		}
 		if (schema != null) {
 			name="XML Schema Validator";
-			setValidator(new XMLSchemaValidator(resourceResolver, ResolverMap.combine(baseLocation, schema), createFailureHandler()));
+			setValidator(new XMLSchemaValidator(resourceResolver, ResolverMap.combine(baseLocation, schema), createFailureHandler(), router));
 		}
 		if (jsonSchema != null) {
 			name="JSON Schema Validator";
@@ -91,7 +94,7 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 			if (parent instanceof SOAPProxy) {
 				wsdl = ((SOAPProxy)parent).getWsdl();
 				name = "SOAP Validator";
-				setValidator(new WSDLValidator(resourceResolver, ResolverMap.combine(baseLocation, wsdl), createFailureHandler(), skipFaults));
+				setValidator(new WSDLValidator(resourceResolver, ResolverMap.combine(baseLocation, wsdl), createFailureHandler(), skipFaults, router));
 			}
 			if (validator == null)
 				throw new Exception("<validator> must have an attribute specifying the validator.");
@@ -99,6 +102,15 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 
 		if (skipFaults && wsdl == null)
 			throw new Exception("validator/@skipFaults only makes sense with validator/@wsdl");
+
+		if (validator instanceof AbstractXMLSchemaValidator)
+			((AbstractXMLSchemaValidator)validator).getValidatorPool().setMaxSize(maxValidators);
+
+		if (streaming) {
+			if (!(validator instanceof AbstractXMLSchemaValidator))
+				throw new Exception("validator/@streaming is only supported with validator/@wsdl or validator/@schema");
+			((AbstractXMLSchemaValidator)validator).setStreamingLookahead(lookahead);
+		}
 	}
 
 	@Override
@@ -197,6 +209,50 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 		this.skipFaults = skipFaults;
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * @description Whether to validate XML messages while they are passed on, instead of buffering them first. An
+	 *              invalid message is detected after parts of it may already have been forwarded: In this case,
+	 *              the transfer is aborted and the connection is closed. XOP and compressed messages are always
+	 *              buffered.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public int getLookahead() {
+		return lookahead;
+	}
+
+	/**
+	 * @description When streaming, the maximum number of bytes (of the message body) which may have been passed on
+	 *              without having been validated yet.
+	 * @default 65536
+	 */
+	@MCAttribute
+	public void setLookahead(int lookahead) {
+		this.lookahead = lookahead;
+	}
+
+	public int getMaxValidators() {
+		return maxValidators;
+	}
+
+	/**
+	 * @description The maximum number of XML Schema validators (per schema), which limits the number of messages
+	 *              validated concurrently. Validators are created when needed.
+	 * @default 1000
+	 */
+	@MCAttribute
+	public void setMaxValidators(int maxValidators) {
+		this.maxValidators = maxValidators;
+	}
+
 	@Override
 	public void init(Router router) throws Exception {
 		resourceResolver = router.getResolverMap();
@@ -234,6 +290,14 @@ public class ValidatorInterceptor extends AbstractInterceptor implements Applica
 			sb.append(TextUtil.linkURL(schematron));
 		}
 		sb.append(" .");
+		if (validator instanceof AbstractXMLSchemaValidator) {
+			ValidatorPool pool = ((AbstractXMLSchemaValidator)validator).getValidatorPool();
+			sb.append("<br/>Validators: " + pool.getSize() + " (maximum " + pool.getMaxSize() + ")");
+			long waits = pool.getWaits();
+			sb.append("<br/>Waited for a validator: " + waits + " of " + pool.getAcquisitions() + " times");
+			if (waits > 0)
+				sb.append(" (average " + pool.getWaitTime() / waits + " ms, maximum " + pool.getMaxWaitTime() + " ms)");
+		}
 		return sb.toString();
 	}
 
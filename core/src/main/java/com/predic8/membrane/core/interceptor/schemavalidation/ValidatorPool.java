@@ -0,0 +1,134 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.schemavalidation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import com.predic8.membrane.core.resolver.ResolverMap;
+
+/**
+ * Pools {@link Validator}s (which are not thread-safe) created from thread-safe {@link Schema}s.
+ *
+ * Validators are created on demand: A thread only waits for a validator to become available, when
+ * <tt>maxSize</tt> sets of validators are in use.
+ */
+class ValidatorPool {
+
+	private final List<Schema> schemas;
+	private final ResolverMap resourceResolver;
+	private final LinkedBlockingQueue<List<Validator>> idle = new LinkedBlockingQueue<List<Validator>>();
+	private final AtomicInteger size = new AtomicInteger();
+	private volatile int maxSize;
+
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	public ValidatorPool(List<Schema> schemas, ResolverMap resourceResolver, int maxSize) {
+		this.schemas = schemas;
+		this.resourceResolver = resourceResolver;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return one validator for each schema; has to be returned via {@link #release(List)}
+	 */
+	public List<Validator> acquire() throws InterruptedException {
+		acquisitions.incrementAndGet();
+		List<Validator> validators = idle.poll();
+		if (validators != null)
+			return validators;
+		while (true) {
+			int s = size.get();
+			if (s >= maxSize)
+				break;
+			if (size.compareAndSet(s, s + 1))
+				return create();
+		}
+		long start = System.nanoTime();
+		validators = idle.take();
+		long wait = System.nanoTime() - start;
+		waits.incrementAndGet();
+		waitTime.addAndGet(wait);
+		while (true) {
+			long max = maxWaitTime.get();
+			if (wait <= max || maxWaitTime.compareAndSet(max, wait))
+				break;
+		}
+		return validators;
+	}
+
+	public void release(List<Validator> validators) {
+		idle.add(validators);
+	}
+
+	private List<Validator> create() {
+		List<Validator> validators = new ArrayList<Validator>();
+		for (Schema schema : schemas) {
+			Validator validator = schema.newValidator();
+			validator.setResourceResolver(resourceResolver.toLSResourceResolver());
+			validator.setErrorHandler(new SchemaValidatorErrorHandler());
+			validators.add(validator);
+		}
+		return validators;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the number of validator sets created so far
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+
+	/**
+	 * @return the number of times a thread had to wait for a validator
+	 */
+	public long getWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * @return the total time threads waited for a validator, in milliseconds
+	 */
+	public long getWaitTime() {
+		return waitTime.get() / 1000000;
+	}
+
+	/**
+	 * @return the longest time a thread waited for a validator, in milliseconds
+	 */
+	public long getMaxWaitTime() {
+		return maxWaitTime.get() / 1000000;
+	}
+}
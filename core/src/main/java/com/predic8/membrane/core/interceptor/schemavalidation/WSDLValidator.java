@@ -23,18 +23,20 @@ import javax.xml.transform.Source;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.http.Message;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.multipart.XOPReconstitutor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.util.HttpUtil;
 import com.predic8.membrane.core.util.MessageUtil;
 import com.predic8.membrane.core.util.SOAPUtil;
 import com.predic8.schema.Schema;
 import com.predic8.wsdl.Types;
-import com.predic8.wsdl.WSDLParser;
-import com.predic8.wsdl.WSDLParserContext;
 
 public class WSDLValidator extends AbstractXMLSchemaValidator {
 	static Log log = LogFactory
@@ -48,28 +50,43 @@ public class WSDLValidator extends AbstractXMLSchemaValidator {
 		super(resourceResolver, location, failureHandler);
 	}
 
+	public WSDLValidator(ResolverMap resourceResolver, String location, ValidatorInterceptor.FailureHandler failureHandler, boolean skipFaults, Router router) throws Exception {
+		super(resourceResolver, location, failureHandler, skipFaults, router);
+	}
+
 	@Override
 	protected List<Schema> getSchemas() {
-		WSDLParserContext ctx = new WSDLParserContext();
-		ctx.setInput(location);
 		try {
-			WSDLParser wsdlParser = new WSDLParser();
-			//System.out.println("Resolver----" + resourceResolver);
-			wsdlParser.setResourceResolver(resourceResolver.toExternalResolver().toExternalResolver());
 			List<Schema> schemaList = new ArrayList<Schema>();
-			for (Types t : wsdlParser.parse(ctx).getTypes())
+			for (Types t : CompiledArtifactCache.getInstance().getDefinitions(router, resourceResolver, location).getTypes())
 				schemaList.addAll(t.getSchemas());
 			return schemaList;
-		} catch (RuntimeException e) {
+		} catch (Exception e) {
 			throw new IllegalArgumentException("Could not download the WSDL " + location + " or its dependent XML Schemas.", e);
 		}
 	}
 
+	@Override
+	protected List<javax.xml.validation.Schema> getCompiledSchemas() throws Exception {
+		return CompiledArtifactCache.getInstance().get(router, CompiledArtifactCache.WSDL_SCHEMAS, resourceResolver,
+				location, new CompiledArtifactCache.Compiler<List<javax.xml.validation.Schema>>() {
+					@Override
+					public List<javax.xml.validation.Schema> compile(byte[] content) throws Exception {
+						return compileSchemas();
+					}
+				});
+	}
+
 	@Override
 	protected Source getMessageBody(InputStream input) throws Exception {
 		return MessageUtil.getSOAPBody(input);
 	}
 
+	@Override
+	protected XMLReader createXMLReader() throws SAXException {
+		return new SOAPXMLFilter(super.createXMLReader());
+	}
+
 	@Override
 	protected Response createErrorResponse(String message) {
 		return HttpUtil.createSOAPValidationErrorResponse(message);
@@ -14,24 +14,26 @@
 
 package com.predic8.membrane.core.interceptor.schemavalidation;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.http.Message;
 import com.predic8.membrane.core.http.MimeType;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.multipart.XOPReconstitutor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.schema.Schema;
 
@@ -42,24 +44,30 @@ public class XMLSchemaValidator extends AbstractXMLSchemaValidator {
 		super(resourceResolver, location, failureHandler);
 	}
 
+	public XMLSchemaValidator(ResolverMap resourceResolver, String location, ValidatorInterceptor.FailureHandler failureHandler, Router router) throws Exception {
+		super(resourceResolver, location, failureHandler, false, router);
+	}
+
 	@Override
 	protected List<Schema> getSchemas() {
 		return null; // never gets called
 	}
 
 	@Override
-	protected List<Validator> createValidators() throws Exception {
-		SchemaFactory sf = SchemaFactory.newInstance(Constants.XSD_NS);
-		sf.setResourceResolver(resourceResolver.toLSResourceResolver());
-		List<Validator> validators = new ArrayList<Validator>();
-		log.debug("Creating validator for schema: " + location);
-		StreamSource ss = new StreamSource(resourceResolver.resolve(location));
-		ss.setSystemId(location);
-		Validator validator = sf.newSchema(ss).newValidator();
-		validator.setResourceResolver(resourceResolver.toLSResourceResolver());
-		validator.setErrorHandler(new SchemaValidatorErrorHandler());
-		validators.add(validator);
-		return validators;
+	protected List<javax.xml.validation.Schema> getCompiledSchemas() throws Exception {
+		javax.xml.validation.Schema schema = CompiledArtifactCache.getInstance().get(router, CompiledArtifactCache.XSD,
+				resourceResolver, location, new CompiledArtifactCache.Compiler<javax.xml.validation.Schema>() {
+					@Override
+					public javax.xml.validation.Schema compile(byte[] content) throws Exception {
+						SchemaFactory sf = SchemaFactory.newInstance(Constants.XSD_NS);
+						sf.setResourceResolver(resourceResolver.toLSResourceResolver());
+						log.debug("Compiling schema: " + location);
+						StreamSource ss = new StreamSource(new ByteArrayInputStream(content));
+						ss.setSystemId(location);
+						return sf.newSchema(ss);
+					}
+				});
+		return Collections.singletonList(schema);
 	}
 
 	@Override
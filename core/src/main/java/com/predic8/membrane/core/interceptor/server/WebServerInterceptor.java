@@ -17,6 +17,7 @@ import static com.predic8.membrane.core.util.HttpUtil.createHeaders;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
 
@@ -28,9 +29,12 @@ import org.springframework.beans.factory.annotation.Required;
 import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.compression.AcceptEncoding;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.resolver.ResourceRetrievalException;
 import com.predic8.membrane.core.util.TextUtil;
@@ -55,9 +59,13 @@ public class WebServerInterceptor extends AbstractInterceptor {
 
 	private static String[] EMPTY = new String[0];
 
+	private static final String[] PRECOMPRESSED_CODINGS = new String[] { AcceptEncoding.BROTLI, AcceptEncoding.GZIP };
+	private static final String[] PRECOMPRESSED_SUFFIXES = new String[] { ".br", ".gz" };
+
 	String docBase = "docBase";
 	String[] index = EMPTY;
 	boolean generateIndex;
+	boolean precompressed;
 
 	public WebServerInterceptor() {
 		name = "Web Server";
@@ -81,7 +89,11 @@ public class WebServerInterceptor extends AbstractInterceptor {
 		try {
 			exc.setTimeReqSent(System.currentTimeMillis());
 
-			exc.setResponse(createResponse(router.getResolverMap(), ResolverMap.combine(router.getBaseLocation(), docBase,  uri)));
+			String resPath = ResolverMap.combine(router.getBaseLocation(), docBase,  uri);
+			Response response = null;
+			if (precompressed)
+				response = createPrecompressedResponse(router.getResolverMap(), resPath, exc.getRequest());
+			exc.setResponse(response != null ? response : createResponse(router.getResolverMap(), resPath));
 
 			exc.setReceived();
 			exc.setTimeResReceived(System.currentTimeMillis());
@@ -136,6 +148,31 @@ public class WebServerInterceptor extends AbstractInterceptor {
 				.build();
 	}
 
+	/**
+	 * Serves a precompressed sibling of the resource ("index.html.br" or "index.html.gz" for "index.html"), if the
+	 * client accepts its content coding.
+	 *
+	 * @return the response, or null if there is no suitable precompressed sibling
+	 */
+	private static Response createPrecompressedResponse(ResolverMap rr, String resPath, Request request) throws IOException {
+		for (int i = 0; i < PRECOMPRESSED_CODINGS.length; i++) {
+			if (!AcceptEncoding.accepts(request.getHeader(), PRECOMPRESSED_CODINGS[i]))
+				continue;
+			InputStream is;
+			try {
+				is = rr.resolve(resPath + PRECOMPRESSED_SUFFIXES[i]);
+			} catch (ResourceRetrievalException e) {
+				continue;
+			}
+			return Response.ok()
+					.header(createHeaders(getContentType(resPath), Header.CONTENT_ENCODING, PRECOMPRESSED_CODINGS[i],
+							Header.VARY, Header.ACCEPT_ENCODING))
+					.body(is, true)
+					.build();
+		}
+		return null;
+	}
+
 	private static String getContentType(String uri) {
 		if (uri.endsWith(".css"))
 			return "text/css";
@@ -196,6 +233,20 @@ public class WebServerInterceptor extends AbstractInterceptor {
 		this.generateIndex = generateIndex;
 	}
 
+	public boolean isPrecompressed() {
+		return precompressed;
+	}
+
+	/**
+	 * @description If the client accepts brotli or gzip compressed content, serve a precompressed sibling of the
+	 *              requested file ("style.css.br" or "style.css.gz" for "style.css"), if it exists.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setPrecompressed(boolean precompressed) {
+		this.precompressed = precompressed;
+	}
+
 	@Override
 	public String getShortDescription() {
 		return "Serves static files from<br/>" + TextUtil.linkURL(docBase) + " .";
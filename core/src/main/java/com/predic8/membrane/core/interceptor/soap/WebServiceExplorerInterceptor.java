@@ -38,6 +38,7 @@ import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.interceptor.administration.Mapping;
 import com.predic8.membrane.core.interceptor.rest.QueryParameter;
 import com.predic8.membrane.core.interceptor.rest.RESTInterceptor;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.rules.SOAPProxy;
 import com.predic8.wsdl.Binding;
@@ -48,8 +49,6 @@ import com.predic8.wsdl.Part;
 import com.predic8.wsdl.Port;
 import com.predic8.wsdl.PortType;
 import com.predic8.wsdl.Service;
-import com.predic8.wsdl.WSDLParser;
-import com.predic8.wsdl.WSDLParserContext;
 import com.predic8.wstool.creator.RequestTemplateCreator;
 import com.predic8.wstool.creator.SOARequestCreator;
 
@@ -102,14 +101,11 @@ public class WebServiceExplorerInterceptor extends RESTInterceptor {
 
 	private volatile Definitions parsedWSDL;
 
-	private Definitions getParsedWSDL() {
+	private Definitions getParsedWSDL() throws Exception {
 		if (parsedWSDL != null)
 			return parsedWSDL;
-		WSDLParserContext ctx = new WSDLParserContext();
-		ctx.setInput(ResolverMap.combine(router.getBaseLocation(), wsdl));
-		WSDLParser wsdlParser = new WSDLParser();
-		wsdlParser.setResourceResolver(router.getResolverMap().toExternalResolver().toExternalResolver());
-		return parsedWSDL = wsdlParser.parse(ctx);
+		return parsedWSDL = CompiledArtifactCache.getInstance().getDefinitions(router, router.getResolverMap(),
+				ResolverMap.combine(router.getBaseLocation(), wsdl));
 	}
 
 	@Mapping("[^?]*/operation/([^/?]+)/([^/?]+)/([^/?]+)")
@@ -13,6 +13,9 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.xmlcontentfilter;
 
+import java.util.List;
+
+import javax.xml.namespace.QName;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.apache.log4j.Logger;
@@ -21,6 +24,7 @@ import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
@@ -49,27 +53,62 @@ public class SOAPStackTraceFilterInterceptor extends AbstractInterceptor {
 			+ "//*[local-name()='Fault' and namespace-uri()='" + Constants.SOAP11_NS + "']//*[local-name()='exception' and namespace-uri()='http://jax-ws.dev.java.net/']/message |"
 			+ "//*[local-name()='Fault' and namespace-uri()='" + Constants.SOAP11_NS + "']//detail/Exception";
 
+	private static final QName FAULT = new QName(Constants.SOAP11_NS, "Fault");
+	private static final QName JAXWS_EXCEPTION = new QName("http://jax-ws.dev.java.net/", "exception");
+	private static final QName MESSAGE = new QName("message");
+	private static final QName DETAIL = new QName("detail");
+	private static final QName EXCEPTION = new QName("Exception");
+
+	/**
+	 * Removes the elements selected by {@link #XPATH} in a single StAX pass, as the expression is too complex to be
+	 * optimized by the {@link XMLContentFilter} itself.
+	 */
+	private static class StackTraceRemover extends XMLElementRemover {
+		@Override
+		protected Decision decide(List<QName> ancestors, QName name) {
+			if (!ancestors.contains(FAULT))
+				return Decision.KEEP;
+			String localName = name.getLocalPart();
+			if (localName.equals("stackTrace") || localName.equals("stacktrace"))
+				return Decision.REMOVE;
+			if (localName.equals("faultstring"))
+				return Decision.DEPENDS_ON_TEXT;
+			QName parent = ancestors.get(ancestors.size() - 1);
+			if (name.equals(MESSAGE) && parent.equals(JAXWS_EXCEPTION) || name.equals(EXCEPTION) && parent.equals(DETAIL))
+				return Decision.REMOVE;
+			return Decision.KEEP;
+		}
+
+		@Override
+		protected boolean isRemoved(List<QName> ancestors, QName name, String text) {
+			return text.contains(".java:");
+		}
+	}
+
 	private final XMLContentFilter xmlContentFilter;
 
 	public SOAPStackTraceFilterInterceptor() throws XPathExpressionException {
-		this.xmlContentFilter = new XMLContentFilter(XPATH);
+		this.xmlContentFilter = new XMLContentFilter(XPATH, new StackTraceRemover());
 		setDisplayName("SOAP StackTrace Filter");
 		setFlow(Flow.Set.REQUEST_RESPONSE);
 	}
 
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
-		return handleMessage(exc, exc.getRequest());
+		return handleMessage(exc, exc.getRequest(), false);
 	}
 
 	@Override
 	public Outcome handleResponse(Exchange exc) throws Exception {
-		return handleMessage(exc, exc.getResponse());
+		// the response is filtered while it is sent to the client (HTTP/1.0 clients do not support chunked transfer
+		// encoding, though)
+		Request request = exc.getRequest();
+		return handleMessage(exc, exc.getResponse(), request == null || !request.isHTTP10());
 	}
 
-	private Outcome handleMessage(Exchange exc, Message message) {
+	private Outcome handleMessage(Exchange exc, Message message, boolean stream) {
 		try {
-			xmlContentFilter.removeMatchingElements(message);
+			xmlContentFilter.removeMatchingElements(message, stream);
 			return Outcome.CONTINUE;
 		} catch (Exception e) {
 			LOG.error("soapStackTraceFilter error", e);
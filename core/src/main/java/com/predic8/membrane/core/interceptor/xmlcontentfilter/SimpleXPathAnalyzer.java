@@ -15,7 +15,10 @@ package com.predic8.membrane.core.interceptor.xmlcontentfilter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
 import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathParser.ContainerNode;
@@ -136,6 +139,46 @@ public class SimpleXPathAnalyzer {
 		return "*".equals(elementName) ? null : new QName(elementName);
 	}
 
+	private static final Pattern DESCENDANT_STEP = Pattern.compile("\\s*//\\s*(\\*|[^\\s/\\[\\]():@*|,=!<>'\"]+)\\s*");
+
+	/**
+	 * Checks whether a given expression is equivalent to the existence of a named element. This is the case for
+	 * "//foo", "//foo[namespace-uri()='http://bar/']", "//*[local-name()='foo']" and
+	 * "//*[local-name()='foo' and namespace-uri()='http://bar/']".
+	 *
+	 * @return The named element or null if the expression has another form. A namespace URI of "*" (in the case of
+	 *         "//*[local-name()='foo']") matches any namespace.
+	 */
+	public QName getExistingElement(ContainerNode intersectExceptExpr) {
+		Node[] nodes = intersectExceptExpr.nodes;
+		// whitespace following the predicate (for example before a '|')
+		if (nodes.length == 3 && nodes[2] instanceof UnparsedStringNode && ((UnparsedStringNode)nodes[2]).s.trim().length() == 0)
+			nodes = new Node[] { nodes[0], nodes[1] };
+		if (nodes.length == 0 || nodes.length > 2 || !(nodes[0] instanceof UnparsedStringNode))
+			return null;
+		Matcher m = DESCENDANT_STEP.matcher(((UnparsedStringNode)nodes[0]).s);
+		if (!m.matches())
+			return null;
+		boolean wildcard = m.group(1).equals("*");
+		if (nodes.length == 1)
+			return wildcard ? null : new QName(XMLConstants.NULL_NS_URI, m.group(1));
+		if (!(nodes[1] instanceof SquareBracketNode))
+			return null;
+		// getElement() does not check the comparison operators
+		Node[] predicate = ((SquareBracketNode)nodes[1]).node.nodes;
+		for (int i = 2; i < predicate.length; i += 4)
+			if (!(predicate[i] instanceof UnparsedStringNode) || !((UnparsedStringNode)predicate[i]).s.trim().equals("="))
+				return null;
+		QName element = getElement(intersectExceptExpr);
+		if (element == null)
+			return null;
+		if (element.getNamespaceURI().length() > 0)
+			return element;
+		if (wildcard)
+			return new QName("*", element.getLocalPart());
+		return null;
+	}
+
 	private String getName(Marker m) {
 		StringBuilder sb = new StringBuilder();
 		while(true) {
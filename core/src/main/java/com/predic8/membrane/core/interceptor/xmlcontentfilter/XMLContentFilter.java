@@ -15,6 +15,7 @@ package com.predic8.membrane.core.interceptor.xmlcontentfilter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -45,6 +46,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.GeneratedBody;
 import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Message;
 import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathParser.ContainerNode;
@@ -56,6 +59,13 @@ import com.predic8.membrane.core.util.EndOfStreamException;
  * as of writing is {@link #removeMatchingElements(Message)}.
  *
  * As even Java 7 only supports XPath 1.0, this is what this class supports.
+ *
+ * Simple expressions which only select elements by name are not evaluated
+ * using XPath, but by a StAX parser (see {@link XMLElementRemover}): A first
+ * pass checks whether the document has to be changed, the elements are then
+ * removed while the document is streamed through the parser a second time
+ * (possibly while the message is sent). Neither a DOM nor a copy of the
+ * document is held in memory.
  */
 @ThreadSafe
 public class XMLContentFilter {
@@ -82,14 +92,33 @@ public class XMLContentFilter {
 	 */
 	private final XMLElementFinder elementFinder;
 
+	/**
+	 * If the XPath expression only selects elements by name (see
+	 * {@link #createElementRemover(String)}), the elementRemover is used
+	 * instead of XPath: It removes the elements in a single StAX pass
+	 * without a DOM.
+	 */
+	private final XMLElementRemover elementRemover;
+
 	/**
 	 * @param xPath XPath 1.0 expression
 	 */
 	public XMLContentFilter(String xPath) throws XPathExpressionException {
+		this(xPath, createElementRemover(xPath));
+	}
+
+	/**
+	 * @param xPath XPath 1.0 expression
+	 * @param elementRemover removes exactly the elements the XPath expression
+	 *            selects (for expressions too complex for
+	 *            {@link #createElementRemover(String)}), or null
+	 */
+	public XMLContentFilter(String xPath, XMLElementRemover elementRemover) throws XPathExpressionException {
 		this.xPath = xPath;
 		createXPathExpression(); // to throw XPathExpressionException early
-		elementFinder = createElementFinder(xPath);
-		if (elementFinder == null)
+		this.elementRemover = elementRemover;
+		elementFinder = elementRemover == null ? createElementFinder(xPath) : null;
+		if (elementRemover == null && elementFinder == null)
 			LOG.warn("The XPath expression \"" + xPath + "\" could not be optimized to use a StAX parser as a first check. This means that for every SOAP message, a DOM tree has to be built to execute the XPath expression. This might degrade performance significantly.");
 	}
 
@@ -120,6 +149,34 @@ public class XMLContentFilter {
 		return new XMLElementFinder(rootElements);
 	}
 
+	/**
+	 * Constructs an XMLElementRemover which removes exactly the elements the
+	 * given XPath expression selects.
+	 *
+	 * This only works if the XPath expression is a UnionExpr consisting of
+	 * PathExprs of the form "//foo", "//foo[namespace-uri()='http://bar/']",
+	 * "//*[local-name()='foo']" or
+	 * "//*[local-name()='foo' and namespace-uri()='http://bar/']".
+	 *
+	 * @return the xmlElementRemover as described above, or null if the XPath
+	 *         expression is too complex.
+	 */
+	static XMLElementRemover createElementRemover(String xPath) {
+		SimpleXPathAnalyzer a = new SimpleXPathAnalyzer();
+		List<ContainerNode> intersectExceptExprs = a
+				.getIntersectExceptExprs(xPath);
+		if (intersectExceptExprs == null)
+			return null;
+		List<QName> elements = new ArrayList<QName>();
+		for (ContainerNode node : intersectExceptExprs) {
+			QName n = a.getExistingElement(node);
+			if (n == null)
+				return null;
+			elements.add(n);
+		}
+		return new XMLElementRemover(elements);
+	}
+
 	private XPathExpression createXPathExpression() throws XPathExpressionException {
 		XPathExpression res = xpe.get();
 		if (res != null)
@@ -158,6 +215,19 @@ public class XMLContentFilter {
 	 * If the message is not valid XML, it is left unchanged.
 	 */
 	public void removeMatchingElements(Message message) {
+		removeMatchingElements(message, false);
+	}
+
+	/**
+	 * Removes parts of an XML document based on an XPath expression.
+	 *
+	 * If the message is not valid XML, it is left unchanged.
+	 *
+	 * @param stream whether the new body may be generated while the message is
+	 *            sent (see {@link GeneratedBody#setBodyOf(Message, boolean)}),
+	 *            if the elements are removed using a StAX parser
+	 */
+	public void removeMatchingElements(Message message, boolean stream) {
 		try {
 			Message xop = null;
 			try {
@@ -167,6 +237,11 @@ public class XMLContentFilter {
 			} catch (FactoryConfigurationError e) {
 			}
 
+			if (elementRemover != null) {
+				removeElements(message, xop, stream);
+				return;
+			}
+
 			if (elementFinder != null &&
 					!elementFinder.matches(xop != null ? xop.getBodyAsStream() : message.getBodyAsStream())) {
 				return;
@@ -198,6 +273,23 @@ public class XMLContentFilter {
 		}
 	}
 
+	private void removeElements(Message originalMessage, Message xopDecodedMessage, boolean stream)
+			throws XMLStreamException, IOException {
+		final AbstractBody source = xopDecodedMessage != null ?
+				xopDecodedMessage.getBody() : originalMessage.getBody();
+		// unmatched messages stay byte-identical, malformed ones are left
+		// unchanged (and cannot fail while being sent)
+		if (!elementRemover.matches(source.getContentAsStream()))
+			return;
+		replaceHeader(originalMessage, xopDecodedMessage);
+		new GeneratedBody() {
+			@Override
+			protected void generate(OutputStream out) throws Exception {
+				elementRemover.remove(source.getContentAsStream(), out);
+			}
+		}.setBodyOf(originalMessage, stream);
+	}
+
 	/**
 	 * @param originalMessage
 	 * @param xopDecodedMessage
@@ -216,13 +308,6 @@ public class XMLContentFilter {
 				XPathConstants.NODESET);
 		if (toBeDeleted.getLength() > 0) {
 			// change is necessary
-			originalMessage.getHeader().removeFields(Header.CONTENT_ENCODING);
-			if (xopDecodedMessage != null) {
-				originalMessage.getHeader().removeFields(Header.CONTENT_TYPE);
-				if (xopDecodedMessage.getHeader().getContentType() != null)
-					originalMessage.getHeader().setContentType(xopDecodedMessage.getHeader().getContentType());
-			}
-
 			for (int i = 0; i < toBeDeleted.getLength(); i++) {
 				Node n = toBeDeleted.item(i);
 				n.getParentNode().removeChild(n);
@@ -230,7 +315,21 @@ public class XMLContentFilter {
 
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			createTransformer().transform(new DOMSource(doc), new StreamResult(baos));
-			originalMessage.setBodyContent(baos.toByteArray());
+			replaceBody(originalMessage, xopDecodedMessage, baos.toByteArray());
+		}
+	}
+
+	private void replaceBody(Message originalMessage, Message xopDecodedMessage, byte[] content) {
+		replaceHeader(originalMessage, xopDecodedMessage);
+		originalMessage.setBodyContent(content);
+	}
+
+	private void replaceHeader(Message originalMessage, Message xopDecodedMessage) {
+		originalMessage.getHeader().removeFields(Header.CONTENT_ENCODING);
+		if (xopDecodedMessage != null) {
+			originalMessage.getHeader().removeFields(Header.CONTENT_TYPE);
+			if (xopDecodedMessage.getHeader().getContentType() != null)
+				originalMessage.getHeader().setContentType(xopDecodedMessage.getHeader().getContentType());
 		}
 	}
 
@@ -22,6 +22,7 @@ import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
@@ -80,17 +81,20 @@ public class XMLContentFilterInterceptor extends AbstractInterceptor {
 
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
-		return handleMessage(exc, exc.getRequest());
+		return handleMessage(exc, exc.getRequest(), false);
 	}
 
 	@Override
 	public Outcome handleResponse(Exchange exc) throws Exception {
-		return handleMessage(exc, exc.getResponse());
+		// the response is filtered while it is sent to the client (HTTP/1.0 clients do not support chunked transfer
+		// encoding, though)
+		Request request = exc.getRequest();
+		return handleMessage(exc, exc.getResponse(), request == null || !request.isHTTP10());
 	}
 
-	private Outcome handleMessage(Exchange exc, Message message) {
+	private Outcome handleMessage(Exchange exc, Message message, boolean stream) {
 		try {
-			xmlContentFilter.removeMatchingElements(message);
+			xmlContentFilter.removeMatchingElements(message, stream);
 			return Outcome.CONTINUE;
 		} catch (Exception e) {
 			LOG.error("xmlContentFilter error", e);
@@ -0,0 +1,219 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.xmlcontentfilter;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Copies an XML document from an InputStream to an OutputStream, dropping all
+ * elements (including their subtrees) with any of a set of names. This is done
+ * in a single pass using a StAX parser, without building a DOM.
+ *
+ * Element names are matched exactly, with one exception: A namespace of "*"
+ * matches any namespace (see {@link SimpleXPathAnalyzer#getExistingElement(SimpleXPathParser.ContainerNode)}).
+ *
+ * Subclasses may decide based on the element's ancestors and text content
+ * instead, see {@link #decide(List, QName)}.
+ */
+@ThreadSafe
+public class XMLElementRemover {
+	private static final String ANY_NAMESPACE = "*";
+	private static final String ENCODING = "UTF-8";
+
+	private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	private static XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+	private static XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * What happens to an element (including its subtree).
+	 */
+	protected static enum Decision {
+		KEEP,
+		REMOVE,
+		/**
+		 * The element is held back until its end, then
+		 * {@link XMLElementRemover#isRemoved(List, QName, String)} decides.
+		 * Its descendants are not decided upon.
+		 */
+		DEPENDS_ON_TEXT;
+	}
+
+	private final HashSet<QName> elements = new HashSet<QName>();
+	private final HashSet<String> anyNamespaceElements = new HashSet<String>();
+
+	protected XMLElementRemover() {
+	}
+
+	public XMLElementRemover(List<QName> elements) {
+		for (QName element : elements) {
+			if (ANY_NAMESPACE.equals(element.getNamespaceURI()))
+				anyNamespaceElements.add(element.getLocalPart());
+			else
+				this.elements.add(element);
+		}
+	}
+
+	/**
+	 * @param ancestors the names of the element's ancestors, starting with the
+	 *            root element
+	 */
+	protected Decision decide(List<QName> ancestors, QName name) {
+		if (elements.contains(name) || anyNamespaceElements.contains(name.getLocalPart()))
+			return Decision.REMOVE;
+		return Decision.KEEP;
+	}
+
+	/**
+	 * Called for elements decided {@link Decision#DEPENDS_ON_TEXT}.
+	 *
+	 * @param text the text content of the element (including the text of its
+	 *            descendants)
+	 */
+	protected boolean isRemoved(List<QName> ancestors, QName name, String text) {
+		return false;
+	}
+
+	/**
+	 * Reads the whole document from <code>is</code>, without writing anything.
+	 *
+	 * @return whether {@link #remove(InputStream, OutputStream)} would remove
+	 *         any element
+	 * @throws XMLStreamException if the input is not well-formed XML
+	 */
+	public boolean matches(InputStream is) throws XMLStreamException {
+		return copy(is, null);
+	}
+
+	/**
+	 * Writes the document read from <code>is</code> to <code>os</code> (using
+	 * UTF-8), leaving out the elements to be removed.
+	 *
+	 * If the input is not well-formed XML, an exception is thrown and the
+	 * output is incomplete.
+	 *
+	 * @return whether any element was removed
+	 */
+	public boolean remove(InputStream is, OutputStream os) throws XMLStreamException {
+		XMLEventWriter writer;
+		synchronized (xmlOutputFactory) {
+			writer = xmlOutputFactory.createXMLEventWriter(os, ENCODING);
+		}
+		boolean removed = copy(is, writer);
+		writer.flush();
+		return removed;
+	}
+
+	/**
+	 * @param writer the writer, or null if the events are only checked
+	 */
+	private boolean copy(InputStream is, XMLEventWriter writer) throws XMLStreamException {
+		XMLEventReader parser;
+		synchronized (xmlInputFactory) {
+			parser = xmlInputFactory.createXMLEventReader(is);
+		}
+
+		boolean removed = false;
+		List<QName> ancestors = new ArrayList<QName>();
+		// the depth inside the element currently being removed or held back, 0 if none
+		int skip = 0;
+		// the element held back until its text is known
+		QName pending = null;
+		List<XMLEvent> pendingEvents = new ArrayList<XMLEvent>();
+		StringBuilder pendingText = new StringBuilder();
+		while (parser.hasNext()) {
+			XMLEvent event = parser.nextEvent();
+			if (skip > 0) {
+				if (event.isStartElement())
+					skip++;
+				else if (event.isEndElement())
+					skip--;
+				if (pending == null)
+					continue;
+				if (writer != null)
+					pendingEvents.add(event);
+				if (event.isCharacters())
+					pendingText.append(event.asCharacters().getData());
+				if (skip == 0) {
+					if (isRemoved(ancestors, pending, pendingText.toString()))
+						removed = true;
+					else if (writer != null)
+						for (XMLEvent e : pendingEvents)
+							writer.add(e);
+					pending = null;
+					pendingEvents.clear();
+					pendingText.setLength(0);
+				}
+				continue;
+			}
+			if (event.isStartElement()) {
+				QName name = event.asStartElement().getName();
+				switch (decide(ancestors, name)) {
+				case REMOVE:
+					skip = 1;
+					removed = true;
+					continue;
+				case DEPENDS_ON_TEXT:
+					skip = 1;
+					pending = name;
+					if (writer != null)
+						pendingEvents.add(event);
+					continue;
+				default:
+					ancestors.add(name);
+				}
+			} else if (event.isEndElement()) {
+				ancestors.remove(ancestors.size() - 1);
+			}
+			if (writer == null)
+				continue;
+			if (event.isStartDocument())
+				event = toOutputEncoding((StartDocument)event);
+			writer.add(event);
+		}
+		return removed;
+	}
+
+	/**
+	 * The XML declaration has to announce the encoding actually used for the output.
+	 */
+	private XMLEvent toOutputEncoding(StartDocument startDocument) {
+		String version = startDocument.getVersion() != null ? startDocument.getVersion() : "1.0";
+		synchronized (xmlEventFactory) {
+			if (startDocument.standaloneSet())
+				return xmlEventFactory.createStartDocument(ENCODING, version, startDocument.isStandalone());
+			return xmlEventFactory.createStartDocument(ENCODING, version);
+		}
+	}
+
+}
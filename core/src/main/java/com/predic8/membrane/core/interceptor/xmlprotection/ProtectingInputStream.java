@@ -0,0 +1,104 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.xmlprotection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The output of an {@link XMLProtector}, produced while it is read.
+ *
+ * Whenever the buffered output has been consumed, the protector processes the next few tokens of the input. Only
+ * about {@link #BUFFER_SIZE} bytes of output are buffered. If the input is not well-formed or exceeds a limit,
+ * {@link #read(byte[], int, int)} fails, which aborts the transfer of the message.
+ */
+class ProtectingInputStream extends InputStream {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static class Buffer extends ByteArrayOutputStream {
+		public Buffer() {
+			super(BUFFER_SIZE);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	private final Buffer buffer = new Buffer();
+	private final XMLProtector protector;
+	private int position;
+	private boolean complete;
+	private IOException failure;
+
+	public ProtectingInputStream(InputStream in, String charset, XMLProtectionInterceptor interceptor) throws Exception {
+		protector = interceptor.createProtector(new OutputStreamWriter(buffer, charset));
+		protector.start(new InputStreamReader(in, charset));
+	}
+
+	private void fill() throws IOException {
+		buffer.reset();
+		position = 0;
+		try {
+			while (buffer.size() < BUFFER_SIZE && !complete) {
+				complete = !protector.next();
+				// the writer's own buffers are small, flushing them per token is cheap
+				protector.flush();
+			}
+		} catch (XMLStreamException e) {
+			// the output is incomplete: it must not look like the end of the document
+			buffer.reset();
+			failure = new IOException("XML protection: " + e.getMessage(), e);
+			throw failure;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == buffer.size()) {
+			if (failure != null)
+				throw failure;
+			if (complete)
+				return -1;
+			fill();
+		}
+		int count = Math.min(len, buffer.size() - position);
+		System.arraycopy(buffer.getBuffer(), position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			protector.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -25,13 +25,19 @@ import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 
 /**
  * @description Prohibits XML documents to be passed through that look like XML attacks on older parsers. Too many
- *              attributes, too long element names are such indications. DTD definitions will simply be removed.
+ *              attributes and too long element names are such indications. Optionally, too deeply nested elements,
+ *              too many elements, too long texts, too many namespace declarations and entities expanding to huge
+ *              texts can be limited as well (these limits are disabled by default). DTD definitions will simply be
+ *              removed. Checking stops at the first limit exceeded.
  * @topic 6. Security
  */
 @MCElement(name="xmlProtection")
@@ -41,7 +47,13 @@ public class XMLProtectionInterceptor extends AbstractInterceptor {
 
 	private int maxAttibuteCount = 1000;
 	private int maxElementNameLength = 1000;
+	private int maxDepth = -1;
+	private int maxElementCount = -1;
+	private int maxTextLength = -1;
+	private int maxNamespaceCount = -1;
+	private int maxEntityExpansion = -1;
 	private boolean removeDTD = true;
+	private boolean streaming = false;
 
 
 	public XMLProtectionInterceptor() {
@@ -62,6 +74,11 @@ public class XMLProtectionInterceptor extends AbstractInterceptor {
 			return Outcome.ABORT;
 		}
 
+		if (streaming && isStreamable(exc.getRequest())) {
+			protectWhileStreaming(exc);
+			return Outcome.CONTINUE;
+		}
+
 		if (!protectXML(exc)) {
 			log.warn("request discarded by xmlProtection, because it is not wellformed or exceeds limits");
 			setFailResponse(exc);
@@ -77,11 +94,47 @@ public class XMLProtectionInterceptor extends AbstractInterceptor {
 		exc.setResponse(Response.badRequest("Invalid XML features used in request.").build());
 	}
 
+	XMLProtector createProtector(OutputStreamWriter osw) throws Exception {
+		XMLProtector protector = new XMLProtector(osw, removeDTD, maxElementNameLength, maxAttibuteCount);
+		protector.setMaxDepth(maxDepth);
+		protector.setMaxElementCount(maxElementCount);
+		protector.setMaxTextLength(maxTextLength);
+		protector.setMaxNamespaceCount(maxNamespaceCount);
+		protector.setMaxEntityExpansion(maxEntityExpansion);
+		return protector;
+	}
+
+	/**
+	 * Compressed bodies and bodies which have already been read are always buffered, as are requests which cannot
+	 * be forwarded using chunked transfer encoding.
+	 */
+	private boolean isStreamable(Request request) {
+		if (request.getBody().isRead() || request.isHTTP10())
+			return false;
+		String contentEncoding = request.getHeader().getContentEncoding();
+		return contentEncoding == null || contentEncoding.trim().equalsIgnoreCase("identity");
+	}
+
+	/**
+	 * The request is checked while it is forwarded. If it turns out to be malicious, the transfer is aborted.
+	 */
+	private void protectWhileStreaming(Exchange exc) throws Exception {
+		Request request = exc.getRequest();
+		String charset = getCharset(exc);
+		ProtectingInputStream stream = new ProtectingInputStream(request.getBodyAsStream(), charset, this);
+		// the length of the output is not known in advance
+		request.getHeader().removeFields(Header.CONTENT_LENGTH);
+		request.getHeader().setValue(Header.TRANSFER_ENCODING, Header.CHUNKED);
+		request.setBody(new Body(stream));
+	}
+
+	/**
+	 * The input is streamed, but the output is buffered: The verdict must be known before anything is forwarded.
+	 */
 	private boolean protectXML(Exchange exc) throws Exception {
 		ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
-		XMLProtector protector = new XMLProtector(new OutputStreamWriter(stream, getCharset(exc)),
-				removeDTD, maxElementNameLength, maxAttibuteCount);
+		XMLProtector protector = createProtector(new OutputStreamWriter(stream, getCharset(exc)));
 
 		if (!protector.protect(new InputStreamReader(exc.getRequest().getBodyAsStreamDecoded(), getCharset(exc) )))
 			return false;
@@ -118,6 +171,68 @@ public class XMLProtectionInterceptor extends AbstractInterceptor {
 		this.maxElementNameLength = maxElementNameLength;
 	}
 
+	/**
+	 * @description If an incoming request's elements are nested deeper, it will be discarded. -1 for no limit. A
+	 *              reasonable limit is 256.
+	 * @default -1
+	 */
+	@MCAttribute
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @description If an incoming request contains more elements, it will be discarded. -1 for no limit.
+	 * @default -1
+	 */
+	@MCAttribute
+	public void setMaxElementCount(int maxElementCount) {
+		this.maxElementCount = maxElementCount;
+	}
+
+	/**
+	 * @description If a text node, comment or attribute value of an incoming request is longer (in characters), the
+	 *              request will be discarded. -1 for no limit.
+	 * @default -1
+	 */
+	@MCAttribute
+	public void setMaxTextLength(int maxTextLength) {
+		this.maxTextLength = maxTextLength;
+	}
+
+	/**
+	 * @description If an element of an incoming request declares more namespaces, the request will be discarded. -1
+	 *              for no limit.
+	 * @default -1
+	 */
+	@MCAttribute
+	public void setMaxNamespaceCount(int maxNamespaceCount) {
+		this.maxNamespaceCount = maxNamespaceCount;
+	}
+
+	/**
+	 * @description If the entities declared in the DTD of an incoming request (or the entity references used by it)
+	 *              expand to more characters, the request will be discarded. -1 for no limit. A reasonable limit is
+	 *              100000.
+	 * @default -1
+	 */
+	@MCAttribute
+	public void setMaxEntityExpansion(int maxEntityExpansion) {
+		this.maxEntityExpansion = maxEntityExpansion;
+	}
+
+	/**
+	 * @description Whether requests are checked while they are forwarded to the backend, instead of being buffered
+	 *              and checked before. If a streamed request turns out to be malicious, the transfer to the backend
+	 *              is aborted (the backend receives an incomplete request) and the client does not receive a
+	 *              "400 Bad Request" response.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
 	/**
 	 * @description Whether to remove the DTD from incoming requests.
 	 * @default true
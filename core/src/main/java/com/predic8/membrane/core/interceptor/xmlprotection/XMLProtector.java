@@ -11,20 +11,24 @@
    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
    See the License for the specific language governing permissions and
    limitations under the License. */
-
 package com.predic8.membrane.core.interceptor.xmlprotection;
 
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.util.Iterator;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.EntityDeclaration;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,8 +39,17 @@ import org.apache.commons.logging.LogFactory;
  * <li>DTDs can be removed.</li>
  * <li>The length of element names can be limited.</li>
  * <li>The number of attibutes per element can be limited.</li>
+ * <li>The nesting depth, the total number of elements, the length of texts and attribute values, the number of
+ * namespace declarations per element and (if the DTD is not removed) the number of characters entity references
+ * expand to can be limited.</li>
  * </ul>
  *
+ * A limit of -1 means "unlimited".
+ *
+ * The document is processed using a cursor based StAX parser, one token at a time (see {@link #next()}): Processing
+ * stops at the first token exceeding a limit, so the work spent on a malicious document is bounded by the limits,
+ * not by the size of the document.
+ *
  * If {@link #protect(InputStreamReader)} returns false, an unrecoverable error has
  * occurred (such as not-wellformed XML or an element name length exceeded the limit),
  * the {@link OutputStreamWriter} is left at this position: It should be discarded and
@@ -45,18 +58,48 @@ import org.apache.commons.logging.LogFactory;
 public class XMLProtector {
 	private static Log log = LogFactory.getLog(XMLProtector.class.getName());
 	private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	private static XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
 	static {
 		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
 		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
 	}
 
-	private XMLEventWriter writer;
+	/**
+	 * Thrown when the document exceeds one of the limits.
+	 */
+	public static class LimitExceededException extends XMLStreamException {
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceededException(String message) {
+			super(message);
+		}
+	}
+
+	private final XMLStreamWriter writer;
 	private final int maxAttibuteCount;
 	private final int maxElementNameLength;
 	private final boolean removeDTD;
 
+	private int maxDepth = -1;
+	private int maxElementCount = -1;
+	private int maxTextLength = -1;
+	private int maxNamespaceCount = -1;
+	private int maxEntityExpansion = -1;
+
+	private XMLStreamReader parser;
+	private int depth;
+	private int elementCount;
+	private long textLength;
+	private long entityExpansion;
+	/**
+	 * The number of characters each internal entity declared in the DTD expands to.
+	 */
+	private final Map<String, Long> entitySizes = new HashMap<String, Long>();
+
 	public XMLProtector(OutputStreamWriter osw, boolean removeDTD, int maxElementNameLength, int maxAttibuteCount) throws Exception {
-		this.writer = XMLOutputFactory.newInstance().createXMLEventWriter(osw);
+		synchronized (xmlOutputFactory) {
+			this.writer = xmlOutputFactory.createXMLStreamWriter(osw);
+		}
 		this.removeDTD = removeDTD;
 		this.maxElementNameLength = maxElementNameLength;
 		this.maxAttibuteCount = maxAttibuteCount;
@@ -64,38 +107,11 @@ public class XMLProtector {
 
 	public boolean protect(InputStreamReader isr) {
 		try {
-			XMLEventReader parser;
-			synchronized(xmlInputFactory) {
-				parser = xmlInputFactory.createXMLEventReader(isr);
-			}
-
-			while (parser.hasNext()) {
-				XMLEvent event = parser.nextEvent();
-				if (event.isStartElement()) {
-					StartElement startElement = (StartElement)event;
-					if (maxElementNameLength != -1)
-						if (startElement.getName().getLocalPart().length() > maxElementNameLength) {
-							log.warn("Element name length: Limit exceeded.");
-							return false;
-						}
-					if (maxAttibuteCount != -1) {
-						@SuppressWarnings("rawtypes")
-						Iterator i = startElement.getAttributes();
-						for (int attributeCount = 0; i.hasNext(); i.next())
-							if (++attributeCount == maxAttibuteCount) {
-								log.warn("Number of attributes per element: Limit exceeded.");
-								return false;
-							}
-					}
-				} if (event instanceof javax.xml.stream.events.DTD) {
-					if (removeDTD) {
-						log.debug("removed DTD.");
-						continue;
-					}
-				}
-				writer.add(event);
-			}
-			writer.flush();
+			start(isr);
+			while (next())
+				;
+		} catch (LimitExceededException e) {
+			return false;
 		} catch (XMLStreamException e) {
 			log.warn("Received not-wellformed XML.");
 			return false;
@@ -103,4 +119,231 @@ public class XMLProtector {
 		return true;
 	}
 
+	/**
+	 * Starts processing a document. Call {@link #next()} until it returns false, afterwards.
+	 */
+	public void start(Reader reader) throws XMLStreamException {
+		synchronized(xmlInputFactory) {
+			parser = xmlInputFactory.createXMLStreamReader(reader);
+		}
+		depth = elementCount = 0;
+		textLength = entityExpansion = 0;
+		entitySizes.clear();
+		// START_DOCUMENT is the initial state of the cursor, it is not returned by next()
+		String version = parser.getVersion();
+		if (version != null) {
+			String encoding = parser.getCharacterEncodingScheme();
+			if (encoding != null)
+				writer.writeStartDocument(encoding, version);
+			else
+				writer.writeStartDocument(version);
+		}
+	}
+
+	/**
+	 * Processes the next token of the document and writes it to the output (unless it is removed).
+	 *
+	 * @return false, if the document is complete (and the output has been flushed)
+	 * @throws LimitExceededException if the token exceeds one of the limits
+	 * @throws XMLStreamException if the document is not well-formed
+	 */
+	public boolean next() throws XMLStreamException {
+		if (!parser.hasNext()) {
+			writer.writeEndDocument();
+			writer.flush();
+			return false;
+		}
+		int event = parser.next();
+		switch (event) {
+		case XMLStreamConstants.START_ELEMENT:
+			textLength = 0;
+			checkStartElement();
+			writeStartElement();
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			textLength = 0;
+			depth--;
+			writer.writeEndElement();
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+			// a text may be reported in several pieces
+			textLength += parser.getTextLength();
+			check(maxTextLength, textLength, "Text length");
+			writer.writeCharacters(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+			break;
+		case XMLStreamConstants.CDATA:
+			textLength += parser.getTextLength();
+			check(maxTextLength, textLength, "Text length");
+			writer.writeCData(parser.getText());
+			break;
+		case XMLStreamConstants.COMMENT:
+			textLength = 0;
+			check(maxTextLength, parser.getTextLength(), "Text length");
+			writer.writeComment(parser.getText());
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			textLength = 0;
+			if (parser.getPIData() == null)
+				writer.writeProcessingInstruction(parser.getPITarget());
+			else
+				writer.writeProcessingInstruction(parser.getPITarget(), parser.getPIData());
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			textLength = 0;
+			Long size = entitySizes.get(parser.getLocalName());
+			if (size != null) {
+				entityExpansion += size;
+				check(maxEntityExpansion, entityExpansion, "Entity expansion");
+			}
+			writer.writeEntityRef(parser.getLocalName());
+			break;
+		case XMLStreamConstants.DTD:
+			if (removeDTD) {
+				log.debug("removed DTD.");
+				break;
+			}
+			// the entities only have to be checked, if the receiver of the output will expand them
+			checkEntityDeclarations();
+			writer.writeDTD(parser.getText());
+			break;
+		case XMLStreamConstants.END_DOCUMENT:
+			break;
+		default:
+			// ATTRIBUTE, NAMESPACE, NOTATION_DECLARATION and ENTITY_DECLARATION are not reported on their own
+			break;
+		}
+		return true;
+	}
+
+	private void checkStartElement() throws XMLStreamException {
+		if (maxElementNameLength != -1)
+			if (parser.getLocalName().length() > maxElementNameLength)
+				throw limitExceeded("Element name length");
+		if (maxAttibuteCount != -1)
+			if (parser.getAttributeCount() >= maxAttibuteCount)
+				throw limitExceeded("Number of attributes per element");
+		check(maxNamespaceCount, parser.getNamespaceCount(), "Number of namespace declarations per element");
+		check(maxDepth, ++depth, "Depth");
+		check(maxElementCount, ++elementCount, "Number of elements");
+		if (maxTextLength != -1)
+			for (int i = 0; i < parser.getAttributeCount(); i++)
+				check(maxTextLength, parser.getAttributeValue(i).length(), "Attribute value length");
+	}
+
+	private void writeStartElement() throws XMLStreamException {
+		String prefix = parser.getPrefix();
+		String namespaceURI = parser.getNamespaceURI();
+		writer.writeStartElement(prefix == null ? "" : prefix, parser.getLocalName(), namespaceURI == null ? "" : namespaceURI);
+		for (int i = 0; i < parser.getNamespaceCount(); i++) {
+			String nsPrefix = parser.getNamespacePrefix(i);
+			String nsURI = parser.getNamespaceURI(i);
+			if (nsPrefix == null || nsPrefix.length() == 0)
+				writer.writeDefaultNamespace(nsURI == null ? "" : nsURI);
+			else
+				writer.writeNamespace(nsPrefix, nsURI);
+		}
+		for (int i = 0; i < parser.getAttributeCount(); i++) {
+			String attributePrefix = parser.getAttributePrefix(i);
+			String attributeNamespace = parser.getAttributeNamespace(i);
+			if (attributePrefix == null || attributePrefix.length() == 0)
+				writer.writeAttribute(parser.getAttributeLocalName(i), parser.getAttributeValue(i));
+			else
+				writer.writeAttribute(attributePrefix, attributeNamespace, parser.getAttributeLocalName(i), parser.getAttributeValue(i));
+		}
+	}
+
+	/**
+	 * Determines the number of characters each internal entity expands to, without expanding it: Documents like the
+	 * "billion laughs" are rejected after looking at their (small) DTD.
+	 */
+	private void checkEntityDeclarations() throws XMLStreamException {
+		if (maxEntityExpansion == -1)
+			return;
+		Object declarations = parser.getProperty("javax.xml.stream.entities");
+		if (!(declarations instanceof List))
+			return;
+		Map<String, String> replacementTexts = new HashMap<String, String>();
+		for (Object declaration : (List<?>) declarations) {
+			EntityDeclaration entity = (EntityDeclaration) declaration;
+			if (entity.getReplacementText() != null)
+				replacementTexts.put(entity.getName(), entity.getReplacementText());
+		}
+		for (String name : replacementTexts.keySet())
+			getEntitySize(name, replacementTexts, new HashSet<String>());
+	}
+
+	private long getEntitySize(String name, Map<String, String> replacementTexts, Set<String> expanding) throws LimitExceededException {
+		Long size = entitySizes.get(name);
+		if (size != null)
+			return size;
+		String text = replacementTexts.get(name);
+		if (text == null)
+			return 0;
+		if (!expanding.add(name))
+			throw limitExceeded("Entity expansion (recursive entity '" + name + "')");
+		long result = 0;
+		int p = 0;
+		while (p < text.length()) {
+			int amp = text.indexOf('&', p);
+			int semicolon = amp == -1 ? -1 : text.indexOf(';', amp);
+			if (semicolon == -1) {
+				result += text.length() - p;
+				break;
+			}
+			result += amp - p;
+			String reference = text.substring(amp + 1, semicolon);
+			if (replacementTexts.containsKey(reference))
+				result += getEntitySize(reference, replacementTexts, expanding);
+			else
+				result += semicolon + 1 - amp;
+			check(maxEntityExpansion, result, "Entity expansion");
+			p = semicolon + 1;
+		}
+		expanding.remove(name);
+		entitySizes.put(name, result);
+		return result;
+	}
+
+	private void check(int limit, long value, String what) throws LimitExceededException {
+		if (limit != -1 && value > limit)
+			throw limitExceeded(what);
+	}
+
+	private LimitExceededException limitExceeded(String what) {
+		log.warn(what + ": Limit exceeded.");
+		return new LimitExceededException(what + ": Limit exceeded.");
+	}
+
+	/**
+	 * Flushes the output written so far.
+	 */
+	public void flush() throws XMLStreamException {
+		writer.flush();
+	}
+
+	public void close() throws XMLStreamException {
+		parser.close();
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public void setMaxElementCount(int maxElementCount) {
+		this.maxElementCount = maxElementCount;
+	}
+
+	public void setMaxTextLength(int maxTextLength) {
+		this.maxTextLength = maxTextLength;
+	}
+
+	public void setMaxNamespaceCount(int maxNamespaceCount) {
+		this.maxNamespaceCount = maxNamespaceCount;
+	}
+
+	public void setMaxEntityExpansion(int maxEntityExpansion) {
+		this.maxEntityExpansion = maxEntityExpansion;
+	}
+
 }
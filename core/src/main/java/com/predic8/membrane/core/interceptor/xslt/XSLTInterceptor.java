@@ -13,14 +13,18 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.xslt;
 
+import java.io.OutputStream;
 import java.util.Map;
 
+import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
 import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.GeneratedBody;
 import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.multipart.XOPReconstitutor;
@@ -46,27 +50,40 @@ public class XSLTInterceptor extends AbstractInterceptor {
 
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
-		transformMsg(exc.getRequest(), xslt, exc.getStringProperties());
+		Message msg = exc.getRequest();
+		if (msg.isBodyEmpty())
+			return Outcome.CONTINUE;
+		msg.setBodyContent(xsltTransformer.transform(getSource(msg), exc.getStringProperties()));
 		return Outcome.CONTINUE;
 	}
 
 	@Override
 	public Outcome handleResponse(Exchange exc) throws Exception {
-		transformMsg(exc.getResponse(), xslt, exc.getStringProperties());
+		Message msg = exc.getResponse();
+		if (msg.isBodyEmpty())
+			return Outcome.CONTINUE;
+		final XSLTTransformer transformer = xsltTransformer;
+		final Source source = getSource(msg);
+		final Map<String, String> parameters = exc.getStringProperties();
+		// the transformation runs while the response is sent to the client (HTTP/1.0 clients do not support chunked
+		// transfer encoding, though)
+		Request request = exc.getRequest();
+		new GeneratedBody() {
+			@Override
+			protected void generate(OutputStream out) throws Exception {
+				transformer.transform(source, parameters, out);
+			}
+		}.setBodyOf(msg, request == null || !request.isHTTP10());
 		return Outcome.CONTINUE;
 	}
 
-	private void transformMsg(Message msg, String ss, Map<String, String> parameter) throws Exception {
-		if (msg.isBodyEmpty())
-			return;
-		msg.setBodyContent(xsltTransformer.transform(
-				new StreamSource(xopr.reconstituteIfNecessary(msg)), parameter));
+	private Source getSource(Message msg) throws Exception {
+		return new StreamSource(xopr.reconstituteIfNecessary(msg));
 	}
 
 	@Override
 	public void init() throws Exception {
-		int concurrency = Runtime.getRuntime().availableProcessors() * 2;
-		xsltTransformer = new XSLTTransformer(xslt, router, concurrency);
+		xsltTransformer = new XSLTTransformer(xslt, router);
 	}
 
 	public String getXslt() {
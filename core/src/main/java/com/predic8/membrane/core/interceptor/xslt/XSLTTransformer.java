@@ -15,12 +15,14 @@ package com.predic8.membrane.core.interceptor.xslt;
 
 import static com.predic8.membrane.core.util.TextUtil.isNullOrEmpty;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
@@ -31,44 +33,48 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
-import com.predic8.membrane.core.resolver.ResourceRetrievalException;
 
+/**
+ * Applies an XSLT stylesheet.
+ *
+ * The stylesheet is compiled once into a thread-safe {@link Templates} object, which is shared via the
+ * {@link CompiledArtifactCache}. Each transformation creates its own (cheap) {@link Transformer} from it, so
+ * concurrent transformations never wait for each other.
+ */
 public class XSLTTransformer {
 	private static Log log = LogFactory.getLog(XSLTTransformer.class.getName());
 
 	private final TransformerFactory fac = TransformerFactory.newInstance();
-	private final ArrayBlockingQueue<Transformer> transformers;
+	private final Templates templates;
 	private final String styleSheet;
 
-	public XSLTTransformer(String styleSheet, final Router router, final int concurrency) throws Exception {
+	public XSLTTransformer(final String styleSheet, Router router) throws Exception {
 		this.styleSheet = styleSheet;
-		log.debug("using " + concurrency + " parallel transformer instances for " + styleSheet);
-		transformers = new ArrayBlockingQueue<Transformer>(concurrency);
-		createOneTransformer(router.getResolverMap(), router.getBaseLocation());
-		router.getBackgroundInitializator().execute(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					for (int i = 1; i < concurrency; i++)
-						createOneTransformer(router.getResolverMap(), router.getBaseLocation());
-				} catch (Exception e) {
-					log.error("Error creating XSLT transformer:", e);
-				}
-			}
-		});
+		if (isNullOrEmpty(styleSheet)) {
+			templates = null;
+		} else {
+			templates = CompiledArtifactCache.getInstance().get(router, CompiledArtifactCache.XSLT,
+					router.getResolverMap(), ResolverMap.combine(router.getBaseLocation(), styleSheet),
+					new CompiledArtifactCache.Compiler<Templates>() {
+						@Override
+						public Templates compile(byte[] content) throws Exception {
+							StreamSource source = new StreamSource(new ByteArrayInputStream(content));
+							source.setSystemId(styleSheet);
+							return fac.newTemplates(source);
+						}
+					});
+		}
 	}
 
-	private void createOneTransformer(ResolverMap rr, String baseLocation) throws TransformerConfigurationException, InterruptedException, ResourceRetrievalException {
-		Transformer t;
-		if (isNullOrEmpty(styleSheet))
-			t = fac.newTransformer();
-		else {
-			StreamSource source = new StreamSource(rr.resolve(ResolverMap.combine(baseLocation, styleSheet)));
-			source.setSystemId(styleSheet);
-			t = fac.newTransformer(source);
+	private Transformer createTransformer() throws TransformerConfigurationException {
+		if (templates != null)
+			return templates.newTransformer();
+		// the identity transformation: TransformerFactory is not thread-safe
+		synchronized (fac) {
+			return fac.newTransformer();
 		}
-		transformers.put(t);
 	}
 
 	public byte[] transform(Source xml) throws Exception {
@@ -77,24 +83,23 @@ public class XSLTTransformer {
 
 	public byte[] transform(Source xml, Map<String, String> parameters)
 			throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		transform(xml, parameters, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Writes the result to <tt>out</tt> while it is being produced.
+	 */
+	public void transform(Source xml, Map<String, String> parameters, OutputStream out)
+			throws Exception {
 		log.debug("applying transformation: " + styleSheet);
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		Transformer t = transformers.take();
-		try {
-			try {
-				t.clearParameters();
-			} catch (NullPointerException e) {
-				// do nothing
-			}
-			for (Map.Entry<String, String> e : parameters.entrySet()) {
-				t.setParameter(e.getKey(), e.getValue());
-			}
-			t.transform(xml, new StreamResult(baos));
-		} finally {
-			transformers.put(t);
+		Transformer t = createTransformer();
+		for (Map.Entry<String, String> e : parameters.entrySet()) {
+			t.setParameter(e.getKey(), e.getValue());
 		}
-		return baos.toByteArray();
+		t.transform(xml, new StreamResult(out));
 	}
 
 }
@@ -0,0 +1,251 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.multipart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.predic8.membrane.core.Constants;
+
+/**
+ * The reassembled document of an XOP message, produced while it is read: The root part is copied, replacing each
+ * <tt>xop:Include</tt> element by the base64 encoded content of the part it references.
+ *
+ * Parts are encoded piece by piece, so only about {@link #BUFFER_SIZE} bytes of output are held at any time. If a
+ * copy of the output is requested, it is kept in memory (up to a limit) and handed to the {@link Callback} once the
+ * document is complete. The copy is plain heap memory: A stream which is abandoned without being closed does not
+ * leave anything behind.
+ */
+class ReconstitutingInputStream extends InputStream {
+
+	interface Callback {
+		/**
+		 * The document is complete. <tt>copy</tt> contains all of it.
+		 */
+		void complete(ByteBuffer copy);
+	}
+
+	static final String XOP_NAMESPACE_URI = "http://www.w3.org/2004/08/xop/include";
+	private static final String ENCODING = "UTF-8";
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * A multiple of 3, so the base64 encoded pieces can simply be concatenated.
+	 */
+	private static final int PIECE_SIZE = 3 * 4096;
+
+	private static XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+	private static XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+
+	private static class Buffer extends ByteArrayOutputStream {
+		public Buffer() {
+			super(BUFFER_SIZE);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	private final Map<String, Part> parts;
+	private final XMLEventReader parser;
+	private final XMLEventWriter writer;
+	private final Buffer buffer = new Buffer();
+	private final Callback callback;
+	private final long copyLimit;
+	private ByteArrayOutputStream copy;
+
+	private int position;
+	private boolean complete;
+	private IOException failure;
+
+	/**
+	 * The content of the part currently being inlined, or null.
+	 */
+	private InputStream include;
+	private boolean xopIncludeOpen;
+	private final byte[] piece = new byte[PIECE_SIZE];
+
+	/**
+	 * @param callback receives a copy of the output, or null if no copy is needed
+	 * @param copyLimit the maximum size of the copy, -1 for no limit. No copy is made of larger documents.
+	 */
+	public ReconstitutingInputStream(XMLEventReader parser, Map<String, Part> parts, Callback callback,
+			long copyLimit) throws XMLStreamException {
+		this.parser = parser;
+		this.parts = parts;
+		this.callback = callback;
+		this.copyLimit = copyLimit;
+		if (callback != null)
+			copy = new ByteArrayOutputStream();
+		synchronized (xmlOutputFactory) {
+			writer = xmlOutputFactory.createXMLEventWriter(buffer, ENCODING);
+		}
+	}
+
+	private void fill() throws IOException {
+		buffer.reset();
+		position = 0;
+		try {
+			while (buffer.size() < BUFFER_SIZE && !complete) {
+				if (include != null) {
+					inlineNextPiece();
+					// writers may buffer internally
+					writer.flush();
+					continue;
+				}
+				if (!parser.hasNext()) {
+					complete = true;
+					break;
+				}
+				XMLEvent event = parser.nextEvent();
+				if (!copyEvent(event))
+					continue;
+				writer.flush();
+			}
+			writer.flush();
+		} catch (XMLStreamException e) {
+			fail(new IOException("Could not reassemble XOP message: " + e.getMessage(), e));
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		}
+		if (copy != null) {
+			if (copyLimit != -1 && copy.size() + buffer.size() > copyLimit) {
+				copy = null;
+			} else {
+				copy.write(buffer.getBuffer(), 0, buffer.size());
+				if (complete) {
+					callback.complete(ByteBuffer.wrap(copy.toByteArray()));
+					copy = null;
+				}
+			}
+		}
+	}
+
+	private void fail(IOException e) throws IOException {
+		buffer.reset();
+		failure = e;
+		copy = null;
+		throw e;
+	}
+
+	/**
+	 * @return whether the event was written to the output
+	 */
+	private boolean copyEvent(XMLEvent event) throws XMLStreamException, IOException {
+		if (event.isStartElement()) {
+			StartElement start = event.asStartElement();
+			if (XOP_NAMESPACE_URI.equals(start.getName().getNamespaceURI()) &&
+					start.getName().getLocalPart().equals("Include")) {
+				String href = start.getAttributeByName(new QName("href")).getValue();
+
+				if (href.startsWith("cid:"))
+					href = href.substring(4);
+
+				Part p = parts.get("<" + href + ">");
+				if (p == null)
+					throw new IOException("Did not find multipart with id " + href);
+
+				include = p.getInputStream();
+				xopIncludeOpen = true;
+				return false;
+			}
+		} else if (event.isEndElement()) {
+			EndElement end = event.asEndElement();
+			if (XOP_NAMESPACE_URI.equals(end.getName().getNamespaceURI()) &&
+					end.getName().getLocalPart().equals("Include") &&
+					xopIncludeOpen) {
+				xopIncludeOpen = false;
+				return false;
+			}
+		} else if (event.isStartDocument()) {
+			// the XML declaration has to announce the encoding actually used for the output
+			StartDocument startDocument = (StartDocument) event;
+			synchronized (xmlEventFactory) {
+				event = xmlEventFactory.createStartDocument(ENCODING,
+						startDocument.getVersion() != null ? startDocument.getVersion() : "1.0");
+			}
+		}
+		writer.add(event);
+		return true;
+	}
+
+	private void inlineNextPiece() throws IOException, XMLStreamException {
+		int length = 0;
+		int n;
+		while (length < piece.length && (n = include.read(piece, length, piece.length - length)) != -1)
+			length += n;
+		if (length < piece.length)
+			include = null;
+		if (length == 0)
+			return;
+		byte[] encoded = Base64.encodeBase64(length == piece.length ? piece : Arrays.copyOf(piece, length));
+		synchronized (xmlEventFactory) {
+			writer.add(xmlEventFactory.createCharacters(new String(encoded, Constants.UTF_8_CHARSET)));
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == buffer.size()) {
+			if (failure != null)
+				throw failure;
+			if (complete)
+				return -1;
+			fill();
+		}
+		int count = Math.min(len, buffer.size() - position);
+		System.arraycopy(buffer.getBuffer(), position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		copy = null;
+		complete = true;
+		position = buffer.size();
+		try {
+			parser.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+}
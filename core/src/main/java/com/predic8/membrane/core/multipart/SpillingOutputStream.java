@@ -0,0 +1,149 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.multipart;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collects data in memory until it exceeds a threshold, and in a temporary file afterwards.
+ *
+ * The data collected is retrieved as a {@link ByteBuffer}: Spilled data is memory-mapped and the file is deleted right
+ * away, so it does not occupy the heap and nothing is left behind. If the temporary file cannot be created, the data
+ * is kept in memory.
+ *
+ * On Windows, a file cannot be deleted while it is mapped: The file would only be deleted on JVM exit, each of them
+ * adding an entry to the JVM-wide {@link File#deleteOnExit()} list. Data is therefore never spilled on Windows.
+ */
+class SpillingOutputStream extends OutputStream {
+	private static Log log = LogFactory.getLog(SpillingOutputStream.class.getName());
+
+	private static final boolean CAN_DELETE_MAPPED_FILES = File.separatorChar == '/';
+
+	private static class Memory extends ByteArrayOutputStream {
+		public ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	private long threshold;
+	private Memory memory = new Memory();
+	private File file;
+	private OutputStream fileStream;
+	private long length;
+
+	/**
+	 * @param threshold the number of bytes kept in memory, -1 to never use a temporary file
+	 */
+	public SpillingOutputStream(long threshold) {
+		this.threshold = CAN_DELETE_MAPPED_FILES ? threshold : -1;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (memory != null && threshold != -1 && length + len > threshold)
+			spill();
+		if (memory != null)
+			memory.write(b, off, len);
+		else
+			fileStream.write(b, off, len);
+		length += len;
+	}
+
+	private void spill() throws IOException {
+		File file;
+		try {
+			file = File.createTempFile("membrane-xop", ".tmp");
+		} catch (IOException e) {
+			log.warn("Could not create temporary file, keeping XOP data in memory: " + e.getMessage());
+			threshold = -1;
+			return;
+		}
+		this.file = file;
+		try {
+			fileStream = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		} catch (IOException e) {
+			delete();
+			throw e;
+		}
+		memory.writeTo(fileStream);
+		memory = null;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Ends writing.
+	 *
+	 * @return the data written
+	 */
+	public ByteBuffer toByteBuffer() throws IOException {
+		if (memory != null)
+			return memory.toByteBuffer();
+		fileStream.close();
+		try {
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("XOP part too large: " + length + " bytes.");
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// the mapping stays valid after the file has been closed (and deleted)
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			} finally {
+				raf.close();
+			}
+		} finally {
+			delete();
+		}
+	}
+
+	/**
+	 * Ends writing, dropping the data.
+	 */
+	public void discard() {
+		memory = null;
+		if (file == null)
+			return;
+		try {
+			fileStream.close();
+		} catch (IOException e) {
+			// ignored
+		}
+		delete();
+	}
+
+	private void delete() {
+		if (!file.delete()) {
+			log.warn("Could not delete temporary file " + file.getAbsolutePath() + ", it will be deleted on exit.");
+			file.deleteOnExit();
+		}
+		file = null;
+	}
+}
@@ -0,0 +1,143 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.AbstractBodyTransferrer;
+import com.predic8.membrane.core.http.Chunk;
+import com.predic8.membrane.core.util.ByteUtil;
+
+/**
+ * The body of a reassembled XOP message (see {@link XOPReconstitutor}).
+ *
+ * The document is assembled while {@link #getContentAsStream()} is read. The result of the first complete pass is
+ * cached in memory, if it is not larger than the spill threshold: Later streams are served from the cache. Larger
+ * documents are assembled again for each stream (from the parts, which may have been spilled to temporary files).
+ * Only {@link #read()} and the methods based on it (like {@link #getContent()} and {@link #toString()}) copy larger
+ * documents into the heap.
+ */
+class XOPBody extends AbstractBody {
+	private static Log log = LogFactory.getLog(XOPBody.class.getName());
+
+	private final Part startPart;
+	private final Map<String, Part> parts;
+	private final XMLInputFactory xmlInputFactory;
+	private final long spillThreshold;
+
+	private ByteBuffer cached;
+
+	public XOPBody(Part startPart, Map<String, Part> parts, XMLInputFactory xmlInputFactory, long spillThreshold) {
+		this.startPart = startPart;
+		this.parts = parts;
+		this.xmlInputFactory = xmlInputFactory;
+		this.spillThreshold = spillThreshold;
+	}
+
+	@Override
+	public InputStream getContentAsStream() throws IOException {
+		if (isRead())
+			return super.getContentAsStream();
+		synchronized (this) {
+			if (cached != null)
+				return new ByteBufferInputStream(cached);
+		}
+		try {
+			XMLEventReader parser;
+			synchronized (xmlInputFactory) {
+				parser = xmlInputFactory.createXMLEventReader(startPart.getInputStream());
+			}
+			// streams running concurrently each keep their own copy: the first one to complete fills the cache
+			return new ReconstitutingInputStream(parser, parts, new ReconstitutingInputStream.Callback() {
+				@Override
+				public void complete(ByteBuffer copy) {
+					synchronized (XOPBody.this) {
+						if (cached == null)
+							cached = copy;
+					}
+				}
+			}, spillThreshold);
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not reassemble XOP message: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	protected void readLocal() throws IOException {
+		InputStream is = getContentAsStream();
+		try {
+			chunks.add(new Chunk(ByteUtil.getByteArrayData(is)));
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	protected void writeAlreadyRead(AbstractBodyTransferrer out) throws IOException {
+		if (getLength() > 0)
+			out.write(getContent(), 0, getLength());
+		out.finish();
+	}
+
+	@Override
+	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
+		chunks.clear();
+		InputStream is = getContentAsStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = is.read(buffer)) != -1) {
+				out.write(buffer, 0, length);
+				byte[] chunk = new byte[length];
+				System.arraycopy(buffer, 0, chunk, 0, length);
+				chunks.add(new Chunk(chunk));
+			}
+		} finally {
+			is.close();
+		}
+		out.finish();
+		markAsRead();
+	}
+
+	@Override
+	protected byte[] getRawLocal() throws IOException {
+		return getContent();
+	}
+
+	/**
+	 * The document is assembled within Membrane, there is no network stream to preserve: It is read, so that it can
+	 * be shown even if it has only been streamed so far.
+	 */
+	@Override
+	public String toString() {
+		try {
+			read();
+		} catch (IOException e) {
+			log.error("", e);
+			return "Error in body: " + e;
+		}
+		return super.toString();
+	}
+}
@@ -14,7 +14,6 @@
 
 package com.predic8.membrane.core.multipart;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -22,25 +21,17 @@ import java.util.HashMap;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.ParseException;
-import javax.xml.namespace.QName;
 import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
 import org.apache.commons.fileupload.MultipartStream;
 import org.apache.commons.fileupload.MultipartStream.MalformedStreamException;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.http.decoding.DecodedMessage;
 import com.predic8.membrane.core.util.EndOfStreamException;
 import com.predic8.membrane.core.util.MessageUtil;
 
@@ -49,35 +40,40 @@ import com.predic8.membrane.core.util.MessageUtil;
  * http://en.wikipedia.org/wiki/XML-binary_Optimized_Packaging and
  * http://www.w3.org/TR/xop10/ ) into one stream (that can be used for schema
  * validation, for example).
+ *
+ * The reassembled document is produced lazily, while its body is read (see {@link XOPBody}). Parts larger than the
+ * spill threshold (system property "membrane.core.multipart.spillthreshold", 1 MB by default, -1 to disable) are
+ * kept in memory-mapped temporary files instead of the heap.
  */
 @ThreadSafe
 public class XOPReconstitutor {
-	private static Log log = LogFactory.getLog(XOPReconstitutor.class.getName());
-	private static final String XOP_NAMESPACE_URI = "http://www.w3.org/2004/08/xop/include";
+	private static final long SPILL_THRESHOLD = Long.parseLong(System.getProperty("membrane.core.multipart.spillthreshold", "1048576"));
 
 	private final XMLInputFactory xmlInputFactory;
+	private final long spillThreshold;
 
 	public XOPReconstitutor() {
+		this(SPILL_THRESHOLD);
+	}
+
+	/**
+	 * @param spillThreshold the size (in bytes) above which a part is kept in a temporary file, -1 to keep all parts
+	 *            in memory
+	 */
+	public XOPReconstitutor(long spillThreshold) {
+		this.spillThreshold = spillThreshold;
 		xmlInputFactory = XMLInputFactory.newInstance();
 		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
 		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
 	}
 
+	/**
+	 * Uses the message's cached decoded body, so the message is reassembled at most once.
+	 *
+	 * @see Message#getBodyAsStreamDecoded()
+	 */
 	public InputStream reconstituteIfNecessary(Message message) throws XMLStreamException, IOException {
-		try {
-			Message reconstitutedMessage = getReconstitutedMessage(message);
-			if (reconstitutedMessage != null)
-				return reconstitutedMessage.getBodyAsStream();
-		} catch (Exception e) {
-			log.warn("", e);
-		}
-		return MessageUtil.getContentAsStream(message);
-	}
-
-	private XMLEventReader createEventReaderFromStream(InputStream is) throws XMLStreamException {
-		synchronized (xmlInputFactory) {
-			return xmlInputFactory.createXMLEventReader(is);
-		}
+		return message.getBodyAsStreamDecoded();
 	}
 
 	/**
@@ -111,21 +107,8 @@ public class XOPReconstitutor {
 				|| !innerContentType.getSubType().equals("xop+xml"))
 			return null;
 
-		byte[] body = fillInXOPParts(startPart.getInputStream(), parts);
-
-		Message m = new Message(){
-			@Override
-			protected void parseStartLine(InputStream in) throws IOException,
-			EndOfStreamException {
-				throw new RuntimeException("not implemented.");
-			}
-
-			@Override
-			public String getStartLine() {
-				throw new RuntimeException("not implemented.");
-			}
-		};
-		m.setBodyContent(body);
+		Message m = new DecodedMessage();
+		m.setBody(new XOPBody(startPart, parts, xmlInputFactory, spillThreshold));
 
 		String reconstitutedContentType = innerContentType.getParameter("type");
 		if (reconstitutedContentType != null)
@@ -143,9 +126,6 @@ public class XOPReconstitutor {
 		boolean nextPart = multipartStream.skipPreamble();
 		while(nextPart) {
 			Header header = new Header(multipartStream.readHeaders());
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			multipartStream.readBodyData(baos);
-
 			// see http://www.iana.org/assignments/transfer-encodings/transfer-encodings.xml
 			String cte = header.getFirstValue("Content-Transfer-Encoding");
 			if (cte != null &&
@@ -154,8 +134,15 @@ public class XOPReconstitutor {
 					!cte.equals("7bit"))
 				throw new RuntimeException("Content-Transfer-Encoding '" + cte + "' not implemented.");
 
-
-			Part part = new Part(header, baos.toByteArray());
+			SpillingOutputStream sos = new SpillingOutputStream(spillThreshold);
+			Part part;
+			try {
+				multipartStream.readBodyData(sos);
+				part = new Part(header, sos.toByteBuffer());
+			} finally {
+				// removes the temporary file, if the part could not be read completely
+				sos.discard();
+			}
 			String id = part.getContentID();
 			if (id != null) {
 				parts.put(id, part);
@@ -166,54 +153,4 @@ public class XOPReconstitutor {
 		return parts;
 	}
 
-	private byte[] fillInXOPParts(InputStream inputStream,
-			HashMap<String, Part> parts) throws XMLStreamException, FactoryConfigurationError {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(baos);
-
-		try {
-			XMLEventReader parser = createEventReaderFromStream(inputStream);
-
-			boolean xopIncludeOpen = false;
-
-			while (parser.hasNext()) {
-				XMLEvent event = parser.nextEvent();
-
-				if (event instanceof StartElement) {
-					StartElement start = (StartElement)event;
-					if (XOP_NAMESPACE_URI.equals(start.getName().getNamespaceURI()) &&
-							start.getName().getLocalPart().equals("Include")) {
-						String href = start.getAttributeByName(new QName("href")).getValue();
-
-						if (href.startsWith("cid:"))
-							href = href.substring(4);
-
-						Part p = parts.get("<" + href + ">");
-						if (p == null)
-							throw new RuntimeException("Did not find multipart with id " + href);
-
-						writer.add(p.asXMLEvent());
-						xopIncludeOpen = true;
-						continue;
-					}
-				} else if (event instanceof EndElement) {
-					EndElement start = (EndElement)event;
-					if (XOP_NAMESPACE_URI.equals(start.getName().getNamespaceURI()) &&
-							start.getName().getLocalPart().equals("Include") &&
-							xopIncludeOpen) {
-						xopIncludeOpen = false;
-						continue;
-					}
-				}
-
-				writer.add(event);
-			}
-			writer.flush();
-		} catch (XMLStreamException e) {
-			log.warn("Received not-wellformed XML.");
-			return null;
-		}
-		return baos.toByteArray();
-	}
-
 }
@@ -0,0 +1,252 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.resolver;
+
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.util.ByteUtil;
+import com.predic8.wsdl.Definitions;
+import com.predic8.wsdl.WSDLParser;
+import com.predic8.wsdl.WSDLParserContext;
+
+/**
+ * Shares compiled artifacts (XML Schemas, XSLT Templates, parsed WSDLs, ...) between all interceptors and proxies of
+ * the JVM.
+ *
+ * Artifacts are keyed by their type, the {@link ResolverMap#getConfigurationKey() configuration} of the
+ * {@link ResolverMap} used to read them (and the documents they import), their location and a hash of their content:
+ * A changed document yields a new artifact, an unchanged one is compiled only once, even across hot deployments.
+ * (Changes of documents imported by the document are not detected.) The cached artifacts must be thread-safe, as they
+ * are used concurrently.
+ *
+ * Each artifact is reference counted by its owners (usually {@link com.predic8.membrane.core.Router}s, which
+ * {@link #release(Object)} their artifacts on shutdown). An artifact without owners is retained for
+ * {@link #setRetention(long) a while}, so that it can be reused when a proxy is initialized again. When an owner
+ * retrieves a changed version of a document, it releases the previous version: Outdated versions without other
+ * owners are removed at once.
+ */
+public class CompiledArtifactCache {
+
+	private static final Log log = LogFactory.getLog(CompiledArtifactCache.class.getName());
+
+	public static final String XSD = "xsd";
+	public static final String WSDL = "wsdl";
+	public static final String WSDL_SCHEMAS = "wsdl-schemas";
+	public static final String XSLT = "xslt";
+	public static final String SCHEMATRON = "schematron";
+
+	private static final CompiledArtifactCache instance = new CompiledArtifactCache();
+
+	public static CompiledArtifactCache getInstance() {
+		return instance;
+	}
+
+	public interface Compiler<T> {
+		T compile(byte[] content) throws Exception;
+	}
+
+	private static class Entry {
+		/**
+		 * the key without the hash of the content
+		 */
+		final String document;
+		Object value;
+		final Set<Object> owners = new HashSet<Object>();
+		long lastUsed;
+		boolean removed;
+
+		public Entry(String document) {
+			this.document = document;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/**
+	 * maps {@link Entry#document} to the key of the latest version of the document
+	 */
+	private final ConcurrentHashMap<String, String> latest = new ConcurrentHashMap<String, String>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile long retention = 10 * 60 * 1000;
+	private volatile long lastEviction = System.currentTimeMillis();
+
+	/**
+	 * Reads the document at <tt>location</tt> and returns the artifact compiled from it.
+	 *
+	 * As the compiler usually uses the resolver to read imported documents, artifacts are only shared between
+	 * resolvers configured alike (for example the resolvers of a router and of the router replacing it on a hot
+	 * deployment).
+	 *
+	 * @param owner the owner of the reference to the artifact, or null
+	 */
+	public <T> T get(Object owner, String type, ResolverMap resolver, String location, Compiler<T> compiler) throws Exception {
+		InputStream is = resolver.resolve(location);
+		byte[] content;
+		try {
+			content = ByteUtil.getByteArrayData(is);
+		} finally {
+			is.close();
+		}
+		return get(owner, type + " [" + resolver.getConfigurationKey() + "] " + location, content, compiler);
+	}
+
+	/**
+	 * Returns the artifact compiled from the given content, which does not depend on other documents.
+	 *
+	 * @param owner the owner of the reference to the artifact, or null
+	 */
+	public <T> T get(Object owner, String type, String location, byte[] content, Compiler<T> compiler) throws Exception {
+		return get(owner, type + " " + location, content, compiler);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(Object owner, String document, byte[] content, Compiler<T> compiler) throws Exception {
+		evictIdle();
+		String key = document + " " + DigestUtils.sha256Hex(content);
+		while (true) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(document);
+				Entry entry2 = entries.putIfAbsent(key, entry);
+				if (entry2 != null)
+					entry = entry2;
+			}
+			// compiling while holding the lock makes concurrent users of the same artifact wait for it
+			synchronized (entry) {
+				if (entry.removed)
+					continue;
+				if (entry.value == null) {
+					try {
+						log.debug("Compiling " + document);
+						entry.value = compiler.compile(content);
+						misses.incrementAndGet();
+					} catch (Exception e) {
+						remove(key, entry);
+						throw e;
+					}
+				} else {
+					hits.incrementAndGet();
+				}
+				if (owner != null)
+					entry.owners.add(owner);
+				entry.lastUsed = System.currentTimeMillis();
+			}
+			String previous = latest.put(document, key);
+			if (previous != null && !previous.equals(key))
+				releaseOutdated(owner, previous);
+			return (T) entry.value;
+		}
+	}
+
+	/**
+	 * Releases the owner's reference to an outdated version of a document. Without other owners, the version is not
+	 * going to be used again.
+	 */
+	private void releaseOutdated(Object owner, String key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (owner != null)
+				entry.owners.remove(owner);
+			if (entry.owners.isEmpty())
+				remove(key, entry);
+		}
+	}
+
+	/**
+	 * Must be called while holding the entry's lock.
+	 */
+	private void remove(String key, Entry entry) {
+		entry.removed = true;
+		entries.remove(key, entry);
+		latest.remove(entry.document, key);
+	}
+
+	/**
+	 * Returns the parsed WSDL. The caller must not modify it.
+	 */
+	public Definitions getDefinitions(Object owner, final ResolverMap resolver, final String location) throws Exception {
+		return get(owner, WSDL, resolver, location, new Compiler<Definitions>() {
+			@Override
+			public Definitions compile(byte[] content) throws Exception {
+				WSDLParserContext ctx = new WSDLParserContext();
+				ctx.setInput(location);
+				WSDLParser wsdlParser = new WSDLParser();
+				// the document is parsed from the content it is cached for, imports are read using the resolver
+				wsdlParser.setResourceResolver(resolver.toExternalResolver().toExternalResolver(location, content));
+				return wsdlParser.parse(ctx);
+			}
+		});
+	}
+
+	/**
+	 * Releases all references held by the owner.
+	 */
+	public void release(Object owner) {
+		long now = System.currentTimeMillis();
+		for (Entry entry : entries.values()) {
+			synchronized (entry) {
+				if (entry.owners.remove(owner))
+					entry.lastUsed = now;
+			}
+		}
+	}
+
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		if (now - lastEviction < 60000)
+			return;
+		lastEviction = now;
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			synchronized (entry) {
+				if (entry.value != null && entry.owners.isEmpty() && now - entry.lastUsed > retention)
+					remove(e.getKey(), entry);
+			}
+		}
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getRetention() {
+		return retention;
+	}
+
+	/**
+	 * @param retention how long (in milliseconds) an artifact without owners is retained
+	 */
+	public void setRetention(long retention) {
+		this.retention = retention;
+	}
+}
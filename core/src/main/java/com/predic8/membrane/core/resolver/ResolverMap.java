@@ -14,6 +14,7 @@
 
 package com.predic8.membrane.core.resolver;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
@@ -164,6 +165,21 @@ public class ResolverMap implements Cloneable, Resolver {
 		throw new RuntimeException("No SchemaResolver defined for " + uri);
 	}
 
+	/**
+	 * @return a description of the configuration: Resolver maps with equal descriptions (like the ones of two
+	 *         instances of the same proxy configuration) delegate the same schemas to the same kinds of
+	 *         {@link SchemaResolver}s
+	 */
+	public String getConfigurationKey() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(schemas[i]).append('=').append(resolvers[i].getClass().getName());
+		}
+		return sb.toString();
+	}
+
 	public long getTimestamp(String uri) throws FileNotFoundException {
 		return getSchemaResolver(uri).getTimestamp(uri);
 	}
@@ -213,14 +229,22 @@ public class ResolverMap implements Cloneable, Resolver {
 	public class ExternalResolverConverter {
 
 		public ExternalResolver toExternalResolver() {
+			return toExternalResolver(null, null);
+		}
+
+		/**
+		 * @return a resolver returning <tt>content</tt> for the document at <tt>location</tt>, instead of reading it
+		 *         again
+		 */
+		public ExternalResolver toExternalResolver(final String location, final byte[] content) {
 			return new ExternalResolver() {
 				@Override
 				public InputStream resolveAsFile(String filename, String baseDir) {
 					try {
-						if(baseDir != null) {
-							return ResolverMap.this.resolve(combine(baseDir, filename));
-						}
-						return ResolverMap.this.resolve(filename);
+						String resolved = baseDir != null ? combine(baseDir, filename) : filename;
+						if (location != null && location.equals(resolved))
+							return new ByteArrayInputStream(content);
+						return ResolverMap.this.resolve(resolved);
 					} catch (Exception e) {
 						throw new RuntimeException(e);
 					}
@@ -230,6 +254,8 @@ public class ResolverMap implements Cloneable, Resolver {
 				protected InputStream resolveViaHttp(Object url) {
 					try {
 						String url2 = (String) url;
+						if (location != null && location.equals(url2))
+							return new ByteArrayInputStream(content);
 						int q = url2.indexOf('?');
 						if (q == -1)
 							url2 = url2.replaceAll("/[^/]+/\\.\\./", "/");
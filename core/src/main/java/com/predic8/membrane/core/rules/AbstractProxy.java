@@ -26,12 +26,23 @@ import com.predic8.membrane.annot.MCChildElement;
 import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.interceptor.Interceptor;
+import com.predic8.membrane.core.transport.http.AdmissionController;
 import com.predic8.membrane.core.transport.ssl.SSLContext;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
 
 public abstract class AbstractProxy implements Rule {
 	private static final Log log = LogFactory.getLog(AbstractProxy.class.getName());
 
+	/**
+	 * The priority class of requests handled by a proxy, used by the {@link AdmissionController} of the transport.
+	 * Classes are listed from highest to lowest priority.
+	 */
+	public enum Priority {
+		CRITICAL,
+		NORMAL,
+		BULK,
+	}
+
 	protected String name = "";
 
 	protected RuleKey key;
@@ -39,6 +50,8 @@ public abstract class AbstractProxy implements Rule {
 	protected volatile boolean blockRequest;
 	protected volatile boolean blockResponse;
 
+	private Priority priority = Priority.NORMAL;
+
 	protected List<Interceptor> interceptors = new ArrayList<Interceptor>();
 
 	/**
@@ -128,6 +141,22 @@ public abstract class AbstractProxy implements Rule {
 		this.blockResponse = blockStatus;
 	}
 
+	public Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @description The priority class of the requests handled by this proxy. When the transport is overloaded,
+	 *              requests of lower priority classes are delayed and rejected first. (Only takes effect if
+	 *              <tt>&lt;admission /&gt;</tt> is configured on the <tt>&lt;transport&gt;</tt>.)
+	 * @default normal
+	 * @example critical
+	 */
+	@MCAttribute
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
 	private StatisticCollector getStatisticCollectorByStatusCode(int code) {
 		StatisticCollector sc = statusCodes.get(code);
 		if (sc == null) {
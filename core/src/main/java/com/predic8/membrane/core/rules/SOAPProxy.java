@@ -39,6 +39,7 @@ import com.predic8.membrane.core.interceptor.server.WSDLPublisherInterceptor;
 import com.predic8.membrane.core.interceptor.soap.WebServiceExplorerInterceptor;
 import com.predic8.membrane.core.resolver.ResourceRetrievalException;
 import com.predic8.membrane.core.resolver.HTTPSchemaResolver;
+import com.predic8.membrane.core.resolver.CompiledArtifactCache;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
 import com.predic8.membrane.core.util.URLUtil;
@@ -47,8 +48,6 @@ import com.predic8.wsdl.AbstractBinding;
 import com.predic8.wsdl.Definitions;
 import com.predic8.wsdl.Port;
 import com.predic8.wsdl.Service;
-import com.predic8.wsdl.WSDLParser;
-import com.predic8.wsdl.WSDLParserContext;
 
 /**
  * @description <p>
@@ -87,13 +86,9 @@ public class SOAPProxy extends AbstractServiceProxy {
 	 * @return error or null for success
 	 */
 	private void parseWSDL() throws Exception {
-		WSDLParserContext ctx = new WSDLParserContext();
-		ctx.setInput(ResolverMap.combine(router.getBaseLocation(), wsdl));
 		try {
-			WSDLParser wsdlParser = new WSDLParser();
-			wsdlParser.setResourceResolver(resolverMap.toExternalResolver().toExternalResolver());
-
-			Definitions definitions = wsdlParser.parse(ctx);
+			Definitions definitions = CompiledArtifactCache.getInstance().getDefinitions(router, resolverMap,
+					ResolverMap.combine(router.getBaseLocation(), wsdl));
 
 			List<Service> services = definitions.getServices();
 			if (services.size() != 1)
@@ -0,0 +1,391 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.rules.AbstractProxy;
+import com.predic8.membrane.core.rules.AbstractProxy.Priority;
+import com.predic8.membrane.core.rules.Rule;
+
+/**
+ * @description <p>
+ *              Limits the number of requests processed concurrently by the transport. Requests exceeding the limit
+ *              wait in a bounded queue, one per priority class (see the <i>priority</i> attribute of the proxies):
+ *              Whenever a request completes, the oldest waiting request of the highest priority class is admitted.
+ *              </p>
+ *              <p>
+ *              Each priority class is shed independently using the CoDel algorithm: Once the time requests spent
+ *              waiting in the queue of a class has stayed above <i>target</i> for at least <i>interval</i>, requests
+ *              are rejected with <tt>503 Service Unavailable</tt> at an increasing rate until the queueing delay
+ *              drops below <i>target</i> again. As lower classes are only served when no request of a higher class
+ *              is waiting, they build up queueing delay (and are shed) first.
+ *              </p>
+ *              <p>
+ *              When the queue is full, a request replaces the newest request of a lower priority class. If there
+ *              is none, it is rejected immediately.
+ *              </p>
+ */
+@MCElement(name="admission", topLevel=false)
+public class AdmissionController {
+
+	private static final Log log = LogFactory.getLog(AdmissionController.class.getName());
+
+	private static final int WAITING = 0;
+	private static final int ADMITTED = 1;
+	private static final int SHED = 2;
+
+	private static class Waiter {
+		final Priority priority;
+		final long enqueued;
+		final Condition condition;
+		int state = WAITING;
+
+		Waiter(Priority priority, long enqueued, Condition condition) {
+			this.priority = priority;
+			this.enqueued = enqueued;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * The CoDel control law (RFC 8289) for one priority class.
+	 */
+	private class CoDel {
+		private long firstAboveTime;
+		private long dropNext;
+		private int count;
+		private boolean dropping;
+
+		boolean shouldShed(long sojourn, long now) {
+			long target = TimeUnit.MILLISECONDS.toNanos(AdmissionController.this.target);
+			long interval = TimeUnit.MILLISECONDS.toNanos(AdmissionController.this.interval);
+			if (sojourn < target) {
+				firstAboveTime = 0;
+				dropping = false;
+				return false;
+			}
+			if (firstAboveTime == 0) {
+				firstAboveTime = now + interval;
+				return false;
+			}
+			if (now - firstAboveTime < 0)
+				return false;
+			if (!dropping) {
+				dropping = true;
+				// resume at the previous rate, if we were dropping recently
+				count = count > 2 && now - dropNext < 16 * interval ? count - 2 : 0;
+				dropNext = now;
+			}
+			if (now - dropNext < 0)
+				return false;
+			count++;
+			dropNext = now + (long) (interval / Math.sqrt(count));
+			return true;
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<Waiter>[] queues;
+	private final CoDel[] coDels;
+
+	private int maxConcurrentRequests = 100;
+	private int maxQueueSize = 1000;
+	private int target = 5;
+	private int interval = 100;
+	private int maxQueueTime = 10000;
+
+	private int inflight;
+	private int queued;
+	private long rejected;
+	private long shed;
+	private long timedOut;
+
+	@SuppressWarnings("unchecked")
+	public AdmissionController() {
+		int classes = Priority.values().length;
+		queues = new ArrayDeque[classes];
+		coDels = new CoDel[classes];
+		for (int i = 0; i < classes; i++) {
+			queues[i] = new ArrayDeque<Waiter>();
+			coDels[i] = new CoDel();
+		}
+	}
+
+	public static Priority getPriority(Rule rule) {
+		if (rule instanceof AbstractProxy)
+			return ((AbstractProxy) rule).getPriority();
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Waits until the request may be processed.
+	 *
+	 * @return whether the request may be processed, in which case {@link #release()} has to be called once it
+	 *         completes
+	 */
+	public boolean acquire(Priority priority) throws InterruptedException {
+		lock.lock();
+		try {
+			if (inflight < maxConcurrentRequests && !hasWaiters(priority)) {
+				inflight++;
+				return true;
+			}
+			if (queued >= maxQueueSize && !shedLowerPriority(priority)) {
+				rejected++;
+				return false;
+			}
+			Waiter waiter = new Waiter(priority, System.nanoTime(), lock.newCondition());
+			queues[priority.ordinal()].addLast(waiter);
+			queued++;
+			long nanos = TimeUnit.MILLISECONDS.toNanos(maxQueueTime);
+			try {
+				while (waiter.state == WAITING) {
+					if (nanos <= 0) {
+						remove(waiter);
+						timedOut++;
+						return false;
+					}
+					nanos = waiter.condition.awaitNanos(nanos);
+				}
+			} catch (InterruptedException e) {
+				if (waiter.state == WAITING)
+					remove(waiter);
+				else if (waiter.state == ADMITTED)
+					release();
+				throw e;
+			}
+			return waiter.state == ADMITTED;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void release() {
+		lock.lock();
+		try {
+			inflight--;
+			long now = System.nanoTime();
+			while (inflight < maxConcurrentRequests) {
+				Waiter waiter = poll(now);
+				if (waiter == null)
+					break;
+				inflight++;
+				waiter.state = ADMITTED;
+				waiter.condition.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether requests of the same or a higher priority class are waiting
+	 */
+	private boolean hasWaiters(Priority priority) {
+		for (int i = 0; i <= priority.ordinal(); i++)
+			if (!queues[i].isEmpty())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Sheds the newest request of the lowest priority class waiting, if its class is lower than the given one.
+	 */
+	private boolean shedLowerPriority(Priority priority) {
+		for (int i = queues.length - 1; i > priority.ordinal(); i--) {
+			if (!queues[i].isEmpty()) {
+				queued--;
+				shed(queues[i].pollLast());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the next request to admit, shedding requests according to CoDel on the way
+	 */
+	private Waiter poll(long now) {
+		for (int i = 0; i < queues.length; i++) {
+			Waiter waiter;
+			while ((waiter = queues[i].pollFirst()) != null) {
+				queued--;
+				if (!coDels[i].shouldShed(now - waiter.enqueued, now))
+					return waiter;
+				shed(waiter);
+			}
+		}
+		return null;
+	}
+
+	private void shed(Waiter waiter) {
+		shed++;
+		waiter.state = SHED;
+		waiter.condition.signal();
+		if (log.isDebugEnabled())
+			log.debug("Shedding " + waiter.priority + " request after " +
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waiter.enqueued) + " ms.");
+	}
+
+	private void remove(Waiter waiter) {
+		Iterator<Waiter> it = queues[waiter.priority.ordinal()].iterator();
+		while (it.hasNext()) {
+			if (it.next() == waiter) {
+				it.remove();
+				queued--;
+				return;
+			}
+		}
+	}
+
+	public int getInflight() {
+		lock.lock();
+		try {
+			return inflight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueued(Priority priority) {
+		lock.lock();
+		try {
+			return queues[priority.ordinal()].size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests rejected because the queue was full
+	 */
+	public long getRejected() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests rejected by CoDel or replaced by a request of a higher priority class
+	 */
+	public long getShed() {
+		lock.lock();
+		try {
+			return shed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests rejected after waiting for <i>maxQueueTime</i>
+	 */
+	public long getTimedOut() {
+		lock.lock();
+		try {
+			return timedOut;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * @description The maximum number of requests processed concurrently.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * @description The maximum number of requests waiting (over all priority classes).
+	 * @default 1000
+	 */
+	@MCAttribute
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public int getTarget() {
+		return target;
+	}
+
+	/**
+	 * @description The acceptable queueing delay in milliseconds.
+	 * @default 5
+	 */
+	@MCAttribute
+	public void setTarget(int target) {
+		this.target = target;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @description How long (in milliseconds) the queueing delay has to stay above <i>target</i> before requests
+	 *              are shed. Should be in the range of the usual request duration.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	public int getMaxQueueTime() {
+		return maxQueueTime;
+	}
+
+	/**
+	 * @description The maximum time (in milliseconds) a request waits in the queue. Only takes effect if no request
+	 *              completes for a long time, as CoDel usually sheds requests much earlier.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setMaxQueueTime(int maxQueueTime) {
+		this.maxQueueTime = maxQueueTime;
+	}
+}
@@ -0,0 +1,197 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+
+/**
+ * The circuit of one destination, see {@link CircuitBreakerConfiguration}.
+ *
+ * Every call permitted by {@link #tryAcquire()} has to be completed by {@link #record(boolean, long)}.
+ */
+public class CircuitBreaker {
+
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	private final String destination;
+	private final CircuitBreakerConfiguration config;
+
+	private State state = State.CLOSED;
+
+	// the outcomes of the last calls, used as a ring buffer
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next;
+	private int calls;
+	private int failures;
+	private int slowCalls;
+
+	private long openedAt;
+	private long halfOpenedAt;
+	private int halfOpenPermits;
+	private int halfOpenSuccesses;
+
+	private long opened;
+	private long rejected;
+
+	public CircuitBreaker(String destination, CircuitBreakerConfiguration config) {
+		this.destination = destination;
+		this.config = config;
+		int windowSize = Math.max(1, config.getWindowSize());
+		failed = new boolean[windowSize];
+		slow = new boolean[windowSize];
+	}
+
+	/**
+	 * @return whether a call to the destination may be made
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.currentTimeMillis();
+		switch (state) {
+		case OPEN:
+			if (now - openedAt < config.getOpenDuration()) {
+				rejected++;
+				return false;
+			}
+			halfOpen(now);
+			break;
+		case HALF_OPEN:
+			// trial calls never completed must not keep the circuit half-open forever
+			if (now - halfOpenedAt >= config.getOpenDuration())
+				halfOpen(now);
+			break;
+		default:
+			return true;
+		}
+		if (halfOpenPermits == 0) {
+			rejected++;
+			return false;
+		}
+		halfOpenPermits--;
+		return true;
+	}
+
+	/**
+	 * Records the outcome of a call permitted by {@link #tryAcquire()}.
+	 *
+	 * @param duration time in nanoseconds until the response header was received (or the call failed)
+	 */
+	public synchronized void record(boolean failure, long duration) {
+		boolean isSlow = duration >= config.getSlowCallDuration() * 1000000L;
+		switch (state) {
+		case CLOSED:
+			add(failure, isSlow);
+			if (calls >= config.getMinimumCalls() && (
+					failures * 100 >= config.getFailureRateThreshold() * calls ||
+					slowCalls * 100 >= config.getSlowCallRateThreshold() * calls))
+				open();
+			break;
+		case HALF_OPEN:
+			if (failure || isSlow) {
+				open();
+			} else if (++halfOpenSuccesses >= config.getHalfOpenCalls()) {
+				state = State.CLOSED;
+				clear();
+			}
+			break;
+		default:
+			// the call started before the circuit opened
+			break;
+		}
+	}
+
+	private void add(boolean failure, boolean isSlow) {
+		if (calls == failed.length) {
+			if (failed[next])
+				failures--;
+			if (slow[next])
+				slowCalls--;
+		} else {
+			calls++;
+		}
+		failed[next] = failure;
+		slow[next] = isSlow;
+		if (failure)
+			failures++;
+		if (isSlow)
+			slowCalls++;
+		next = (next + 1) % failed.length;
+	}
+
+	private void clear() {
+		next = calls = failures = slowCalls = 0;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		opened++;
+		clear();
+	}
+
+	private void halfOpen(long now) {
+		state = State.HALF_OPEN;
+		halfOpenedAt = now;
+		halfOpenPermits = Math.max(1, config.getHalfOpenCalls());
+		halfOpenSuccesses = 0;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the percentage of failed calls in the window
+	 */
+	public synchronized int getFailureRate() {
+		return calls == 0 ? 0 : failures * 100 / calls;
+	}
+
+	/**
+	 * @return the percentage of slow calls in the window
+	 */
+	public synchronized int getSlowCallRate() {
+		return calls == 0 ? 0 : slowCalls * 100 / calls;
+	}
+
+	public synchronized int getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return how often the circuit opened
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * @return the number of calls not made because the circuit was open
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return state + " (failure rate: " + getFailureRate() + "%, slow call rate: " + getSlowCallRate() +
+				"%, opened: " + opened + " times, rejected calls: " + rejected + ")";
+	}
+}
@@ -0,0 +1,31 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import java.net.ConnectException;
+
+/**
+ * Thrown by {@link HttpClient}, if the circuits of all destinations of an exchange are open.
+ *
+ * As the destinations are known not to be reachable, this is a {@link ConnectException}.
+ */
+public class CircuitBreakerOpenException extends ConnectException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CircuitBreakerOpenException(String msg) {
+		super(msg);
+	}
+
+}
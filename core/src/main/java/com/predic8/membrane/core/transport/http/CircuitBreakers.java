@@ -0,0 +1,89 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+
+/**
+ * The circuits of all destinations called by one {@link HttpClient}, keyed by "host:port".
+ */
+public class CircuitBreakers {
+
+	private final CircuitBreakerConfiguration config;
+	private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	public CircuitBreakers(CircuitBreakerConfiguration config) {
+		this.config = config;
+	}
+
+	/**
+	 * @param destination a URL or "host:port"
+	 */
+	public CircuitBreaker getBreaker(String destination) {
+		String key = getKey(destination);
+		CircuitBreaker breaker = breakers.get(key);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(key, config);
+			CircuitBreaker b2 = breakers.putIfAbsent(key, breaker);
+			if (b2 != null)
+				breaker = b2;
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return the circuit of the destination, or null if it has not been called yet
+	 */
+	public CircuitBreaker getBreaker(String host, int port) {
+		return breakers.get(host + ":" + port);
+	}
+
+	/**
+	 * Chooses the destination for the attempt: The destination the attempt would use without circuit breakers, or
+	 * the next one whose circuit permits a call.
+	 *
+	 * @param counter the number of the attempt, starting at 0
+	 * @return the index of the destination (its circuit has permitted the call), or -1 if all circuits are open
+	 */
+	public int select(List<String> destinations, int counter) {
+		int size = destinations.size();
+		for (int i = 0; i < size; i++) {
+			int index = (counter + i) % size;
+			if (getBreaker(destinations.get(index)).tryAcquire())
+				return index;
+		}
+		return -1;
+	}
+
+	public List<CircuitBreaker> getBreakers() {
+		return new ArrayList<CircuitBreaker>(breakers.values());
+	}
+
+	static String getKey(String destination) {
+		try {
+			URL url = new URL(destination);
+			int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+			return url.getHost() + ":" + port;
+		} catch (MalformedURLException e) {
+			// "host:port" of a CONNECT request
+			return destination;
+		}
+	}
+}
@@ -80,6 +80,7 @@ public class HttpClient {
 	private final String localAddr;
 
 	private final ConnectionManager conMgr;
+	private final CircuitBreakers circuitBreakers;
 	private StreamPump.StreamPumpStats streamPumpStats;
 
 	public HttpClient() {
@@ -95,6 +96,8 @@ public class HttpClient {
 		localAddr = configuration.getConnection().getLocalAddr();
 
 		conMgr = new ConnectionManager(configuration.getConnection().getKeepAliveTimeout());
+		circuitBreakers = configuration.getCircuitBreaker() == null ? null :
+			new CircuitBreakers(configuration.getCircuitBreaker());
 	}
 
 	public void setStreamPumpStats(StreamPump.StreamPumpStats streamPumpStats) {
@@ -170,8 +173,24 @@ public class HttpClient {
 		Exception exception = null;
 		while (counter < maxRetries) {
 			Connection con = null;
-			String dest = getDestination(exc, counter);
+			int index;
+			CircuitBreaker breaker = null;
+			if (circuitBreakers == null) {
+				index = counter % exc.getDestinations().size();
+			} else {
+				index = circuitBreakers.select(exc.getDestinations(), counter);
+				if (index == -1) {
+					if (exception != null)
+						throw exception;
+					throw new CircuitBreakerOpenException("The circuits of all destinations " + exc.getDestinations() + " are open.");
+				}
+			}
+			String dest = exc.getDestinations().get(index);
+			if (circuitBreakers != null)
+				breaker = circuitBreakers.getBreaker(dest);
 			HostColonPort target = null;
+			boolean failed = true;
+			long start = System.nanoTime();
 			try {
 				log.debug("try # " + counter + " to " + dest);
 				target = init(exc, dest, adjustHostHeader);
@@ -208,6 +227,7 @@ public class HttpClient {
 				}
 
 				if (newProtocol != null) {
+					failed = false;
 					setupConnectionForwarding(exc, con, newProtocol, streamPumpStats);
 					exc.getDestinations().clear();
 					exc.getDestinations().add(dest);
@@ -216,7 +236,10 @@ public class HttpClient {
 					return exc;
 				}
 
+				exc.setNodeStatusCode(counter, index, response.getStatusCode());
+
 				boolean is5XX = 500 <= response.getStatusCode() && response.getStatusCode() < 600;
+				failed = is5XX;
 				if (!failOverOn5XX || !is5XX || counter == maxRetries-1) {
 					applyKeepAliveHeader(response, con);
 					exc.getDestinations().clear();
@@ -229,6 +252,7 @@ public class HttpClient {
 				// java.net.SocketException: Software caused connection abort: socket write error
 			} catch (ConnectException e) {
 				exception = e;
+				exc.setNodeException(counter, index, e);
 				log.info("Connection to " + (target == null ? dest : target ) + " refused.");
 			} catch(SocketException e){
 				if ( e.getMessage().contains("Software caused connection abort")) {
@@ -239,9 +263,11 @@ public class HttpClient {
 					logException(exc, counter, e);
 				}
 				exception = e;
+				exc.setNodeException(counter, index, e);
 			} catch (UnknownHostException e) {
 				log.warn("Unknown host: " + (target == null ? dest : target ));
 				exception = e;
+				exc.setNodeException(counter, index, e);
 				if (exc.getDestinations().size() < 2) {
 					//don't retry this host, it's useless. (it's very unlikely that it will work after timeBetweenTriesMs)
 					break;
@@ -249,11 +275,16 @@ public class HttpClient {
 			} catch (EOFWhileReadingFirstLineException e) {
 				log.debug("Server connection to " + dest + " terminated before line was read. Line so far: " + e.getLineSoFar());
 				exception = e;
+				exc.setNodeException(counter, index, e);
 			} catch (NoResponseException e) {
 				throw e;
 			} catch (Exception e) {
 				logException(exc, counter, e);
 				exception = e;
+				exc.setNodeException(counter, index, e);
+			} finally {
+				if (breaker != null)
+					breaker.record(failed, System.nanoTime() - start);
 			}
 			counter++;
 			if (exc.getDestinations().size() == 1) {
@@ -282,10 +313,6 @@ public class HttpClient {
 	 * Returns the target destination to use for this attempt.
 	 * @param counter starting at 0 meaning the first.
 	 */
-	private String getDestination(Exchange exc, int counter) {
-		return exc.getDestinations().get(counter % exc.getDestinations().size());
-	}
-
 	private void logException(Exchange exc, int counter, Exception e) throws IOException {
 		if (log.isDebugEnabled()) {
 			StringBuilder msg = new StringBuilder();
@@ -381,6 +408,13 @@ public class HttpClient {
 		Util.shutdownOutput(con.socket);
 	}
 
+	/**
+	 * @return the circuit breakers, or null if none are configured
+	 */
+	public CircuitBreakers getCircuitBreakers() {
+		return circuitBreakers;
+	}
+
 	ConnectionManager getConnectionManager() {
 		return conMgr;
 	}
@@ -15,6 +15,7 @@
 package com.predic8.membrane.core.transport.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
@@ -27,6 +28,8 @@ import java.util.concurrent.RejectedExecutionException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.transport.PortOccupiedException;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
 
@@ -70,7 +73,7 @@ public class HttpEndpointListener extends Thread {
 					openSockets.remove(socket);
 					log.error("HttpServerHandler execution rejected. Might be due to a proxies.xml hot deployment in progress or a low"
 							+ " value for <transport maxThreadPoolSize=\"...\">.");
-					socket.close();
+					rejectConnection(socket);
 				}
 			}
 			catch (SocketException e) {
@@ -88,6 +91,29 @@ public class HttpEndpointListener extends Thread {
 		}
 	}
 
+	/**
+	 * Tells the client to retry later instead of just closing the connection. This runs on the acceptor thread: the
+	 * request is not read and the response is small enough not to block.
+	 */
+	private void rejectConnection(Socket socket) {
+		try {
+			if (sslProvider == null) {
+				OutputStream out = socket.getOutputStream();
+				Response.serverUnavailable("The server is overloaded. Please try again later.").
+						header(Header.RETRY_AFTER, "1").header(Header.CONNECTION, "close").build().write(out);
+				out.flush();
+			}
+		} catch (Exception e) {
+			log.debug("Could not send 503 response.", e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("", e);
+			}
+		}
+	}
+
 	public void closePort() throws IOException {
 		closed = true;
 		if (!serverSocket.isClosed())
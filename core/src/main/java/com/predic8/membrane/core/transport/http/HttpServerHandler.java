@@ -37,6 +37,9 @@ import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.MessageObserver;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.RuleMatchingInterceptor;
+import com.predic8.membrane.core.rules.NullRule;
+import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
 import com.predic8.membrane.core.util.DNSCache;
 import com.predic8.membrane.core.util.EndOfStreamException;
@@ -188,17 +191,56 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 	}
 
 	private void process() throws Exception {
+		DNSCache dnsCache = getTransport().getRouter().getDnsCache();
+		InetAddress remoteAddr = sourceSocket.getInetAddress();
+		String ip = dnsCache.getHostAddress(remoteAddr);
+		exchange.setRemoteAddrIp(ip);
+		exchange.setRemoteAddr(getTransport().isReverseDNS() ? dnsCache.getHostName(remoteAddr) : ip);
+
+		exchange.setRequest(srcReq);
+		exchange.setOriginalRequestUri(srcReq.getUri());
+
+		AdmissionController admission = getTransport().getAdmissionController();
+		if (admission == null) {
+			processAdmitted();
+			return;
+		}
+
+		Rule rule = getMatchingRule();
+		if (!admission.acquire(AdmissionController.getPriority(rule))) {
+			reject(rule);
+			return;
+		}
 		try {
+			processAdmitted();
+		} finally {
+			admission.release();
+		}
+	}
 
-			DNSCache dnsCache = getTransport().getRouter().getDnsCache();
-			InetAddress remoteAddr = sourceSocket.getInetAddress();
-			String ip = dnsCache.getHostAddress(remoteAddr);
-			exchange.setRemoteAddrIp(ip);
-			exchange.setRemoteAddr(getTransport().isReverseDNS() ? dnsCache.getHostName(remoteAddr) : ip);
+	/**
+	 * Looks up the rule (like {@link RuleMatchingInterceptor} will do later on) to determine the priority of the
+	 * request before it is admitted.
+	 */
+	private Rule getMatchingRule() {
+		Request request = exchange.getRequest();
+		return getTransport().getRouter().getRuleManager().getMatchingRule(request.getHeader().getHost(),
+				request.getMethod(), request.getUri(), request.getVersion(), isMatchLocalPort() ? getLocalPort() : -1,
+				getLocalAddress().getHostAddress());
+	}
 
-			exchange.setRequest(srcReq);
-			exchange.setOriginalRequestUri(srcReq.getUri());
+	private void reject(Rule rule) throws Exception {
+		log.debug("Request rejected by admission control.");
+		exchange.setRule(rule != null ? rule : new NullRule());
+		exchange.setResponse(Response.serverUnavailable("The server is overloaded. Please try again later.").
+				header(Header.RETRY_AFTER, "1").build());
+		removeBodyFromBuffer();
+		writeResponse(exchange.getResponse());
+		exchange.setCompleted();
+	}
 
+	private void processAdmitted() throws Exception {
+		try {
 			if (exchange.getRequest().getHeader().is100ContinueExpected()) {
 				final Request request = exchange.getRequest();
 				request.addObserver(new MessageObserver() {
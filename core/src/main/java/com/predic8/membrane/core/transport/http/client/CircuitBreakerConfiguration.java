@@ -0,0 +1,137 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http.client;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description <p>
+ *              Stops sending requests to a destination (host and port) which recently failed, instead of letting
+ *              every request wait for the connection timeout again.
+ *              </p>
+ *              <p>
+ *              The outcomes of the last <i>windowSize</i> calls to each destination are remembered. A call fails, if
+ *              no response could be received or the status code is 5xx. It is slow, if receiving the response
+ *              header took at least <i>slowCallDuration</i> milliseconds. If at least <i>minimumCalls</i> calls
+ *              have been made and the percentage of failed or slow calls reaches the respective threshold, the
+ *              circuit opens: The destination is skipped (other destinations of the exchange, as set by a
+ *              load balancer, are used instead) for <i>openDuration</i> milliseconds. Afterwards, the circuit is
+ *              half-open: <i>halfOpenCalls</i> trial calls are let through. If all of them succeed, the circuit
+ *              closes again, otherwise it opens again.
+ *              </p>
+ */
+@MCElement(name="circuitBreaker", topLevel=false)
+public class CircuitBreakerConfiguration {
+
+	private int windowSize = 20;
+	private int minimumCalls = 10;
+	private int failureRateThreshold = 50;
+	private int slowCallDuration = 10000;
+	private int slowCallRateThreshold = 100;
+	private int openDuration = 30000;
+	private int halfOpenCalls = 3;
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @description The number of most recent calls to a destination whose outcomes are considered.
+	 * @default 20
+	 */
+	@MCAttribute
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	/**
+	 * @description The minimum number of calls in the window, before the circuit can open.
+	 * @default 10
+	 */
+	@MCAttribute
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * @description The percentage of failed calls at which the circuit opens.
+	 * @default 50
+	 */
+	@MCAttribute
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public int getSlowCallDuration() {
+		return slowCallDuration;
+	}
+
+	/**
+	 * @description Time in milliseconds after which a call is considered slow.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setSlowCallDuration(int slowCallDuration) {
+		this.slowCallDuration = slowCallDuration;
+	}
+
+	public int getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	/**
+	 * @description The percentage of slow calls at which the circuit opens.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public int getOpenDuration() {
+		return openDuration;
+	}
+
+	/**
+	 * @description Time in milliseconds during which no calls are sent to a destination, after its circuit opened.
+	 * @default 30000
+	 */
+	@MCAttribute
+	public void setOpenDuration(int openDuration) {
+		this.openDuration = openDuration;
+	}
+
+	public int getHalfOpenCalls() {
+		return halfOpenCalls;
+	}
+
+	/**
+	 * @description The number of trial calls which have to succeed, before a half-open circuit closes.
+	 * @default 3
+	 */
+	@MCAttribute
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		this.halfOpenCalls = halfOpenCalls;
+	}
+
+}
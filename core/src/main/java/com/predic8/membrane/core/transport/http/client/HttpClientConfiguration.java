@@ -26,6 +26,7 @@ public class HttpClientConfiguration {
 	private ConnectionConfiguration connection = new ConnectionConfiguration();
 	private ProxyConfiguration proxy;
 	private AuthenticationConfiguration authentication;
+	private CircuitBreakerConfiguration circuitBreaker;
 
 	public ConnectionConfiguration getConnection() {
 		return connection;
@@ -56,6 +57,15 @@ public class HttpClientConfiguration {
 		this.authentication = authentication;
 	}
 
+	public CircuitBreakerConfiguration getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	@MCChildElement(order=4)
+	public void setCircuitBreaker(CircuitBreakerConfiguration circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
 	public int getMaxRetries() {
 		return maxRetries;
 	}
@@ -19,6 +19,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -46,6 +47,48 @@ public class HttpUtil {
 		return GMT_DATE_FORMAT;
 	}
 
+	private static final ThreadLocal<DateFormat[]> HTTP_DATE_FORMATS = new ThreadLocal<DateFormat[]>() {
+		@Override
+		protected DateFormat[] initialValue() {
+			String[] patterns = new String[] {
+					"EEE, dd MMM yyyy HH:mm:ss z", // RFC 1123
+					"EEEE, dd-MMM-yy HH:mm:ss z", // RFC 850
+					"EEE MMM d HH:mm:ss yyyy" // ANSI C asctime()
+			};
+			DateFormat[] formats = new DateFormat[patterns.length];
+			for (int i = 0; i < patterns.length; i++) {
+				formats[i] = new SimpleDateFormat(patterns[i], Locale.US);
+				formats[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+			}
+			return formats;
+		}
+	};
+
+	public static String formatHttpDate(long timestamp) {
+		synchronized (GMT_DATE_FORMAT) {
+			return GMT_DATE_FORMAT.format(new Date(timestamp));
+		}
+	}
+
+	/**
+	 * Parses a HTTP-date in any of the three formats allowed by RFC 7231 section 7.1.1.1.
+	 *
+	 * @return the timestamp in milliseconds, or -1 if the value could not be parsed
+	 */
+	public static long parseHttpDate(String value) {
+		if (value == null)
+			return -1;
+		value = value.trim();
+		for (DateFormat format : HTTP_DATE_FORMATS.get()) {
+			try {
+				return format.parse(value).getTime();
+			} catch (ParseException e) {
+				// try next format
+			}
+		}
+		return -1;
+	}
+
 	public static String readLine(InputStream in) throws IOException, EndOfStreamException {
 
 		StringBuilder line = new StringBuilder(128);
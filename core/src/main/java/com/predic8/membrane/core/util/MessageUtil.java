@@ -13,10 +13,13 @@
    limitations under the License. */
 package com.predic8.membrane.core.util;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.sax.SAXSource;
@@ -35,7 +38,7 @@ public class MessageUtil {
 		if (res.isGzip()) {
 			return new GZIPInputStream(res.getBodyAsStream());
 		} else if (res.isDeflate()) {
-			return new ByteArrayInputStream(ByteUtil.getDecompressedData(res.getBody().getContent()));
+			return getInflatingStream(res.getBodyAsStream());
 		}
 		return res.getBodyAsStream();
 	}
@@ -44,11 +47,35 @@ public class MessageUtil {
 		if (res.isGzip()) {
 			return ByteUtil.getByteArrayData(new GZIPInputStream(res.getBodyAsStream()));
 		} else if (res.isDeflate()) {
-			return ByteUtil.getDecompressedData(res.getBody().getContent());
+			return ByteUtil.getByteArrayData(getInflatingStream(res.getBodyAsStream()));
 		}
 		return res.getBody().getContent();
 	}
 
+	/**
+	 * Decodes the "deflate" content coding while the data is read. Although RFC 7230 section 4.2.2 specifies the
+	 * zlib format, some servers send raw deflate data: The format is detected using the zlib header.
+	 */
+	public static InputStream getInflatingStream(InputStream in) throws IOException {
+		PushbackInputStream pin = new PushbackInputStream(in, 2);
+		int b0 = pin.read();
+		if (b0 == -1)
+			return pin; // empty body
+		int b1 = pin.read();
+		if (b1 != -1)
+			pin.unread(b1);
+		pin.unread(b0);
+		boolean zlib = b1 != -1 && (b0 & 0x0F) == Deflater.DEFLATED && ((b0 << 8) | b1) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(pin, inflater) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+		};
+	}
+
 	public static Source getSOAPBody(InputStream stream) throws Exception {
 		return new SAXSource(new SOAPXMLFilter(XMLReaderFactory.createXMLReader()), new InputSource(stream));
 	}
@@ -23,9 +23,11 @@ import com.predic8.membrane.core.config.ProxyTest;
 import com.predic8.membrane.core.config.ReadRulesConfigurationTest;
 import com.predic8.membrane.core.config.ReadRulesWithInterceptorsConfigurationTest;
 import com.predic8.membrane.core.http.BodyTest;
+import com.predic8.membrane.core.http.GeneratedBodyTest;
 import com.predic8.membrane.core.http.HeaderTest;
 import com.predic8.membrane.core.http.RequestTest;
 import com.predic8.membrane.core.http.ResponseTest;
+import com.predic8.membrane.core.http.decoding.DecodedBodyTest;
 import com.predic8.membrane.core.interceptor.DispatchingInterceptorTest;
 import com.predic8.membrane.core.interceptor.HeaderFilterInterceptorTest;
 import com.predic8.membrane.core.interceptor.IndexInterceptorTest;
@@ -39,20 +41,34 @@ import com.predic8.membrane.core.interceptor.acl.AccessControlParserTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterBalancerTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterManagerTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterNotificationInterceptorTest;
+import com.predic8.membrane.core.interceptor.balancer.DispatchingStrategyTest;
+import com.predic8.membrane.core.interceptor.balancer.HealthCheckTest;
 import com.predic8.membrane.core.interceptor.balancer.JSESSIONIDExtractorTest;
 import com.predic8.membrane.core.interceptor.balancer.LoadBalancingWithClusterManagerAndNoSessionTest;
 import com.predic8.membrane.core.interceptor.balancer.LoadBalancingWithClusterManagerTest;
+import com.predic8.membrane.core.interceptor.balancer.ReplicationTest;
+import com.predic8.membrane.core.interceptor.balancer.SessionTableTest;
 import com.predic8.membrane.core.interceptor.balancer.XMLSessionIdExtractorTest;
+import com.predic8.membrane.core.interceptor.cache.CoalescingInterceptorTest;
+import com.predic8.membrane.core.interceptor.cache.HttpCacheInterceptorTest;
+import com.predic8.membrane.core.interceptor.cache.MappedFileStoreTest;
+import com.predic8.membrane.core.interceptor.cache.MemoryCacheStoreTest;
 import com.predic8.membrane.core.interceptor.cbr.XPathCBRInterceptorTest;
+import com.predic8.membrane.core.interceptor.compression.CompressionInterceptorTest;
+import com.predic8.membrane.core.interceptor.concurrency.AdaptiveConcurrencyInterceptorTest;
 import com.predic8.membrane.core.interceptor.formvalidation.FormValidationInterceptorTest;
 import com.predic8.membrane.core.interceptor.groovy.GroovyInterceptorTest;
+import com.predic8.membrane.core.interceptor.mirror.MirrorInterceptorTest;
+import com.predic8.membrane.core.interceptor.ratelimit.RateLimitInterceptorTest;
 import com.predic8.membrane.core.interceptor.rest.HTTP2XMLInterceptorTest;
 import com.predic8.membrane.core.interceptor.rewrite.ReverseProxyingInterceptorTest;
 import com.predic8.membrane.core.interceptor.rewrite.RewriteInterceptorTest;
 import com.predic8.membrane.core.interceptor.schemavalidation.JSONSchemaValidationTest;
 import com.predic8.membrane.core.interceptor.schemavalidation.SOAPMessageValidatorInterceptorTest;
 import com.predic8.membrane.core.interceptor.schemavalidation.SOAPUtilTest;
+import com.predic8.membrane.core.interceptor.schemavalidation.StreamingJSONSchemaTest;
 import com.predic8.membrane.core.interceptor.schemavalidation.ValidatorInterceptorTest;
+import com.predic8.membrane.core.interceptor.schemavalidation.ValidatorPoolTest;
 import com.predic8.membrane.core.interceptor.soap.SoapOperationExtractorTest;
 import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathAnalyzerTest;
 import com.predic8.membrane.core.interceptor.xmlcontentfilter.SimpleXPathParserTest;
@@ -61,10 +77,13 @@ import com.predic8.membrane.core.interceptor.xmlcontentfilter.XMLElementFinderTe
 import com.predic8.membrane.core.interceptor.xslt.XSLTInterceptorTest;
 import com.predic8.membrane.core.magic.MagicTest;
 import com.predic8.membrane.core.multipart.ReassembleTest;
+import com.predic8.membrane.core.resolver.CompiledArtifactCacheTest;
 import com.predic8.membrane.core.resolver.SingleResolverTest;
 import com.predic8.membrane.core.rules.ProxyRuleTest;
 import com.predic8.membrane.core.rules.ServiceProxyKeyTest;
 import com.predic8.membrane.core.transport.ExchangeTest;
+import com.predic8.membrane.core.transport.http.AdmissionControllerTest;
+import com.predic8.membrane.core.transport.http.CircuitBreakerTest;
 import com.predic8.membrane.core.transport.http.HostColonPortTest;
 import com.predic8.membrane.core.transport.http.HttpKeepAliveTest;
 import com.predic8.membrane.core.transport.http.ServiceInvocationTest;
@@ -117,7 +136,26 @@ import com.predic8.membrane.interceptor.MultipleLoadBalancersTest;
 	SOAPMessageValidatorInterceptorTest.class,
 	URITest.class,
 	RewriteInterceptorTest.class,
-	AbortExchangeTest.class
+	AbortExchangeTest.class,
+	HttpCacheInterceptorTest.class,
+	MappedFileStoreTest.class,
+	CoalescingInterceptorTest.class,
+	CompressionInterceptorTest.class,
+	DecodedBodyTest.class,
+	DispatchingStrategyTest.class,
+	HealthCheckTest.class,
+	SessionTableTest.class,
+	ReplicationTest.class,
+	CircuitBreakerTest.class,
+	AdaptiveConcurrencyInterceptorTest.class,
+	RateLimitInterceptorTest.class,
+	AdmissionControllerTest.class,
+	MirrorInterceptorTest.class,
+	CompiledArtifactCacheTest.class,
+	ValidatorPoolTest.class,
+	MemoryCacheStoreTest.class,
+	StreamingJSONSchemaTest.class,
+	GeneratedBodyTest.class
 })
 public class UnitTests {
 	/*
@@ -0,0 +1,122 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.Constants;
+
+public class GeneratedBodyTest {
+
+	private static final byte[] CONTENT = "generated content".getBytes(Constants.UTF_8_CHARSET);
+
+	private static class TestBody extends GeneratedBody {
+		int generated, completed;
+		IOException failure;
+
+		@Override
+		protected void generate(OutputStream out) throws Exception {
+			generated++;
+			out.write(CONTENT, 0, 9);
+			if (failure != null) {
+				out.flush();
+				throw failure;
+			}
+			out.write(CONTENT, 9, CONTENT.length - 9);
+		}
+
+		@Override
+		protected void completed() throws IOException {
+			completed++;
+			assertArrayEquals(CONTENT, getContent());
+		}
+	}
+
+	@Test
+	public void testGeneratedWhileWritten() throws Exception {
+		TestBody body = new TestBody();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		body.write(new ChunkedBodyTransferrer(baos));
+
+		assertArrayEquals(CONTENT, new ChunkedBody(new ByteArrayInputStream(baos.toByteArray())).getContent());
+		// the retained copy
+		assertArrayEquals(CONTENT, body.getContent());
+		assertEquals(1, body.generated);
+		assertEquals(1, body.completed);
+	}
+
+	@Test
+	public void testReadBeforeWritten() throws Exception {
+		TestBody body = new TestBody();
+		assertArrayEquals(CONTENT, body.getContent());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		body.write(new PlainBodyTransferrer(baos));
+
+		assertArrayEquals(CONTENT, baos.toByteArray());
+		assertEquals(1, body.generated);
+		assertEquals(1, body.completed);
+	}
+
+	@Test
+	public void testFailureTruncatesTheChunkedBody() throws Exception {
+		TestBody body = new TestBody();
+		body.failure = new IOException("failure");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			body.write(new ChunkedBodyTransferrer(baos));
+			fail();
+		} catch (IOException e) {
+			assertSame(body.failure, e);
+		}
+		// the start has been forwarded, but the last chunk is missing
+		String written = new String(baos.toByteArray(), Constants.UTF_8_CHARSET);
+		assertTrue(written.startsWith("9\r\ngenerated\r\n"));
+		assertFalse(written.endsWith("0\r\n\r\n"));
+
+		// the content is not generated again
+		try {
+			body.getContent();
+			fail();
+		} catch (IOException e) {
+			assertSame(body.failure, e);
+		}
+		assertEquals(1, body.generated);
+		assertEquals(0, body.completed);
+	}
+
+	@Test
+	public void testSetBodyOf() throws Exception {
+		Response response = Response.ok().body("original").build();
+		new TestBody().setBodyOf(response, true);
+		assertTrue(response.getHeader().isChunked());
+		assertFalse(response.getHeader().hasContentLength());
+
+		response = Response.ok().body("original").build();
+		new TestBody().setBodyOf(response, false);
+		assertEquals(CONTENT.length, response.getHeader().getContentLength());
+		assertArrayEquals(CONTENT, response.getBody().getContent());
+	}
+}
@@ -0,0 +1,144 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http.decoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.http.Response;
+
+public class DecodedBodyTest {
+
+	private static final String XML = "<a xmlns='urn:test'><b>text</b></a>";
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(baos);
+		gzip.write(content);
+		gzip.close();
+		return baos.toByteArray();
+	}
+
+	private static Response createGzipResponse(String content) throws Exception {
+		Response response = Response.ok().contentType("text/xml").body(gzip(content.getBytes(Constants.UTF_8_CHARSET))).build();
+		response.getHeader().add(Header.CONTENT_ENCODING, "gzip");
+		return response;
+	}
+
+	@Test
+	public void testGzipIsDecodedOnce() throws Exception {
+		Response response = createGzipResponse(XML);
+		byte[] first = response.getBodyAsBytesDecoded();
+		assertArrayEquals(XML.getBytes(Constants.UTF_8_CHARSET), first);
+		assertSame(first, response.getBodyAsBytesDecoded());
+		assertEquals(XML, response.getBodyAsStringDecoded());
+	}
+
+	@Test
+	public void testInvalidatedBySetBodyContent() throws Exception {
+		Response response = createGzipResponse(XML);
+		byte[] first = response.getBodyAsBytesDecoded();
+		response.setBodyContent("<c/>".getBytes(Constants.UTF_8_CHARSET));
+		byte[] second = response.getBodyAsBytesDecoded();
+		assertNotSame(first, second);
+		assertEquals("<c/>", new String(second, Constants.UTF_8_CHARSET));
+	}
+
+	@Test
+	public void testDocument() throws Exception {
+		Response response = createGzipResponse(XML);
+		Document doc = response.getBodyAsDocumentDecoded();
+		assertEquals("urn:test", doc.getDocumentElement().getNamespaceURI());
+		assertSame(doc, response.getBodyAsDocumentDecoded());
+	}
+
+	@Test
+	public void testCustomDecoder() throws Exception {
+		final DecodedMessage upper = new DecodedMessage("ABC".getBytes(Constants.UTF_8_CHARSET));
+		BodyDecoderPipeline pipeline = new BodyDecoderPipeline(new ContentEncodingDecoder());
+		pipeline.add(new BodyDecoder() {
+			@Override
+			public Message decode(Message message) throws Exception {
+				return upper;
+			}
+		});
+		Response response = createGzipResponse("abc");
+		DecodedBody decoded = pipeline.decode(response);
+		assertSame(upper, decoded.getDecoded());
+		assertEquals("abc", new String(decoded.getContent(decoded.getDecodedUpTo(ContentEncodingDecoder.class)), Constants.UTF_8_CHARSET));
+	}
+
+	@Test
+	public void testGzipIsDecodedWhileStreaming() throws Exception {
+		byte[] content = new byte[200000];
+		new Random(0).nextBytes(content);
+		byte[] encoded = gzip(content);
+		int half = encoded.length / 2;
+		final CountDownLatch rest = new CountDownLatch(1);
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream(encoded, 0, half),
+				new FilterInputStream(new ByteArrayInputStream(encoded, half, encoded.length - half)) {
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						try {
+							if (!rest.await(10, TimeUnit.SECONDS))
+								throw new IOException("The end of the body was requested before its start was decoded.");
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						return super.read(b, off, len);
+					}
+				});
+		Response response = Response.ok().contentType("application/octet-stream").build();
+		response.getHeader().add(Header.CONTENT_ENCODING, "gzip");
+		response.setBody(new Body(in, encoded.length));
+
+		InputStream decoded = response.getBodyAsStreamDecoded();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		while (received.size() < 8192) {
+			int length = decoded.read(buffer);
+			assertTrue(length > 0);
+			received.write(buffer, 0, length);
+		}
+
+		rest.countDown();
+		IOUtils.copy(decoded, received);
+		assertArrayEquals(content, received.toByteArray());
+		// the encoded body can still be forwarded
+		assertArrayEquals(encoded, response.getBody().getContent());
+	}
+}
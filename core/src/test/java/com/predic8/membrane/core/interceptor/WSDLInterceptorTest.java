@@ -36,6 +36,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.transport.http.FakeHttpHandler;
 import com.predic8.membrane.core.util.MessageUtil;
@@ -54,7 +55,13 @@ public class WSDLInterceptorTest {
 
 	@Before
 	public void setUp() throws Exception {
-		exc = new Exchange(new FakeHttpHandler(3011));
+		exc = createExchange(null);
+
+		interceptor = new WSDLInterceptor();
+	}
+
+	private Exchange createExchange(String etag) throws Exception {
+		Exchange exc = new Exchange(new FakeHttpHandler(3011));
 		exc.setRequest(MessageUtil
 				.getGetRequest("/axis2/services/BLZService?wsdl"));
 		InputStream resourceAsStream = this.getClass().getResourceAsStream("/blz-service.wsdl");
@@ -62,11 +69,12 @@ public class WSDLInterceptorTest {
 				.contentType("text/xml; charset=utf-8")
 				.body(resourceAsStream, true)
 				.build();
+		if (etag != null)
+			okResponse.getHeader().setValue(Header.ETAG, etag);
 		exc.setResponse(okResponse);
 
 		exc.setOriginalHostHeader("thomas-bayer.com:80");
-
-		interceptor = new WSDLInterceptor();
+		return exc;
 	}
 
 	@Test
@@ -145,6 +153,48 @@ public class WSDLInterceptorTest {
 		assertTrue(matchHttp("http://thomas-bayer.com.*"));
 	}
 
+	@Test
+	public void testCacheWithValidators() throws Exception {
+		exc = createExchange("\"1\"");
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:3011.*"));
+		assertEquals(0, interceptor.getCache().getHits());
+
+		exc = createExchange("\"1\"");
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertEquals(1, interceptor.getCache().getHits());
+		assertTrue(matchSoap11(".*:3011.*"));
+
+		exc = createExchange("\"2\"");
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:3011.*"));
+		assertEquals(1, interceptor.getCache().getHits());
+
+		// the relocation target is part of the key
+		interceptor.setPort("2000");
+		exc = createExchange("\"2\"");
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:2000.*"));
+		assertEquals(1, interceptor.getCache().getHits());
+	}
+
+	@Test
+	public void testCacheWithoutValidators() throws Exception {
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:3011.*"));
+
+		exc = createExchange(null);
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:3011.*"));
+		assertEquals(1, interceptor.getCache().getHits());
+
+		interceptor.setCacheTTL(0);
+		exc = createExchange(null);
+		assertEquals(interceptor.handleResponse(exc), Outcome.CONTINUE);
+		assertTrue(matchSoap11(".*:3011.*"));
+		assertEquals(1, interceptor.getCache().getHits());
+	}
+
 	private XMLEventReader getParser() throws Exception {
 		return XMLInputFactory.newInstance().createXMLEventReader(
 				new InputStreamReader(exc.getResponse().getBodyAsStream(), exc
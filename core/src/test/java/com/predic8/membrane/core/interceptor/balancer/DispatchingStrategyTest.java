@@ -0,0 +1,166 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+
+public class DispatchingStrategyTest {
+
+	private LoadBalancingInterceptor lb;
+	private Node node1;
+	private Node node2;
+
+	@Before
+	public void setUp() throws Exception {
+		lb = new LoadBalancingInterceptor();
+		lb.setName("Default");
+		lb.getClusterManager().up("Default", "localhost", 2000);
+		lb.getClusterManager().up("Default", "localhost", 3000);
+		node1 = lb.getClusterManager().getNode("Default", "localhost", 2000);
+		node2 = lb.getClusterManager().getNode("Default", "localhost", 3000);
+	}
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		RoundRobinStrategy s = new RoundRobinStrategy();
+		assertSame(node1, s.dispatch(lb, null));
+		assertSame(node2, s.dispatch(lb, null));
+		assertSame(node1, s.dispatch(lb, null));
+	}
+
+	@Test
+	public void testLeastOutstandingRequests() throws Exception {
+		LeastOutstandingRequestsStrategy s = new LeastOutstandingRequestsStrategy();
+		node1.addThread();
+		node1.addThread();
+		for (int i = 0; i < 10; i++)
+			assertSame(node2, s.dispatch(lb, null));
+		node2.addThread();
+		node2.addThread();
+		node2.addThread();
+		assertSame(node1, s.dispatch(lb, null));
+	}
+
+	@Test
+	public void testPowerOfTwoChoices() throws Exception {
+		PowerOfTwoChoicesStrategy s = new PowerOfTwoChoicesStrategy();
+		node2.addThread();
+		for (int i = 0; i < 10; i++)
+			assertSame(node1, s.dispatch(lb, null));
+	}
+
+	@Test
+	public void testPeakEwma() throws Exception {
+		PeakEwmaStrategy s = new PeakEwmaStrategy();
+		node1.collectLatency(100000000);
+		node2.collectLatency(1000000);
+		for (int i = 0; i < 10; i++)
+			assertSame(node2, s.dispatch(lb, null));
+
+		// node2 suddenly becomes slow
+		node2.collectLatency(500000000);
+		assertSame(node1, s.dispatch(lb, null));
+	}
+
+	@Test
+	public void testPeakEwmaFollowsPeaks() {
+		PeakEwma ewma = new PeakEwma(10000);
+		ewma.update(1000);
+		assertEquals(1000, ewma.get(), 0);
+		ewma.update(5000);
+		assertEquals(5000, ewma.get(), 0);
+		ewma.update(1000);
+		assertTrue(ewma.get() > 1000 && ewma.get() <= 5000);
+	}
+
+	@Test
+	public void testRemoveThreadDecrements() {
+		node1.addThread();
+		node1.addThread();
+		node1.removeThread();
+		assertEquals(1, node1.getThreads());
+		node1.removeThread();
+		node1.removeThread();
+		assertEquals(0, node1.getThreads());
+	}
+
+	private static Exchange get(String url) throws Exception {
+		return new Request.Builder().get(url).buildExchange();
+	}
+
+	@Test
+	public void testConsistentHash() throws Exception {
+		lb.getClusterManager().up("Default", "localhost", 4000);
+		Node node3 = lb.getClusterManager().getNode("Default", "localhost", 4000);
+		ConsistentHashStrategy s = new ConsistentHashStrategy();
+
+		Map<String, Node> assignment = new HashMap<String, Node>();
+		for (int i = 0; i < 100; i++) {
+			String path = "http://localhost/item/" + i;
+			Node node = s.dispatch(lb, get(path));
+			assertSame(node, s.dispatch(lb, get(path + "?q=1")));
+			assignment.put(path, node);
+		}
+		assertTrue(assignment.containsValue(node1));
+		assertTrue(assignment.containsValue(node2));
+		assertTrue(assignment.containsValue(node3));
+
+		// only the keys of the node going down move
+		lb.getClusterManager().down("Default", "localhost", 4000);
+		for (Map.Entry<String, Node> e : assignment.entrySet()) {
+			Node node = s.dispatch(lb, get(e.getKey()));
+			if (e.getValue() != node3)
+				assertSame(e.getValue(), node);
+			else
+				assertTrue(node != node3);
+		}
+	}
+
+	@Test
+	public void testConsistentHashBoundedLoad() throws Exception {
+		ConsistentHashStrategy s = new ConsistentHashStrategy();
+		Node hot = s.dispatch(lb, get("http://localhost/hot"));
+		Node other = hot == node1 ? node2 : node1;
+		for (int i = 0; i < 5; i++)
+			hot.addThread();
+		assertSame(other, s.dispatch(lb, get("http://localhost/hot")));
+	}
+
+	@Test
+	public void testConsistentHashFollowsMembership() throws Exception {
+		ConsistentHashStrategy s = new ConsistentHashStrategy();
+		Node node = s.dispatch(lb, get("http://localhost/item"));
+		lb.getClusterManager().takeout("Default", "localhost", node.getPort());
+		Node other = s.dispatch(lb, get("http://localhost/item"));
+		assertTrue(other != node);
+		lb.getClusterManager().up("Default", "localhost", node.getPort());
+		assertSame(node, s.dispatch(lb, get("http://localhost/item")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConsistentHashRejectsMaxLoad() {
+		new ConsistentHashStrategy().setMaxLoad(100);
+	}
+}
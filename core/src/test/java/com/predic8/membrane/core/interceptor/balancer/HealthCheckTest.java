@@ -0,0 +1,151 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+public class HealthCheckTest {
+
+	private LoadBalancingInterceptor lb;
+	private Node node1;
+	private Node node2;
+	private HttpRouter backend;
+
+	@Before
+	public void setUp() throws Exception {
+		lb = new LoadBalancingInterceptor();
+		lb.setName("Default");
+		lb.getClusterManager().up("Default", "localhost", 3056);
+		lb.getClusterManager().up("Default", "localhost", 3057);
+		node1 = lb.getClusterManager().getNode("Default", "localhost", 3056);
+		node2 = lb.getClusterManager().getNode("Default", "localhost", 3057);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (lb.getHealthCheck() != null)
+			lb.getHealthCheck().stop();
+		if (backend != null)
+			backend.shutdown();
+	}
+
+	private void startBackend(int port) throws Exception {
+		backend = new HttpRouter();
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", port), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				exc.setResponse(Response.ok().body("ok").build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		backend.init();
+	}
+
+	private static Exchange createFailedExchange() {
+		Exchange exc = new Exchange(null);
+		exc.setNodeException(0, 0, new ConnectException());
+		exc.setNodeStatusCode(1, 1, 200);
+		return exc;
+	}
+
+	@Test
+	public void testPassiveEjection() throws Exception {
+		HealthCheck hc = new HealthCheck();
+		hc.setInterval(0);
+		hc.setConsecutiveFailures(2);
+		hc.setEjectionTime(200);
+		lb.setHealthCheck(hc);
+		lb.init();
+
+		List<Node> nodes = Arrays.asList(node1, node2);
+		hc.collectFrom(createFailedExchange(), nodes);
+		assertTrue(node1.isUp());
+		hc.collectFrom(createFailedExchange(), nodes);
+		assertTrue(node1.isDown());
+		assertEquals(1, lb.getEndpoints().size());
+
+		// the last available node is never ejected
+		List<Node> reversed = Arrays.asList(node2, node1);
+		hc.collectFrom(createFailedExchange(), reversed);
+		hc.collectFrom(createFailedExchange(), reversed);
+		assertTrue(node2.isUp());
+
+		Thread.sleep(500);
+		assertTrue(node1.isUp());
+	}
+
+	@Test
+	public void testActiveChecks() throws Exception {
+		startBackend(3057);
+
+		HealthCheck hc = new HealthCheck();
+		hc.setInterval(100);
+		hc.setTimeout(500);
+		hc.setFall(2);
+		hc.setRise(2);
+		lb.setHealthCheck(hc);
+		lb.init();
+
+		Thread.sleep(1000);
+		assertTrue(node1.isDown());
+		assertTrue(node2.isUp());
+
+		backend.shutdown();
+		startBackend(3056);
+
+		Thread.sleep(1000);
+		assertTrue(node1.isUp());
+		assertTrue(node2.isDown());
+	}
+
+	@Test
+	public void testStoppedOnRouterShutdown() throws Exception {
+		HealthCheck hc = new HealthCheck();
+		hc.setInterval(100);
+		hc.setTimeout(500);
+		hc.setFall(1);
+		hc.setRise(1);
+		lb.setHealthCheck(hc);
+		HttpRouter router = new HttpRouter();
+		lb.init(router);
+
+		Thread.sleep(1000);
+		assertTrue(node2.isDown());
+
+		router.shutdown();
+		startBackend(3057);
+
+		Thread.sleep(1000);
+		assertTrue(node2.isDown());
+	}
+}
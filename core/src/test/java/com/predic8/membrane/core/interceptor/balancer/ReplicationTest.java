@@ -0,0 +1,163 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.predic8.membrane.core.interceptor.balancer.Node.Status;
+
+public class ReplicationTest {
+
+	private final List<LoadBalancingInterceptor> lbs = new ArrayList<LoadBalancingInterceptor>();
+
+	@After
+	public void tearDown() {
+		for (LoadBalancingInterceptor lb : lbs)
+			lb.getReplication().stop();
+	}
+
+	private LoadBalancingInterceptor createBalancer(int port, String peers) throws Exception {
+		LoadBalancingInterceptor lb = new LoadBalancingInterceptor();
+		lb.getClusterManager().up("Default", "localhost", 2000);
+		lb.getClusterManager().up("Default", "localhost", 2001);
+		SessionReplication replication = new SessionReplication();
+		replication.setPort(port);
+		replication.setPeers(peers);
+		replication.setFlushInterval(20);
+		replication.setReconnectInterval(100);
+		lb.setReplication(replication);
+		lb.init();
+		lbs.add(lb);
+		return lb;
+	}
+
+	private static Node getNode(LoadBalancingInterceptor lb, int port) {
+		return lb.getClusterManager().getNode("Default", "localhost", port);
+	}
+
+	private static Session getSession(LoadBalancingInterceptor lb, String id) {
+		return lb.getClusterManager().getSessions("Default").get(id);
+	}
+
+	private static void waitFor(String what, Condition condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (!condition.isMet()) {
+			if (System.currentTimeMillis() > end)
+				fail("Timeout waiting for " + what + ".");
+			Thread.sleep(20);
+		}
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+
+	@Test
+	public void replicatesSessionsAndNodeStatus() throws Exception {
+		final LoadBalancingInterceptor lb1 = createBalancer(3058, "localhost:3059");
+		final LoadBalancingInterceptor lb2 = createBalancer(3059, "localhost:3058");
+
+		lb1.getClusterManager().addSession2Cluster("session1", "Default", getNode(lb1, 2001));
+		waitFor("the session", new Condition() {
+			public boolean isMet() {
+				return getSession(lb2, "session1") != null;
+			}
+		});
+		assertEquals(2001, getSession(lb2, "session1").getNode().getPort());
+
+		lb2.getClusterManager().down("Default", "localhost", 2000);
+		waitFor("the node status", new Condition() {
+			public boolean isMet() {
+				return getNode(lb1, 2000).getStatus() == Status.DOWN;
+			}
+		});
+
+		// applied remote changes are not sent back
+		Thread.sleep(200);
+		assertEquals(Status.DOWN, getNode(lb2, 2000).getStatus());
+		assertEquals(1, lb1.getClusterManager().getSessions("Default").size());
+	}
+
+	@Test
+	public void joiningInstanceCatchesUp() throws Exception {
+		final LoadBalancingInterceptor lb1 = createBalancer(3058, "localhost:3060");
+		for (int i = 0; i < 25000; i++)
+			lb1.getClusterManager().addSession2Cluster("session" + i, "Default", getNode(lb1, 2000));
+		lb1.getClusterManager().takeout("Default", "localhost", 2001);
+
+		final LoadBalancingInterceptor lb3 = createBalancer(3060, "localhost:3058");
+		waitFor("the sessions", new Condition() {
+			public boolean isMet() {
+				return lb3.getClusterManager().getSessions("Default").size() == 25000;
+			}
+		});
+		waitFor("the node status", new Condition() {
+			public boolean isMet() {
+				return getNode(lb3, 2001).getStatus() == Status.TAKEOUT;
+			}
+		});
+		// states set by the configuration do not override the peers' states
+		assertEquals(Status.TAKEOUT, getNode(lb1, 2001).getStatus());
+	}
+
+	@Test
+	public void restartedInstanceCatchesUp() throws Exception {
+		final LoadBalancingInterceptor lb1 = createBalancer(3058, "localhost:3060");
+		lb1.getClusterManager().addSession2Cluster("session1", "Default", getNode(lb1, 2000));
+		final LoadBalancingInterceptor lb3 = createBalancer(3060, "localhost:3058");
+		waitFor("the session", new Condition() {
+			public boolean isMet() {
+				return getSession(lb3, "session1") != null;
+			}
+		});
+
+		lb3.getReplication().stop();
+		final LoadBalancingInterceptor restarted = createBalancer(3060, "");
+		// the only change made after the restart is not lost on the connection to the stopped instance
+		lb1.getClusterManager().addSession2Cluster("session2", "Default", getNode(lb1, 2001));
+		waitFor("the sessions", new Condition() {
+			public boolean isMet() {
+				return getSession(restarted, "session1") != null && getSession(restarted, "session2") != null;
+			}
+		});
+		assertEquals(2001, getSession(restarted, "session2").getNode().getPort());
+	}
+
+	@Test
+	public void ignoresSessionsOfUnknownNodes() throws Exception {
+		SessionReplication replication = new SessionReplication();
+		Balancer balancer = new Balancer();
+		replication.setPort(3061);
+		replication.start(balancer);
+		try {
+			List<SessionReplication.Record> records = new ArrayList<SessionReplication.Record>();
+			records.add(new SessionReplication.Record(SessionReplication.SESSION, "Default", "session1", "localhost", 2005, null, 0));
+			byte[] frame = replication.encode(records).get(0);
+			byte[] payload = new byte[frame.length - 7];
+			System.arraycopy(frame, 7, payload, 0, payload.length);
+			replication.decode(payload);
+			assertNull(balancer.getSessions("Default").get("session1"));
+		} finally {
+			replication.stop();
+		}
+	}
+}
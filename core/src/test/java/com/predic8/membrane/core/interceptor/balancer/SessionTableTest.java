@@ -0,0 +1,86 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class SessionTableTest {
+
+	@Parameters
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] { { false }, { true } });
+	}
+
+	private final boolean offHeap;
+	private final Node node1 = new Node("localhost", 2000);
+	private final Node node2 = new Node("localhost", 3000);
+
+	public SessionTableTest(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	@Test
+	public void testLookup() {
+		SessionTable t = new SessionTable(1000, offHeap, 0);
+		t.put("a", node1);
+		t.put("b", node2);
+		assertSame(node1, t.get("a").getNode());
+		assertSame(node2, t.get("b").getNode());
+		assertNull(t.get("c"));
+		assertEquals(2, t.getHits());
+		assertEquals(1, t.getMisses());
+
+		t.put("a", node2);
+		assertSame(node2, t.get("a").getNode());
+		assertEquals(2, t.size());
+		assertEquals(0, t.getSessionsByNode(node1).size());
+		assertEquals(2, t.getSessionsByNode(node2).size());
+	}
+
+	@Test
+	public void testBounded() {
+		SessionTable t = new SessionTable(640, offHeap, 0);
+		for (int i = 0; i < 10000; i++)
+			t.put("s" + i, node1);
+		assertTrue(t.size() <= 2 * 640);
+		assertTrue(t.getEvictions() > 0);
+		assertNotNull(t.get("s9999"));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		SessionTable t = new SessionTable(1000, offHeap, 100);
+		t.put("a", node1);
+		t.put("b", node1);
+		assertNotNull(t.get("a"));
+		Thread.sleep(200);
+		assertNull(t.get("a"));
+		t.evictExpired();
+		assertEquals(0, t.size());
+		assertEquals(2, t.getEvictions());
+	}
+}
@@ -0,0 +1,170 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import static com.predic8.membrane.test.AssertUtils.getAndAssert200;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.util.URIFactory;
+
+public class CoalescingInterceptorTest {
+
+	private static final int CLIENTS = 10;
+
+	private HttpRouter backend, router;
+	private final AtomicInteger backendCalls = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private CoalescingInterceptor coalescing;
+
+	@Before
+	public void before() throws Exception {
+		backend = new HttpRouter();
+		ServiceProxy sp1 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3052), "", -1);
+		sp1.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				int call = backendCalls.incrementAndGet();
+				release.await();
+				exc.setResponse(Response.ok().contentType("text/plain").body("response " + call).build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp1);
+		backend.init();
+
+		router = new HttpRouter();
+		ServiceProxy sp2 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3053), "localhost", 3052);
+		coalescing = new CoalescingInterceptor();
+		sp2.getInterceptors().add(coalescing);
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp2);
+		router.init();
+	}
+
+	@After
+	public void after() throws IOException {
+		router.shutdown();
+		backend.shutdown();
+	}
+
+	@Test
+	public void concurrentRequestsAreCoalesced() throws Exception {
+		final HttpClient client = new HttpClient();
+		final List<String> results = new ArrayList<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < CLIENTS; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Response response = client.call(new Request.Builder().get("http://localhost:3053/resource").buildExchange()).getResponse();
+						String result = response.getBodyAsStringDecoded();
+						synchronized (results) {
+							results.add(result);
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		// wait until the first request has reached the backend and all others are waiting for it
+		while (backendCalls.get() == 0 || waiting() < CLIENTS - 1)
+			Thread.sleep(10);
+		release.countDown();
+		for (Thread t : threads)
+			t.join();
+
+		assertEquals(1, backendCalls.get());
+		assertEquals(CLIENTS, results.size());
+		for (String result : results)
+			assertEquals("response 1", result);
+		assertEquals(CLIENTS - 1, coalescing.getCoalesced());
+	}
+
+	private int waiting() {
+		// threads blocked in the coalescing interceptor
+		int count = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet())
+			for (StackTraceElement e : t.getStackTrace())
+				if (e.getClassName().equals(RequestCoalescer.Flight.class.getName()) && e.getMethodName().equals("await"))
+					count++;
+		return count;
+	}
+
+	@Test
+	public void differentHeadersAreNotCoalesced() throws Exception {
+		release.countDown();
+		getAndAssert200("http://localhost:3053/resource", new String[] { "Accept", "text/plain" });
+		getAndAssert200("http://localhost:3053/resource", new String[] { "Accept", "text/html" });
+		assertEquals(2, backendCalls.get());
+	}
+
+	private static Exchange createHeadExchange() throws Exception {
+		return new Request.Builder().method(Request.METHOD_HEAD).url(new URIFactory(), "http://localhost:3052/resource").buildExchange();
+	}
+
+	@Test
+	public void coalescedHeadResponsesKeepTheirContentLength() throws Exception {
+		Exchange leader = createHeadExchange();
+		assertEquals(Outcome.CONTINUE, coalescing.handleRequest(leader));
+
+		final Exchange waiter = createHeadExchange();
+		final Outcome[] outcome = new Outcome[1];
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					outcome[0] = coalescing.handleRequest(waiter);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		t.start();
+		while (waiting() < 1)
+			Thread.sleep(10);
+
+		Response response = Response.ok().contentType("text/plain").body(new byte[0]).build();
+		response.getHeader().setContentLength(1234);
+		leader.setResponse(response);
+		coalescing.handleResponse(leader);
+		t.join();
+
+		assertSame(Outcome.RETURN, outcome[0]);
+		assertEquals(1234, waiter.getResponse().getHeader().getContentLength());
+		assertEquals(0, waiter.getResponse().getBody().getLength());
+	}
+}
@@ -0,0 +1,119 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import static com.predic8.membrane.test.AssertUtils.getAndAssert;
+import static com.predic8.membrane.test.AssertUtils.getAndAssert200;
+import static com.predic8.membrane.test.AssertUtils.postAndAssert200;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+public class HttpCacheInterceptorTest {
+
+	private HttpRouter backend, router;
+	private final AtomicInteger backendCalls = new AtomicInteger();
+	private volatile String cacheControl;
+
+	@Before
+	public void before() throws Exception {
+		backend = new HttpRouter();
+		ServiceProxy sp1 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3050), "", -1);
+		sp1.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				backendCalls.incrementAndGet();
+				if ("\"v1\"".equals(exc.getRequest().getHeader().getFirstValue(Header.IF_NONE_MATCH))) {
+					exc.setResponse(Response.ResponseBuilder.newInstance().status(304, "Not Modified").
+							header(Header.ETAG, "\"v1\"").header(Header.CACHE_CONTROL, cacheControl).bodyEmpty().build());
+					return Outcome.RETURN;
+				}
+				exc.setResponse(Response.ok().header(Header.ETAG, "\"v1\"").header(Header.CACHE_CONTROL, cacheControl).
+						contentType("text/plain").body("content " + backendCalls.get()).build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp1);
+		backend.init();
+
+		router = new HttpRouter();
+		ServiceProxy sp2 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3051), "localhost", 3050);
+		sp2.getInterceptors().add(new HttpCacheInterceptor());
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp2);
+		router.init();
+	}
+
+	@After
+	public void after() throws IOException {
+		router.shutdown();
+		backend.shutdown();
+	}
+
+	@Test
+	public void freshResponseIsServedFromCache() throws Exception {
+		cacheControl = "max-age=60";
+		assertEquals("content 1", getAndAssert200("http://localhost:3051/fresh"));
+		assertEquals("content 1", getAndAssert200("http://localhost:3051/fresh"));
+		assertEquals(1, backendCalls.get());
+	}
+
+	@Test
+	public void noStoreIsNotCached() throws Exception {
+		cacheControl = "no-store";
+		getAndAssert200("http://localhost:3051/nostore");
+		getAndAssert200("http://localhost:3051/nostore");
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void staleResponseIsRevalidated() throws Exception {
+		cacheControl = "max-age=0";
+		assertEquals("content 1", getAndAssert200("http://localhost:3051/stale"));
+		// the backend answers "304 Not Modified", the cached body is used
+		assertEquals("content 1", getAndAssert200("http://localhost:3051/stale"));
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void conditionalRequestIsAnsweredFromCache() throws Exception {
+		cacheControl = "max-age=60";
+		getAndAssert200("http://localhost:3051/conditional");
+		getAndAssert(304, "http://localhost:3051/conditional", new String[] { "If-None-Match", "\"v1\"" });
+		assertEquals(1, backendCalls.get());
+	}
+
+	@Test
+	public void unsafeRequestInvalidates() throws Exception {
+		cacheControl = "max-age=60";
+		getAndAssert200("http://localhost:3051/invalidate");
+		postAndAssert200("http://localhost:3051/invalidate", "");
+		assertEquals("content 3", getAndAssert200("http://localhost:3051/invalidate"));
+		assertEquals(3, backendCalls.get());
+	}
+
+}
@@ -0,0 +1,132 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.PlainBodyTransferrer;
+import com.predic8.membrane.core.http.Response;
+
+public class MappedFileStoreTest {
+
+	private static final File DIR = new File("target/mapped-file-store-test");
+
+	@Before
+	public void before() {
+		File[] files = DIR.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+	}
+
+	private MappedFileStore createStore() throws Exception {
+		MappedFileStore store = new MappedFileStore();
+		store.setDir(DIR.getAbsolutePath());
+		store.setSegmentSize(4096);
+		store.setMaxSize(1024 * 1024);
+		store.setCompactionInterval(0);
+		store.init(new HttpRouter());
+		return store;
+	}
+
+	private CacheEntry createEntry(String content) {
+		Header header = new Header();
+		header.add(Header.CONTENT_TYPE, "text/plain");
+		header.add(Header.CACHE_CONTROL, "max-age=60");
+		long now = System.currentTimeMillis();
+		return new CacheEntry(200, "OK", header, content.getBytes(), now, now);
+	}
+
+	private String send(CacheEntry entry) throws Exception {
+		Response response = entry.toResponse(System.currentTimeMillis(), false);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		response.getBody().write(new PlainBodyTransferrer(baos));
+		return baos.toString();
+	}
+
+	@Test
+	public void entryIsServedFromSegment() throws Exception {
+		MappedFileStore store = createStore();
+		assertTrue(store.put("a", createEntry("hello"), System.currentTimeMillis() + 60000));
+
+		CacheEntry entry = store.get("a");
+		assertEquals(200, entry.getStatusCode());
+		assertEquals("text/plain", entry.getHeader().getFirstValue(Header.CONTENT_TYPE));
+		assertEquals(60000, entry.getFreshnessLifetime());
+		assertEquals("hello", send(entry));
+		assertNull(store.get("b"));
+	}
+
+	@Test
+	public void indexIsRebuiltOnStartup() throws Exception {
+		MappedFileStore store = createStore();
+		long expires = System.currentTimeMillis() + 60000;
+		store.put("a", createEntry("first"), expires);
+		store.put("a", createEntry("second"), expires);
+		store.put("b", createEntry("removed"), expires);
+		store.remove("b");
+		store.put("c", createEntry("expired"), System.currentTimeMillis() - 1);
+
+		store = createStore();
+		assertEquals(1, store.getCount());
+		assertEquals("second", send(store.get("a")));
+		assertNull(store.get("b"));
+		assertNull(store.get("c"));
+	}
+
+	@Test
+	public void compactionMovesLiveEntries() throws Exception {
+		MappedFileStore store = createStore();
+		long expires = System.currentTimeMillis() + 60000;
+		// fill several segments, overwriting the same keys
+		for (int i = 0; i < 100; i++)
+			store.put("key" + (i % 3), createEntry("content " + i), expires);
+		int segments = store.getSegmentCount();
+		assertTrue(segments > 2);
+
+		store.compact();
+
+		assertTrue(store.getSegmentCount() < segments);
+		assertEquals(3, store.getCount());
+		assertEquals("content 99", send(store.get("key0")));
+		assertEquals("content 98", send(store.get("key2")));
+
+		store = createStore();
+		assertEquals("content 97", send(store.get("key1")));
+	}
+
+	@Test
+	public void oldestSegmentIsEvicted() throws Exception {
+		MappedFileStore store = createStore();
+		store.setMaxSize(3 * 4096);
+		long expires = System.currentTimeMillis() + 60000;
+		for (int i = 0; i < 100; i++)
+			store.put("key" + i, createEntry("content " + i), expires);
+		assertTrue(store.getSegmentCount() <= 3);
+		assertTrue(store.getEvictions() > 0);
+		assertNull(store.get("key0"));
+		assertEquals("content 99", send(store.get("key99")));
+	}
+
+}
@@ -0,0 +1,113 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.http.Header;
+
+public class MemoryCacheStoreTest {
+
+	private static final int SEGMENTS = 16;
+
+	private MemoryCacheStore store;
+
+	@Before
+	public void setUp() {
+		store = new MemoryCacheStore();
+		// 1 MB per segment
+		store.setMaxSize(SEGMENTS * 1024 * 1024);
+	}
+
+	private static CacheEntry createEntry(int bodyLength) {
+		long now = System.currentTimeMillis();
+		return new CacheEntry(200, "OK", new Header(), new byte[bodyLength], now, now);
+	}
+
+	/**
+	 * @return keys which are stored in the same segment
+	 */
+	private static List<String> getKeysOfOneSegment(int count) {
+		List<String> keys = new ArrayList<String>();
+		int segment = -1;
+		for (int i = 0; keys.size() < count; i++) {
+			String key = "/key" + i;
+			int h = key.hashCode();
+			h = (h ^ (h >>> 16)) & (SEGMENTS - 1);
+			if (segment == -1)
+				segment = h;
+			if (h == segment)
+				keys.add(key);
+		}
+		return keys;
+	}
+
+	@Test
+	public void rejectedCandidateDoesNotEvict() {
+		List<String> keys = getKeysOfOneSegment(3);
+		long expires = System.currentTimeMillis() + 60000;
+
+		// the least recently used entry is rarely requested, the next one is popular
+		assertTrue(store.put(keys.get(0), createEntry(400 * 1024), expires));
+		assertTrue(store.put(keys.get(1), createEntry(400 * 1024), expires));
+		for (int i = 0; i < 5; i++)
+			store.get(keys.get(1));
+
+		// the candidate needs the space of both, but is less popular than the second one
+		store.get(keys.get(2));
+		assertFalse(store.put(keys.get(2), createEntry(700 * 1024), expires));
+
+		assertEquals(0, store.getEvictions());
+		assertEquals(2, store.getCount());
+		assertNotNull(store.get(keys.get(0)));
+	}
+
+	@Test
+	public void admittedCandidateEvictsInLRUOrder() {
+		List<String> keys = getKeysOfOneSegment(3);
+		long expires = System.currentTimeMillis() + 60000;
+
+		assertTrue(store.put(keys.get(0), createEntry(400 * 1024), expires));
+		assertTrue(store.put(keys.get(1), createEntry(400 * 1024), expires));
+		store.get(keys.get(2));
+		assertTrue(store.put(keys.get(2), createEntry(400 * 1024), expires));
+
+		assertEquals(1, store.getEvictions());
+		assertEquals(2, store.getCount());
+	}
+
+	@Test
+	public void storingDoesNotModifyTheResponseHeader() {
+		Header header = new Header();
+		header.add(Header.TRANSFER_ENCODING, Header.CHUNKED);
+		header.add(Header.CONNECTION, "keep-alive");
+		long now = System.currentTimeMillis();
+		CacheEntry entry = new CacheEntry(200, "OK", header, new byte[10], now, now);
+
+		assertEquals(Header.CHUNKED, header.getFirstValue(Header.TRANSFER_ENCODING));
+		assertEquals("keep-alive", header.getFirstValue(Header.CONNECTION));
+		assertEquals(null, header.getFirstValue(Header.CONTENT_LENGTH));
+		assertEquals(null, entry.header.getFirstValue(Header.TRANSFER_ENCODING));
+		assertEquals("10", entry.header.getFirstValue(Header.CONTENT_LENGTH));
+	}
+}
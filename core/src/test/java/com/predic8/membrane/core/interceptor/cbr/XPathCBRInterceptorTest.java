@@ -68,6 +68,26 @@ public class XPathCBRInterceptorTest extends TestCase {
 
 	}
 
+	@Test
+	public void testRoutingByElementExistence() throws Exception {
+		exc = new Exchange(null);
+		Request res = new Request();
+		res.setBodyContent(getByteArrayData(getClass().getResourceAsStream("/customerFromBonnWithNS.xml")));
+		exc.setRequest(res);
+
+		XPathCBRInterceptor i = new XPathCBRInterceptor();
+		i.setCases(getRouteList("//CITY","http://www.host.uk/service",
+				"//pre:CITY[text()='England']","http://www.host.uk/service",
+				"//*[local-name()='CITY' and namespace-uri()='http://predic8.de/customer/2']","http://www.host.uk/service",
+				"//*[local-name()='CITY' and namespace-uri()='http://predic8.de/customer/1']","http://www.host.de/service",
+				"//*[local-name()='CITY']","http://www.host.uk/service"));
+		i.setNamespaces(getNamespaceMap("pre", "http://predic8.de/customer/1"));
+		i.init();
+
+		i.handleRequest(exc);
+		Assert.assertEquals("http://www.host.de/service", exc.getDestinations().get(0));
+	}
+
 	private List<Case> getRouteList(String... args) {
 		List<Case> l = new ArrayList<Case>();
 		for (int i = 0; i < args.length; i+=2) {
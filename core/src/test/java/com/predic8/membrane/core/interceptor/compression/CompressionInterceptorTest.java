@@ -0,0 +1,116 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+
+public class CompressionInterceptorTest {
+
+	private static final String CONTENT;
+
+	static {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			sb.append("line ").append(i).append('\n');
+		CONTENT = sb.toString();
+	}
+
+	private HttpRouter backend, router;
+	private HttpClient client = new HttpClient();
+
+	@Before
+	public void before() throws Exception {
+		backend = new HttpRouter();
+		ServiceProxy sp1 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3054), "", -1);
+		sp1.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				String body = exc.getRequest().getUri().equals("/small") ? "small" : CONTENT;
+				exc.setResponse(Response.ok().contentType("text/plain").body(body).build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp1);
+		backend.init();
+
+		router = new HttpRouter();
+		ServiceProxy sp2 = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3055), "localhost", 3054);
+		sp2.getInterceptors().add(new CompressionInterceptor());
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp2);
+		router.init();
+	}
+
+	@After
+	public void after() throws IOException {
+		router.shutdown();
+		backend.shutdown();
+	}
+
+	private Response get(String path, String acceptEncoding) throws Exception {
+		Request.Builder builder = new Request.Builder().get("http://localhost:3055" + path);
+		if (acceptEncoding != null)
+			builder.header(Header.ACCEPT_ENCODING, acceptEncoding);
+		return client.call(builder.buildExchange()).getResponse();
+	}
+
+	@Test
+	public void gzip() throws Exception {
+		Response response = get("/", "gzip, deflate");
+		assertEquals("gzip", response.getHeader().getContentEncoding());
+		assertTrue(response.getBody().getLength() < CONTENT.length());
+		assertEquals(CONTENT, response.getBodyAsStringDecoded());
+	}
+
+	@Test
+	public void deflate() throws Exception {
+		Response response = get("/", "gzip;q=0.5, deflate");
+		assertEquals("deflate", response.getHeader().getContentEncoding());
+		assertEquals(CONTENT, response.getBodyAsStringDecoded());
+	}
+
+	@Test
+	public void notAccepted() throws Exception {
+		Response response = get("/", "identity");
+		assertNull(response.getHeader().getContentEncoding());
+		assertEquals(Header.ACCEPT_ENCODING, response.getHeader().getFirstValue(Header.VARY));
+		assertEquals(CONTENT, response.getBodyAsStringDecoded());
+	}
+
+	@Test
+	public void smallResponseIsNotCompressed() throws Exception {
+		Response response = get("/small", "gzip");
+		assertNull(response.getHeader().getContentEncoding());
+		assertEquals("small", response.getBodyAsStringDecoded());
+	}
+
+}
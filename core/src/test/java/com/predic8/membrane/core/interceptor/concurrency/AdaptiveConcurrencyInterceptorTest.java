@@ -0,0 +1,193 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.Outcome;
+
+public class AdaptiveConcurrencyInterceptorTest {
+
+	private static final long MS = 1000000;
+
+	@Test
+	public void queuedRequestProceedsWhenAnotherCompletes() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.AIMD(), 1, 1, 1, 1);
+		assertTrue(limiter.acquire(0));
+
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					acquired.set(limiter.acquire(10000));
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		waiter.start();
+		while (limiter.getWaiting() == 0)
+			Thread.sleep(10);
+
+		// the queue is full
+		long start = System.currentTimeMillis();
+		assertFalse(limiter.acquire(10000));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(1, limiter.getRejected());
+
+		limiter.release(-1, false);
+		waiter.join(5000);
+		assertTrue(acquired.get());
+		assertEquals(1, limiter.getInflight());
+	}
+
+	@Test
+	public void queuedRequestTimesOut() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.AIMD(), 1, 1, 1, 10);
+		assertTrue(limiter.acquire(0));
+		assertFalse(limiter.acquire(100));
+		assertEquals(1, limiter.getTimedOut());
+		assertEquals(0, limiter.getWaiting());
+	}
+
+	@Test
+	public void aimd() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.AIMD(), 10, 1, 100, 0);
+		for (int i = 0; i < 10; i++)
+			assertTrue(limiter.acquire(0));
+		limiter.release(10 * MS, false);
+		assertEquals(11, limiter.getLimit());
+		limiter.release(10 * MS, true);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void gradientReducesLimitWhenBackendSlowsDown() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.Gradient(), 50, 1, 100, 0);
+		for (int i = 0; i < 200; i++) {
+			while (limiter.getInflight() < limiter.getLimit())
+				assertTrue(limiter.acquire(0));
+			limiter.release(10 * MS, false);
+		}
+		int limit = limiter.getLimit();
+		assertTrue(limit > 50);
+
+		for (int i = 0; i < 50; i++) {
+			while (limiter.getInflight() < limiter.getLimit())
+				assertTrue(limiter.acquire(0));
+			limiter.release(100 * MS, false);
+		}
+		assertTrue(limiter.getLimit() < limit / 2);
+	}
+
+	@Test
+	public void vegasReducesLimitWhenBackendSlowsDown() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.Vegas(), 50, 1, 100, 0);
+		for (int i = 0; i < 50; i++) {
+			while (limiter.getInflight() < limiter.getLimit())
+				assertTrue(limiter.acquire(0));
+			limiter.release(10 * MS, false);
+		}
+		int limit = limiter.getLimit();
+		assertTrue(limit > 50);
+
+		for (int i = 0; i < 20; i++) {
+			while (limiter.getInflight() < limiter.getLimit())
+				assertTrue(limiter.acquire(0));
+			limiter.release(100 * MS, false);
+		}
+		assertTrue(limiter.getLimit() < limit);
+	}
+
+	@Test
+	public void rejectsWith503() throws Exception {
+		AdaptiveConcurrencyInterceptor i = new AdaptiveConcurrencyInterceptor();
+		i.setInitialLimit(1);
+		i.setMaxQueueSize(0);
+		i.init();
+
+		Exchange exc1 = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc1));
+
+		Exchange exc2 = new Exchange(null);
+		assertEquals(Outcome.ABORT, i.handleRequest(exc2));
+		assertEquals(503, exc2.getResponse().getStatusCode());
+
+		exc1.setResponse(Response.ok().build());
+		i.handleResponse(exc1);
+		assertEquals(0, i.getLimiter().getInflight());
+
+		Exchange exc3 = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc3));
+		i.handleAbort(exc3);
+		// released only once
+		i.handleAbort(exc3);
+		assertEquals(0, i.getLimiter().getInflight());
+	}
+
+	@Test
+	public void abortWithoutResponseIsDropped() throws Exception {
+		AdaptiveConcurrencyInterceptor i = new AdaptiveConcurrencyInterceptor();
+		i.setAlgorithm(AdaptiveConcurrencyInterceptor.Algorithm.AIMD);
+		i.setInitialLimit(10);
+		i.init();
+
+		// e.g. the connection to the backend was refused
+		Exchange exc = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc));
+		i.handleAbort(exc);
+		assertEquals(9, i.getLimiter().getLimit());
+
+		// aborted by another interceptor
+		exc = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc));
+		exc.setResponse(Response.badRequest().build());
+		i.handleAbort(exc);
+		assertEquals(9, i.getLimiter().getLimit());
+
+		// aborted by another interceptor with an error response
+		exc = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc));
+		exc.setResponse(Response.internalServerError().build());
+		i.handleAbort(exc);
+		assertEquals(9, i.getLimiter().getLimit());
+
+		// aborted by another interceptor after the backend has failed
+		exc = new Exchange(null);
+		assertEquals(Outcome.CONTINUE, i.handleRequest(exc));
+		exc.setResponse(Response.serverUnavailable("Backend unavailable.").build());
+		exc.setTimeResReceived(System.currentTimeMillis());
+		i.handleAbort(exc);
+		assertEquals(8, i.getLimiter().getLimit());
+	}
+
+	@Test
+	public void idleSinceLastRequest() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm.AIMD(), 1, 1, 1, 0);
+		assertTrue(limiter.acquire(0));
+		assertFalse(limiter.isIdleSince(System.currentTimeMillis() + 1000));
+		limiter.release(-1, false);
+		assertFalse(limiter.isIdleSince(System.currentTimeMillis() - 1000));
+		assertTrue(limiter.isIdleSince(System.currentTimeMillis() + 1000));
+	}
+}
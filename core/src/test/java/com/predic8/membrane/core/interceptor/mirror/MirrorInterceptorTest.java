@@ -0,0 +1,123 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.mirror;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+
+public class MirrorInterceptorTest {
+
+	private final List<String> shadowBodies = Collections.synchronizedList(new ArrayList<String>());
+	private HttpRouter router;
+	private MirrorInterceptor mirror;
+
+	@Before
+	public void setUp() throws Exception {
+		router = new HttpRouter();
+		router.getRuleManager().addProxyAndOpenPortIfNew(createBackend(3064, 200, null));
+		router.getRuleManager().addProxyAndOpenPortIfNew(createBackend(3065, 201, shadowBodies));
+
+		mirror = new MirrorInterceptor();
+		mirror.setUrl("http://localhost:3065");
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3066), "localhost", 3064);
+		sp.getInterceptors().add(mirror);
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp);
+	}
+
+	private static ServiceProxy createBackend(final int port, final int status, final List<String> bodies) {
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", port), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				if (bodies != null)
+					bodies.add(exc.getRequest().getUri() + " " + exc.getRequest().getBodyAsStringDecoded());
+				exc.setResponse(Response.ResponseBuilder.newInstance().status(status, "OK").body("backend " + port).build());
+				return Outcome.RETURN;
+			}
+		});
+		return sp;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		router.shutdown();
+	}
+
+	private Exchange post(String body) throws Exception {
+		Exchange exc = new Request.Builder().post("http://localhost:3066/foo?bar=1").body(body).buildExchange();
+		new HttpClient().call(exc);
+		return exc;
+	}
+
+	private MirrorStatistics getStatistics() {
+		return mirror.getStatistics().values().iterator().next();
+	}
+
+	@Test
+	public void mirrorsRequests() throws Exception {
+		router.init();
+		for (int i = 0; i < 3; i++)
+			assertEquals("backend 3064", post("hello " + i).getResponse().getBodyAsStringDecoded());
+
+		for (int i = 0; i < 500 && getStatistics().getCompared() < 3; i++)
+			Thread.sleep(10);
+		assertEquals(3, shadowBodies.size());
+		assertEquals("/foo?bar=1 hello 0", shadowBodies.get(0));
+		assertEquals(3, getStatistics().getMirrored());
+		assertEquals(3, getStatistics().getCompared());
+		// 200 vs. 201
+		assertEquals(3, getStatistics().getStatusMismatches());
+	}
+
+	@Test
+	public void skipsLargeBodies() throws Exception {
+		mirror.setMaxBodySize(4);
+		router.init();
+		assertEquals("backend 3064", post("too large").getResponse().getBodyAsStringDecoded());
+		assertEquals("backend 3064", post("tiny").getResponse().getBodyAsStringDecoded());
+
+		for (int i = 0; i < 500 && getStatistics().getCompared() < 1; i++)
+			Thread.sleep(10);
+		assertEquals(1, getStatistics().getTooLarge());
+		assertEquals(1, getStatistics().getMirrored());
+		assertEquals("/foo?bar=1 tiny", shadowBodies.get(0));
+	}
+
+	@Test
+	public void samplesRequests() throws Exception {
+		mirror.setPercentage(0);
+		router.init();
+		for (int i = 0; i < 5; i++)
+			assertEquals("backend 3064", post("hello").getResponse().getBodyAsStringDecoded());
+		assertEquals(0, mirror.getStatistics().size());
+		assertEquals(0, shadowBodies.size());
+	}
+}
@@ -0,0 +1,122 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.Outcome;
+
+public class RateLimitInterceptorTest {
+
+	@After
+	public void tearDown() {
+		LocalSharedRateLimitStore.clear();
+	}
+
+	private static RateLimitInterceptor createInterceptor(String key, RateLimitStore store) throws Exception {
+		RateLimitInterceptor i = new RateLimitInterceptor();
+		i.setRequestLimit(3);
+		i.setRequestLimitDuration(60000);
+		i.setKey(key);
+		if (store != null)
+			i.setStore(store);
+		i.init(null);
+		return i;
+	}
+
+	private static Exchange createExchange(String apiKey) throws Exception {
+		return new Request.Builder().get("http://localhost/foo?apikey=" + apiKey).header("X-Api-Key", apiKey).buildExchange();
+	}
+
+	@Test
+	public void limitsRequestsPerKey() throws Exception {
+		RateLimitInterceptor i = createInterceptor("header:X-Api-Key", null);
+		for (int n = 0; n < 3; n++) {
+			Exchange exc = createExchange("a");
+			assertEquals(Outcome.CONTINUE, i.handleRequest(exc));
+			exc.setResponse(Response.ok().build());
+			i.handleResponse(exc);
+			assertEquals("3", exc.getResponse().getHeader().getFirstValue("RateLimit-Limit"));
+			assertEquals("" + (2 - n), exc.getResponse().getHeader().getFirstValue("RateLimit-Remaining"));
+		}
+
+		Exchange exc = createExchange("a");
+		assertEquals(Outcome.RETURN, i.handleRequest(exc));
+		assertEquals(429, exc.getResponse().getStatusCode());
+		assertEquals("20", exc.getResponse().getHeader().getFirstValue("Retry-After"));
+		assertEquals("0", exc.getResponse().getHeader().getFirstValue("RateLimit-Remaining"));
+		assertEquals("60", exc.getResponse().getHeader().getFirstValue("RateLimit-Reset"));
+
+		// other keys have their own bucket
+		assertEquals(Outcome.CONTINUE, i.handleRequest(createExchange("b")));
+	}
+
+	@Test
+	public void queryParameterKey() throws Exception {
+		RateLimitInterceptor i = createInterceptor("query:apikey", null);
+		for (int n = 0; n < 3; n++)
+			assertEquals(Outcome.CONTINUE, i.handleRequest(createExchange("a")));
+		assertEquals(Outcome.RETURN, i.handleRequest(createExchange("a")));
+		assertEquals(Outcome.CONTINUE, i.handleRequest(createExchange("b")));
+	}
+
+	@Test
+	public void sharedStore() throws Exception {
+		RateLimitInterceptor i1 = createInterceptor("header:X-Api-Key", new LocalSharedRateLimitStore());
+		RateLimitInterceptor i2 = createInterceptor("header:X-Api-Key", new LocalSharedRateLimitStore());
+		assertEquals(Outcome.CONTINUE, i1.handleRequest(createExchange("a")));
+		assertEquals(Outcome.CONTINUE, i2.handleRequest(createExchange("a")));
+		assertEquals(Outcome.CONTINUE, i1.handleRequest(createExchange("a")));
+		assertEquals(Outcome.RETURN, i2.handleRequest(createExchange("a")));
+	}
+
+	@Test
+	public void tokensAreRefilled() throws Exception {
+		InMemoryRateLimitStore store = new InMemoryRateLimitStore();
+		// one token every 50ms
+		assertTrue(store.consume("a", 1, 50000).isAllowed());
+		assertFalse(store.consume("a", 1, 50000).isAllowed());
+		Thread.sleep(100);
+		assertTrue(store.consume("a", 1, 50000).isAllowed());
+	}
+
+	@Test
+	public void fullBucketsAreRemoved() throws Exception {
+		InMemoryRateLimitStore store = new InMemoryRateLimitStore();
+		store.consume("a", 10, 1000);
+		store.consume("b", 10, 1000000000L);
+		assertEquals(2, store.getSize());
+		Thread.sleep(10);
+		store.removeFullBuckets();
+		assertEquals(1, store.getSize());
+	}
+
+	@Test
+	public void keysBeyondMaxKeysShareOneBucket() throws Exception {
+		InMemoryRateLimitStore store = new InMemoryRateLimitStore();
+		store.setMaxKeys(1);
+		assertTrue(store.consume("a", 1, 1000000000L).isAllowed());
+		assertTrue(store.consume("b", 1, 1000000000L).isAllowed());
+		assertFalse(store.consume("c", 1, 1000000000L).isAllowed());
+		assertEquals(1, store.getSize());
+	}
+}
@@ -0,0 +1,240 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.schemavalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.github.fge.jackson.JsonLoader;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.schemavalidation.StreamingJSONSchema.UnsupportedSchemaException;
+import com.predic8.membrane.core.resolver.ResolverMap;
+
+public class StreamingJSONSchemaTest {
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Single quotes are replaced by double quotes, to keep the JSON in the tests readable.
+	 */
+	private static StreamingJSONSchema compile(String schema) throws Exception {
+		return StreamingJSONSchema.compile(JsonLoader.fromString(schema.replace('\'', '"')));
+	}
+
+	private static List<String> validate(String schema, String json) throws Exception {
+		JsonParser parser = jsonFactory.createParser(json.replace('\'', '"'));
+		try {
+			return compile(schema).validate(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static void assertValid(String schema, String json) throws Exception {
+		List<String> errors = validate(schema, json);
+		assertTrue(json + ": " + errors, errors.isEmpty());
+	}
+
+	private static void assertInvalid(String schema, String json) throws Exception {
+		assertFalse(json + " should be invalid.", validate(schema, json).isEmpty());
+	}
+
+	private static void assertUnsupported(String schema) throws Exception {
+		try {
+			compile(schema);
+			fail(schema + " should not be supported.");
+		} catch (UnsupportedSchemaException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testType() throws Exception {
+		String schema = "{'type':['string','null']}";
+		assertValid(schema, "'a'");
+		assertValid(schema, "null");
+		assertInvalid(schema, "1");
+		assertInvalid(schema, "{}");
+	}
+
+	@Test
+	public void testInteger() throws Exception {
+		String schema = "{'type':'integer'}";
+		assertValid(schema, "1");
+		assertValid(schema, "1.0");
+		assertValid(schema, "0.0");
+		assertValid(schema, "1e3");
+		assertValid(schema, "-20.000");
+		assertInvalid(schema, "1.5");
+		assertInvalid(schema, "1e-3");
+		assertInvalid(schema, "'1'");
+		assertValid("{'type':'number'}", "1.5");
+	}
+
+	@Test
+	public void testMultipleOf() throws Exception {
+		String schema = "{'multipleOf':0.5}";
+		assertValid(schema, "1");
+		assertValid(schema, "2.5");
+		assertInvalid(schema, "0.3");
+		assertValid(schema, "'not a number'");
+		assertInvalid("{'multipleOf':3}", "10");
+	}
+
+	@Test
+	public void testEnum() throws Exception {
+		String schema = "{'enum':['a', 1, true, null]}";
+		assertValid(schema, "'a'");
+		assertValid(schema, "1.0");
+		assertValid(schema, "true");
+		assertValid(schema, "null");
+		assertInvalid(schema, "'b'");
+		assertInvalid(schema, "false");
+		assertInvalid(schema, "{}");
+		assertInvalid(schema, "['a']");
+		assertUnsupported("{'enum':[{'a':1}]}");
+	}
+
+	@Test
+	public void testAllOf() throws Exception {
+		String schema = "{'allOf':[{'type':'string'},{'maxLength':3}]}";
+		assertValid(schema, "'abc'");
+		assertInvalid(schema, "'abcd'");
+		assertInvalid(schema, "1");
+	}
+
+	@Test
+	public void testAnyOf() throws Exception {
+		String schema = "{'anyOf':[{'type':'string'},{'minimum':10}]}";
+		assertValid(schema, "'abc'");
+		assertValid(schema, "10");
+		assertInvalid(schema, "9");
+	}
+
+	@Test
+	public void testOneOf() throws Exception {
+		String schema = "{'oneOf':[{'type':'integer'},{'minimum':10}]}";
+		assertValid(schema, "5");
+		assertValid(schema, "10.5");
+		assertInvalid(schema, "10");
+		assertInvalid(schema, "5.5");
+	}
+
+	@Test
+	public void testNot() throws Exception {
+		String schema = "{'not':{'type':'object','required':['a']}}";
+		assertValid(schema, "{'b':1}");
+		assertValid(schema, "[{'a':1}]");
+		assertInvalid(schema, "{'a':1}");
+	}
+
+	@Test
+	public void testCombinationsOfNestedValues() throws Exception {
+		String schema = "{'properties':{'a':{'anyOf':[{'type':'array','items':{'type':'integer'}},{'type':'object'}]}}}";
+		assertValid(schema, "{'a':[1,2,3]}");
+		assertValid(schema, "{'a':{'b':[true]}}");
+		assertInvalid(schema, "{'a':[1,'2',3]}");
+	}
+
+	@Test
+	public void testRecursiveRef() throws Exception {
+		String schema = "{'definitions':{'node':{'type':'object','required':['value'],'properties':{" +
+				"'value':{'type':'integer'},'children':{'type':'array','items':{'$ref':'#/definitions/node'}}}}}," +
+				"'$ref':'#/definitions/node'}";
+		assertValid(schema, "{'value':1,'children':[{'value':2},{'value':3,'children':[{'value':4}]}]}");
+		assertInvalid(schema, "{'value':1,'children':[{'value':2},{'value':3,'children':[{'value':'4'}]}]}");
+		assertInvalid(schema, "{'value':1,'children':[{'children':[]}]}");
+
+		// the root of the document
+		assertValid("{'type':'array','items':{'$ref':'#'}}", "[[],[[]]]");
+		assertInvalid("{'type':'array','items':{'$ref':'#'}}", "[[],[1]]");
+	}
+
+	@Test
+	public void testUnsupportedRefs() throws Exception {
+		assertUnsupported("{'$ref':'#/definitions/a','definitions':{'a':{'$ref':'#/definitions/b'},'b':{'$ref':'#/definitions/a'}}}");
+		assertUnsupported("{'$ref':'#/definitions/missing'}");
+		assertUnsupported("{'$ref':'other.json#'}");
+	}
+
+	@Test
+	public void testPatternProperties() throws Exception {
+		String schema = "{'patternProperties':{'^s_':{'type':'string'},'^i_':{'type':'integer'}}," +
+				"'additionalProperties':false}";
+		assertValid(schema, "{'s_a':'x','i_a':1}");
+		assertInvalid(schema, "{'s_a':1}");
+		assertInvalid(schema, "{'i_a':'x'}");
+		assertInvalid(schema, "{'other':1}");
+
+		// a property matching several patterns must be valid against all of them
+		String overlapping = "{'patternProperties':{'a':{'type':'integer'},'b':{'minimum':10}}}";
+		assertValid(overlapping, "{'ab':10}");
+		assertInvalid(overlapping, "{'ab':5}");
+	}
+
+	@Test
+	public void testAdditionalItems() throws Exception {
+		String schema = "{'items':[{'type':'string'},{'type':'integer'}],'additionalItems':{'type':'boolean'}}";
+		assertValid(schema, "['a',1]");
+		assertValid(schema, "['a',1,true,false]");
+		assertInvalid(schema, "[1,1]");
+		assertInvalid(schema, "['a',1,'b']");
+
+		String forbidden = "{'items':[{'type':'string'}],'additionalItems':false}";
+		assertValid(forbidden, "['a']");
+		assertInvalid(forbidden, "['a','b']");
+	}
+
+	@Test
+	public void testErrorPath() throws Exception {
+		List<String> errors = validate("{'properties':{'a/b':{'items':{'type':'string'}}}}", "{'a/b':['x',1]}");
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0), errors.get(0).startsWith("/a~1b/1: "));
+	}
+
+	@Test
+	public void testUnsupportedKeywords() throws Exception {
+		assertUnsupported("{'properties':{'email':{'format':'email'}}}");
+		assertUnsupported("{'uniqueItems':true}");
+		assertUnsupported("{'dependencies':{'a':['b']}}");
+	}
+
+	/**
+	 * Schemas not supported by {@link StreamingJSONSchema} are still enforced by {@link JSONValidator}, using a tree
+	 * model.
+	 */
+	@Test
+	public void testFallbackToTreeValidation() throws Exception {
+		JSONValidator validator = new JSONValidator(new ResolverMap(), "classpath:/validation/jsonschema/schema-uniqueitems.json", null);
+		assertEquals(Outcome.CONTINUE, validate(validator, "[1,2,3]"));
+		assertEquals(Outcome.ABORT, validate(validator, "[1,2,1]"));
+		assertEquals(Outcome.ABORT, validate(validator, "[1,\"2\"]"));
+	}
+
+	private static Outcome validate(JSONValidator validator, String json) throws Exception {
+		return validator.validateMessage(new Exchange(null), new ByteArrayInputStream(json.getBytes(UTF8)), UTF8, "request");
+	}
+}
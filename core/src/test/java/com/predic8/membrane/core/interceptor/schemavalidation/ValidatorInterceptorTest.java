@@ -14,15 +14,26 @@
 
 package com.predic8.membrane.core.interceptor.schemavalidation;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Body;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.Interceptor;
@@ -129,6 +140,80 @@ public class ValidatorInterceptorTest {
 		assertEquals(Outcome.ABORT, getOutcome(requestTB, createSchemaValidatorInterceptor("src/test/resources/validation/order.xsd"), "/validation/invalid-order.xml"));
 	}
 
+	@Test
+	public void testStreamingSchemaValidation() throws Exception {
+		ValidatorInterceptor interceptor = createSchemaValidatorInterceptor("src/test/resources/validation/order.xsd", true);
+		assertEquals(Outcome.CONTINUE, getStreamedOutcome(requestTB, interceptor, "/validation/order.xml"));
+		requestTB.getBody().getContent();
+
+		assertEquals(Outcome.CONTINUE, getStreamedOutcome(requestTB, interceptor, "/validation/invalid-order.xml"));
+		try {
+			requestTB.getBody().getContent();
+			fail("invalid message was not aborted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStreamingForwardsBeforeEndOfInput() throws Exception {
+		final byte[] content = getContent("/validation/order.xml");
+		final int half = content.length / 2;
+		final CountDownLatch rest = new CountDownLatch(1);
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream(content, 0, half),
+				new FilterInputStream(new ByteArrayInputStream(content, half, content.length - half)) {
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						try {
+							if (!rest.await(10, TimeUnit.SECONDS))
+								throw new IOException("The end of the body was requested before its start was forwarded.");
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						return super.read(b, off, len);
+					}
+				});
+		requestTB.setBody(new Body(in, content.length));
+		exc.setRequest(requestTB);
+		assertEquals(Outcome.CONTINUE, createSchemaValidatorInterceptor("src/test/resources/validation/order.xsd", true).handleRequest(exc));
+
+		InputStream forwarded = requestTB.getBodyAsStream();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		while (received.size() < half) {
+			int length = forwarded.read(buffer, 0, Math.min(buffer.length, half - received.size()));
+			assertTrue(length > 0);
+			received.write(buffer, 0, length);
+		}
+
+		rest.countDown();
+		IOUtils.copy(forwarded, received);
+		assertArrayEquals(content, received.toByteArray());
+	}
+
+	@Test
+	public void testStreamingSOAPValidation() throws Exception {
+		ValidatorInterceptor interceptor = createValidatorInterceptor(ARTICLE_SERVICE_WSDL);
+		interceptor.setStreaming(true);
+		interceptor.init();
+		assertEquals(Outcome.CONTINUE, getStreamedOutcome(requestTB, interceptor, "/validation/articleRequest.xml"));
+		requestTB.getBody().getContent();
+
+		assertEquals(Outcome.CONTINUE, getStreamedOutcome(requestTB, interceptor, "/validation/articleRequestInvalid.xml"));
+		try {
+			requestTB.getBody().getContent();
+			fail("invalid message was not aborted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private Outcome getStreamedOutcome(Request request, Interceptor interceptor, String fileName) throws Exception {
+		request.setBody(new Body(new ByteArrayInputStream(getContent(fileName))));
+		exc.setRequest(request);
+		return interceptor.handleRequest(exc);
+	}
+
 	private Outcome getOutcome(Request request, Interceptor interceptor, String fileName) throws Exception {
 		request.setBodyContent(getContent(fileName));
 		exc.setRequest(request);
@@ -140,9 +225,14 @@ public class ValidatorInterceptorTest {
 	}
 
 	private ValidatorInterceptor createSchemaValidatorInterceptor(String schema) throws Exception {
+		return createSchemaValidatorInterceptor(schema, false);
+	}
+
+	private ValidatorInterceptor createSchemaValidatorInterceptor(String schema, boolean streaming) throws Exception {
 		ValidatorInterceptor interceptor = new ValidatorInterceptor();
 		interceptor.setResourceResolver(new ResolverMap());
 		interceptor.setSchema(schema);
+		interceptor.setStreaming(streaming);
 		interceptor.init();
 		return interceptor;
 	}
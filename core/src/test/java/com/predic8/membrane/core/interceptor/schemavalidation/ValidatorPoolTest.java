@@ -0,0 +1,85 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.schemavalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.resolver.ResolverMap;
+
+public class ValidatorPoolTest {
+
+	private ValidatorPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		Schema schema = SchemaFactory.newInstance(Constants.XSD_NS).newSchema(
+				new StreamSource(new File("src/test/resources/validation/order.xsd")));
+		pool = new ValidatorPool(Collections.singletonList(schema), new ResolverMap(), 2);
+	}
+
+	@Test
+	public void growsOnDemand() throws Exception {
+		assertEquals(0, pool.getSize());
+		List<Validator> v1 = pool.acquire();
+		List<Validator> v2 = pool.acquire();
+		assertNotSame(v1, v2);
+		assertEquals(2, pool.getSize());
+		pool.release(v1);
+		assertSame(v1, pool.acquire());
+		assertEquals(2, pool.getSize());
+		assertEquals(0, pool.getWaits());
+	}
+
+	@Test
+	public void waitsAtLimit() throws Exception {
+		final List<Validator> v1 = pool.acquire();
+		pool.acquire();
+		final AtomicReference<List<Validator>> acquired = new AtomicReference<List<Validator>>();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					acquired.set(pool.acquire());
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(100);
+		pool.release(v1);
+		t.join();
+		assertSame(v1, acquired.get());
+		assertEquals(2, pool.getSize());
+		assertEquals(1, pool.getWaits());
+		assertEquals(3, pool.getAcquisitions());
+	}
+
+}
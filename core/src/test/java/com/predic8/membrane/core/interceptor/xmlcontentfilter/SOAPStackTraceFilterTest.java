@@ -13,6 +13,9 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.xmlcontentfilter;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 
 import javax.xml.xpath.XPathExpressionException;
@@ -22,6 +25,8 @@ import org.junit.Test;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.Body;
 import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.util.ByteUtil;
 import com.predic8.membrane.test.AssertUtils;
 
 public class SOAPStackTraceFilterTest {
@@ -42,4 +47,29 @@ public class SOAPStackTraceFilterTest {
 		AssertUtils.assertContains("KEEP1", body);
 	}
 
+	@Test
+	public void responseIsFilteredWhileSent() throws Exception {
+		Exchange exc = new Exchange(null);
+		exc.setRequest(new Request());
+		exc.setResponse(Response.ok().body(
+				ByteUtil.getByteArrayData(getClass().getResourceAsStream("/xml/soap-stack-trace.xml"))).build());
+		new SOAPStackTraceFilterInterceptor().handleResponse(exc);
+		assertTrue(exc.getResponse().getHeader().isChunked());
+		String body = exc.getResponse().getBody().toString();
+		AssertUtils.assertContainsNot("SECRET", body);
+		AssertUtils.assertContains("KEEP1", body);
+	}
+
+	@Test
+	public void faultsWithoutStackTracesStayUnchanged() throws Exception {
+		byte[] fault = ("<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body><S:Fault>" +
+				"<faultcode>S:Server</faultcode><faultstring>no stack trace</faultstring>" +
+				"</S:Fault></S:Body></S:Envelope>").getBytes("UTF-8");
+		Exchange exc = new Exchange(null);
+		exc.setRequest(new Request());
+		exc.setResponse(Response.ok().body(fault).build());
+		new SOAPStackTraceFilterInterceptor().handleResponse(exc);
+		assertArrayEquals(fault, ByteUtil.getByteArrayData(exc.getResponse().getBodyAsStream()));
+	}
+
 }
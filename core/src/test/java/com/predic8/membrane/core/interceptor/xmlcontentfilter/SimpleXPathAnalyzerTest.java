@@ -60,4 +60,25 @@ public class SimpleXPathAnalyzerTest {
 		assertGetElement("//*[local-name()='a' and namespace-uri()='b']", new QName("b", "a"));
 	}
 
+	private void assertGetExistingElement(String xpath, QName expectedReturnValue) {
+		Assert.assertEquals(expectedReturnValue,
+				new SimpleXPathAnalyzer().getExistingElement(new SimpleXPathParser().parse(xpath)));
+	}
+
+	@Test
+	public void testGetExistingElement() {
+		assertGetExistingElement("//a", new QName("a"));
+		assertGetExistingElement(" // a ", new QName("a"));
+		assertGetExistingElement("//a[namespace-uri()='b']", new QName("b", "a"));
+		assertGetExistingElement("//*[local-name()='a']", new QName("*", "a"));
+		assertGetExistingElement("//*[local-name()='a' and namespace-uri()='b']", new QName("b", "a"));
+		assertGetExistingElement("//*", null);
+		assertGetExistingElement("//a[@b]", null);
+		assertGetExistingElement("//a/b", null);
+		assertGetExistingElement("//p:a", null);
+		assertGetExistingElement("//a[text()='b']", null);
+		assertGetExistingElement("//a[namespace-uri()!='b']", null);
+		assertGetExistingElement("//*[local-name()='a' or namespace-uri()='b']", null);
+	}
+
 }
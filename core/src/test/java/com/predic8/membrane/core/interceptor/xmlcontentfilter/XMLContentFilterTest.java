@@ -14,6 +14,7 @@
 package com.predic8.membrane.core.interceptor.xmlcontentfilter;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 import javax.xml.xpath.XPathExpressionException;
 
@@ -51,6 +52,58 @@ public class XMLContentFilterTest {
 		XMLAssert.assertXMLEqual(DOC, applyXPath("//b[@c='2']"));
 	}
 
+	@Test
+	public void testStreamingRemoval() throws XPathExpressionException, SAXException, IOException {
+		Assert.assertNotNull(XMLContentFilter.createElementRemover("//b"));
+		Assert.assertNotNull(XMLContentFilter.createElementRemover("//*[local-name()='b'] | //c[namespace-uri()='http://d/']"));
+		Assert.assertNull(XMLContentFilter.createElementRemover("//b[@c]"));
+		Assert.assertNull(XMLContentFilter.createElementRemover("//b/c"));
+
+		String doc = "<a xmlns:x=\"http://d/\"><b><b/></b><x:b/><c>1</c><x:c>2</x:c><d>&amp;</d></a>";
+		XMLAssert.assertXMLEqual("<a xmlns:x=\"http://d/\"><x:b/><x:c>2</x:c><d>&amp;</d></a>",
+				applyXPath(doc, "//b | //c"));
+		XMLAssert.assertXMLEqual("<a xmlns:x=\"http://d/\"><c>1</c><d>&amp;</d></a>",
+				applyXPath(doc, "//*[local-name()='b'] | //c[namespace-uri()='http://d/']"));
+	}
+
+	@Test
+	public void testStreamingRemovalLeavesUnmatchedMessagesUnchanged() throws XPathExpressionException, IOException {
+		String doc = "<?xml version='1.0' encoding='ISO-8859-1'?><a>\u00e4</a>";
+		Message m = new Request();
+		m.setBody(new Body(doc.getBytes(Charset.forName("ISO-8859-1"))));
+		new XMLContentFilter("//b").removeMatchingElements(m);
+		Assert.assertArrayEquals(doc.getBytes(Charset.forName("ISO-8859-1")), m.getBody().getContent());
+
+		Assert.assertEquals("<a><b></a>", applyXPath("<a><b></a>", "//b"));
+	}
+
+	@Test
+	public void testStreamingRemovalConvertsEncoding() throws XPathExpressionException, IOException {
+		String doc = "<?xml version='1.0' encoding='ISO-8859-1'?><a>\u00e4<b/></a>";
+		Message m = new Request();
+		m.setBody(new Body(doc.getBytes(Charset.forName("ISO-8859-1"))));
+		new XMLContentFilter("//b").removeMatchingElements(m);
+		String result = new String(m.getBody().getContent(), "UTF-8");
+		Assert.assertTrue(result.contains("UTF-8"));
+		Assert.assertTrue(result.contains("<a>\u00e4</a>"));
+	}
+
+	@Test
+	public void testStreamingRemovalWhileSent() throws XPathExpressionException, SAXException, IOException {
+		Message m = getMessage();
+		new XMLContentFilter("//b").removeMatchingElements(m, true);
+		Assert.assertTrue(m.getHeader().isChunked());
+		Assert.assertFalse(m.getBody().isRead());
+		XMLAssert.assertXMLEqual("<a/>", m.getBody().toString());
+	}
+
+	private String applyXPath(String doc, String xpath) throws XPathExpressionException {
+		Message m = new Request();
+		m.setBody(new Body(doc.getBytes()));
+		new XMLContentFilter(xpath).removeMatchingElements(m);
+		return m.getBody().toString();
+	}
+
 	public void assertFastCheck(String xpath) {
 		// if createElementFinder is not null, a (fast) StAX parser can be used
 		// to run a first check whether the XPath expression has any chance of succeeding
@@ -15,11 +15,25 @@
 package com.predic8.membrane.core.interceptor.xmlprotection;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Body;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.util.ByteUtil;
 import com.predic8.membrane.core.util.MessageUtil;
@@ -54,5 +68,79 @@ public class XMLProtectionInterceptorTest {
 		runOn("/xml/not-wellformed.xml", false);
 	}
 
+	@Test
+	public void testLimitExceeded() throws Exception {
+		interceptor.setMaxDepth(1);
+		runOn("/customer.xml", false);
+		assertEquals(400, exc.getResponse().getStatusCode());
+	}
+
+	private void streamOn(String xml) throws Exception {
+		interceptor.setStreaming(true);
+		exc.getRequest().getHeader().setContentType("application/xml");
+		exc.getRequest().setBody(new Body(new ByteArrayInputStream(xml.getBytes(Constants.UTF_8))));
+		assertEquals(Outcome.CONTINUE, interceptor.handleRequest(exc));
+		assertTrue(exc.getRequest().getHeader().isChunked());
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		streamOn("<!DOCTYPE a><a><b/></a>");
+		assertEquals("<a><b></b></a>", new String(exc.getRequest().getBody().getContent(), Constants.UTF_8));
+	}
+
+	@Test
+	public void testStreamingForwardsBeforeEndOfInput() throws Exception {
+		StringBuilder xml = new StringBuilder("<a>");
+		for (int i = 0; i < 10000; i++)
+			xml.append("<b>").append(i).append("</b>");
+		xml.append("</a>");
+		byte[] content = xml.toString().getBytes(Constants.UTF_8);
+		int half = content.length / 2;
+		final CountDownLatch rest = new CountDownLatch(1);
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream(content, 0, half),
+				new FilterInputStream(new ByteArrayInputStream(content, half, content.length - half)) {
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						try {
+							if (!rest.await(10, TimeUnit.SECONDS))
+								throw new IOException("The end of the body was requested before its start was forwarded.");
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						return super.read(b, off, len);
+					}
+				});
+		interceptor.setStreaming(true);
+		exc.getRequest().getHeader().setContentType("application/xml");
+		exc.getRequest().setBody(new Body(in, content.length));
+		assertEquals(Outcome.CONTINUE, interceptor.handleRequest(exc));
+
+		InputStream forwarded = exc.getRequest().getBodyAsStream();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		while (received.size() < 8192) {
+			int length = forwarded.read(buffer);
+			assertTrue(length > 0);
+			received.write(buffer, 0, length);
+		}
+
+		rest.countDown();
+		IOUtils.copy(forwarded, received);
+		assertEquals(xml.toString(), new String(received.toByteArray(), Constants.UTF_8));
+	}
+
+	@Test
+	public void testStreamingLimitExceeded() throws Exception {
+		interceptor.setMaxDepth(1);
+		streamOn("<a><b/></a>");
+		try {
+			exc.getRequest().getBody().read();
+			fail("the transfer should have been aborted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
 
 }
@@ -52,6 +52,21 @@ public class XMLProtectorTest extends TestCase {
 		return valid;
 	}
 
+	private boolean runOnString(String xml, boolean removeDTD, int maxDepth, int maxElementCount, int maxTextLength,
+			int maxNamespaceCount, int maxEntityExpansion) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		xmlProtector = new XMLProtector(new OutputStreamWriter(baos, Constants.UTF_8), removeDTD, 1000, 1000);
+		xmlProtector.setMaxDepth(maxDepth);
+		xmlProtector.setMaxElementCount(maxElementCount);
+		xmlProtector.setMaxTextLength(maxTextLength);
+		xmlProtector.setMaxNamespaceCount(maxNamespaceCount);
+		xmlProtector.setMaxEntityExpansion(maxEntityExpansion);
+		input = xml.getBytes(Constants.UTF_8);
+		boolean valid = xmlProtector.protect(new InputStreamReader(new ByteArrayInputStream(input), Constants.UTF_8));
+		output = valid ? baos.toByteArray() : null;
+		return valid;
+	}
+
 	private void reverse() {
 		// To reverse the input Stream
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -106,4 +121,48 @@ public class XMLProtectorTest extends TestCase {
 		assertFalse(runOn("/xml/many-attributes.xml"));
 	}
 
+	public void testDepth() throws Exception {
+		assertTrue(runOnString("<a><b><c/></b></a>", true, 3, -1, -1, -1, -1));
+		assertFalse(runOnString("<a><b><c><d/></c></b></a>", true, 3, -1, -1, -1, -1));
+	}
+
+	public void testElementCount() throws Exception {
+		assertTrue(runOnString("<a><b/><b/></a>", true, -1, 3, -1, -1, -1));
+		assertFalse(runOnString("<a><b/><b/><b/></a>", true, -1, 3, -1, -1, -1));
+	}
+
+	public void testTextLength() throws Exception {
+		assertTrue(runOnString("<a b=\"1234\">1234<b/>1234</a>", true, -1, -1, 4, -1, -1));
+		assertFalse(runOnString("<a>12345</a>", true, -1, -1, 4, -1, -1));
+		assertFalse(runOnString("<a>12<![CDATA[345]]></a>", true, -1, -1, 4, -1, -1));
+		assertFalse(runOnString("<a b=\"12345\"/>", true, -1, -1, 4, -1, -1));
+	}
+
+	public void testNamespaceCount() throws Exception {
+		assertTrue(runOnString("<a xmlns=\"urn:a\" xmlns:b=\"urn:b\"/>", true, -1, -1, -1, 2, -1));
+		assertFalse(runOnString("<a xmlns=\"urn:a\" xmlns:b=\"urn:b\" xmlns:c=\"urn:c\"/>", true, -1, -1, -1, 2, -1));
+	}
+
+	public void testEntityExpansionLimit() throws Exception {
+		String dtd = "<!DOCTYPE a [<!ENTITY x \"0123456789\">]>";
+		assertTrue(runOnString(dtd + "<a>&x;&x;</a>", false, -1, -1, -1, -1, 25));
+		assertFalse(runOnString(dtd + "<a>&x;&x;&x;</a>", false, -1, -1, -1, -1, 25));
+		// without the DTD, the receiver cannot expand the entities
+		assertTrue(runOnString(dtd + "<a>&x;&x;&x;</a>", true, -1, -1, -1, -1, 25));
+		assertFalse(runOnString("<!DOCTYPE a [<!ENTITY x \"&y;\"><!ENTITY y \"&x;\">]><a/>", false, -1, -1, -1, -1, 25));
+	}
+
+	public void testExpandingEntitiesLimit() throws Exception {
+		input = ByteUtil.getByteArrayData(this.getClass().getResourceAsStream("/xml/entity-expansion.lmx"));
+		reverse();
+		// the entities declared expand to more than 10^11 characters
+		assertFalse(runOnString(new String(input, Constants.UTF_8), false, -1, -1, -1, -1, 100000));
+	}
+
+	public void testNamespacesAndSpecialCharacters() throws Exception {
+		String xml = "<s:a xmlns:s=\"urn:s\" xmlns=\"urn:d\" s:x=\"1\" y=\"&amp;&lt;\"><b>t&amp;</b><!--k--><?p d?></s:a>";
+		assertTrue(runOnString(xml, true, -1, -1, -1, -1, -1));
+		assertEquals(xml, new String(output, Constants.UTF_8));
+	}
+
 }
@@ -13,6 +13,7 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.xslt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
 import javax.xml.xpath.XPath;
@@ -26,6 +27,9 @@ import org.xml.sax.InputSource;
 
 import com.predic8.membrane.core.HttpRouter;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.PlainBodyTransferrer;
+import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 
 public class XSLTInterceptorTest extends TestCase {
@@ -72,6 +76,26 @@ public class XSLTInterceptorTest extends TestCase {
 		assertXPath("/person/company", "predic8");
 	}
 
+	@Test
+	public void testStreamedResponse() throws Exception {
+		exc = new Exchange(null);
+		exc.setRequest(new Request.Builder().get("/customer").buildExchange().getRequest());
+		exc.setResponse(Response.ok().body(getClass().getResourceAsStream("/customer.xml"), true).build());
+
+		XSLTInterceptor i = new XSLTInterceptor();
+		i.setXslt("classpath:/customer2person.xsl");
+		i.init(new HttpRouter());
+		i.handleResponse(exc);
+
+		assertEquals(Header.CHUNKED, exc.getResponse().getHeader().getFirstValue(Header.TRANSFER_ENCODING));
+		assertFalse(exc.getResponse().getBody().isRead());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		exc.getResponse().getBody().write(new PlainBodyTransferrer(baos));
+		assertEquals(exc.getResponse().getBodyAsStringDecoded(), new String(baos.toByteArray(), "UTF-8"));
+		assertXPath("/person/name/first", "Rick");
+	}
+
 	@SuppressWarnings("unused")
 	private void printBodyContent() throws Exception {
 		InputStream i = exc.getResponse().getBodyAsStream();
@@ -64,6 +64,25 @@ public class ReassembleTest {
 		XMLAssert.assertXMLEqual(expected, actual);
 	}
 
+	@Test
+	public void spillToTemporaryFiles() throws Exception {
+		// every part is kept in a temporary file
+		Message m = new XOPReconstitutor(0).getReconstitutedMessage(getResponse());
+		String expected = IOUtils.toString(getClass().getResourceAsStream("/multipart/embedded-byte-array-reassembled.xml"));
+
+		XMLAssert.assertXMLEqual(expected, IOUtils.toString(m.getBodyAsStream()));
+	}
+
+	@Test
+	public void repeatedStreams() throws Exception {
+		Message m = new XOPReconstitutor().getReconstitutedMessage(getResponse());
+		String first = IOUtils.toString(m.getBodyAsStream());
+		// the second stream is served from the cached result of the first one
+		String second = IOUtils.toString(m.getBodyAsStream());
+		Assert.assertEquals(first, second);
+		Assert.assertEquals(first, m.getBody().toString());
+	}
+
 	@Test
 	public void checkContentType() throws ParseException, MalformedStreamException, IOException, EndOfStreamException, XMLStreamException, FactoryConfigurationError {
 		Assert.assertEquals("text/xml",
@@ -0,0 +1,139 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CompiledArtifactCacheTest {
+
+	private final CompiledArtifactCache cache = CompiledArtifactCache.getInstance();
+	private final AtomicInteger compilations = new AtomicInteger();
+
+	private final CompiledArtifactCache.Compiler<String> compiler = new CompiledArtifactCache.Compiler<String>() {
+		@Override
+		public String compile(byte[] content) throws Exception {
+			compilations.incrementAndGet();
+			return new String(content, "UTF-8");
+		}
+	};
+
+	@Test
+	public void compilesOnce() throws Exception {
+		Object owner1 = new Object(), owner2 = new Object();
+		String a = cache.get(owner1, CompiledArtifactCache.XSLT, "test:compilesOnce", "a".getBytes("UTF-8"), compiler);
+		String b = cache.get(owner2, CompiledArtifactCache.XSLT, "test:compilesOnce", "a".getBytes("UTF-8"), compiler);
+		assertSame(a, b);
+		assertEquals(1, compilations.get());
+		cache.release(owner1);
+		cache.release(owner2);
+	}
+
+	@Test
+	public void recompilesChangedContent() throws Exception {
+		Object owner = new Object();
+		String a = cache.get(owner, CompiledArtifactCache.XSLT, "test:changed", "a".getBytes("UTF-8"), compiler);
+		String b = cache.get(owner, CompiledArtifactCache.XSLT, "test:changed", "b".getBytes("UTF-8"), compiler);
+		assertNotSame(a, b);
+		assertEquals("b", b);
+		assertEquals(2, compilations.get());
+		cache.release(owner);
+	}
+
+	@Test
+	public void releasesOutdatedVersions() throws Exception {
+		Object owner = new Object();
+		cache.get(owner, CompiledArtifactCache.XSLT, "test:outdated", "a".getBytes("UTF-8"), compiler);
+		int size = cache.getSize();
+		cache.get(owner, CompiledArtifactCache.XSLT, "test:outdated", "b".getBytes("UTF-8"), compiler);
+		assertEquals(size, cache.getSize());
+		cache.get(owner, CompiledArtifactCache.XSLT, "test:outdated", "a".getBytes("UTF-8"), compiler);
+		assertEquals(3, compilations.get());
+		cache.release(owner);
+	}
+
+	@Test
+	public void keepsOutdatedVersionsUsedByOtherOwners() throws Exception {
+		Object owner1 = new Object(), owner2 = new Object();
+		cache.get(owner1, CompiledArtifactCache.XSLT, "test:outdated2", "a".getBytes("UTF-8"), compiler);
+		cache.get(owner2, CompiledArtifactCache.XSLT, "test:outdated2", "a".getBytes("UTF-8"), compiler);
+		cache.get(owner1, CompiledArtifactCache.XSLT, "test:outdated2", "b".getBytes("UTF-8"), compiler);
+		assertEquals("a", cache.get(owner2, CompiledArtifactCache.XSLT, "test:outdated2", "a".getBytes("UTF-8"), compiler));
+		assertEquals(2, compilations.get());
+		cache.release(owner1);
+		cache.release(owner2);
+	}
+
+	@Test
+	public void sharesBetweenResolversConfiguredAlike() throws Exception {
+		File file = File.createTempFile("compiled-artifact-cache", ".xsl");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			try {
+				fos.write("a".getBytes("UTF-8"));
+			} finally {
+				fos.close();
+			}
+			// e.g. the resolvers of a router and of the router replacing it on a hot deployment
+			ResolverMap resolver1 = new ResolverMap(), resolver2 = new ResolverMap();
+			String location = file.getAbsolutePath();
+			Object owner1 = new Object(), owner2 = new Object(), owner3 = new Object();
+			String a = cache.get(owner1, CompiledArtifactCache.XSLT, resolver1, location, compiler);
+			assertSame(a, cache.get(owner2, CompiledArtifactCache.XSLT, resolver2, location, compiler));
+			assertEquals(1, compilations.get());
+
+			ResolverMap resolver3 = new ResolverMap();
+			resolver3.addSchemaResolver(new FileSchemaResolver() {
+			});
+			cache.get(owner3, CompiledArtifactCache.XSLT, resolver3, location, compiler);
+			assertEquals(2, compilations.get());
+			cache.release(owner1);
+			cache.release(owner2);
+			cache.release(owner3);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void separatesTypes() throws Exception {
+		cache.get(null, CompiledArtifactCache.XSD, "test:types", "a".getBytes("UTF-8"), compiler);
+		cache.get(null, CompiledArtifactCache.SCHEMATRON, "test:types", "a".getBytes("UTF-8"), compiler);
+		assertEquals(2, compilations.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failedCompilationIsNotCached() throws Exception {
+		CompiledArtifactCache.Compiler<String> failing = new CompiledArtifactCache.Compiler<String>() {
+			@Override
+			public String compile(byte[] content) throws Exception {
+				throw new IllegalStateException();
+			}
+		};
+		try {
+			cache.get(null, CompiledArtifactCache.XSD, "test:failing", "a".getBytes("UTF-8"), failing);
+		} catch (IllegalStateException e) {
+			// ignore
+		}
+		cache.get(null, CompiledArtifactCache.XSD, "test:failing", "a".getBytes("UTF-8"), failing);
+	}
+
+}
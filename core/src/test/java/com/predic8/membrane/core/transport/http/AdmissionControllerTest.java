@@ -0,0 +1,153 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.rules.AbstractProxy.Priority;
+
+public class AdmissionControllerTest {
+
+	private static class Client extends Thread {
+		private final AdmissionController admission;
+		private final Priority priority;
+		private final List<Priority> admitted;
+		volatile Boolean result;
+
+		public Client(AdmissionController admission, Priority priority, List<Priority> admitted) {
+			this.admission = admission;
+			this.priority = priority;
+			this.admitted = admitted;
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = admission.acquire(priority);
+				if (result)
+					admitted.add(priority);
+			} catch (InterruptedException e) {
+				result = false;
+			}
+		}
+	}
+
+	private static AdmissionController create(int maxConcurrentRequests, int maxQueueSize) {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConcurrentRequests(maxConcurrentRequests);
+		admission.setMaxQueueSize(maxQueueSize);
+		return admission;
+	}
+
+	private static void awaitQueued(AdmissionController admission, int queued) throws InterruptedException {
+		for (int i = 0; i < 500 && admission.getQueued() != queued; i++)
+			Thread.sleep(10);
+		assertEquals(queued, admission.getQueued());
+	}
+
+	@Test
+	public void higherPriorityIsAdmittedFirst() throws Exception {
+		AdmissionController admission = create(1, 10);
+		admission.setTarget(10000);
+		List<Priority> admitted = Collections.synchronizedList(new ArrayList<Priority>());
+		assertTrue(admission.acquire(Priority.NORMAL));
+
+		Client bulk = new Client(admission, Priority.BULK, admitted);
+		awaitQueued(admission, 1);
+		Client normal = new Client(admission, Priority.NORMAL, admitted);
+		awaitQueued(admission, 2);
+		Client critical = new Client(admission, Priority.CRITICAL, admitted);
+		awaitQueued(admission, 3);
+
+		admission.release();
+		critical.join(5000);
+		admission.release();
+		normal.join(5000);
+		admission.release();
+		bulk.join(5000);
+
+		assertEquals(3, admitted.size());
+		assertEquals(Priority.CRITICAL, admitted.get(0));
+		assertEquals(Priority.NORMAL, admitted.get(1));
+		assertEquals(Priority.BULK, admitted.get(2));
+		assertEquals(1, admission.getInflight());
+	}
+
+	@Test
+	public void fullQueueShedsLowerPriority() throws Exception {
+		AdmissionController admission = create(1, 1);
+		List<Priority> admitted = Collections.synchronizedList(new ArrayList<Priority>());
+		assertTrue(admission.acquire(Priority.NORMAL));
+
+		Client bulk = new Client(admission, Priority.BULK, admitted);
+		awaitQueued(admission, 1);
+		Client critical = new Client(admission, Priority.CRITICAL, admitted);
+		bulk.join(5000);
+		assertFalse(bulk.result);
+		assertEquals(1, admission.getShed());
+		awaitQueued(admission, 1);
+
+		// nothing lower to replace
+		assertFalse(admission.acquire(Priority.NORMAL));
+		assertEquals(1, admission.getRejected());
+
+		admission.release();
+		critical.join(5000);
+		assertTrue(critical.result);
+	}
+
+	@Test
+	public void queuedRequestTimesOut() throws Exception {
+		AdmissionController admission = create(1, 10);
+		admission.setMaxQueueTime(100);
+		assertTrue(admission.acquire(Priority.CRITICAL));
+		assertFalse(admission.acquire(Priority.CRITICAL));
+		assertEquals(1, admission.getTimedOut());
+		assertEquals(0, admission.getQueued());
+	}
+
+	@Test
+	public void persistentQueueingDelayIsShed() throws Exception {
+		AdmissionController admission = create(1, 100);
+		admission.setTarget(5);
+		admission.setInterval(50);
+		List<Priority> admitted = Collections.synchronizedList(new ArrayList<Priority>());
+		assertTrue(admission.acquire(Priority.BULK));
+
+		// keep a standing queue: each request is only admitted after 20ms, exceeding the target
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < 30; i++)
+			clients.add(new Client(admission, Priority.BULK, admitted));
+		awaitQueued(admission, 30);
+		while (admission.getQueued() > 0) {
+			Thread.sleep(20);
+			admission.release();
+		}
+		for (Client client : clients)
+			client.join(5000);
+
+		assertTrue(admission.getShed() > 0);
+		assertEquals(30, admitted.size() + admission.getShed());
+	}
+}
@@ -0,0 +1,216 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.CircuitBreaker.State;
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+
+public class CircuitBreakerTest {
+
+	private static final long SLOW = 2000000000L;
+
+	private static CircuitBreakerConfiguration createConfiguration() {
+		CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+		config.setWindowSize(4);
+		config.setMinimumCalls(4);
+		config.setFailureRateThreshold(50);
+		config.setSlowCallDuration(1000);
+		config.setSlowCallRateThreshold(75);
+		config.setOpenDuration(100);
+		config.setHalfOpenCalls(2);
+		return config;
+	}
+
+	private static void call(CircuitBreaker breaker, boolean failure, long duration) {
+		assertTrue(breaker.tryAcquire());
+		breaker.record(failure, duration);
+	}
+
+	@Test
+	public void opensOnFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker("localhost:80", createConfiguration());
+		call(breaker, true, 0);
+		call(breaker, true, 0);
+		call(breaker, false, 0);
+		// not enough calls yet
+		assertEquals(State.CLOSED, breaker.getState());
+		call(breaker, false, 0);
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		assertEquals(1, breaker.getRejected());
+	}
+
+	@Test
+	public void slidingWindowForgetsOldCalls() {
+		CircuitBreaker breaker = new CircuitBreaker("localhost:80", createConfiguration());
+		call(breaker, true, 0);
+		for (int i = 0; i < 10; i++)
+			call(breaker, false, 0);
+		call(breaker, true, 0);
+		assertEquals(25, breaker.getFailureRate());
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void opensOnSlowCallRate() {
+		CircuitBreaker breaker = new CircuitBreaker("localhost:80", createConfiguration());
+		call(breaker, false, SLOW);
+		call(breaker, false, SLOW);
+		call(breaker, false, 0);
+		call(breaker, false, SLOW);
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void halfOpenClosesAfterSuccessfulTrials() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("localhost:80", createConfiguration());
+		for (int i = 0; i < 4; i++)
+			call(breaker, true, 0);
+		assertEquals(State.OPEN, breaker.getState());
+		Thread.sleep(150);
+
+		assertTrue(breaker.tryAcquire());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		// only two trial calls are permitted
+		assertFalse(breaker.tryAcquire());
+		breaker.record(false, 0);
+		breaker.record(false, 0);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getCalls());
+	}
+
+	@Test
+	public void halfOpenReopensOnFailure() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("localhost:80", createConfiguration());
+		for (int i = 0; i < 4; i++)
+			call(breaker, true, 0);
+		Thread.sleep(150);
+		call(breaker, true, 0);
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getOpened());
+	}
+
+	@Test
+	public void keys() {
+		assertEquals("localhost:3062", CircuitBreakers.getKey("http://localhost:3062/foo"));
+		assertEquals("example.com:80", CircuitBreakers.getKey("http://example.com/foo"));
+		assertEquals("example.com:443", CircuitBreakers.getKey("https://example.com/foo"));
+		assertEquals("example.com:443", CircuitBreakers.getKey("example.com:443"));
+	}
+
+	@Test
+	public void skipsOpenDestinations() throws Exception {
+		HttpRouter backend = new HttpRouter();
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3063), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				exc.setResponse(Response.ok().body("ok").build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		backend.init();
+		try {
+			HttpClientConfiguration config = new HttpClientConfiguration();
+			CircuitBreakerConfiguration cbc = createConfiguration();
+			cbc.setMinimumCalls(2);
+			cbc.setOpenDuration(60000);
+			config.setCircuitBreaker(cbc);
+			HttpClient client = new HttpClient(config);
+
+			// nothing listens on port 3062
+			for (int i = 0; i < 2; i++) {
+				Exchange exc = call(client, "http://localhost:3062/", "http://localhost:3063/");
+				assertEquals(200, exc.getResponse().getStatusCode());
+				assertEquals(2, exc.getNodeAttempts());
+			}
+			assertEquals(State.OPEN, client.getCircuitBreakers().getBreaker("localhost", 3062).getState());
+
+			Exchange exc = call(client, "http://localhost:3062/", "http://localhost:3063/");
+			assertEquals(200, exc.getResponse().getStatusCode());
+			assertEquals(1, exc.getNodeAttempts());
+			assertEquals(1, exc.getNodeIndex(0));
+			assertEquals(200, exc.getNodeStatusCode(0));
+
+			try {
+				call(client, "http://localhost:3062/");
+				fail("Expected the circuit to be open.");
+			} catch (CircuitBreakerOpenException e) {
+				// expected
+			}
+		} finally {
+			backend.shutdown();
+		}
+	}
+
+	@Test
+	public void failuresAreChargedToTheContactedDestination() throws Exception {
+		HttpClientConfiguration config = new HttpClientConfiguration();
+		CircuitBreakerConfiguration cbc = createConfiguration();
+		cbc.setMinimumCalls(2);
+		cbc.setOpenDuration(60000);
+		config.setCircuitBreaker(cbc);
+		HttpClient client = new HttpClient(config);
+		CircuitBreaker open = client.getCircuitBreakers().getBreaker("http://localhost:3063/");
+		call(open, true, 0);
+		call(open, true, 0);
+		assertEquals(State.OPEN, open.getState());
+
+		// nothing listens on port 3062
+		Exchange exc = new Request.Builder().get("http://localhost:3063/").buildExchange();
+		exc.getDestinations().clear();
+		exc.getDestinations().addAll(Arrays.asList("http://localhost:3063/", "http://localhost:3062/"));
+		try {
+			client.call(exc);
+			fail("Expected the connection to be refused.");
+		} catch (ConnectException e) {
+			// expected
+		}
+		assertTrue(exc.getNodeAttempts() > 0);
+		for (int i = 0; i < exc.getNodeAttempts(); i++) {
+			assertEquals(1, exc.getNodeIndex(i));
+			assertTrue(exc.getNodeException(i) instanceof ConnectException);
+		}
+	}
+
+	private static Exchange call(HttpClient client, String... destinations) throws Exception {
+		Exchange exc = new Request.Builder().get(destinations[0]).buildExchange();
+		exc.getDestinations().clear();
+		exc.getDestinations().addAll(Arrays.asList(destinations));
+		client.call(exc);
+		return exc;
+	}
+
+}
@@ -0,0 +1,84 @@
+/* Copyright 2015 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jackson.JsonLoader;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+import com.predic8.membrane.core.interceptor.schemavalidation.StreamingJSONSchema;
+
+/**
+ * Compares validating a large JSON document using a tree model with validating it while it is parsed.
+ */
+public class JSONValidatorPerformance {
+
+	private static final int RUNS = 50;
+
+	private JsonNode schemaNode;
+	private byte[] document;
+
+	@Before
+	public void setUp() throws Exception {
+		schemaNode = JsonLoader.fromReader(new InputStreamReader(getClass().getResourceAsStream(
+				"/validation/jsonschema/schema2001.json")));
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 20000; i++) {
+			if (i > 0)
+				sb.append(",");
+			sb.append("{\"id\":" + i + ",\"name\":\"FORD Fusion 1.25 Style\",\"price\":8990.00," +
+					"\"tags\":[\"black\",\"metallic\",\"gasoline\"],\"weight\":1145,\"co2\":140,\"transmission\":\"manual\"}");
+		}
+		sb.append("]");
+		document = sb.toString().getBytes("UTF-8");
+		schemaNode = JsonLoader.fromString("{\"type\":\"array\",\"items\":" + schemaNode + "}");
+	}
+
+	@Test
+	public void tree() throws Exception {
+		JsonSchema schema = JsonSchemaFactory.byDefault().getJsonSchema(schemaNode);
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < RUNS; i++) {
+			JsonNode node = JsonLoader.fromReader(new InputStreamReader(new ByteArrayInputStream(document), "UTF-8"));
+			if (!schema.validateUnchecked(node).isSuccess())
+				throw new AssertionError();
+		}
+		System.out.println("tree: " + (System.currentTimeMillis() - time) / RUNS + " ms per " +
+				document.length / 1024 + " KB document");
+	}
+
+	@Test
+	public void streaming() throws Exception {
+		StreamingJSONSchema schema = StreamingJSONSchema.compile(schemaNode);
+		JsonFactory factory = new JsonFactory();
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < RUNS; i++) {
+			JsonParser parser = factory.createParser(new InputStreamReader(new ByteArrayInputStream(document), "UTF-8"));
+			if (!schema.validate(parser).isEmpty())
+				throw new AssertionError();
+			parser.close();
+		}
+		System.out.println("streaming: " + (System.currentTimeMillis() - time) / RUNS + " ms per " +
+				document.length / 1024 + " KB document");
+	}
+}